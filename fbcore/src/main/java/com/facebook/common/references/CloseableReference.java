@@ -81,8 +81,14 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
      * so that the reference is valid during execution of this method.
      */
     private CloseableReference(SharedReference<T> sharedReference) {
+        this(sharedReference, true);
+    }
+
+    private CloseableReference(SharedReference<T> sharedReference, boolean addReference) {
         mSharedReference = Preconditions.checkNotNull(sharedReference);
-        sharedReference.addReference();
+        if (addReference) {
+            sharedReference.addReference();
+        }
     }
 
     private CloseableReference(T t, ResourceReleaser<T> resourceReleaser) {
@@ -119,6 +125,16 @@ public final class CloseableReference<T> implements Cloneable, Closeable {
         }
     }
 
+    /**
+     * Constructs a CloseableReference that takes over the reference to the shared-reference held by
+     * the caller. Unlike {@link #clone}, the reference count is not increased, so closing the
+     * returned reference is all it takes to release the caller's reference.
+     */
+    public static <T> CloseableReference<T> adopt(SharedReference<T> sharedReference) {
+        Preconditions.checkArgument(SharedReference.isValid(sharedReference));
+        return new CloseableReference<T>(sharedReference, false);
+    }
+
     /**
      * Checks if the closable-reference is valid i.e. is not null, and is not closed.
      *
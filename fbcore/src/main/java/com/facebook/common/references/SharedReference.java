@@ -100,6 +100,8 @@ public class SharedReference<T> {
     // being finalized when the reference is no longer reachable.
     @GuardedBy("itself") private static final Map<Object, Integer> sLiveObjects = new IdentityHashMap<>();
     private final ResourceReleaser<T> mResourceReleaser;
+    // Whether the value is kept in sLiveObjects while referenced.
+    private final boolean mIsLiveObjectTracked;
     @GuardedBy("this") private T mValue;
     @GuardedBy("this") private int mRefCount;
 
@@ -112,10 +114,29 @@ public class SharedReference<T> {
      * @param resourceReleaser non-null ResourceReleaser for the value
      */
     public SharedReference(T value, ResourceReleaser<T> resourceReleaser) {
+        this(value, resourceReleaser, true);
+    }
+
+    /**
+     * Construct a new shared-reference that will 'own' the supplied {@code value}.
+     * The reference count will be set to 1. When the reference count decreases to zero
+     * {@code resourceReleaser} will be used to release the {@code value}
+     *
+     * @param value                non-null value to manage
+     * @param resourceReleaser     non-null ResourceReleaser for the value
+     * @param isLiveObjectTracked  whether to keep the value in the live objects until released;
+     *                             only references to values that are kept alive by some other
+     *                             tracked reference should opt out of it. Untracked references
+     *                             can be reused once released, see {@link #reuse}
+     */
+    public SharedReference(T value, ResourceReleaser<T> resourceReleaser, boolean isLiveObjectTracked) {
         mValue = Preconditions.checkNotNull(value);
         mResourceReleaser = Preconditions.checkNotNull(resourceReleaser);
+        mIsLiveObjectTracked = isLiveObjectTracked;
         mRefCount = 1;
-        addLiveReference(value);
+        if (isLiveObjectTracked) {
+            addLiveReference(value);
+        }
     }
 
     /**
@@ -192,6 +213,21 @@ public class SharedReference<T> {
         mRefCount++;
     }
 
+    /**
+     * Makes a released reference manage the given value again, with the reference count set to 1.
+     *
+     * <p> Only the untracked references can be reused, as nothing else may be holding a reference
+     * to a released shared-reference. The resource releaser stays the same.
+     *
+     * @param value non-null value to manage
+     */
+    public synchronized void reuse(T value) {
+        Preconditions.checkState(!mIsLiveObjectTracked);
+        Preconditions.checkState(mRefCount == 0);
+        mValue = Preconditions.checkNotNull(value);
+        mRefCount = 1;
+    }
+
     /**
      * Decrement the reference count for the shared reference. If the reference count drops to
      * zero,
@@ -205,7 +241,9 @@ public class SharedReference<T> {
                 mValue = null;
             }
             mResourceReleaser.release(deleted);
-            removeLiveReference(deleted);
+            if (mIsLiveObjectTracked) {
+                removeLiveReference(deleted);
+            }
         }
     }
 
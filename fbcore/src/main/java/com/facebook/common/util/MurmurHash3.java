@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.common.util;
+
+/**
+ * The x64 128-bit variant of MurmurHash3, a fast non-cryptographic hash.
+ *
+ * <p> It is good for naming things by their content where the inputs are not chosen to collide,
+ * like cache files. Use {@link SecureHashUtil} where collisions could be crafted on purpose.
+ */
+public class MurmurHash3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * Computes the 128-bit hash of the bytes, with a seed of 0.
+     *
+     * @return the two 64-bit halves of the hash
+     */
+    public static long[] hash128(byte[] bytes) {
+        return hash128(bytes, 0, bytes.length, 0);
+    }
+
+    /**
+     * Computes the 128-bit hash of a range of the bytes.
+     *
+     * @return the two 64-bit halves of the hash
+     */
+    public static long[] hash128(byte[] bytes, int offset, int length, int seed) {
+        long h1 = seed & 0xFFFFFFFFL;
+        long h2 = seed & 0xFFFFFFFFL;
+        final int end = offset + (length & ~15);
+        for (int i = offset; i < end; i += 16) {
+            long k1 = getLongLittleEndian(bytes, i);
+            long k2 = getLongLittleEndian(bytes, i + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+            case 15:
+                k2 ^= (long) (bytes[end + 14] & 0xFF) << 48;
+            case 14:
+                k2 ^= (long) (bytes[end + 13] & 0xFF) << 40;
+            case 13:
+                k2 ^= (long) (bytes[end + 12] & 0xFF) << 32;
+            case 12:
+                k2 ^= (long) (bytes[end + 11] & 0xFF) << 24;
+            case 11:
+                k2 ^= (long) (bytes[end + 10] & 0xFF) << 16;
+            case 10:
+                k2 ^= (long) (bytes[end + 9] & 0xFF) << 8;
+            case 9:
+                k2 ^= (long) (bytes[end + 8] & 0xFF);
+                h2 ^= mixK2(k2);
+            case 8:
+                k1 ^= (long) (bytes[end + 7] & 0xFF) << 56;
+            case 7:
+                k1 ^= (long) (bytes[end + 6] & 0xFF) << 48;
+            case 6:
+                k1 ^= (long) (bytes[end + 5] & 0xFF) << 40;
+            case 5:
+                k1 ^= (long) (bytes[end + 4] & 0xFF) << 32;
+            case 4:
+                k1 ^= (long) (bytes[end + 3] & 0xFF) << 24;
+            case 3:
+                k1 ^= (long) (bytes[end + 2] & 0xFF) << 16;
+            case 2:
+                k1 ^= (long) (bytes[end + 1] & 0xFF) << 8;
+            case 1:
+                k1 ^= (long) (bytes[end] & 0xFF);
+                h1 ^= mixK1(k1);
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] {h1, h2};
+    }
+
+    /**
+     * Computes the 128-bit hash of the bytes, with a seed of 0, as 32 lowercase hex digits. The
+     * digits are those of the little-endian bytes of each half in turn, which is the canonical
+     * representation of the hash.
+     */
+    public static String makeHash128Hex(byte[] bytes) {
+        long[] hash = hash128(bytes);
+        char[] chars = new char[32];
+        appendHexLittleEndian(hash[0], chars, 0);
+        appendHexLittleEndian(hash[1], chars, 16);
+        return new String(chars);
+    }
+
+    private static void appendHexLittleEndian(long value, char[] chars, int offset) {
+        for (int i = 0; i < 8; i++) {
+            int b = (int) (value >>> (8 * i)) & 0xFF;
+            chars[offset + 2 * i] = (char) SecureHashUtil.HEX_CHAR_TABLE[b >>> 4];
+            chars[offset + 2 * i + 1] = (char) SecureHashUtil.HEX_CHAR_TABLE[b & 0xF];
+        }
+    }
+
+    private static long getLongLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL)
+                | (bytes[offset + 1] & 0xFFL) << 8
+                | (bytes[offset + 2] & 0xFFL) << 16
+                | (bytes[offset + 3] & 0xFFL) << 24
+                | (bytes[offset + 4] & 0xFFL) << 32
+                | (bytes[offset + 5] & 0xFFL) << 40
+                | (bytes[offset + 6] & 0xFFL) << 48
+                | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -17,9 +17,15 @@ import java.security.NoSuchAlgorithmException;
 
 /**
  * Static methods for secure hashing.
+ *
+ * <p> The digests are kept per thread, as looking them up is more expensive than hashing short
+ * inputs.
  */
 public class SecureHashUtil {
 
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST = newDigestThreadLocal("SHA-1");
+    private static final ThreadLocal<MessageDigest> MD5_DIGEST = newDigestThreadLocal("MD5");
+
     public static String makeSHA1Hash(String text) {
         try {
             return makeSHA1Hash(text.getBytes("utf-8"));
@@ -30,26 +36,20 @@ public class SecureHashUtil {
 
     public static String makeSHA1Hash(byte[] bytes) {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            MessageDigest md = SHA1_DIGEST.get();
             md.update(bytes, 0, bytes.length);
             byte[] sha1hash = md.digest();
             return convertToHex(sha1hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
     }
 
     public static String makeSHA1HashBase64(byte[] bytes) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.update(bytes, 0, bytes.length);
-            byte[] sha1hash = md.digest();
-            return Base64.encodeToString(sha1hash, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        MessageDigest md = SHA1_DIGEST.get();
+        md.update(bytes, 0, bytes.length);
+        byte[] sha1hash = md.digest();
+        return Base64.encodeToString(sha1hash, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
     }
 
     public static String makeMD5Hash(String text) {
@@ -62,12 +62,10 @@ public class SecureHashUtil {
 
     public static String makeMD5Hash(byte[] bytes) {
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
+            MessageDigest md = MD5_DIGEST.get();
             md.update(bytes, 0, bytes.length);
             byte[] sha1hash = md.digest();
             return convertToHex(sha1hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
@@ -85,4 +83,17 @@ public class SecureHashUtil {
         }
         return sb.toString();
     }
+
+    private static ThreadLocal<MessageDigest> newDigestThreadLocal(final String algorithm) {
+        return new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
 }
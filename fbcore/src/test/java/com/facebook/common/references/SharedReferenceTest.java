@@ -99,6 +99,38 @@ public class SharedReferenceTest {
     Mockito.verify(releaser, Mockito.times(1)).release(thing);
   }
 
+  @Test
+  public void testReuseUntrackedReference() {
+    final ResourceReleaser releaser = Mockito.mock(ResourceReleaser.class);
+    final Thing thing1 = new Thing("abc");
+    final Thing thing2 = new Thing("def");
+    final SharedReference<Thing> tRef = new SharedReference<Thing>(thing1, releaser, false);
+    tRef.deleteReference();
+    Mockito.verify(releaser).release(thing1);
+    Assert.assertFalse(SharedReference.isValid(tRef));
+
+    tRef.reuse(thing2);
+    Assert.assertTrue(SharedReference.isValid(tRef));
+    Assert.assertEquals(1, tRef.getRefCountTestOnly());
+    Assert.assertSame(thing2, tRef.get());
+    tRef.deleteReference();
+    Mockito.verify(releaser).release(thing2);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReuseTrackedReference() {
+    final SharedReference<Thing> tRef = new SharedReference<Thing>(new Thing("abc"), THING_RELEASER);
+    tRef.deleteReference();
+    tRef.reuse(new Thing("def"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReuseValidReference() {
+    final ResourceReleaser releaser = Mockito.mock(ResourceReleaser.class);
+    final SharedReference<Thing> tRef = new SharedReference<Thing>(new Thing("abc"), releaser, false);
+    tRef.reuse(new Thing("def"));
+  }
+
   public static class Thing implements Closeable {
     private String mValue;
 
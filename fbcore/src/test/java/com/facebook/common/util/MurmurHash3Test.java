@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.common.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.robolectric.RobolectricTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class MurmurHash3Test {
+
+  @Test
+  public void testKnownValues() throws Exception {
+    assertHash("00000000000000000000000000000000", "");
+    assertHash("029bbd41b3a7d8cb191dae486a901e5b", "hello");
+    assertHash(
+        "6c1b07bc7bbc4be347939ac4a93c437a",
+        "The quick brown fox jumps over the lazy dog");
+    assertHash("489b73fd35ace7ecbf583da56d183bd1", "http://example.com/image.jpg");
+  }
+
+  @Test
+  public void testRange() throws Exception {
+    byte[] bytes = "xxhelloxx".getBytes("UTF-8");
+    long[] expected = MurmurHash3.hash128("hello".getBytes("UTF-8"));
+    long[] hash = MurmurHash3.hash128(bytes, 2, 5, 0);
+    assertEquals(expected[0], hash[0]);
+    assertEquals(expected[1], hash[1]);
+  }
+
+  @Test
+  public void testAllTailLengths() {
+    // every length of the tail gives a different hash
+    byte[] bytes = new byte[32];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    Set<String> hashes = new HashSet<>();
+    for (int length = 0; length <= bytes.length; length++) {
+      byte[] prefix = new byte[length];
+      System.arraycopy(bytes, 0, prefix, 0, length);
+      hashes.add(MurmurHash3.makeHash128Hex(prefix));
+    }
+    assertEquals(bytes.length + 1, hashes.size());
+  }
+
+  private static void assertHash(String expected, String text) throws Exception {
+    assertEquals(expected, MurmurHash3.makeHash128Hex(text.getBytes("UTF-8")));
+  }
+}
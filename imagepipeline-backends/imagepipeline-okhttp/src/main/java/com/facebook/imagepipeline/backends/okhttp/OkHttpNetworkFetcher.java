@@ -33,6 +33,9 @@ import java.util.concurrent.Executor;
 
 /**
  * Network fetcher that uses OkHttp as a backend.
+ *
+ * <p> The fetcher asks for the rest of the image only when part of it was downloaded already, see
+ * {@link FetchState#getRangeHeader}.
  */
 public class OkHttpNetworkFetcher extends BaseNetworkFetcher<OkHttpNetworkFetcher.OkHttpNetworkFetchState> {
     private static final String TAG = "OkHttpNetworkFetchProducer";
@@ -60,7 +63,13 @@ public class OkHttpNetworkFetcher extends BaseNetworkFetcher<OkHttpNetworkFetche
     public void fetch(final OkHttpNetworkFetchState fetchState, final Callback callback) {
         fetchState.submitTime = SystemClock.elapsedRealtime();
         final Uri uri = fetchState.getUri();
-        final Request request = new Request.Builder().cacheControl(new CacheControl.Builder().noStore().build()).url(uri.toString()).get().build();
+        final Request.Builder requestBuilder = new Request.Builder().cacheControl(new CacheControl.Builder().noStore().build()).url(uri
+                .toString()).get();
+        final String range = fetchState.getRangeHeader();
+        if (range != null) {
+            requestBuilder.header("Range", range).header("If-Range", fetchState.getIfRangeHeader());
+        }
+        final Request request = requestBuilder.build();
         final Call call = mOkHttpClient.newCall(request);
         fetchState.getContext().addCallbacks(new BaseProducerContextCallbacks() {
             @Override
@@ -81,6 +90,8 @@ public class OkHttpNetworkFetcher extends BaseNetworkFetcher<OkHttpNetworkFetche
             @Override
             public void onResponse(Response response) {
                 fetchState.responseTime = SystemClock.elapsedRealtime();
+                fetchState.onResponseHeaders(response.code(), response.header("Content-Range"), response.header("ETag"), response.header
+                        ("Last-Modified"));
                 if (!response.isSuccessful()) {
                     handleException(call, new IOException("Unexpected HTTP code " + response), callback);
                     return;
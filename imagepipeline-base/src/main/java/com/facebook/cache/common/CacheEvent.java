@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.common;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * The details of a cache event, passed to a {@link DetailedCacheEventListener}.
+ *
+ * <p> The event object is reused for other events once the listener returns, so the listener has
+ * to copy out the values it wants to keep.
+ */
+public interface CacheEvent {
+    /** Gets the key of the item, or null for the evictions, which only know the resource id. */
+    @Nullable
+    CacheKey getCacheKey();
+
+    /** Gets the id the item is stored under. */
+    @Nullable
+    String getResourceId();
+
+    /** Gets the size of the item in bytes, or -1 if unknown, as for the misses. */
+    long getItemSize();
+
+    /**
+     * Gets the time between the last access of an evicted item and its eviction, or -1 for the
+     * other events.
+     */
+    long getTimeInCacheMs();
+
+    /** Gets the time the operation took, or -1 for the evictions. */
+    long getElapsedTimeNanos();
+
+    /** Gets the exception of a failed read or write, or null. */
+    @Nullable
+    IOException getException();
+
+    /** Gets the reason of an eviction, or null for the other events. */
+    @Nullable
+    CacheEventListener.EvictionReason getEvictionReason();
+}
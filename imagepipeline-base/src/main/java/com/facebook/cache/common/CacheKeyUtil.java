@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.common;
+
+import com.facebook.common.util.MurmurHash3;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Static methods for naming the resources of {@link CacheKey}s on disk.
+ *
+ * <p> The id of a resource is the 128-bit MurmurHash3 of the UTF-8 bytes of {@link
+ * CacheKey#toString}, as 32 hex digits. It used to be the Base64 SHA-1 hash, which needs a message
+ * digest per call; a cryptographic hash buys nothing here, as the keys are not chosen to collide.
+ *
+ * <p> The disk storages change the prefix of their version directory along with this scheme, so
+ * that the resources named with an older scheme are purged rather than looked up under the wrong
+ * ids.
+ */
+public class CacheKeyUtil {
+
+    /**
+     * Gets the id of the resource of the key on disk. It is computed once per {@link SimpleCacheKey}
+     * instance, and every time for other keys.
+     */
+    public static String getResourceId(final CacheKey key) {
+        if (key instanceof SimpleCacheKey) {
+            return ((SimpleCacheKey) key).getResourceId();
+        }
+        return makeResourceId(key.toString());
+    }
+
+    static String makeResourceId(final String key) {
+        try {
+            return MurmurHash3.makeHash128Hex(key.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // This should never happen. All VMs support UTF-8
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.common;
+
+/**
+ * A {@link CacheEventListener} told the details of each event as well: the key and size of the item,
+ * how long it stayed in the cache, and how long the operation took. A disk cache given such a
+ * listener calls both methods of each event; the listeners that are not also pay nothing for the
+ * details.
+ *
+ * <p> Each item evicted is reported to {@link #onEviction(CacheEvent)}, besides the total for the
+ * eviction reported to {@link #onEviction(EvictionReason, int, long)}.
+ *
+ * <p> The events are reused, see {@link CacheEvent}, and reported on the threads of the cache
+ * operations, so the implementations have to be thread safe and fast.
+ */
+public interface DetailedCacheEventListener extends CacheEventListener {
+    void onHit(CacheEvent event);
+    void onMiss(CacheEvent event);
+    void onWriteSuccess(CacheEvent event);
+    void onReadException(CacheEvent event);
+    void onWriteException(CacheEvent event);
+    void onEviction(CacheEvent event);
+}
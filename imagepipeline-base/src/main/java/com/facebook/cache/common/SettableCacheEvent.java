@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.common;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link CacheEvent} filled in by the cache, taken from a small pool with {@link #obtain} and
+ * given back with {@link #recycle} once reported, so the events do not allocate.
+ */
+public class SettableCacheEvent implements CacheEvent {
+    private static final int MAX_RECYCLED = 5;
+    private static final Object RECYCLER_LOCK = new Object();
+    @GuardedBy("RECYCLER_LOCK") private static SettableCacheEvent sFirstRecycledEvent;
+    @GuardedBy("RECYCLER_LOCK") private static int sRecycledCount;
+    @GuardedBy("RECYCLER_LOCK") private SettableCacheEvent mNextRecycledEvent;
+    @Nullable private CacheKey mCacheKey;
+    @Nullable private String mResourceId;
+    private long mItemSize;
+    private long mTimeInCacheMs;
+    private long mElapsedTimeNanos;
+    @Nullable private IOException mException;
+    @Nullable private CacheEventListener.EvictionReason mEvictionReason;
+
+    private SettableCacheEvent() {
+        reset();
+    }
+
+    /** Gets a cleared event, from the pool if it is not empty. */
+    public static SettableCacheEvent obtain() {
+        synchronized (RECYCLER_LOCK) {
+            if (sFirstRecycledEvent != null) {
+                SettableCacheEvent event = sFirstRecycledEvent;
+                sFirstRecycledEvent = event.mNextRecycledEvent;
+                event.mNextRecycledEvent = null;
+                sRecycledCount--;
+                return event;
+            }
+        }
+        return new SettableCacheEvent();
+    }
+
+    /** Clears the event and puts it back into the pool, unless the pool is full. */
+    public void recycle() {
+        synchronized (RECYCLER_LOCK) {
+            if (sRecycledCount < MAX_RECYCLED) {
+                reset();
+                sRecycledCount++;
+                mNextRecycledEvent = sFirstRecycledEvent;
+                sFirstRecycledEvent = this;
+            }
+        }
+    }
+
+    private void reset() {
+        mCacheKey = null;
+        mResourceId = null;
+        mItemSize = -1;
+        mTimeInCacheMs = -1;
+        mElapsedTimeNanos = -1;
+        mException = null;
+        mEvictionReason = null;
+    }
+
+    @Nullable
+    @Override
+    public CacheKey getCacheKey() {
+        return mCacheKey;
+    }
+
+    public SettableCacheEvent setCacheKey(@Nullable CacheKey cacheKey) {
+        mCacheKey = cacheKey;
+        return this;
+    }
+
+    @Nullable
+    @Override
+    public String getResourceId() {
+        return mResourceId;
+    }
+
+    public SettableCacheEvent setResourceId(@Nullable String resourceId) {
+        mResourceId = resourceId;
+        return this;
+    }
+
+    @Override
+    public long getItemSize() {
+        return mItemSize;
+    }
+
+    public SettableCacheEvent setItemSize(long itemSize) {
+        mItemSize = itemSize;
+        return this;
+    }
+
+    @Override
+    public long getTimeInCacheMs() {
+        return mTimeInCacheMs;
+    }
+
+    public SettableCacheEvent setTimeInCacheMs(long timeInCacheMs) {
+        mTimeInCacheMs = timeInCacheMs;
+        return this;
+    }
+
+    @Override
+    public long getElapsedTimeNanos() {
+        return mElapsedTimeNanos;
+    }
+
+    public SettableCacheEvent setElapsedTimeNanos(long elapsedTimeNanos) {
+        mElapsedTimeNanos = elapsedTimeNanos;
+        return this;
+    }
+
+    @Nullable
+    @Override
+    public IOException getException() {
+        return mException;
+    }
+
+    public SettableCacheEvent setException(@Nullable IOException exception) {
+        mException = exception;
+        return this;
+    }
+
+    @Nullable
+    @Override
+    public CacheEventListener.EvictionReason getEvictionReason() {
+        return mEvictionReason;
+    }
+
+    public SettableCacheEvent setEvictionReason(@Nullable CacheEventListener.EvictionReason evictionReason) {
+        mEvictionReason = evictionReason;
+        return this;
+    }
+}
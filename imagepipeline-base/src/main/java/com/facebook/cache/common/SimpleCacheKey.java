@@ -10,6 +10,8 @@ package com.facebook.cache.common;
 
 import com.facebook.common.internal.Preconditions;
 
+import javax.annotation.Nullable;
+
 /**
  * {@link CacheKey} implementation that is a simple wrapper around a {@link String} object.
  *
@@ -18,11 +20,25 @@ import com.facebook.common.internal.Preconditions;
  */
 public class SimpleCacheKey implements CacheKey {
     final String mKey;
+    // Computed lazily, racing threads compute the same value.
+    @Nullable private volatile String mResourceId;
 
     public SimpleCacheKey(final String key) {
         mKey = Preconditions.checkNotNull(key);
     }
 
+    /**
+     * Gets the id of the resource of this key on disk, see {@link CacheKeyUtil#getResourceId}.
+     */
+    public String getResourceId() {
+        String resourceId = mResourceId;
+        if (resourceId == null) {
+            resourceId = CacheKeyUtil.makeResourceId(mKey);
+            mResourceId = resourceId;
+        }
+        return resourceId;
+    }
+
     @Override
     public String toString() {
         return mKey;
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.WriterCallback;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import bolts.Task;
+
+/**
+ * Asynchronous, batched counterpart of {@link DiskStorage}: the operations take many resources
+ * at once and return right away, with a task for their result.
+ *
+ * <p> Taking the resources of a batch together lets an implementation order the file system calls
+ * by directory and merge the updates of its metadata, and returning tasks lets it decide which
+ * threads the calls run on, instead of holding the caller's thread for each of them.
+ *
+ * <p> The operations of a batch are not atomic: each resource is looked up, written or removed on
+ * its own, and those that fail are left out of the result. The task of a batch only fails if the
+ * batch could not be carried out at all.
+ */
+public interface AsyncDiskStorage {
+    /**
+     * Gets the resources with the given ids, recording an access to each one found.
+     *
+     * @param resourceIds ids of the resources
+     * @return a task for the resources found, by id; the ids not found are left out
+     */
+    Task<Map<String, BinaryResource>> getResources(Collection<String> resourceIds);
+    /**
+     * Finds which of the resources with the given ids exist, without recording any access.
+     *
+     * @param resourceIds ids of the resources
+     * @return a task for the ids of the resources present in the storage
+     */
+    Task<Set<String>> contains(Collection<String> resourceIds);
+    /**
+     * Writes the resources, and commits them into the storage. A resource already present is
+     * overwritten.
+     *
+     * @param writes the writer callbacks of the resources, by resource id; they may be called on any
+     *               thread
+     * @return a task for the resources committed, by id; the writes that failed are left out
+     */
+    Task<Map<String, BinaryResource>> insert(Map<String, WriterCallback> writes);
+    /**
+     * Removes the resources with the given ids.
+     *
+     * @param resourceIds ids of the resources
+     * @return a task for the total size of the resources removed
+     */
+    Task<Long> remove(Collection<String> resourceIds);
+}
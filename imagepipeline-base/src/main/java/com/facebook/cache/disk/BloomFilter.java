@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.common.internal.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bloom filter of resource ids: tells for sure that a resource was never put, or that it might
+ * have been. Up to its capacity, it is wrong about 1% of the resources never put.
+ *
+ * <p> Nothing can be taken out of it, so it has to be rebuilt once enough of the resources put
+ * were removed, or once it is over capacity. It needs no lock, the bits are only ever set.
+ */
+@ThreadSafe
+class BloomFilter {
+    // 10 bits and 7 hashes per resource give a false positive rate of about 1%
+    private static final int BITS_PER_RESOURCE = 10;
+    private static final int HASH_COUNT = 7;
+    private final AtomicLongArray mWords;
+    private final long mBitCount;
+    private final int mCapacity;
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    BloomFilter(int capacity) {
+        Preconditions.checkArgument(capacity > 0);
+        mCapacity = capacity;
+        int wordCount = (int) (((long) capacity * BITS_PER_RESOURCE + 63) / 64);
+        mWords = new AtomicLongArray(wordCount);
+        mBitCount = wordCount * 64L;
+    }
+
+    /**
+     * Puts the resource into the filter.
+     *
+     * @return false if the filter is over its capacity, and should be rebuilt
+     */
+    boolean put(String resourceId) {
+        long hash = hash(resourceId);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = getBit(hash1 + i * hash2);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word;
+            do {
+                word = mWords.get(index);
+                if ((word & mask) != 0) {
+                    break;
+                }
+            } while (!mWords.compareAndSet(index, word, word | mask));
+        }
+        return mCount.incrementAndGet() <= mCapacity;
+    }
+
+    /** Tells whether the resource might have been put. */
+    boolean mightContain(String resourceId) {
+        long hash = hash(resourceId);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = getBit(hash1 + i * hash2);
+            if ((mWords.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    private long getBit(int combinedHash) {
+        return (combinedHash & 0xFFFFFFFFL) % mBitCount;
+    }
+
+    /**
+     * Spreads the hash code of the id over 64 bits, split into the two hashes the others are
+     * derived from. The resource ids are hashes themselves, and their hash codes are cached.
+     */
+    private static long hash(String resourceId) {
+        long hash = resourceId.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.executors.ConstrainedExecutorService;
+import com.facebook.common.internal.Preconditions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * {@link AsyncDiskStorage} over the resources of a {@link DiskStorageCache}.
+ *
+ * <p> A batch is split by the shard of the resource ids, i.e. the subdirectory of the
+ * {@link DefaultDiskStorage} they are stored in. The part of each shard runs as one task on the
+ * executor, so a batch costs at most one task per shard instead of one per resource. It goes
+ * through the cache, which takes the lock of the shard once for the part, and keeps the size of
+ * the cache, its filter of the resource ids and its eviction up to date. With a
+ * {@link DefaultDiskStorage}, the changes of a part are journaled to its index with a single flush.
+ *
+ * <p> The parts of a shard run one at a time, in the order the batches were submitted, while the
+ * shards run in parallel up to the threads of the executor. So a lookup submitted after a write
+ * sees it. The resource ids are those the cache gives the keys, see
+ * {@link com.facebook.cache.common.CacheKeyUtil#getResourceId}, so the batches can be mixed with
+ * the operations on the cache itself.
+ */
+@ThreadSafe
+public class DefaultAsyncDiskStorage implements AsyncDiskStorage {
+    private static final Continuation<List<Map<String, BinaryResource>>, Map<String, BinaryResource>> MERGE_RESOURCES =
+            new Continuation<List<Map<String, BinaryResource>>, Map<String, BinaryResource>>() {
+                @Override
+                public Map<String, BinaryResource> then(Task<List<Map<String, BinaryResource>>> task) throws Exception {
+                    checkSucceeded(task);
+                    Map<String, BinaryResource> resources = new HashMap<>();
+                    for (Map<String, BinaryResource> shardResources : task.getResult()) {
+                        resources.putAll(shardResources);
+                    }
+                    return resources;
+                }
+            };
+    private final DiskStorageCache mCache;
+    // The executors running the tasks of each shard serially, on the shared executor.
+    private final Executor[] mShardExecutors;
+
+    /**
+     * @param cache    the cache to carry out the operations on
+     * @param executor the executor to run the file system calls on
+     */
+    public DefaultAsyncDiskStorage(DiskStorageCache cache, Executor executor) {
+        mCache = Preconditions.checkNotNull(cache);
+        Preconditions.checkNotNull(executor);
+        mShardExecutors = new Executor[DefaultDiskStorage.SHARDING_BUCKET_COUNT];
+        for (int shard = 0; shard < mShardExecutors.length; shard++) {
+            mShardExecutors[shard] = new ConstrainedExecutorService("DiskShard" + shard, 1, executor, new LinkedBlockingQueue<Runnable>());
+        }
+    }
+
+    @Override
+    public Task<Map<String, BinaryResource>> getResources(Collection<String> resourceIds) {
+        SortedMap<Integer, Callable<Map<String, BinaryResource>>> operations = new TreeMap<>();
+        for (final Map.Entry<Integer, List<String>> resourceIdsOfShard : groupByShard(resourceIds).entrySet()) {
+            operations.put(resourceIdsOfShard.getKey(), new Callable<Map<String, BinaryResource>>() {
+                @Override
+                public Map<String, BinaryResource> call() throws IOException {
+                    return mCache.getResources(resourceIdsOfShard.getKey(), resourceIdsOfShard.getValue());
+                }
+            });
+        }
+        return runInShards(operations).continueWith(MERGE_RESOURCES);
+    }
+
+    @Override
+    public Task<Set<String>> contains(Collection<String> resourceIds) {
+        SortedMap<Integer, Callable<Set<String>>> operations = new TreeMap<>();
+        for (final Map.Entry<Integer, List<String>> resourceIdsOfShard : groupByShard(resourceIds).entrySet()) {
+            operations.put(resourceIdsOfShard.getKey(), new Callable<Set<String>>() {
+                @Override
+                public Set<String> call() throws IOException {
+                    return mCache.contains(resourceIdsOfShard.getKey(), resourceIdsOfShard.getValue());
+                }
+            });
+        }
+        return runInShards(operations).continueWith(new Continuation<List<Set<String>>, Set<String>>() {
+            @Override
+            public Set<String> then(Task<List<Set<String>>> task) throws Exception {
+                checkSucceeded(task);
+                Set<String> resourceIds = new HashSet<>();
+                for (Set<String> shardResourceIds : task.getResult()) {
+                    resourceIds.addAll(shardResourceIds);
+                }
+                return resourceIds;
+            }
+        });
+    }
+
+    @Override
+    public Task<Map<String, BinaryResource>> insert(Map<String, WriterCallback> writes) {
+        SortedMap<Integer, Map<String, WriterCallback>> shardWrites = new TreeMap<>();
+        for (Map.Entry<String, WriterCallback> write : writes.entrySet()) {
+            int shard = DefaultDiskStorage.getShard(write.getKey());
+            Map<String, WriterCallback> writesOfShard = shardWrites.get(shard);
+            if (writesOfShard == null) {
+                writesOfShard = new HashMap<>();
+                shardWrites.put(shard, writesOfShard);
+            }
+            writesOfShard.put(write.getKey(), write.getValue());
+        }
+        SortedMap<Integer, Callable<Map<String, BinaryResource>>> operations = new TreeMap<>();
+        for (final Map.Entry<Integer, Map<String, WriterCallback>> writesOfShard : shardWrites.entrySet()) {
+            operations.put(writesOfShard.getKey(), new Callable<Map<String, BinaryResource>>() {
+                @Override
+                public Map<String, BinaryResource> call() throws IOException {
+                    return mCache.insert(writesOfShard.getKey(), writesOfShard.getValue());
+                }
+            });
+        }
+        return runInShards(operations).continueWith(MERGE_RESOURCES);
+    }
+
+    @Override
+    public Task<Long> remove(Collection<String> resourceIds) {
+        SortedMap<Integer, Callable<Long>> operations = new TreeMap<>();
+        for (final Map.Entry<Integer, List<String>> resourceIdsOfShard : groupByShard(resourceIds).entrySet()) {
+            operations.put(resourceIdsOfShard.getKey(), new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    return mCache.remove(resourceIdsOfShard.getKey(), resourceIdsOfShard.getValue());
+                }
+            });
+        }
+        return runInShards(operations).continueWith(new Continuation<List<Long>, Long>() {
+            @Override
+            public Long then(Task<List<Long>> task) throws Exception {
+                checkSucceeded(task);
+                long removedSize = 0;
+                for (long shardRemovedSize : task.getResult()) {
+                    removedSize += shardRemovedSize;
+                }
+                return removedSize;
+            }
+        });
+    }
+
+    /**
+     * Runs each operation on the executor of its shard.
+     *
+     * @param operations the operations, by shard
+     * @return a task for the results of the operations, in the order of the shards
+     */
+    private <T> Task<List<T>> runInShards(SortedMap<Integer, Callable<T>> operations) {
+        final List<Task<T>> tasks = new ArrayList<>(operations.size());
+        for (Map.Entry<Integer, Callable<T>> operation : operations.entrySet()) {
+            tasks.add(Task.call(operation.getValue(), mShardExecutors[operation.getKey()]));
+        }
+        return Task.whenAll(tasks).continueWith(new Continuation<Void, List<T>>() {
+            @Override
+            public List<T> then(Task<Void> task) throws Exception {
+                checkSucceeded(task);
+                List<T> results = new ArrayList<>(tasks.size());
+                for (Task<T> shardTask : tasks) {
+                    results.add(shardTask.getResult());
+                }
+                return results;
+            }
+        });
+    }
+
+    private static SortedMap<Integer, List<String>> groupByShard(Collection<String> resourceIds) {
+        SortedMap<Integer, List<String>> resourceIdsByShard = new TreeMap<>();
+        for (String resourceId : resourceIds) {
+            int shard = DefaultDiskStorage.getShard(resourceId);
+            List<String> resourceIdsOfShard = resourceIdsByShard.get(shard);
+            if (resourceIdsOfShard == null) {
+                resourceIdsOfShard = new ArrayList<>();
+                resourceIdsByShard.put(shard, resourceIdsOfShard);
+            }
+            resourceIdsOfShard.add(resourceId);
+        }
+        return resourceIdsByShard;
+    }
+
+    /** Rethrows the failure of the task, if it failed, for the continuation to fail as well. */
+    private static void checkSucceeded(Task<?> task) throws Exception {
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+    }
+}
@@ -8,6 +8,7 @@
  */
 package com.facebook.cache.disk;
 
+import com.facebook.binaryresource.BinaryResource;
 import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.WriterCallback;
@@ -25,14 +26,24 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * The default disk storage implementation. Subsumes both 'simple' and 'sharded' implementations
  * via a new SubdirectorySupplier.
+ *
+ * <p> The content files are tracked by a journaled {@link DiskStorageIndex} kept in the version
+ * directory, so that {@link #getEntries()} does not walk the shards nor stat each file. The index
+ * is rebuilt from the files when its journal is missing or corrupt, and reconciled with them on
+ * each {@link #purgeUnexpectedResources()}, which walks the files anyway.
  */
 public class DefaultDiskStorage implements DiskStorage {
     /**
@@ -42,7 +53,8 @@ public class DefaultDiskStorage implements DiskStorage {
     private static final Class<?> TAG = DefaultDiskStorage.class;
     private static final String CONTENT_FILE_EXTENSION = ".cnt";
     private static final String TEMP_FILE_EXTENSION = ".tmp";
-    private static final String DEFAULT_DISK_STORAGE_VERSION_PREFIX = "v2";
+    // v3: the resources are named by CacheKeyUtil#getResourceId
+    private static final String DEFAULT_DISK_STORAGE_VERSION_PREFIX = "v3";
     /*
      * We use sharding to avoid Samsung's RFS problem, and to avoid having one big directory
      * containing thousands of files.
@@ -51,7 +63,12 @@ public class DefaultDiskStorage implements DiskStorage {
      * - such usage will hit Samsung's 6,500 photos cap in 43 days
      * - 100 buckets will extend that period to 4,300 days which is 11.78 years
      */
-    private static final int SHARDING_BUCKET_COUNT = 100;
+    static final int SHARDING_BUCKET_COUNT = 100;
+    /**
+     * The default of how far the access times journaled in the index may lag behind, see
+     * {@link DiskStorageIndex}.
+     */
+    public static final long DEFAULT_ACCESS_TIME_ACCURACY_MS = TimeUnit.MINUTES.toMillis(1);
     /**
      * The base directory used for the cache
      */
@@ -66,6 +83,7 @@ public class DefaultDiskStorage implements DiskStorage {
     private final File mVersionDirectory;
     private final CacheErrorLogger mCacheErrorLogger;
     private final Clock mClock;
+    private final DiskStorageIndex mIndex;
 
     /**
      * Instantiates a ShardedDiskStorage that will use the directory to save a map between
@@ -79,6 +97,14 @@ public class DefaultDiskStorage implements DiskStorage {
      * @param cacheErrorLogger logger for various events
      */
     public DefaultDiskStorage(File rootDirectory, int version, CacheErrorLogger cacheErrorLogger) {
+        this(rootDirectory, version, cacheErrorLogger, DEFAULT_ACCESS_TIME_ACCURACY_MS);
+    }
+
+    /**
+     * @param accessTimeAccuracyMs how far the journaled access times may lag behind, see
+     *                             {@link DiskStorageIndex}
+     */
+    public DefaultDiskStorage(File rootDirectory, int version, CacheErrorLogger cacheErrorLogger, long accessTimeAccuracyMs) {
         Preconditions.checkNotNull(rootDirectory);
         mRootDirectory = rootDirectory;
         // mVersionDirectory's name identifies:
@@ -90,6 +116,7 @@ public class DefaultDiskStorage implements DiskStorage {
         mCacheErrorLogger = cacheErrorLogger;
         recreateDirectoryIfVersionChanges();
         mClock = SystemClock.get();
+        mIndex = new DiskStorageIndex(mVersionDirectory, accessTimeAccuracyMs);
     }
 
     @VisibleForTesting
@@ -129,9 +156,9 @@ public class DefaultDiskStorage implements DiskStorage {
     }
 
     @Override
-    public void updateResource(final String resourceId, final FileBinaryResource fileBinaryResource, final WriterCallback callback, final Object
-            debugInfo) throws IOException {
-        File file = fileBinaryResource.getFile();
+    public void updateResource(final String resourceId, final BinaryResource resource, final WriterCallback callback, final Object debugInfo)
+            throws IOException {
+        File file = ((FileBinaryResource) resource).getFile();
         FileOutputStream fileStream = null;
         try {
             fileStream = new FileOutputStream(file);
@@ -175,10 +202,20 @@ public class DefaultDiskStorage implements DiskStorage {
      * @return the directory to store the file in
      */
     private String getSubdirectoryPath(String resourceId) {
-        String subdirectory = String.valueOf(Math.abs(resourceId.hashCode() % SHARDING_BUCKET_COUNT));
+        String subdirectory = String.valueOf(getShard(resourceId));
         return mVersionDirectory + File.separator + subdirectory;
     }
 
+    /**
+     * Gets the shard of the resource, i.e. the number of the subdirectory it is stored in.
+     *
+     * @param resourceId the id of the resource
+     * @return the shard, between 0 and {@link #SHARDING_BUCKET_COUNT} excluded
+     */
+    static int getShard(String resourceId) {
+        return Math.abs(resourceId.hashCode() % SHARDING_BUCKET_COUNT);
+    }
+
     /**
      * Gets the directory to use to store the given key
      *
@@ -191,7 +228,56 @@ public class DefaultDiskStorage implements DiskStorage {
 
     @Override
     public void purgeUnexpectedResources() {
-        FileTree.walkFileTree(mRootDirectory, new PurgingVisitor());
+        PurgingVisitor visitor = new PurgingVisitor();
+        FileTree.walkFileTree(mRootDirectory, visitor);
+        reconcileIndex(visitor.getContentResourceIds());
+    }
+
+    /**
+     * Gets the index of the content files, loading it from its journal on first use, or rebuilding
+     * it from the files if the journal is not usable.
+     */
+    private DiskStorageIndex getIndex() {
+        synchronized (mIndex) {
+            if (!mIndex.isLoaded() && !mIndex.load()) {
+                List<DiskStorageIndex.Entry> entries = new ArrayList<>();
+                for (Entry entry : walkEntries()) {
+                    EntryImpl entryImpl = (EntryImpl) entry;
+                    entries.add(new DiskStorageIndex.Entry(entryImpl.getId(), entryImpl.getSize(), entryImpl.getTimestamp()));
+                }
+                mIndex.rebuild(entries);
+            }
+        }
+        return mIndex;
+    }
+
+    /**
+     * Brings the index in line with the content files found: drops the entries whose files are
+     * gone, e.g. deleted by the system, and adds the files it does not know about.
+     *
+     * <p> The walk does not hold the shard locks of the cache, so the files are checked again
+     * before changing their entries: a commit may have landed in a directory the walk had passed,
+     * and a removal may have deleted a file the walk found.
+     */
+    private void reconcileIndex(Set<String> contentResourceIds) {
+        DiskStorageIndex index = getIndex();
+        index.retainAll(contentResourceIds, new DiskStorageIndex.ResourceChecker() {
+            @Override
+            public boolean exists(String resourceId) {
+                return getContentFileFor(resourceId).exists();
+            }
+        });
+        for (String resourceId : contentResourceIds) {
+            if (!index.contains(resourceId)) {
+                File file = getContentFileFor(resourceId);
+                long size = file.length();
+                long timestamp = file.lastModified();
+                // both are 0 once the file is gone
+                if (file.exists()) {
+                    index.recordAdd(resourceId, size, timestamp);
+                }
+            }
+        }
     }
 
     /**
@@ -213,11 +299,15 @@ public class DefaultDiskStorage implements DiskStorage {
     @Override
     public FileBinaryResource createTemporary(String resourceId, Object debugInfo) throws IOException {
         // ensure that the parent directory exists
-        FileInfo info = new FileInfo(FileType.TEMP, resourceId);
-        File parent = getSubdirectory(info.resourceId);
+        File parent = getSubdirectory(resourceId);
         if (!parent.exists()) {
             mkdirs(parent, "createTemporary");
         }
+        return createTemporary(resourceId, parent);
+    }
+
+    private FileBinaryResource createTemporary(String resourceId, File parent) throws IOException {
+        FileInfo info = new FileInfo(FileType.TEMP, resourceId);
         try {
             File file = info.createTempFile(parent);
             return FileBinaryResource.createOrNull(file);
@@ -230,8 +320,18 @@ public class DefaultDiskStorage implements DiskStorage {
     ;
 
     @Override
-    public FileBinaryResource commit(String resourceId, FileBinaryResource tempFileResource, Object debugInfo) throws IOException {
-        File tempFile = tempFileResource.getFile();
+    public FileBinaryResource commit(String resourceId, BinaryResource tempFileResource, Object debugInfo) throws IOException {
+        File targetFile = rename(resourceId, ((FileBinaryResource) tempFileResource).getFile());
+        if (targetFile.exists()) {
+            long now = mClock.now();
+            targetFile.setLastModified(now);
+            getIndex().recordAdd(resourceId, targetFile.length(), now);
+        }
+        return FileBinaryResource.createOrNull(targetFile);
+    }
+
+    /** Renames the temporary file to the content file of the resource, which it returns. */
+    private File rename(String resourceId, File tempFile) throws IOException {
         File targetFile = getContentFileFor(resourceId);
         try {
             FileUtils.rename(tempFile, targetFile);
@@ -250,19 +350,17 @@ public class DefaultDiskStorage implements DiskStorage {
             mCacheErrorLogger.logError(category, TAG, "commit", re);
             throw re;
         }
-        if (targetFile.exists()) {
-            targetFile.setLastModified(mClock.now());
-        }
-        return FileBinaryResource.createOrNull(targetFile);
+        return targetFile;
     }
 
     @Override
     public FileBinaryResource getResource(String resourceId, Object debugInfo) {
         final File file = getContentFileFor(resourceId);
         if (file.exists()) {
-            file.setLastModified(mClock.now());
+            touch(resourceId, file);
             return FileBinaryResource.createOrNull(file);
         }
+        getIndex().recordRemove(resourceId);
         return null;
     }
 
@@ -286,38 +384,133 @@ public class DefaultDiskStorage implements DiskStorage {
     private boolean query(String resourceId, boolean touch) {
         File contentFile = getContentFileFor(resourceId);
         boolean exists = contentFile.exists();
-        if (touch && exists) {
-            contentFile.setLastModified(mClock.now());
+        if (!exists) {
+            getIndex().recordRemove(resourceId);
+        } else if (touch) {
+            touch(resourceId, contentFile);
         }
         return exists;
     }
 
+    /**
+     * Updates the last access time of the content file in the index, which journals it in batches.
+     * The modification time of the file is left alone, so that a read writes nothing; if the index
+     * has to be rebuilt from the files, the resources are ordered by the time they were written.
+     */
+    private void touch(String resourceId, File contentFile) {
+        long now = mClock.now();
+        DiskStorageIndex index = getIndex();
+        if (!index.recordAccess(resourceId, now)) {
+            index.recordAdd(resourceId, contentFile.length(), now);
+        }
+    }
+
     @Override
     public long remove(Entry entry) {
         // it should be one entry return by us :)
         EntryImpl entryImpl = (EntryImpl) entry;
         FileBinaryResource resource = entryImpl.getResource();
-        return doRemove(resource.getFile());
+        return doRemove(entryImpl.getId(), resource.getFile());
     }
 
     @Override
     public long remove(final String resourceId) {
-        return doRemove(getContentFileFor(resourceId));
+        return doRemove(resourceId, getContentFileFor(resourceId));
     }
 
-    private long doRemove(final File contentFile) {
+    private long doRemove(final String resourceId, final File contentFile) {
         if (!contentFile.exists()) {
+            getIndex().recordRemove(resourceId);
             return 0;
         }
         final long fileSize = contentFile.length();
         if (contentFile.delete()) {
+            getIndex().recordRemove(resourceId);
             return fileSize;
         }
         return -1;
     }
 
+    /**
+     * Gets the resources with the given ids, for {@link DefaultAsyncDiskStorage}. The ids found
+     * missing are dropped from the index in one go.
+     *
+     * @param resourceIds the ids of the resources, best all in the same shard
+     * @param touch whether to record an access to the resources found
+     * @return the resources found, by id
+     */
+    Map<String, FileBinaryResource> getResources(Collection<String> resourceIds, boolean touch) {
+        Map<String, FileBinaryResource> resources = new HashMap<>();
+        List<String> missingResourceIds = new ArrayList<>();
+        for (String resourceId : resourceIds) {
+            File file = getContentFileFor(resourceId);
+            if (!file.exists()) {
+                missingResourceIds.add(resourceId);
+                continue;
+            }
+            if (touch) {
+                touch(resourceId, file);
+            }
+            resources.put(resourceId, FileBinaryResource.createOrNull(file));
+        }
+        getIndex().recordRemoves(missingResourceIds);
+        return resources;
+    }
+
+    /**
+     * Commits resources, for {@link DefaultAsyncDiskStorage}. The resources committed are journaled
+     * in one go. A commit that fails is skipped, leaving its temporary file to the caller.
+     *
+     * @param temporaries the temporary resources, by resource id, best all in the same shard
+     * @param failures    gets the failure of each commit that failed, by resource id
+     * @return the resources committed, by id
+     */
+    Map<String, FileBinaryResource> commit(Map<String, BinaryResource> temporaries, Map<String, IOException> failures) {
+        Map<String, FileBinaryResource> resources = new HashMap<>();
+        List<DiskStorageIndex.Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, BinaryResource> temporary : temporaries.entrySet()) {
+            String resourceId = temporary.getKey();
+            try {
+                File targetFile = rename(resourceId, ((FileBinaryResource) temporary.getValue()).getFile());
+                long now = mClock.now();
+                targetFile.setLastModified(now);
+                entries.add(new DiskStorageIndex.Entry(resourceId, targetFile.length(), now));
+                resources.put(resourceId, FileBinaryResource.createOrNull(targetFile));
+            } catch (IOException ioe) {
+                failures.put(resourceId, ioe);
+            }
+        }
+        getIndex().recordAdds(entries);
+        return resources;
+    }
+
+    /**
+     * Removes the resources with the given ids, for {@link DefaultAsyncDiskStorage}. The removals
+     * are journaled in one go.
+     *
+     * @param resourceIds the ids of the resources, best all in the same shard
+     * @return the total size of the files deleted
+     */
+    long remove(Collection<String> resourceIds) {
+        long removedSize = 0;
+        List<String> removedResourceIds = new ArrayList<>();
+        for (String resourceId : resourceIds) {
+            File contentFile = getContentFileFor(resourceId);
+            long fileSize = contentFile.length();
+            if (!contentFile.exists()) {
+                removedResourceIds.add(resourceId);
+            } else if (contentFile.delete()) {
+                removedResourceIds.add(resourceId);
+                removedSize += fileSize;
+            }
+        }
+        getIndex().recordRemoves(removedResourceIds);
+        return removedSize;
+    }
+
     public void clearAll() {
         FileTree.deleteContents(mRootDirectory);
+        mIndex.clear();
     }
 
     @Override
@@ -348,7 +541,8 @@ public class DefaultDiskStorage implements DiskStorage {
         return new DiskDumpInfoEntry(path, type, entryImpl.getSize(), firstBits);
     }
 
-    private String typeOfBytes(byte[] bytes) {
+    /** Guesses the image format from the first bytes of the resource, for the dump info. */
+    static String typeOfBytes(byte[] bytes) {
         if (bytes.length >= 2) {
             if (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xD8) {
                 return "jpg";
@@ -365,10 +559,22 @@ public class DefaultDiskStorage implements DiskStorage {
 
     @Override
     /**
-     * Returns a list of entries.
+     * Returns a list of entries, from the index.
      *
      * <p>This list is immutable.
      */ public List<Entry> getEntries() throws IOException {
+        List<DiskStorageIndex.Entry> indexEntries = getIndex().getEntries();
+        List<Entry> entries = new ArrayList<>(indexEntries.size());
+        for (DiskStorageIndex.Entry indexEntry : indexEntries) {
+            File file = getContentFileFor(indexEntry.resourceId);
+            entries.add(new EntryImpl(
+                    indexEntry.resourceId, file, indexEntry.size, indexEntry.timestamp, indexEntry.accessCount));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /** Lists the entries by walking the shards, for when the index has to be rebuilt. */
+    private List<Entry> walkEntries() {
         EntriesCollector collector = new EntriesCollector();
         FileTree.walkFileTree(mVersionDirectory, collector);
         return collector.getEntries();
@@ -492,7 +698,7 @@ public class DefaultDiskStorage implements DiskStorage {
         public void visitFile(File file) {
             FileInfo info = getShardFileInfo(file);
             if (info != null && info.type == FileType.CONTENT) {
-                result.add(new EntryImpl(file));
+                result.add(new EntryImpl(info.resourceId, file));
             }
         }
 
@@ -516,6 +722,7 @@ public class DefaultDiskStorage implements DiskStorage {
      * file is deleted.
      */
     private class PurgingVisitor implements FileTreeVisitor {
+        private final Set<String> contentResourceIds = new HashSet<>();
         private boolean insideBaseDirectory;
 
         @Override
@@ -547,7 +754,15 @@ public class DefaultDiskStorage implements DiskStorage {
             }
         }
 
+        /** Gets the ids of the content files visited. */
+        public Set<String> getContentResourceIds() {
+            return contentResourceIds;
+        }
+
         private boolean isExpectedFile(File file) {
+            if (isJournalFile(file)) {
+                return true;
+            }
             FileInfo info = getShardFileInfo(file);
             if (info == null) {
                 return false;
@@ -556,9 +771,14 @@ public class DefaultDiskStorage implements DiskStorage {
                 return isRecentFile(file);
             }
             Preconditions.checkState(info.type == FileType.CONTENT);
+            contentResourceIds.add(info.resourceId);
             return true;
         }
 
+        private boolean isJournalFile(File file) {
+            return DiskStorageIndex.JOURNAL_FILE_NAME.equals(file.getName()) && mVersionDirectory.equals(file.getParentFile());
+        }
+
         /**
          * @return true if and only if the file is not old enough to be considered an old temp file
          */
@@ -571,16 +791,29 @@ public class DefaultDiskStorage implements DiskStorage {
      * Implementation of Entry listed by entriesIterator.
      */
     @VisibleForTesting
-    class EntryImpl implements Entry {
+    class EntryImpl implements DetailedEntry {
+        private final String id;
         private final FileBinaryResource resource;
         private long size;
         private long timestamp;
+        private final int accessCount;
 
-        private EntryImpl(File cachedFile) {
+        private EntryImpl(String id, File cachedFile) {
+            this(id, cachedFile, -1, -1, 0);
+        }
+
+        private EntryImpl(String id, File cachedFile, long size, long timestamp, int accessCount) {
             Preconditions.checkNotNull(cachedFile);
+            this.id = Preconditions.checkNotNull(id);
             this.resource = FileBinaryResource.createOrNull(cachedFile);
-            this.size = -1;
-            this.timestamp = -1;
+            this.size = size;
+            this.timestamp = timestamp;
+            this.accessCount = accessCount;
+        }
+
+        @Override
+        public String getId() {
+            return id;
         }
 
         @Override
@@ -592,6 +825,11 @@ public class DefaultDiskStorage implements DiskStorage {
             return timestamp;
         }
 
+        @Override
+        public int getAccessCount() {
+            return accessCount;
+        }
+
         @Override
         public FileBinaryResource getResource() {
             return resource;
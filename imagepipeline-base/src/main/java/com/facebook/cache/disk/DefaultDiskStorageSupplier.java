@@ -22,7 +22,8 @@ import java.io.IOException;
 import javax.annotation.Nullable;
 
 /**
- * A supplier of a DiskStorage concrete implementation.
+ * A supplier of a DiskStorage concrete implementation: a {@link DefaultDiskStorage}, or a
+ * {@link PackedDiskStorage} if enabled.
  */
 public class DefaultDiskStorageSupplier implements DiskStorageSupplier {
     private static final Class<?> TAG = DefaultDiskStorageSupplier.class;
@@ -30,11 +31,36 @@ public class DefaultDiskStorageSupplier implements DiskStorageSupplier {
     private final Supplier<File> mBaseDirectoryPathSupplier;
     private final String mBaseDirectoryName;
     private final CacheErrorLogger mCacheErrorLogger;
+    private final boolean mIsPackedStorageEnabled;
+    private final long mAccessTimeAccuracyMs;
     @VisibleForTesting volatile State mCurrentState;
 
     public DefaultDiskStorageSupplier(int version, Supplier<File> baseDirectoryPathSupplier, String baseDirectoryName, CacheErrorLogger
             cacheErrorLogger) {
+        this(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger, false);
+    }
+
+    /**
+     * @param isPackedStorageEnabled whether to pack the resources into segment files, see
+     *                               {@link PackedDiskStorage}
+     */
+    public DefaultDiskStorageSupplier(int version, Supplier<File> baseDirectoryPathSupplier, String baseDirectoryName, CacheErrorLogger
+            cacheErrorLogger, boolean isPackedStorageEnabled) {
+        this(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger, isPackedStorageEnabled, DefaultDiskStorage
+                .DEFAULT_ACCESS_TIME_ACCURACY_MS);
+    }
+
+    /**
+     * @param isPackedStorageEnabled whether to pack the resources into segment files, see
+     *                               {@link PackedDiskStorage}
+     * @param accessTimeAccuracyMs   how far the access times journaled by a
+     *                               {@link DefaultDiskStorage} may lag behind
+     */
+    public DefaultDiskStorageSupplier(int version, Supplier<File> baseDirectoryPathSupplier, String baseDirectoryName, CacheErrorLogger
+            cacheErrorLogger, boolean isPackedStorageEnabled, long accessTimeAccuracyMs) {
         mVersion = version;
+        mIsPackedStorageEnabled = isPackedStorageEnabled;
+        mAccessTimeAccuracyMs = accessTimeAccuracyMs;
         mCacheErrorLogger = cacheErrorLogger;
         mBaseDirectoryPathSupplier = baseDirectoryPathSupplier;
         mBaseDirectoryName = baseDirectoryName;
@@ -48,17 +74,24 @@ public class DefaultDiskStorageSupplier implements DiskStorageSupplier {
      * @return an instance of the appropriate DiskStorage class
      */
     @Override
-    public synchronized DiskStorage get() throws IOException {
-        if (shouldCreateNewStorage()) {
-            // discard anything we created
-            deleteOldStorageIfNecessary();
-            createStorage();
+    public DiskStorage get() throws IOException {
+        // the state is volatile, so the common case of a valid storage needs no lock, as the cache
+        // gets the storage for each operation
+        State currentState = mCurrentState;
+        if (!shouldCreateNewStorage(currentState)) {
+            return Preconditions.checkNotNull(currentState.storage);
+        }
+        synchronized (this) {
+            if (shouldCreateNewStorage(mCurrentState)) {
+                // discard anything we created
+                deleteOldStorageIfNecessary();
+                createStorage();
+            }
+            return Preconditions.checkNotNull(mCurrentState.storage);
         }
-        return Preconditions.checkNotNull(mCurrentState.storage);
     }
 
-    private boolean shouldCreateNewStorage() {
-        State currentState = mCurrentState;
+    private static boolean shouldCreateNewStorage(State currentState) {
         return (currentState.storage == null ||
                 currentState.rootDirectory == null ||
                 !currentState.rootDirectory.exists());
@@ -76,7 +109,9 @@ public class DefaultDiskStorageSupplier implements DiskStorageSupplier {
     private void createStorage() throws IOException {
         File rootDirectory = new File(mBaseDirectoryPathSupplier.get(), mBaseDirectoryName);
         createRootDirectoryIfNecessary(rootDirectory);
-        DiskStorage storage = new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger);
+        DiskStorage storage = mIsPackedStorageEnabled ?
+                new PackedDiskStorage(rootDirectory, mVersion, mCacheErrorLogger) :
+                new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger, mAccessTimeAccuracyMs);
         mCurrentState = new State(rootDirectory, storage);
     }
 
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheKey;
+
+/**
+ * {@link FileCache} that can tell the resources it surely does not have without any I/O.
+ *
+ * <p>The buffered disk caches answer such misses on the calling thread whenever their cache
+ * implements this interface, and go to the disk for every lookup otherwise.
+ */
+public interface DefiniteMissFileCache extends FileCache {
+    /**
+     * Tells whether the resource is surely not in the cache, without any I/O, so that the misses
+     * can be answered on the calling thread. False means the resource may or may not be cached.
+     */
+    boolean isDefinitelyMissing(CacheKey key);
+}
@@ -40,6 +40,8 @@ public class DiskCacheConfig {
     private final CacheErrorLogger mCacheErrorLogger;
     private final CacheEventListener mCacheEventListener;
     private final DiskTrimmableRegistry mDiskTrimmableRegistry;
+    private final boolean mIsPackedStorageEnabled;
+    private final long mAccessTimeAccuracyMs;
 
     private DiskCacheConfig(Builder builder) {
         mVersion = builder.mVersion;
@@ -52,6 +54,8 @@ public class DiskCacheConfig {
         mCacheErrorLogger = builder.mCacheErrorLogger == null ? NoOpCacheErrorLogger.getInstance() : builder.mCacheErrorLogger;
         mCacheEventListener = builder.mCacheEventListener == null ? NoOpCacheEventListener.getInstance() : builder.mCacheEventListener;
         mDiskTrimmableRegistry = builder.mDiskTrimmableRegistry == null ? NoOpDiskTrimmableRegistry.getInstance() : builder.mDiskTrimmableRegistry;
+        mIsPackedStorageEnabled = builder.mIsPackedStorageEnabled;
+        mAccessTimeAccuracyMs = builder.mAccessTimeAccuracyMs;
     }
 
     /**
@@ -106,6 +110,14 @@ public class DiskCacheConfig {
         return mDiskTrimmableRegistry;
     }
 
+    public boolean isPackedStorageEnabled() {
+        return mIsPackedStorageEnabled;
+    }
+
+    public long getAccessTimeAccuracyMs() {
+        return mAccessTimeAccuracyMs;
+    }
+
     public static class Builder {
         private final @Nullable Context mContext;
         private int mVersion = 1;
@@ -118,6 +130,8 @@ public class DiskCacheConfig {
         private CacheErrorLogger mCacheErrorLogger;
         private CacheEventListener mCacheEventListener;
         private DiskTrimmableRegistry mDiskTrimmableRegistry;
+        private boolean mIsPackedStorageEnabled = false;
+        private long mAccessTimeAccuracyMs = DefaultDiskStorage.DEFAULT_ACCESS_TIME_ACCURACY_MS;
 
         private Builder(@Nullable Context context) {
             mContext = context;
@@ -186,7 +200,10 @@ public class DiskCacheConfig {
         }
 
         /**
-         * Provides the logic to determine the eviction order based on entry's access time and size
+         * Provides the logic to determine the eviction order based on entry's access time and size.
+         * Defaults to {@link DefaultEntryEvictionComparatorSupplier}; see also
+         * {@link FrequencyEntryEvictionComparatorSupplier} and
+         * {@link SizeAwareEntryEvictionComparatorSupplier}.
          */
         public Builder setEntryEvictionComparatorSupplier(EntryEvictionComparatorSupplier supplier) {
             mEntryEvictionComparatorSupplier = supplier;
@@ -202,7 +219,9 @@ public class DiskCacheConfig {
         }
 
         /**
-         * The listener for cache events.
+         * The listener for cache events. A
+         * {@link com.facebook.cache.common.DetailedCacheEventListener} is also told the key, size
+         * and latency of each event.
          */
         public Builder setCacheEventListener(CacheEventListener cacheEventListener) {
             mCacheEventListener = cacheEventListener;
@@ -219,6 +238,33 @@ public class DiskCacheConfig {
             return this;
         }
 
+        /**
+         * Packs the resources into large segment files, rather than storing each of them in a file
+         * of its own. Suits caches of many small resources, such as the small image cache; the
+         * resources are held in memory while being written.
+         *
+         * <p>Changing this drops the content of the cache.
+         *
+         * <p>See {@link PackedDiskStorage}.
+         */
+        public Builder setPackedStorageEnabled(boolean isPackedStorageEnabled) {
+            mIsPackedStorageEnabled = isPackedStorageEnabled;
+            return this;
+        }
+
+        /**
+         * Sets how far the access times kept on disk may lag behind the real ones. The cache keeps
+         * them in memory, and writes them out in batches, which saves a write per read; the
+         * eviction order after a restart is only as accurate as this.
+         *
+         * <p>Defaults to {@link DefaultDiskStorage#DEFAULT_ACCESS_TIME_ACCURACY_MS}; 0 writes out
+         * every access.
+         */
+        public Builder setAccessTimeAccuracyMs(long accessTimeAccuracyMs) {
+            mAccessTimeAccuracyMs = accessTimeAccuracyMs;
+            return this;
+        }
+
         public DiskCacheConfig build() {
             Preconditions.checkState(mBaseDirectoryPathSupplier != null || mContext != null, "Either a non-null context or a base directory path or" +
                     " supplier must be provided.");
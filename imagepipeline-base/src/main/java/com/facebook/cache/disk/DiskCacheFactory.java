@@ -8,6 +8,10 @@
  */
 package com.facebook.cache.disk;
 
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
 /**
  * Factory class for building a {@link DiskStorageCache}.
  */
@@ -16,15 +20,25 @@ public class DiskCacheFactory {
      * Creates a new {@link DiskStorageCache} from the given {@link DiskCacheConfig}
      */
     public static DiskStorageCache newDiskStorageCache(DiskCacheConfig diskCacheConfig) {
+        return newDiskStorageCache(diskCacheConfig, null);
+    }
+
+    /**
+     * Creates a new {@link DiskStorageCache} from the given {@link DiskCacheConfig}, which evicts on
+     * the given executor, see {@link DiskStorageCache}
+     */
+    public static DiskStorageCache newDiskStorageCache(DiskCacheConfig diskCacheConfig, @Nullable Executor evictionExecutor) {
         DiskStorageSupplier diskStorageSupplier = newDiskStorageSupplier(diskCacheConfig);
         DiskStorageCache.Params params = new DiskStorageCache.Params(diskCacheConfig.getMinimumSizeLimit(), diskCacheConfig
                 .getLowDiskSpaceSizeLimit(), diskCacheConfig.getDefaultSizeLimit());
         return new DiskStorageCache(diskStorageSupplier, diskCacheConfig.getEntryEvictionComparatorSupplier(), params, diskCacheConfig
-                .getCacheEventListener(), diskCacheConfig.getCacheErrorLogger(), diskCacheConfig.getDiskTrimmableRegistry());
+                .getCacheEventListener(), diskCacheConfig.getCacheErrorLogger(), diskCacheConfig.getDiskTrimmableRegistry(),
+                evictionExecutor);
     }
 
     private static DiskStorageSupplier newDiskStorageSupplier(DiskCacheConfig diskCacheConfig) {
         return new DefaultDiskStorageSupplier(diskCacheConfig.getVersion(), diskCacheConfig.getBaseDirectoryPathSupplier(), diskCacheConfig
-                .getBaseDirectoryName(), diskCacheConfig.getCacheErrorLogger());
+                .getBaseDirectoryName(), diskCacheConfig.getCacheErrorLogger(), diskCacheConfig.isPackedStorageEnabled(), diskCacheConfig
+                .getAccessTimeAccuracyMs());
     }
 }
@@ -8,7 +8,7 @@
  */
 package com.facebook.cache.disk;
 
-import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.binaryresource.BinaryResource;
 import com.facebook.cache.common.WriterCallback;
 
 import java.io.IOException;
@@ -28,7 +28,21 @@ public interface DiskStorage {
         long getTimestamp();
         /** calculated on first time and never changes so it can be used as immutable **/
         long getSize();
-        FileBinaryResource getResource();
+        BinaryResource getResource();
+    }
+    /**
+     * Entry telling its resource id and how often it was read. The cache locks the entries of the
+     * storages whose entries do not implement it more coarsely, does not answer their misses from
+     * its filter, and counts no accesses to them.
+     */
+    interface DetailedEntry extends Entry {
+        /** the id of the resource, as passed to the storage when it was committed **/
+        String getId();
+        /**
+         * the number of times the resource was accessed since it was written, as far as the storage
+         * keeps track of it, 0 if it does not
+         **/
+        int getAccessCount();
     }
     /**
      * is this storage enabled?
@@ -44,7 +58,7 @@ public interface DiskStorage {
      * @return the resource with the specified name. NULL if not found
      * @throws IOException for unexpected behavior.
      */
-    FileBinaryResource getResource(String resourceId, Object debugInfo) throws IOException;
+    BinaryResource getResource(String resourceId, Object debugInfo) throws IOException;
     /**
      * Get the filename of the resource with the specified name
      *
@@ -82,7 +96,7 @@ public interface DiskStorage {
      * @return the temporary resource created
      * @throws IOException on errors during this operation
      */
-    FileBinaryResource createTemporary(String resourceId, Object debugInfo) throws IOException;
+    BinaryResource createTemporary(String resourceId, Object debugInfo) throws IOException;
     /**
      * Update the contents of the resource. Executes outside the session lock.
      * The resource must exist. The writer callback will be provided with an
@@ -95,7 +109,7 @@ public interface DiskStorage {
      * @param callback   the write callback
      * @param debugInfo  helper object for debugging
      */
-    void updateResource(String resourceId, FileBinaryResource resource, WriterCallback callback, Object debugInfo) throws IOException;
+    void updateResource(String resourceId, BinaryResource resource, WriterCallback callback, Object debugInfo) throws IOException;
     /**
      * Commits the resource created by createTemporary() into the cache.
      * Once this is called the entry will be available to clients of the cache.
@@ -106,7 +120,7 @@ public interface DiskStorage {
      * @return the permanent resource created
      * @throws IOException on errors during the commit
      */
-    FileBinaryResource commit(String resourceId, FileBinaryResource temporary, Object debugInfo) throws IOException;
+    BinaryResource commit(String resourceId, BinaryResource temporary, Object debugInfo) throws IOException;
     /**
      * Get all entries currently in the storage
      *
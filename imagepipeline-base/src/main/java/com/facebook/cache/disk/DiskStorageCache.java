@@ -13,6 +13,9 @@ import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.DetailedCacheEventListener;
+import com.facebook.cache.common.SettableCacheEvent;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.disk.DiskTrimmable;
 import com.facebook.common.disk.DiskTrimmableRegistry;
@@ -20,17 +23,26 @@ import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.statfs.StatFsHelper;
 import com.facebook.common.time.Clock;
-import com.facebook.common.util.SecureHashUtil;
 
 import android.os.SystemClock;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -38,9 +50,36 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Cache that manages disk storage.
+ *
+ * <p> The operations on a single resource lock the shard of its resource id only, the same shards
+ * as the subdirectories of the {@link DefaultDiskStorage}, so that the reads and writes of
+ * unrelated resources run in parallel. The eviction and the size bookkeeping take the global lock,
+ * and the shard lock of each resource they remove; clearing the cache takes every shard lock. The
+ * global lock is always taken first, and the shard locks in the order of their shards. The
+ * batches of a {@link DefaultAsyncDiskStorage} over the cache take the lock of their shard once
+ * for all their resources.
+ *
+ * <p> Given an eviction executor, the cache evicts in the background: a write that finds the cache
+ * over its size limit, the high watermark, schedules an eviction down to the low watermark, which
+ * deletes the entries in small batches and lets go of the global lock in between. The entries read
+ * or written after it sorted them are no longer the oldest, so it skips them. The writes only
+ * evict by themselves once the cache grows past its hard ceiling, which the background eviction
+ * cannot keep up with. Without an executor, the writes evict as soon as the cache is over its
+ * limit.
+ *
+ * <p> A {@link BloomFilter} of the resource ids answers most misses without going to the storage,
+ * see {@link #isDefinitelyMissing}. It is rebuilt from the entries each time the size of the cache
+ * is recalculated. The resources are put into it both before they are committed, so that it never
+ * misses one being committed, and after, so that a rebuild listing the entries concurrently does
+ * not lose it. The filter is only used if the entries of the storage tell their ids, see
+ * {@link DiskStorage.DetailedEntry}.
+ *
+ * <p> A {@link DetailedCacheEventListener} is told the key, size and latency of each hit, miss,
+ * write and read or write failure, and each entry evicted with the time since its last access. The
+ * details are only gathered if the listener is one.
  */
 @ThreadSafe
-public class DiskStorageCache implements FileCache, DiskTrimmable {
+public class DiskStorageCache implements DefiniteMissFileCache, DiskTrimmable {
     // Any subclass that uses MediaCache/DiskCache's versioning system should use this
     // constant as the very first entry in their list of versions.  When all
     // subclasses of MediaCache have moved on to subsequent versions and are
@@ -50,11 +89,18 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     private static final long FUTURE_TIMESTAMP_THRESHOLD_MS = TimeUnit.HOURS.toMillis(2);
     // Force recalculation of the ground truth for filecache size at this interval
     private static final long FILECACHE_SIZE_UPDATE_PERIOD_MS = TimeUnit.MINUTES.toMillis(30);
+    // Purge the unexpected files at most at this interval, as it walks the whole directory tree
+    private static final long PURGE_UNEXPECTED_RESOURCES_PERIOD_MS = TimeUnit.MINUTES.toMillis(30);
     private static final double TRIMMING_LOWER_BOUND = 0.02;
+    // The filter of the resource ids is sized for twice the entries, and at least this many
+    private static final int MIN_RESOURCE_ID_FILTER_CAPACITY = 1024;
+    // The background eviction deletes this many entries at a time under the global lock
+    @VisibleForTesting static final int EVICTION_BATCH_SIZE = 32;
     private static final long UNINITIALIZED = -1;
     private final long mLowDiskSpaceCacheSizeLimit;
     private final long mDefaultCacheSizeLimit;
     private final CacheEventListener mCacheEventListener;
+    @Nullable private final DetailedCacheEventListener mDetailedCacheEventListener;
     private final long mCacheSizeLimitMinimum;
     private final StatFsHelper mStatFsHelper;
     private final DiskStorageSupplier mStorageSupplier;
@@ -62,13 +108,37 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     private final CacheErrorLogger mCacheErrorLogger;
     private final CacheStats mCacheStats;
     private final Clock mClock;
-    // synchronization object.
+    @Nullable private final Executor mEvictionExecutor;
+    private final AtomicBoolean mIsEvictionScheduled = new AtomicBoolean();
+    // The ids of the resources read or written since the background eviction sorted the entries,
+    // added under their shard lock. Null while no background eviction runs.
+    @Nullable private volatile Set<String> mResourcesUsedDuringEviction;
+    // Null until the entries are listed the first time. Set before the rebuilding one is cleared.
+    @Nullable private volatile BloomFilter mResourceIdFilter;
+    @Nullable private volatile BloomFilter mRebuildingResourceIdFilter;
+    // Set for good once an entry of the storage does not tell its id, as the filter then misses it.
+    private volatile boolean mFoundEntriesWithoutIds;
+    // synchronization object of the eviction and of the size bookkeeping.
     private final Object mLock = new Object();
-    private long mCacheSizeLimit;
-    @GuardedBy("mLock") private long mCacheSizeLastUpdateTime;
+    // synchronization objects of the operations on the resources, by shard of their id.
+    private final Object[] mShardLocks;
+    private volatile long mCacheSizeLimit;
+    private volatile long mCacheSizeLastUpdateTime;
+    @GuardedBy("mLock") private long mLastPurgeTime = UNINITIALIZED;
 
     public DiskStorageCache(DiskStorageSupplier diskStorageSupplier, EntryEvictionComparatorSupplier entryEvictionComparatorSupplier, Params
             params, CacheEventListener cacheEventListener, CacheErrorLogger cacheErrorLogger, @Nullable DiskTrimmableRegistry diskTrimmableRegistry) {
+        this(diskStorageSupplier, entryEvictionComparatorSupplier, params, cacheEventListener, cacheErrorLogger, diskTrimmableRegistry,
+                null);
+    }
+
+    /**
+     * @param evictionExecutor the executor of the background eviction, or null for the writes to
+     * evict by themselves
+     */
+    public DiskStorageCache(DiskStorageSupplier diskStorageSupplier, EntryEvictionComparatorSupplier entryEvictionComparatorSupplier, Params
+            params, CacheEventListener cacheEventListener, CacheErrorLogger cacheErrorLogger, @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+            @Nullable Executor evictionExecutor) {
         this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
         this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
         this.mCacheSizeLimit = params.mDefaultCacheSizeLimit;
@@ -77,13 +147,20 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         this.mEntryEvictionComparatorSupplier = entryEvictionComparatorSupplier;
         this.mCacheSizeLastUpdateTime = UNINITIALIZED;
         this.mCacheEventListener = cacheEventListener;
+        this.mDetailedCacheEventListener = cacheEventListener instanceof DetailedCacheEventListener ? (DetailedCacheEventListener)
+                cacheEventListener : null;
         this.mCacheSizeLimitMinimum = params.mCacheSizeLimitMinimum;
         this.mCacheErrorLogger = cacheErrorLogger;
         this.mCacheStats = new CacheStats();
+        this.mShardLocks = new Object[DefaultDiskStorage.SHARDING_BUCKET_COUNT];
+        for (int i = 0; i < mShardLocks.length; i++) {
+            mShardLocks[i] = new Object();
+        }
         if (diskTrimmableRegistry != null) {
             diskTrimmableRegistry.registerDiskTrimmable(this);
         }
         this.mClock = com.facebook.common.time.SystemClock.get();
+        this.mEvictionExecutor = evictionExecutor;
     }
 
     @Override
@@ -112,19 +189,30 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
      */
     @Override
     public BinaryResource getResource(final CacheKey key) {
+        final String resourceId = getResourceId(key);
+        final long startTime = getEventStartTime();
+        if (isDefinitelyMissing(resourceId)) {
+            mCacheEventListener.onMiss();
+            reportMiss(key, resourceId, startTime);
+            return null;
+        }
         try {
-            synchronized (mLock) {
-                FileBinaryResource resource = mStorageSupplier.get().getResource(getResourceId(key), key);
+            synchronized (getShardLock(resourceId)) {
+                BinaryResource resource = mStorageSupplier.get().getResource(resourceId, key);
                 if (resource == null) {
                     mCacheEventListener.onMiss();
+                    reportMiss(key, resourceId, startTime);
                 } else {
+                    markUsedDuringEviction(resourceId);
                     mCacheEventListener.onHit();
+                    reportHit(key, resourceId, resource, startTime);
                 }
                 return resource;
             }
         } catch (IOException ioe) {
             mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.GENERIC_IO, TAG, "getResource", ioe);
             mCacheEventListener.onReadException();
+            reportReadException(key, resourceId, ioe, startTime);
             return null;
         }
     }
@@ -141,12 +229,22 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
      * @return whether the keyed mValue is in the cache
      */
     public boolean probe(final CacheKey key) {
+        final String resourceId = getResourceId(key);
+        if (isDefinitelyMissing(resourceId)) {
+            return false;
+        }
+        final long startTime = getEventStartTime();
         try {
-            synchronized (mLock) {
-                return mStorageSupplier.get().touch(getResourceId(key), key);
+            synchronized (getShardLock(resourceId)) {
+                boolean exists = mStorageSupplier.get().touch(resourceId, key);
+                if (exists) {
+                    markUsedDuringEviction(resourceId);
+                }
+                return exists;
             }
         } catch (IOException e) {
             mCacheEventListener.onReadException();
+            reportReadException(key, resourceId, e, startTime);
             return false;
         }
     }
@@ -154,13 +252,17 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     /**
      * Creates a temp file for writing outside the session lock
      */
-    private FileBinaryResource createTemporaryResource(final String resourceId, final CacheKey key) throws IOException {
+    private BinaryResource createTemporaryResource(final String resourceId, final CacheKey key) throws IOException {
         maybeEvictFilesInCacheDir();
         return mStorageSupplier.get().createTemporary(resourceId, key);
     }
 
-    private void deleteTemporaryResource(FileBinaryResource fileResource) {
-        File tempFile = fileResource.getFile();
+    private void deleteTemporaryResource(BinaryResource temporary) {
+        if (!(temporary instanceof FileBinaryResource)) {
+            // not backed by a file of its own, nothing to clean up
+            return;
+        }
+        File tempFile = ((FileBinaryResource) temporary).getFile();
         if (tempFile.exists()) {
             FLog.e(TAG, "Temp file still on disk: %s ", tempFile);
             if (!tempFile.delete()) {
@@ -173,32 +275,52 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
      * Commits the provided temp file to the cache, renaming it to match
      * the cache's hashing convention.
      */
-    private FileBinaryResource commitResource(final String resourceId, final CacheKey key, final FileBinaryResource temporary) throws IOException {
-        synchronized (mLock) {
-            FileBinaryResource resource = mStorageSupplier.get().commit(resourceId, temporary, key);
+    private BinaryResource commitResource(final String resourceId, final CacheKey key, final BinaryResource temporary) throws IOException {
+        putIntoResourceIdFilters(resourceId);
+        synchronized (getShardLock(resourceId)) {
+            BinaryResource resource = mStorageSupplier.get().commit(resourceId, temporary, key);
+            markUsedDuringEviction(resourceId);
             mCacheStats.increment(resource.size(), 1);
+            putIntoResourceIdFilters(resourceId);
             return resource;
         }
     }
 
+    /** Puts the resource into the filter, and into the one being rebuilt if any, in that order. */
+    private void putIntoResourceIdFilters(String resourceId) {
+        BloomFilter rebuildingFilter = mRebuildingResourceIdFilter;
+        if (rebuildingFilter != null) {
+            rebuildingFilter.put(resourceId);
+        }
+        BloomFilter filter = mResourceIdFilter;
+        if (filter != null && !filter.put(resourceId)) {
+            // over capacity, rebuild the filter along with the next check of the cache size
+            mCacheSizeLastUpdateTime = UNINITIALIZED;
+        }
+    }
+
     @Override
     public BinaryResource insert(CacheKey key, WriterCallback callback) throws IOException {
         // Write to a temp file, then move it into place. This allows more parallelism
         // when writing files.
         mCacheEventListener.onWriteAttempt();
         final String resourceId = getResourceId(key);
+        final long startTime = getEventStartTime();
         try {
             // getting the file is synchronized
-            FileBinaryResource temporary = createTemporaryResource(resourceId, key);
+            BinaryResource temporary = createTemporaryResource(resourceId, key);
             try {
                 mStorageSupplier.get().updateResource(resourceId, temporary, callback, key);
                 // Committing the file is synchronized
-                return commitResource(resourceId, key, temporary);
+                BinaryResource resource = commitResource(resourceId, key, temporary);
+                reportWriteSuccess(key, resourceId, resource, startTime);
+                return resource;
             } finally {
                 deleteTemporaryResource(temporary);
             }
         } catch (IOException ioe) {
             mCacheEventListener.onWriteException();
+            reportWriteException(key, resourceId, ioe, startTime);
             FLog.e(TAG, "Failed inserting a file into the cache", ioe);
             throw ioe;
         }
@@ -206,15 +328,190 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     @Override
     public void remove(CacheKey key) {
-        synchronized (mLock) {
+        final String resourceId = getResourceId(key);
+        synchronized (getShardLock(resourceId)) {
             try {
-                mStorageSupplier.get().remove(getResourceId(key));
+                mStorageSupplier.get().remove(resourceId);
             } catch (IOException e) {
                 mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.DELETE_FILE, TAG, "delete: " + e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * Gets the resources of a batch of a {@link DefaultAsyncDiskStorage}, all in the given shard,
+     * holding its lock once. As with {@link #getResource}, the misses of the filter do not go to the
+     * storage, and the resources found count as used for the eviction.
+     *
+     * @return the resources found, by id
+     */
+    Map<String, BinaryResource> getResources(int shard, Collection<String> resourceIds) throws IOException {
+        final long startTime = getEventStartTime();
+        List<String> resourceIdsToGet = new ArrayList<>(resourceIds.size());
+        for (String resourceId : resourceIds) {
+            if (!isDefinitelyMissing(resourceId)) {
+                resourceIdsToGet.add(resourceId);
+            }
+        }
+        Map<String, BinaryResource> resources = new HashMap<>();
+        if (!resourceIdsToGet.isEmpty()) {
+            synchronized (mShardLocks[shard]) {
+                DiskStorage storage = mStorageSupplier.get();
+                if (storage instanceof DefaultDiskStorage) {
+                    resources.putAll(((DefaultDiskStorage) storage).getResources(resourceIdsToGet, true));
+                } else {
+                    for (String resourceId : resourceIdsToGet) {
+                        BinaryResource resource = storage.getResource(resourceId, null);
+                        if (resource != null) {
+                            resources.put(resourceId, resource);
+                        }
+                    }
+                }
+                for (String resourceId : resources.keySet()) {
+                    markUsedDuringEviction(resourceId);
+                }
+            }
+        }
+        for (String resourceId : resourceIds) {
+            BinaryResource resource = resources.get(resourceId);
+            if (resource == null) {
+                mCacheEventListener.onMiss();
+                reportMiss(null, resourceId, startTime);
+            } else {
+                mCacheEventListener.onHit();
+                reportHit(null, resourceId, resource, startTime);
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Finds which resources of a batch of a {@link DefaultAsyncDiskStorage}, all in the given shard,
+     * are in the cache, holding its lock once. As with {@link #hasKey}, no access is recorded.
+     *
+     * @return the ids of the resources found
+     */
+    Set<String> contains(int shard, Collection<String> resourceIds) throws IOException {
+        if (mResourceIdFilter == null) {
+            // list the entries once, so that the next lookups can be answered by the filter
+            synchronized (mLock) {
+                maybeUpdateFileCacheSize();
+            }
+        }
+        List<String> resourceIdsToCheck = new ArrayList<>(resourceIds.size());
+        for (String resourceId : resourceIds) {
+            if (!isDefinitelyMissing(resourceId)) {
+                resourceIdsToCheck.add(resourceId);
+            }
+        }
+        Set<String> foundResourceIds = new HashSet<>();
+        if (resourceIdsToCheck.isEmpty()) {
+            return foundResourceIds;
+        }
+        synchronized (mShardLocks[shard]) {
+            DiskStorage storage = mStorageSupplier.get();
+            if (storage instanceof DefaultDiskStorage) {
+                foundResourceIds.addAll(((DefaultDiskStorage) storage).getResources(resourceIdsToCheck, false).keySet());
+            } else {
+                for (String resourceId : resourceIdsToCheck) {
+                    if (storage.contains(resourceId, null)) {
+                        foundResourceIds.add(resourceId);
+                    }
+                }
+            }
+        }
+        return foundResourceIds;
+    }
+
+    /**
+     * Inserts the resources of a batch of a {@link DefaultAsyncDiskStorage}, all in the given shard.
+     * As with {@link #insert}, the resources are written outside of the lock of the shard, then
+     * committed under it, once for the whole batch, and counted in the size of the cache.
+     *
+     * @return the resources committed, by id; the writes that failed are left out
+     */
+    Map<String, BinaryResource> insert(int shard, Map<String, WriterCallback> writes) throws IOException {
+        final long startTime = getEventStartTime();
+        maybeEvictFilesInCacheDir();
+        DiskStorage storage = mStorageSupplier.get();
+        Map<String, BinaryResource> temporaries = new HashMap<>();
+        Map<String, IOException> failures = new HashMap<>();
+        Map<String, BinaryResource> resources = new HashMap<>();
+        try {
+            for (Map.Entry<String, WriterCallback> write : writes.entrySet()) {
+                String resourceId = write.getKey();
+                mCacheEventListener.onWriteAttempt();
+                try {
+                    BinaryResource temporary = storage.createTemporary(resourceId, null);
+                    temporaries.put(resourceId, temporary);
+                    storage.updateResource(resourceId, temporary, write.getValue(), null);
+                } catch (IOException ioe) {
+                    failures.put(resourceId, ioe);
+                }
+            }
+            Map<String, BinaryResource> temporariesToCommit = new HashMap<>(temporaries);
+            temporariesToCommit.keySet().removeAll(failures.keySet());
+            for (String resourceId : temporariesToCommit.keySet()) {
+                putIntoResourceIdFilters(resourceId);
+            }
+            synchronized (mShardLocks[shard]) {
+                if (storage instanceof DefaultDiskStorage) {
+                    resources.putAll(((DefaultDiskStorage) storage).commit(temporariesToCommit, failures));
+                } else {
+                    for (Map.Entry<String, BinaryResource> temporary : temporariesToCommit.entrySet()) {
+                        try {
+                            resources.put(temporary.getKey(), storage.commit(temporary.getKey(), temporary.getValue(), null));
+                        } catch (IOException ioe) {
+                            failures.put(temporary.getKey(), ioe);
+                        }
+                    }
+                }
+                for (Map.Entry<String, BinaryResource> resource : resources.entrySet()) {
+                    markUsedDuringEviction(resource.getKey());
+                    mCacheStats.increment(resource.getValue().size(), 1);
+                    putIntoResourceIdFilters(resource.getKey());
+                }
+            }
+        } finally {
+            for (BinaryResource temporary : temporaries.values()) {
+                deleteTemporaryResource(temporary);
+            }
+        }
+        for (Map.Entry<String, BinaryResource> resource : resources.entrySet()) {
+            reportWriteSuccess(null, resource.getKey(), resource.getValue(), startTime);
+        }
+        for (Map.Entry<String, IOException> failure : failures.entrySet()) {
+            mCacheEventListener.onWriteException();
+            reportWriteException(null, failure.getKey(), failure.getValue(), startTime);
+            FLog.e(TAG, "Failed inserting a file into the cache", failure.getValue());
+        }
+        return resources;
+    }
+
+    /**
+     * Removes the resources of a batch of a {@link DefaultAsyncDiskStorage}, all in the given shard,
+     * holding its lock once.
+     *
+     * @return the total size of the resources removed
+     */
+    long remove(int shard, Collection<String> resourceIds) throws IOException {
+        synchronized (mShardLocks[shard]) {
+            DiskStorage storage = mStorageSupplier.get();
+            if (storage instanceof DefaultDiskStorage) {
+                return ((DefaultDiskStorage) storage).remove(resourceIds);
+            }
+            long removedSize = 0;
+            for (String resourceId : resourceIds) {
+                try {
+                    removedSize += Math.max(0, storage.remove(resourceId));
+                } catch (IOException e) {
+                    mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.DELETE_FILE, TAG, "delete: " + e.getMessage(), e);
+                }
+            }
+            return removedSize;
+        }
+    }
+
     /**
      * Deletes old cache files.
      *
@@ -235,7 +532,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
                     // entry age of zero is disallowed.
                     long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
                     if (entryAgeMs >= cacheExpirationMs) {
-                        long entryRemovedSize = storage.remove(entry);
+                        long entryRemovedSize = removeEntry(storage, entry, CacheEventListener.EvictionReason.CONTENT_STALE);
                         if (entryRemovedSize > 0) {
                             itemsRemovedCount++;
                             itemsRemovedSize += entryRemovedSize;
@@ -244,7 +541,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
                         oldestRemainingEntryAgeMs = Math.max(oldestRemainingEntryAgeMs, entryAgeMs);
                     }
                 }
-                storage.purgeUnexpectedResources();
+                maybePurgeUnexpectedResources(storage);
                 if (itemsRemovedCount > 0) {
                     maybeUpdateFileCacheSize();
                     mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
@@ -257,17 +554,171 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         return oldestRemainingEntryAgeMs;
     }
 
+    /** Removes an entry listed by the storage, holding the lock of its shard. */
+    @GuardedBy("mLock")
+    private long removeEntry(DiskStorage storage, DiskStorage.Entry entry, CacheEventListener.EvictionReason reason) throws IOException {
+        return removeEntry(storage, entry, reason, null);
+    }
+
+    /**
+     * Same as {@link #removeEntry(DiskStorage, DiskStorage.Entry, CacheEventListener.EvictionReason)},
+     * but keeps the entry if its id is among the given ones by the time its shard lock is taken.
+     *
+     * @return the size deleted, 0 if the entry was kept
+     */
+    private long removeEntry(DiskStorage storage, DiskStorage.Entry entry, CacheEventListener.EvictionReason reason, @Nullable Set<String>
+            keptResourceIds) throws IOException {
+        final String resourceId = getId(entry);
+        final long deletedSize;
+        if (resourceId == null) {
+            deletedSize = removeHoldingShardLocks(storage, entry, 0);
+        } else {
+            synchronized (getShardLock(resourceId)) {
+                if (keptResourceIds != null && keptResourceIds.contains(resourceId)) {
+                    return 0;
+                }
+                deletedSize = storage.remove(entry);
+            }
+        }
+        if (deletedSize > 0 && mDetailedCacheEventListener != null) {
+            SettableCacheEvent event = SettableCacheEvent.obtain().setResourceId(resourceId).setItemSize(deletedSize).setTimeInCacheMs(Math
+                    .max(0, mClock.now() - entry.getTimestamp())).setEvictionReason(reason);
+            try {
+                mDetailedCacheEventListener.onEviction(event);
+            } finally {
+                event.recycle();
+            }
+        }
+        return deletedSize;
+    }
+
+    /**
+     * Removes an entry whose id is unknown, holding all the shard locks as it could be in any of
+     * the shards.
+     */
+    private long removeHoldingShardLocks(DiskStorage storage, DiskStorage.Entry entry, int shard) throws IOException {
+        if (shard < mShardLocks.length) {
+            synchronized (mShardLocks[shard]) {
+                return removeHoldingShardLocks(storage, entry, shard + 1);
+            }
+        }
+        return storage.remove(entry);
+    }
+
+    /** @return the resource id of the entry, null if the storage does not tell it */
+    @Nullable
+    private static String getId(DiskStorage.Entry entry) {
+        return entry instanceof DiskStorage.DetailedEntry ? ((DiskStorage.DetailedEntry) entry).getId() : null;
+    }
+
+    private Object getShardLock(String resourceId) {
+        return mShardLocks[DefaultDiskStorage.getShard(resourceId)];
+    }
+
+    /** Tells the background eviction, if any, that the resource was used. Must hold its shard lock. */
+    private void markUsedDuringEviction(String resourceId) {
+        Set<String> usedResourceIds = mResourcesUsedDuringEviction;
+        if (usedResourceIds != null) {
+            usedResourceIds.add(resourceId);
+        }
+    }
+
     private void reportEviction(CacheEventListener.EvictionReason reason, int itemCount, long itemSize) {
         mCacheEventListener.onEviction(reason, itemCount, itemSize);
     }
 
+    /** Gets the time the operations are timed from, if a detailed listener is told their latency. */
+    private long getEventStartTime() {
+        return mDetailedCacheEventListener != null ? System.nanoTime() : 0;
+    }
+
+    private SettableCacheEvent obtainEvent(@Nullable CacheKey key, String resourceId, long startTime) {
+        return SettableCacheEvent.obtain().setCacheKey(key).setResourceId(resourceId).setElapsedTimeNanos(System.nanoTime() - startTime);
+    }
+
+    private void reportHit(@Nullable CacheKey key, String resourceId, BinaryResource resource, long startTime) {
+        if (mDetailedCacheEventListener == null) {
+            return;
+        }
+        SettableCacheEvent event = obtainEvent(key, resourceId, startTime).setItemSize(resource.size());
+        try {
+            mDetailedCacheEventListener.onHit(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
+    private void reportMiss(@Nullable CacheKey key, String resourceId, long startTime) {
+        if (mDetailedCacheEventListener == null) {
+            return;
+        }
+        SettableCacheEvent event = obtainEvent(key, resourceId, startTime);
+        try {
+            mDetailedCacheEventListener.onMiss(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
+    private void reportWriteSuccess(@Nullable CacheKey key, String resourceId, BinaryResource resource, long startTime) {
+        if (mDetailedCacheEventListener == null) {
+            return;
+        }
+        SettableCacheEvent event = obtainEvent(key, resourceId, startTime).setItemSize(resource.size());
+        try {
+            mDetailedCacheEventListener.onWriteSuccess(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
+    private void reportReadException(CacheKey key, String resourceId, IOException exception, long startTime) {
+        if (mDetailedCacheEventListener == null) {
+            return;
+        }
+        SettableCacheEvent event = obtainEvent(key, resourceId, startTime).setException(exception);
+        try {
+            mDetailedCacheEventListener.onReadException(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
+    private void reportWriteException(@Nullable CacheKey key, String resourceId, IOException exception, long startTime) {
+        if (mDetailedCacheEventListener == null) {
+            return;
+        }
+        SettableCacheEvent event = obtainEvent(key, resourceId, startTime).setException(exception);
+        try {
+            mDetailedCacheEventListener.onWriteException(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
     /**
      * Test if the cache size has exceeded its limits, and if so, evict some files.
      * It also calls maybeUpdateFileCacheSize
      *
-     * This method uses mLock for synchronization purposes.
+     * This method uses mLock for synchronization purposes, unless the cache is known to be below
+     * its limit, or the eviction is left to the background, as it is called for each insert.
      */
     private void maybeEvictFilesInCacheDir() throws IOException {
+        if (mCacheStats.isInitialized() && !isFileCacheSizeUpdateDue()) {
+            updateFileCacheSizeLimit();
+            long cacheSize = mCacheStats.getSize();
+            if (cacheSize <= mCacheSizeLimit) {
+                return;
+            }
+            if (mEvictionExecutor != null && cacheSize <= getHardCeiling(mCacheSizeLimit)) {
+                scheduleEviction();
+                return;
+            }
+        } else if (mEvictionExecutor != null) {
+            // the background eviction recalculates the size as well
+            scheduleEviction();
+            return;
+        }
         synchronized (mLock) {
             boolean calculatedRightNow = maybeUpdateFileCacheSize();
             // Update the size limit (mCacheSizeLimit)
@@ -281,8 +732,108 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             }
             // If size has exceeded the size limit, evict some files
             if (cacheSize > mCacheSizeLimit) {
-                evictAboveSize(mCacheSizeLimit * 9 / 10, CacheEventListener.EvictionReason.CACHE_FULL); // 90%
+                evictAboveSize(getLowWatermark(mCacheSizeLimit), CacheEventListener.EvictionReason.CACHE_FULL);
+            }
+        }
+    }
+
+    /** The eviction brings the cache down to 90% of its size limit. */
+    private static long getLowWatermark(long cacheSizeLimit) {
+        return cacheSizeLimit * 9 / 10;
+    }
+
+    /** The writes evict by themselves once the cache is 10% over its size limit. */
+    private static long getHardCeiling(long cacheSizeLimit) {
+        return cacheSizeLimit + cacheSizeLimit / 10;
+    }
+
+    /** Schedules the background eviction, unless it is already scheduled or running. */
+    private void scheduleEviction() {
+        if (!mIsEvictionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            mEvictionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evictInBackground();
+                    } finally {
+                        mIsEvictionScheduled.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            mIsEvictionScheduled.set(false);
+            FLog.w(TAG, ree, "Failed to schedule the eviction");
+        }
+    }
+
+    /**
+     * Evicts the entries down to the low watermark, if the cache is over its size limit. The entries
+     * are sorted once, then deleted in batches of {@link #EVICTION_BATCH_SIZE}, letting go of the
+     * global lock and yielding in between, so that the writes, trims and reads get in. The entries
+     * those read or rewrite in the meantime are skipped, as their timestamp and size no longer match
+     * the ones they were sorted by.
+     */
+    @VisibleForTesting
+    void evictInBackground() {
+        final DiskStorage storage;
+        final Iterator<DiskStorage.Entry> entries;
+        final long desiredSize;
+        final Set<String> usedResourceIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        try {
+            synchronized (mLock) {
+                boolean calculatedRightNow = maybeUpdateFileCacheSize();
+                updateFileCacheSizeLimit();
+                if (mCacheStats.getSize() > mCacheSizeLimit && !calculatedRightNow) {
+                    // force a recalculation of the size before evicting
+                    mCacheStats.reset();
+                    maybeUpdateFileCacheSize();
+                }
+                if (mCacheStats.getSize() <= mCacheSizeLimit) {
+                    return;
+                }
+                storage = mStorageSupplier.get();
+                // track the uses from before the entries are listed, so that none is missed
+                mResourcesUsedDuringEviction = usedResourceIds;
+                entries = getSortedEntries(storage.getEntries()).iterator();
+                desiredSize = getLowWatermark(mCacheSizeLimit);
+            }
+        } catch (IOException ioe) {
+            mResourcesUsedDuringEviction = null;
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "evictInBackground: " + ioe.getMessage(), ioe);
+            return;
+        }
+        int itemCount = 0;
+        long sumItemSizes = 0L;
+        try {
+            boolean isDone = false;
+            while (!isDone) {
+                synchronized (mLock) {
+                    for (int i = 0; i < EVICTION_BATCH_SIZE && entries.hasNext() && mCacheStats.getSize() > desiredSize; i++) {
+                        long deletedSize = removeEntry(storage, entries.next(), CacheEventListener.EvictionReason.CACHE_FULL, usedResourceIds);
+                        if (deletedSize > 0) {
+                            mCacheStats.increment(-deletedSize, -1);
+                            itemCount++;
+                            sumItemSizes += deletedSize;
+                        }
+                    }
+                    // a clear, a trim or a write evicting by itself may have done the rest
+                    isDone = !entries.hasNext() || mCacheStats.getSize() <= desiredSize;
+                    if (isDone) {
+                        maybePurgeUnexpectedResources(storage);
+                    }
+                }
+                Thread.yield();
             }
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "evictInBackground: " + ioe.getMessage(), ioe);
+        } finally {
+            mResourcesUsedDuringEviction = null;
+        }
+        if (itemCount > 0) {
+            reportEviction(CacheEventListener.EvictionReason.CACHE_FULL, itemCount, sumItemSizes);
         }
     }
 
@@ -303,17 +854,30 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
             if (sumItemSizes > (deleteSize)) {
                 break;
             }
-            long deletedSize = storage.remove(entry);
+            long deletedSize = removeEntry(storage, entry, reason);
             if (deletedSize > 0) {
                 itemCount++;
                 sumItemSizes += deletedSize;
             }
         }
         mCacheStats.increment(-sumItemSizes, -itemCount);
-        storage.purgeUnexpectedResources();
+        maybePurgeUnexpectedResources(storage);
         reportEviction(reason, itemCount, sumItemSizes);
     }
 
+    /**
+     * Purges the unexpected files, unless that was done recently. The entries are listed from the
+     * storage's index, so this is the only part of the eviction that walks the directory tree.
+     */
+    @GuardedBy("mLock")
+    private void maybePurgeUnexpectedResources(DiskStorage storage) {
+        long now = SystemClock.elapsedRealtime();
+        if (mLastPurgeTime == UNINITIALIZED || (now - mLastPurgeTime) > PURGE_UNEXPECTED_RESOURCES_PERIOD_MS) {
+            storage.purgeUnexpectedResources();
+            mLastPurgeTime = now;
+        }
+    }
+
     /**
      * If any file timestamp is in the future (beyond now + FUTURE_TIMESTAMP_THRESHOLD_MS), we will
      * set its effective timestamp to 0 (the beginning of unix time), thus sending it to the head of
@@ -342,7 +906,6 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
      * Helper method that sets the cache size limit to be either a high, or a low limit.
      * If there is not enough free space to satisfy the high limit, it is set to the low limit.
      */
-    @GuardedBy("mLock")
     private void updateFileCacheSizeLimit() {
         // Test if mCacheSizeLimit can be set to the high limit
         boolean isAvailableSpaceLowerThanHighLimit = mStatFsHelper.testLowDiskSpace(StatFsHelper.StorageType.INTERNAL, mDefaultCacheSizeLimit -
@@ -360,23 +923,65 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     public void clearAll() {
         synchronized (mLock) {
-            try {
-                mStorageSupplier.get().clearAll();
-            } catch (IOException ioe) {
-                mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "clearAll: " + ioe.getMessage(), ioe);
+            clearAllHoldingShardLocks(0);
+        }
+    }
+
+    /**
+     * Takes the shard locks from the given one on, in order, and clears the storage once it holds
+     * them all, so that no commit renames into the directories being deleted, nor counts its
+     * resource in the stats being reset.
+     */
+    @GuardedBy("mLock")
+    private void clearAllHoldingShardLocks(int shard) {
+        if (shard < mShardLocks.length) {
+            synchronized (mShardLocks[shard]) {
+                clearAllHoldingShardLocks(shard + 1);
             }
-            mCacheStats.reset();
+            return;
         }
+        mResourceIdFilter = new BloomFilter(MIN_RESOURCE_ID_FILTER_CAPACITY);
+        try {
+            mStorageSupplier.get().clearAll();
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "clearAll: " + ioe.getMessage(), ioe);
+        }
+        mCacheStats.reset();
     }
 
     public boolean hasKey(final CacheKey key) {
+        final String resourceId = getResourceId(key);
+        if (mResourceIdFilter == null) {
+            // list the entries once, so that the next lookups can be answered by the filter
+            synchronized (mLock) {
+                maybeUpdateFileCacheSize();
+            }
+        }
+        if (isDefinitelyMissing(resourceId)) {
+            return false;
+        }
         try {
-            return mStorageSupplier.get().contains(getResourceId(key), key);
+            return mStorageSupplier.get().contains(resourceId, key);
         } catch (IOException e) {
             return false;
         }
     }
 
+    /**
+     * Tells whether the resource is surely not in the cache, from the filter of the resource ids.
+     * It does no I/O, so it can be called on any thread; it returns false until the entries of the
+     * cache are listed the first time, and for about 1% of the resources not in the cache.
+     */
+    @Override
+    public boolean isDefinitelyMissing(final CacheKey key) {
+        return isDefinitelyMissing(getResourceId(key));
+    }
+
+    private boolean isDefinitelyMissing(String resourceId) {
+        BloomFilter filter = mResourceIdFilter;
+        return filter != null && !mFoundEntriesWithoutIds && !filter.mightContain(resourceId);
+    }
+
     @Override
     public void trimToMinimum() {
         synchronized (mLock) {
@@ -414,24 +1019,26 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     /**
      * If file cache size is not calculated or if it was calculated
-     * a long time ago (FILECACHE_SIZE_UPDATE_PERIOD_MS) recalculated from file listing.
+     * a long time ago (FILECACHE_SIZE_UPDATE_PERIOD_MS) recalculated from the storage entries.
      *
      * @return true if it was recalculated, false otherwise.
      */
     @GuardedBy("mLock")
     private boolean maybeUpdateFileCacheSize() {
         boolean result = false;
-        long now = SystemClock.elapsedRealtime();
-        if ((!mCacheStats.isInitialized()) ||
-                mCacheSizeLastUpdateTime == UNINITIALIZED ||
-                (now - mCacheSizeLastUpdateTime) > FILECACHE_SIZE_UPDATE_PERIOD_MS) {
+        if (!mCacheStats.isInitialized() || isFileCacheSizeUpdateDue()) {
             calcFileCacheSize();
-            mCacheSizeLastUpdateTime = now;
+            mCacheSizeLastUpdateTime = SystemClock.elapsedRealtime();
             result = true;
         }
         return result;
     }
 
+    private boolean isFileCacheSizeUpdateDue() {
+        long lastUpdateTime = mCacheSizeLastUpdateTime;
+        return lastUpdateTime == UNINITIALIZED || (SystemClock.elapsedRealtime() - lastUpdateTime) > FILECACHE_SIZE_UPDATE_PERIOD_MS;
+    }
+
     @GuardedBy("mLock")
     private void calcFileCacheSize() {
         long size = 0;
@@ -442,10 +1049,33 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         long maxTimeDelta = -1;
         long now = mClock.now();
         long timeThreshold = now + FUTURE_TIMESTAMP_THRESHOLD_MS;
+        BloomFilter filter = null;
         try {
             DiskStorage storage = mStorageSupplier.get();
-            Collection<DiskStorage.Entry> entries = storage.getEntries();
+            Collection<DiskStorage.Entry> entries;
+            try {
+                // the resources committed while listing the entries go into the new filter as well;
+                // it is sized like the current one, unless there are too many entries for that
+                BloomFilter currentFilter = mResourceIdFilter;
+                filter = new BloomFilter(currentFilter == null ? MIN_RESOURCE_ID_FILTER_CAPACITY : currentFilter.getCapacity());
+                mRebuildingResourceIdFilter = filter;
+                entries = storage.getEntries();
+                if (entries.size() * 2 > filter.getCapacity()) {
+                    filter = new BloomFilter(entries.size() * 2);
+                    mRebuildingResourceIdFilter = filter;
+                    entries = storage.getEntries();
+                }
+            } catch (IOException ioe) {
+                mRebuildingResourceIdFilter = null;
+                throw ioe;
+            }
             for (DiskStorage.Entry entry : entries) {
+                String resourceId = getId(entry);
+                if (resourceId != null) {
+                    filter.put(resourceId);
+                } else {
+                    mFoundEntriesWithoutIds = true;
+                }
                 count++;
                 size += entry.getSize();
                 //Check if any files have a future timestamp, beyond our threshold
@@ -463,6 +1093,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
                         " bytes, and a maximum time delta of " + maxTimeDelta + "ms", null);
             }
             mCacheStats.set(size, count);
+            mResourceIdFilter = filter;
+            mRebuildingResourceIdFilter = null;
         } catch (IOException ioe) {
             mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.GENERIC_IO, TAG, "calcFileCacheSize: " + ioe.getMessage(), ioe);
         }
@@ -470,53 +1102,54 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     @VisibleForTesting
     String getResourceId(final CacheKey key) {
-        try {
-            return SecureHashUtil.makeSHA1HashBase64(key.toString().getBytes("UTF-8"));
-        } catch (UnsupportedEncodingException e) {
-            // This should never happen. All VMs support UTF-8
-            throw new RuntimeException(e);
-        }
+        return CacheKeyUtil.getResourceId(key);
     }
 
     /**
      * Stats about the cache - currently size of the cache (in bytes) and number of items in
-     * the cache
+     * the cache. They are updated without locking, as each insert updates them.
      */
     @VisibleForTesting
     static class CacheStats {
-        private boolean mInitialized = false;
-        private long mSize = UNINITIALIZED;    // size of the cache (in bytes)
-        private long mCount = UNINITIALIZED;   // number of items in the cache
+        private final AtomicLong mSize = new AtomicLong(UNINITIALIZED);    // size of the cache (in bytes)
+        private final AtomicLong mCount = new AtomicLong(UNINITIALIZED);   // number of items in the cache
 
-        public synchronized boolean isInitialized() {
-            return mInitialized;
+        public boolean isInitialized() {
+            return mSize.get() != UNINITIALIZED;
         }
 
-        public synchronized void reset() {
-            mInitialized = false;
-            mCount = UNINITIALIZED;
-            mSize = UNINITIALIZED;
+        public void reset() {
+            mSize.set(UNINITIALIZED);
+            mCount.set(UNINITIALIZED);
         }
 
-        public synchronized void set(long size, long count) {
-            mCount = count;
-            mSize = size;
-            mInitialized = true;
+        public void set(long size, long count) {
+            mCount.set(count);
+            mSize.set(size);
         }
 
-        public synchronized void increment(long sizeIncrement, long countIncrement) {
-            if (mInitialized) {
-                mSize += sizeIncrement;
-                mCount += countIncrement;
-            }
+        public void increment(long sizeIncrement, long countIncrement) {
+            // the increments racing with a reset are dropped, the stats are recalculated anyway
+            incrementIfInitialized(mSize, sizeIncrement);
+            incrementIfInitialized(mCount, countIncrement);
         }
 
-        public synchronized long getSize() {
-            return mSize;
+        public long getSize() {
+            return mSize.get();
         }
 
-        public synchronized long getCount() {
-            return mCount;
+        public long getCount() {
+            return mCount.get();
+        }
+
+        private static void incrementIfInitialized(AtomicLong value, long increment) {
+            long current;
+            do {
+                current = value.get();
+                if (current == UNINITIALIZED) {
+                    return;
+                }
+            } while (!value.compareAndSet(current, current + increment));
         }
     }
 
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * In-memory index of the content files of a {@link DiskStorage}: resource id to size, last
+ * access time and access count. It lets the storage list its entries without walking the
+ * directory tree and stat'ing each file.
+ *
+ * <p> The index is persisted through an append-only journal, one record per line:
+ * <pre>
+ *     ADD resourceId size timestamp accessCount
+ *     ACCESS resourceId timestamp accessCount
+ *     REMOVE resourceId
+ * </pre>
+ * The journal is replayed on load, and compacted to a single ADD per entry once most of its
+ * records are redundant. The ADD and REMOVE records are flushed right away.
+ *
+ * <p> The accesses are kept in memory, and journaled in batches: an access is only journaled if the
+ * last journaled time of the entry is older than the access time accuracy, or if the access count
+ * at least doubled since it was last journaled. The pending ones are flushed once there are
+ * {@link #MAX_PENDING_ACCESS_COUNT} of them, or once the oldest is older than the accuracy. So the
+ * access times found on load are within the accuracy of the real ones, and the access counts of
+ * the resources read more than once are at least half the real ones, but for the accesses pending
+ * when the process died.
+ *
+ * <p> If the journal cannot be read, {@link #load} fails and the owner is expected to rebuild the
+ * index from the files. If it cannot be written, it is deleted and the index keeps working in
+ * memory only until the journal is rewritten as a whole, so that a stale journal is never replayed.
+ */
+@ThreadSafe
+class DiskStorageIndex {
+    private static final Class<?> TAG = DiskStorageIndex.class;
+    static final String JOURNAL_FILE_NAME = "journal";
+    private static final String JOURNAL_TEMP_FILE_NAME = "journal.tmp";
+    private static final String MAGIC = "fresco.disk.index";
+    // 2: the records carry the access count
+    private static final String VERSION = "2";
+    private static final String ADD = "ADD";
+    private static final String ACCESS = "ACCESS";
+    private static final String REMOVE = "REMOVE";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // The journal is compacted once it has at least this many redundant records, and at least as
+    // many of them as live entries.
+    @VisibleForTesting static final int MIN_REDUNDANT_RECORD_COUNT = 2000;
+    @VisibleForTesting static final int MAX_PENDING_ACCESS_COUNT = 64;
+    private final File mJournalFile;
+    private final File mJournalTempFile;
+    private final long mAccessTimeAccuracyMs;
+    @GuardedBy("this") private final Map<String, Entry> mEntries = new HashMap<>();
+    @GuardedBy("this") private boolean mIsLoaded;
+    @GuardedBy("this") private long mSize;
+    @GuardedBy("this") private int mRecordCount;
+    @GuardedBy("this") @Nullable private Writer mJournalWriter;
+    // Set once writing the journal fails, until it is compacted successfully.
+    @GuardedBy("this") private boolean mIsJournalFailed;
+    // The access times to journal, by resource id, in the order of the first pending access.
+    @GuardedBy("this") private final Map<String, Long> mPendingAccesses = new LinkedHashMap<>();
+    @GuardedBy("this") private long mFirstPendingAccessTime;
+
+    /**
+     * @param accessTimeAccuracyMs how far the journaled access times may lag behind, 0 to journal
+     * every access
+     */
+    DiskStorageIndex(File directory, long accessTimeAccuracyMs) {
+        Preconditions.checkNotNull(directory);
+        Preconditions.checkArgument(accessTimeAccuracyMs >= 0);
+        mJournalFile = new File(directory, JOURNAL_FILE_NAME);
+        mJournalTempFile = new File(directory, JOURNAL_TEMP_FILE_NAME);
+        mAccessTimeAccuracyMs = accessTimeAccuracyMs;
+    }
+
+    /** Whether the index was loaded from the journal or rebuilt since. */
+    synchronized boolean isLoaded() {
+        return mIsLoaded;
+    }
+
+    /**
+     * Replays the journal into the index.
+     *
+     * @return true if the journal was read, false if it is missing or corrupt, and the index has to
+     * be rebuilt
+     */
+    synchronized boolean load() {
+        resetLocked();
+        if (!mJournalFile.exists()) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                replay(line);
+                mRecordCount++;
+            }
+        } catch (IOException ioe) {
+            // a record cut short by a crash lands here as well
+            FLog.w(TAG, ioe, "Discarding journal %s", mJournalFile);
+            resetLocked();
+            return false;
+        } finally {
+            closeQuietly(reader);
+        }
+        mIsLoaded = true;
+        return true;
+    }
+
+    /** Replaces the index with the given entries, and rewrites the journal. */
+    synchronized void rebuild(Collection<Entry> entries) {
+        resetLocked();
+        for (Entry entry : entries) {
+            putLocked(entry);
+        }
+        mIsLoaded = true;
+        compactLocked();
+    }
+
+    /** Records a resource committed to the storage, or overwritten. */
+    synchronized void recordAdd(String resourceId, long size, long timestamp) {
+        putLocked(new Entry(resourceId, size, timestamp));
+        append(ADD + ' ' + resourceId + ' ' + size + ' ' + timestamp + ' ' + 0);
+        maybeFlushAccessesLocked(timestamp);
+    }
+
+    /** Records resources committed to the storage in one go, journaling them with a single flush. */
+    synchronized void recordAdds(Collection<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<String> records = new ArrayList<>(entries.size());
+        long now = 0;
+        for (Entry entry : entries) {
+            putLocked(entry);
+            records.add(ADD + ' ' + entry.resourceId + ' ' + entry.size + ' ' + entry.timestamp + ' ' + entry.accessCount);
+            now = Math.max(now, entry.timestamp);
+        }
+        append(records);
+        maybeFlushAccessesLocked(now);
+    }
+
+    /**
+     * Records an access to a resource. It is journaled later, if at all, see above.
+     *
+     * @return false if the resource is not in the index
+     */
+    synchronized boolean recordAccess(String resourceId, long timestamp) {
+        Entry entry = mEntries.get(resourceId);
+        if (entry == null) {
+            return false;
+        }
+        int accessCount = entry.accessCount < Integer.MAX_VALUE ? entry.accessCount + 1 : entry.accessCount;
+        mEntries.put(resourceId, new Entry(resourceId, entry.size, timestamp, accessCount, entry.journaledTimestamp, entry
+                .journaledAccessCount));
+        if (Math.abs(timestamp - entry.journaledTimestamp) >= mAccessTimeAccuracyMs || accessCount >= 2L * Math.max(entry
+                .journaledAccessCount, 1)) {
+            if (mPendingAccesses.isEmpty()) {
+                mFirstPendingAccessTime = timestamp;
+            }
+            mPendingAccesses.put(resourceId, timestamp);
+        }
+        maybeFlushAccessesLocked(timestamp);
+        return true;
+    }
+
+    /** Journals the pending accesses right away. */
+    synchronized void flushAccesses() {
+        if (mPendingAccesses.isEmpty()) {
+            return;
+        }
+        List<String> records = new ArrayList<>(mPendingAccesses.size());
+        for (Map.Entry<String, Long> access : mPendingAccesses.entrySet()) {
+            String resourceId = access.getKey();
+            long timestamp = access.getValue();
+            Entry entry = mEntries.get(resourceId);
+            records.add(ACCESS + ' ' + resourceId + ' ' + timestamp + ' ' + entry.accessCount);
+            mEntries.put(resourceId, new Entry(resourceId, entry.size, entry.timestamp, entry.accessCount, timestamp, entry.accessCount));
+        }
+        mPendingAccesses.clear();
+        append(records);
+    }
+
+    @VisibleForTesting
+    synchronized int getPendingAccessCount() {
+        return mPendingAccesses.size();
+    }
+
+    @GuardedBy("this")
+    private void maybeFlushAccessesLocked(long now) {
+        if (!mPendingAccesses.isEmpty() &&
+                (mPendingAccesses.size() >= MAX_PENDING_ACCESS_COUNT || Math.abs(now - mFirstPendingAccessTime) >= mAccessTimeAccuracyMs)) {
+            flushAccesses();
+        }
+    }
+
+    /** Records a resource removed from the storage. */
+    synchronized void recordRemove(String resourceId) {
+        if (removeLocked(resourceId) != null) {
+            append(REMOVE + ' ' + resourceId);
+        }
+    }
+
+    /** Records resources removed from the storage in one go, journaling them with a single flush. */
+    synchronized void recordRemoves(Collection<String> resourceIds) {
+        List<String> records = new ArrayList<>();
+        for (String resourceId : resourceIds) {
+            if (removeLocked(resourceId) != null) {
+                records.add(REMOVE + ' ' + resourceId);
+            }
+        }
+        if (!records.isEmpty()) {
+            append(records);
+        }
+    }
+
+    /**
+     * Removes the resources not in the given set, for when the files went missing behind our back.
+     * As the set comes from a walk of the files that ran without the lock, a resource not in the set
+     * is only removed once the checker confirms its file is gone: it may have been added since.
+     */
+    synchronized void retainAll(Set<String> resourceIds, ResourceChecker resourceChecker) {
+        boolean isChanged = false;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!resourceIds.contains(entry.resourceId) && !resourceChecker.exists(entry.resourceId)) {
+                iterator.remove();
+                mPendingAccesses.remove(entry.resourceId);
+                mSize -= entry.size;
+                isChanged = true;
+            }
+        }
+        if (isChanged) {
+            compactLocked();
+        }
+    }
+
+    /** Empties the index, and starts a new journal. */
+    synchronized void clear() {
+        resetLocked();
+        mIsLoaded = true;
+        compactLocked();
+    }
+
+    synchronized boolean contains(String resourceId) {
+        return mEntries.containsKey(resourceId);
+    }
+
+    /** Gets a snapshot of the entries, in no particular order. */
+    synchronized List<Entry> getEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    synchronized long getSize() {
+        return mSize;
+    }
+
+    @VisibleForTesting
+    synchronized int getRecordCount() {
+        return mRecordCount;
+    }
+
+    @GuardedBy("this")
+    private void replay(String line) throws IOException {
+        String[] parts = line.split(" ");
+        if (ADD.equals(parts[0]) && parts.length == 5) {
+            putLocked(new Entry(parts[1], parseLong(parts[2]), parseLong(parts[3]), parseInt(parts[4])));
+        } else if (ACCESS.equals(parts[0]) && parts.length == 4) {
+            Entry entry = mEntries.get(parts[1]);
+            if (entry != null) {
+                mEntries.put(entry.resourceId, new Entry(entry.resourceId, entry.size, parseLong(parts[2]), parseInt(parts[3])));
+            }
+        } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+            removeLocked(parts[1]);
+        } else {
+            throw new IOException("unexpected journal record: " + line);
+        }
+    }
+
+    private static long parseLong(String value) throws IOException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("unexpected journal value: " + value);
+        }
+    }
+
+    private static int parseInt(String value) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("unexpected journal value: " + value);
+        }
+    }
+
+    @GuardedBy("this")
+    private void putLocked(Entry entry) {
+        // the entry carries its access time
+        mPendingAccesses.remove(entry.resourceId);
+        Entry oldEntry = mEntries.put(entry.resourceId, entry);
+        if (oldEntry != null) {
+            mSize -= oldEntry.size;
+        }
+        mSize += entry.size;
+    }
+
+    @GuardedBy("this")
+    @Nullable
+    private Entry removeLocked(String resourceId) {
+        mPendingAccesses.remove(resourceId);
+        Entry entry = mEntries.remove(resourceId);
+        if (entry != null) {
+            mSize -= entry.size;
+        }
+        return entry;
+    }
+
+    @GuardedBy("this")
+    private void resetLocked() {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+        mEntries.clear();
+        mPendingAccesses.clear();
+        mSize = 0;
+        mRecordCount = 0;
+        mIsLoaded = false;
+        mIsJournalFailed = false;
+    }
+
+    @GuardedBy("this")
+    private void append(String record) {
+        append(Collections.singletonList(record));
+    }
+
+    /** Appends the records, and flushes them at once. */
+    @GuardedBy("this")
+    private void append(List<String> records) {
+        if (mIsJournalFailed) {
+            return;
+        }
+        if (mJournalWriter == null && !mJournalFile.exists()) {
+            // the journal was deleted, e.g. along with the rest of the storage; start a new one
+            compactLocked();
+            return;
+        }
+        try {
+            if (mJournalWriter == null) {
+                mJournalWriter = newWriter(mJournalFile, true);
+            }
+            for (String record : records) {
+                mJournalWriter.write(record);
+                mJournalWriter.write('\n');
+            }
+            mJournalWriter.flush();
+            mRecordCount += records.size();
+        } catch (IOException ioe) {
+            onWriteFailed(ioe);
+            return;
+        }
+        int redundantRecordCount = mRecordCount - mEntries.size();
+        if (redundantRecordCount >= MIN_REDUNDANT_RECORD_COUNT && redundantRecordCount >= mEntries.size()) {
+            compactLocked();
+        }
+    }
+
+    /** Writes a journal of one ADD record per entry, and swaps it in for the current one. */
+    @GuardedBy("this")
+    private void compactLocked() {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+        Writer writer = null;
+        try {
+            FileUtils.mkdirs(mJournalFile.getParentFile());
+            writer = newWriter(mJournalTempFile, false);
+            writer.write(MAGIC);
+            writer.write('\n');
+            writer.write(VERSION);
+            writer.write('\n');
+            for (Entry entry : mEntries.values()) {
+                writer.write(ADD + ' ' + entry.resourceId + ' ' + entry.size + ' ' + entry.timestamp + ' ' + entry.accessCount + '\n');
+            }
+            writer.close();
+            writer = null;
+            FileUtils.rename(mJournalTempFile, mJournalFile);
+            mRecordCount = mEntries.size();
+            mIsJournalFailed = false;
+            markJournaledLocked();
+        } catch (IOException ioe) {
+            closeQuietly(writer);
+            mJournalTempFile.delete();
+            onWriteFailed(ioe);
+        }
+    }
+
+    /** Marks the accesses of all the entries as journaled, once they were all written. */
+    @GuardedBy("this")
+    private void markJournaledLocked() {
+        mPendingAccesses.clear();
+        for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            if (entry.journaledTimestamp != entry.timestamp || entry.journaledAccessCount != entry.accessCount) {
+                mapEntry.setValue(new Entry(entry.resourceId, entry.size, entry.timestamp, entry.accessCount));
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void onWriteFailed(IOException ioe) {
+        FLog.w(TAG, ioe, "Failed writing journal %s", mJournalFile);
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+        mIsJournalFailed = true;
+        // a journal missing records would resurrect removed entries on the next load
+        mJournalFile.delete();
+    }
+
+    private static Writer newWriter(File file, boolean append) throws FileNotFoundException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), UTF_8));
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ioe) {
+                // nothing to do
+            }
+        }
+    }
+
+    /** A resource in the index. */
+    @Immutable
+    /** Tells whether the file of a resource exists. */
+    interface ResourceChecker {
+        boolean exists(String resourceId);
+    }
+
+    static class Entry {
+        final String resourceId;
+        final long size;
+        final long timestamp;
+        // The number of accesses since the resource was added.
+        final int accessCount;
+        // The access time and count last written to the journal.
+        final long journaledTimestamp;
+        final int journaledAccessCount;
+
+        Entry(String resourceId, long size, long timestamp) {
+            this(resourceId, size, timestamp, 0);
+        }
+
+        Entry(String resourceId, long size, long timestamp, int accessCount) {
+            this(resourceId, size, timestamp, accessCount, timestamp, accessCount);
+        }
+
+        private Entry(String resourceId, long size, long timestamp, int accessCount, long journaledTimestamp, int journaledAccessCount) {
+            this.resourceId = resourceId;
+            this.size = size;
+            this.timestamp = timestamp;
+            this.accessCount = accessCount;
+            this.journaledTimestamp = journaledTimestamp;
+            this.journaledAccessCount = journaledAccessCount;
+        }
+    }
+}
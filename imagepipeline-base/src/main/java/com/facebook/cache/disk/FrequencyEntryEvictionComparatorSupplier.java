@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts entries by how often they were accessed, with aging, evicting the least used ones first.
+ *
+ * <p> An entry scores its access count plus one, for the write, halved for every half life since
+ * its last access, so the entries that were popular a long time ago make way for the new ones.
+ * The entries with the lowest score are evicted first, and the oldest ones among equal scores.
+ *
+ * <p> The storage has to keep track of the access counts, see
+ * {@link DiskStorage.DetailedEntry#getAccessCount};
+ * otherwise the entries are ordered by date of the last access, as by
+ * {@link DefaultEntryEvictionComparatorSupplier}.
+ */
+public class FrequencyEntryEvictionComparatorSupplier implements EntryEvictionComparatorSupplier {
+    public static final long DEFAULT_HALF_LIFE_MS = TimeUnit.DAYS.toMillis(1);
+    private final long mHalfLifeMs;
+    private final Clock mClock;
+
+    public FrequencyEntryEvictionComparatorSupplier() {
+        this(DEFAULT_HALF_LIFE_MS);
+    }
+
+    /**
+     * @param halfLifeMs the time after which an access counts half
+     */
+    public FrequencyEntryEvictionComparatorSupplier(long halfLifeMs) {
+        this(halfLifeMs, SystemClock.get());
+    }
+
+    @VisibleForTesting
+    FrequencyEntryEvictionComparatorSupplier(long halfLifeMs, Clock clock) {
+        Preconditions.checkArgument(halfLifeMs > 0);
+        mHalfLifeMs = halfLifeMs;
+        mClock = Preconditions.checkNotNull(clock);
+    }
+
+    @Override
+    public EntryEvictionComparator get() {
+        // the scores decay over time, so they are all computed as of now, or the order would not hold
+        final long now = mClock.now();
+        return new EntryEvictionComparator() {
+            @Override
+            public int compare(DiskStorage.Entry e1, DiskStorage.Entry e2) {
+                int result = Double.compare(getScore(e1, now), getScore(e2, now));
+                if (result != 0) {
+                    return result;
+                }
+                long time1 = e1.getTimestamp();
+                long time2 = e2.getTimestamp();
+                return time1 < time2 ? -1 : ((time2 == time1) ? 0 : 1);
+            }
+        };
+    }
+
+    /**
+     * Gets the score of the entry as of the given time, the entries with the lowest ones being
+     * evicted first.
+     */
+    double getScore(DiskStorage.Entry entry, long now) {
+        return getAgedFrequency(entry, now);
+    }
+
+    /** Gets the access count of the entry, plus one for the write, aged by the time since its last access. */
+    final double getAgedFrequency(DiskStorage.Entry entry, long now) {
+        long ageMs = Math.max(0, now - entry.getTimestamp());
+        int accessCount = entry instanceof DiskStorage.DetailedEntry ? ((DiskStorage.DetailedEntry) entry).getAccessCount() : 0;
+        return (accessCount + 1.0) * Math.pow(0.5, (double) ageMs / mHalfLifeMs);
+    }
+}
@@ -0,0 +1,889 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.SystemClock;
+import com.facebook.common.util.ByteConstants;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A disk storage that packs the resources into large segment files, rather than storing each of
+ * them in a file of its own. Meant for caches of many small resources, such as the small image
+ * cache, where a file per resource costs an inode, a temp file, a rename and a timestamp update,
+ * and wastes the rest of the last filesystem block.
+ *
+ * <p> The resources are appended to the active segment, which is sealed once it reaches the
+ * segment size. An in-memory index maps each resource id to its segment and offset, and the
+ * resources are read with positional reads on the segment's channel. Removing a resource appends
+ * a tombstone. Once the dead space takes more than half of the storage, the segment with the least
+ * live data is compacted: its live resources are copied to the active segment, and it is deleted.
+ *
+ * <p> Each record is checksummed. The index is rebuilt by scanning the segments on first use, and
+ * a tail torn by a crash is truncated from the active segment. The access times and counts are
+ * kept in memory only; after a restart the resources are ordered by the time they were written,
+ * and count no accesses.
+ */
+@ThreadSafe
+public class PackedDiskStorage implements DiskStorage {
+    private static final Class<?> TAG = PackedDiskStorage.class;
+    // p2: the resources are named by CacheKeyUtil#getResourceId
+    private static final String PACKED_DISK_STORAGE_VERSION_PREFIX = "p2";
+    private static final String SEGMENT_FILE_PREFIX = "segment.";
+    @VisibleForTesting static final long DEFAULT_SEGMENT_SIZE = ByteConstants.MB;
+    private static final int RECORD_MAGIC = 0x46504b31;
+    // magic, checksum, timestamp, key length, data length
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int TOMBSTONE_DATA_LENGTH = -1;
+    // A segment is compacted once the live data is less than this ratio of the storage.
+    private static final float MIN_LIVE_RATIO = 0.5f;
+    private static final int MAX_KEY_LENGTH = 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final File mRootDirectory;
+    private final File mVersionDirectory;
+    private final CacheErrorLogger mCacheErrorLogger;
+    private final Clock mClock;
+    private final long mSegmentSize;
+    @GuardedBy("this") private final Map<String, Location> mIndex = new HashMap<>();
+    @GuardedBy("this") private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+    @GuardedBy("this") @Nullable private Segment mActiveSegment;
+    @GuardedBy("this") private boolean mIsLoaded;
+
+    /**
+     * @param rootDirectory    root directory to create all content under
+     * @param version          version of the format used in the resources. If passed a different
+     *                         version, resources saved with the previous value will be purged.
+     * @param cacheErrorLogger logger for various events
+     */
+    public PackedDiskStorage(File rootDirectory, int version, CacheErrorLogger cacheErrorLogger) {
+        this(rootDirectory, version, cacheErrorLogger, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @VisibleForTesting
+    PackedDiskStorage(File rootDirectory, int version, CacheErrorLogger cacheErrorLogger, long segmentSize) {
+        Preconditions.checkArgument(segmentSize > 0);
+        mRootDirectory = Preconditions.checkNotNull(rootDirectory);
+        mVersionDirectory = new File(mRootDirectory, getVersionSubdirectoryName(version));
+        mCacheErrorLogger = cacheErrorLogger;
+        mClock = SystemClock.get();
+        mSegmentSize = segmentSize;
+        recreateDirectoryIfVersionChanges();
+    }
+
+    @VisibleForTesting
+    static String getVersionSubdirectoryName(int version) {
+        return String.format((Locale) null, "%s.%d", PACKED_DISK_STORAGE_VERSION_PREFIX, version);
+    }
+
+    /**
+     * Deletes the whole root directory if it does not have the version directory, as the files of
+     * any other version or storage are of no use here.
+     */
+    private void recreateDirectoryIfVersionChanges() {
+        if (mRootDirectory.exists() && !mVersionDirectory.exists()) {
+            FileTree.deleteRecursively(mRootDirectory);
+        }
+        try {
+            FileUtils.mkdirs(mVersionDirectory);
+        } catch (FileUtils.CreateDirectoryException cde) {
+            // not the end of the world, the directory is created again along with the first segment
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_DIR, TAG, "version directory could not be created: " +
+                    mVersionDirectory, null);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public synchronized BinaryResource getResource(String resourceId, Object debugInfo) {
+        ensureLoaded();
+        Location location = mIndex.get(resourceId);
+        if (location == null) {
+            return null;
+        }
+        location.recordAccess(mClock.now());
+        return location.resource;
+    }
+
+    /**
+     * The resources share the segment files, so this is the name of the segment holding the
+     * resource, or null if it is not stored.
+     */
+    @Override
+    @Nullable
+    public synchronized String getFilename(String resourceId) {
+        ensureLoaded();
+        Location location = mIndex.get(resourceId);
+        return location == null ? null : location.resource.segment.file.getPath();
+    }
+
+    @Override
+    public synchronized boolean contains(String resourceId, Object debugInfo) {
+        ensureLoaded();
+        return mIndex.containsKey(resourceId);
+    }
+
+    @Override
+    public synchronized boolean touch(String resourceId, Object debugInfo) {
+        ensureLoaded();
+        Location location = mIndex.get(resourceId);
+        if (location != null) {
+            location.recordAccess(mClock.now());
+        }
+        return location != null;
+    }
+
+    /**
+     * Deletes everything but the segment files in use.
+     */
+    @Override
+    public synchronized void purgeUnexpectedResources() {
+        ensureLoaded();
+        File[] rootFiles = mRootDirectory.listFiles();
+        if (rootFiles != null) {
+            for (File file : rootFiles) {
+                if (!file.equals(mVersionDirectory)) {
+                    FileTree.deleteRecursively(file);
+                }
+            }
+        }
+        File[] versionFiles = mVersionDirectory.listFiles();
+        if (versionFiles != null) {
+            for (File file : versionFiles) {
+                Integer segmentId = getSegmentId(file);
+                if (segmentId == null || !mSegments.containsKey(segmentId)) {
+                    FileTree.deleteRecursively(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * The resource is written to memory, and only appended to a segment on commit. This storage is
+     * meant for small resources.
+     */
+    @Override
+    public BinaryResource createTemporary(String resourceId, Object debugInfo) {
+        return new TemporaryResource();
+    }
+
+    @Override
+    public void updateResource(String resourceId, BinaryResource resource, WriterCallback callback, Object debugInfo) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        callback.write(stream);
+        ((TemporaryResource) resource).mBytes = stream.toByteArray();
+    }
+
+    @Override
+    public synchronized BinaryResource commit(String resourceId, BinaryResource temporary, Object debugInfo) throws IOException {
+        ensureLoaded();
+        byte[] data = Preconditions.checkNotNull(((TemporaryResource) temporary).mBytes);
+        long now = mClock.now();
+        Location location;
+        try {
+            location = append(resourceId, now, data, 0, data.length);
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.GENERIC_IO, TAG, "commit", ioe);
+            throw ioe;
+        }
+        putLocation(resourceId, location);
+        maybeCompact();
+        return location.resource;
+    }
+
+    @Override
+    public synchronized List<Entry> getEntries() {
+        ensureLoaded();
+        List<Entry> entries = new ArrayList<>(mIndex.size());
+        for (Map.Entry<String, Location> indexEntry : mIndex.entrySet()) {
+            Location location = indexEntry.getValue();
+            entries.add(new EntryImpl(indexEntry.getKey(), location.resource, location.timestamp, location.accessCount));
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public long remove(Entry entry) throws IOException {
+        return remove(((EntryImpl) entry).getId());
+    }
+
+    @Override
+    public synchronized long remove(String resourceId) throws IOException {
+        ensureLoaded();
+        Location location = mIndex.get(resourceId);
+        if (location == null) {
+            return 0;
+        }
+        try {
+            // so that the resource is not found again by the next scan
+            append(resourceId, mClock.now(), null, 0, TOMBSTONE_DATA_LENGTH);
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.DELETE_FILE, TAG, "remove", ioe);
+            return -1;
+        }
+        mIndex.remove(resourceId);
+        location.resource.segment.liveSize -= location.resource.getRecordSize();
+        maybeCompact();
+        return location.resource.size();
+    }
+
+    @Override
+    public synchronized void clearAll() {
+        for (Segment segment : mSegments.values()) {
+            segment.retire();
+        }
+        mSegments.clear();
+        mIndex.clear();
+        mActiveSegment = null;
+        mIsLoaded = true;
+        FileTree.deleteContents(mRootDirectory);
+    }
+
+    @Override
+    public DiskDumpInfo getDumpInfo() throws IOException {
+        List<Entry> entries = getEntries();
+        DiskDumpInfo dumpInfo = new DiskDumpInfo();
+        for (Entry entry : entries) {
+            SegmentResource resource = (SegmentResource) entry.getResource();
+            byte[] bytes;
+            try {
+                bytes = resource.read();
+            } catch (IOException ioe) {
+                // compacted or cleared meanwhile
+                continue;
+            }
+            String type = DefaultDiskStorage.typeOfBytes(bytes);
+            String firstBits = "";
+            if (type.equals("undefined") && bytes.length >= 4) {
+                firstBits = String.format((Locale) null, "0x%02X 0x%02X 0x%02X 0x%02X", bytes[0], bytes[1], bytes[2], bytes[3]);
+            }
+            String path = resource.segment.file.getPath() + "@" + resource.offset;
+            if (!dumpInfo.typeCounts.containsKey(type)) {
+                dumpInfo.typeCounts.put(type, 0);
+            }
+            dumpInfo.typeCounts.put(type, dumpInfo.typeCounts.get(type) + 1);
+            dumpInfo.entries.add(new DiskDumpInfoEntry(path, type, entry.getSize(), firstBits));
+        }
+        return dumpInfo;
+    }
+
+    @VisibleForTesting
+    synchronized int getSegmentCount() {
+        ensureLoaded();
+        return mSegments.size();
+    }
+
+    /** Rebuilds the index from the segments, on first use. */
+    @GuardedBy("this")
+    private void ensureLoaded() {
+        if (mIsLoaded) {
+            return;
+        }
+        mIsLoaded = true;
+        File[] files = mVersionDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Integer segmentId = getSegmentId(file);
+                if (segmentId != null) {
+                    try {
+                        mSegments.put(segmentId, new Segment(segmentId, file));
+                    } catch (IOException ioe) {
+                        mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.READ_FILE, TAG, "open segment: " + file, ioe);
+                    }
+                }
+            }
+        }
+        for (Segment segment : mSegments.values()) {
+            // only the last segment may have been torn by a crash, the others were sealed
+            loadSegment(segment, segment.id == mSegments.lastKey());
+        }
+        if (!mSegments.isEmpty() && mSegments.lastEntry().getValue().length < mSegmentSize) {
+            mActiveSegment = mSegments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Replays the records of the segment into the index. The segment is truncated at the first
+     * record that is not valid.
+     *
+     * @param verify whether to read the data of the records to verify their checksums
+     */
+    @GuardedBy("this")
+    private void loadSegment(Segment segment, boolean verify) {
+        long offset = 0;
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            Record record;
+            while ((record = readRecord(stream, offset, verify)) != null) {
+                if (record.dataLength == TOMBSTONE_DATA_LENGTH) {
+                    Location location = mIndex.remove(record.key);
+                    if (location != null) {
+                        location.resource.segment.liveSize -= location.resource.getRecordSize();
+                    }
+                } else {
+                    SegmentResource resource = new SegmentResource(segment, offset, record.keyLength, record.dataLength);
+                    putLocation(record.key, new Location(resource, record.timestamp));
+                }
+                offset = record.getEnd();
+            }
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY, TAG, "invalid record in " + segment.file + " at " +
+                    offset, ioe);
+        } finally {
+            closeQuietly(stream);
+        }
+        segment.length = offset;
+        try {
+            if (segment.channel.size() > offset) {
+                segment.channel.truncate(offset);
+            }
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.WRITE_INVALID_ENTRY, TAG, "truncate " + segment.file, ioe);
+        }
+    }
+
+    /**
+     * Reads the next record of a segment.
+     *
+     * @return the record, or null at the end of the segment
+     * @throws IOException if the record is not valid, e.g. cut short by a crash
+     */
+    @Nullable
+    private static Record readRecord(DataInputStream stream, long offset, boolean verify) throws IOException {
+        int magic;
+        try {
+            magic = stream.readInt();
+        } catch (EOFException eofe) {
+            return null;
+        }
+        if (magic != RECORD_MAGIC) {
+            throw new IOException("unexpected record magic");
+        }
+        int checksum = stream.readInt();
+        long timestamp = stream.readLong();
+        int keyLength = stream.readInt();
+        int dataLength = stream.readInt();
+        if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH || dataLength < TOMBSTONE_DATA_LENGTH) {
+            throw new IOException("unexpected record lengths");
+        }
+        byte[] keyBytes = new byte[keyLength];
+        stream.readFully(keyBytes);
+        int storedDataLength = Math.max(dataLength, 0);
+        if (verify) {
+            byte[] data = new byte[storedDataLength];
+            stream.readFully(data);
+            if (checksum != computeChecksum(timestamp, keyBytes, dataLength, data, 0, storedDataLength)) {
+                throw new IOException("unexpected record checksum");
+            }
+        } else {
+            skipFully(stream, storedDataLength);
+        }
+        return new Record(new String(keyBytes, UTF_8), keyLength, timestamp, dataLength, offset);
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new one if needed.
+     *
+     * @param data the data of the resource, or null for a tombstone
+     */
+    @GuardedBy("this")
+    private Location append(String resourceId, long timestamp, @Nullable byte[] data, int dataOffset, int dataLength) throws IOException {
+        byte[] keyBytes = resourceId.getBytes(UTF_8);
+        Preconditions.checkArgument(keyBytes.length > 0 && keyBytes.length <= MAX_KEY_LENGTH);
+        int storedDataLength = Math.max(dataLength, 0);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + storedDataLength);
+        buffer.putInt(RECORD_MAGIC);
+        buffer.putInt(computeChecksum(timestamp, keyBytes, dataLength, data, dataOffset, storedDataLength));
+        buffer.putLong(timestamp);
+        buffer.putInt(keyBytes.length);
+        buffer.putInt(dataLength);
+        buffer.put(keyBytes);
+        if (data != null) {
+            buffer.put(data, dataOffset, storedDataLength);
+        }
+        buffer.flip();
+        Segment segment = getActiveSegment(buffer.remaining());
+        long offset = segment.length;
+        while (buffer.hasRemaining()) {
+            segment.channel.write(buffer, offset + buffer.position());
+        }
+        segment.length += buffer.limit();
+        SegmentResource resource = new SegmentResource(segment, offset, keyBytes.length, dataLength);
+        return new Location(resource, timestamp);
+    }
+
+    /** Gets the segment to append a record of the given size to. */
+    @GuardedBy("this")
+    private Segment getActiveSegment(int recordSize) throws IOException {
+        if (mActiveSegment != null && mActiveSegment.length > 0 && mActiveSegment.length + recordSize > mSegmentSize) {
+            // make sure the sealed segment is on disk, as only the active one is verified on load
+            mActiveSegment.channel.force(false);
+            mActiveSegment = null;
+        }
+        if (mActiveSegment == null) {
+            int segmentId = mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1;
+            FileUtils.mkdirs(mVersionDirectory);
+            mActiveSegment = new Segment(segmentId, new File(mVersionDirectory, SEGMENT_FILE_PREFIX + segmentId));
+            mSegments.put(segmentId, mActiveSegment);
+        }
+        return mActiveSegment;
+    }
+
+    @GuardedBy("this")
+    private void putLocation(String resourceId, Location location) {
+        Location oldLocation = mIndex.put(resourceId, location);
+        if (oldLocation != null) {
+            oldLocation.resource.segment.liveSize -= oldLocation.resource.getRecordSize();
+        }
+        location.resource.segment.liveSize += location.resource.getRecordSize();
+    }
+
+    /**
+     * Compacts the sealed segment with the least live data, if the dead space takes too much of the
+     * storage. A single segment is compacted at a time, to bound the time spent holding the lock.
+     */
+    @GuardedBy("this")
+    private void maybeCompact() {
+        long totalSize = 0;
+        long liveSize = 0;
+        Segment candidate = null;
+        for (Segment segment : mSegments.values()) {
+            totalSize += segment.length;
+            liveSize += segment.liveSize;
+            if (segment != mActiveSegment && (candidate == null || segment.liveSize < candidate.liveSize)) {
+                candidate = segment;
+            }
+        }
+        if (candidate == null || totalSize - liveSize < mSegmentSize || liveSize >= totalSize * MIN_LIVE_RATIO) {
+            return;
+        }
+        try {
+            compact(candidate);
+        } catch (IOException ioe) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "compact " + candidate.file, ioe);
+        }
+    }
+
+    /**
+     * Copies the live resources of the segment to the active segment, and deletes it. The
+     * tombstones are copied too, unless the segment is the oldest one, since they may be all that
+     * keeps a removed resource of an older segment from being found again by the next scan. The
+     * copies are forced to the disk before the segment is deleted, so that a crash in between
+     * cannot lose both.
+     */
+    @GuardedBy("this")
+    @VisibleForTesting
+    void compact(Segment segment) throws IOException {
+        boolean isOldest = segment.id == mSegments.firstKey();
+        List<Record> records = new ArrayList<>();
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+        try {
+            long offset = 0;
+            Record record;
+            while (offset < segment.length && (record = readRecord(stream, offset, false)) != null) {
+                records.add(record);
+                offset = record.getEnd();
+            }
+        } finally {
+            closeQuietly(stream);
+        }
+        boolean isCopied = false;
+        for (Record record : records) {
+            Location location = mIndex.get(record.key);
+            if (record.dataLength == TOMBSTONE_DATA_LENGTH) {
+                if (!isOldest && location == null) {
+                    append(record.key, record.timestamp, null, 0, TOMBSTONE_DATA_LENGTH);
+                    isCopied = true;
+                }
+            } else if (location != null && location.resource.segment == segment && location.resource.offset == record.offset) {
+                byte[] data = location.resource.read();
+                Location newLocation = append(record.key, record.timestamp, data, 0, data.length);
+                newLocation.timestamp = location.timestamp;
+                newLocation.accessCount = location.accessCount;
+                putLocation(record.key, newLocation);
+                isCopied = true;
+            }
+        }
+        // the segments filled up by the copies were forced as they were rolled over
+        if (isCopied && mActiveSegment != null) {
+            mActiveSegment.channel.force(false);
+        }
+        mSegments.remove(segment.id);
+        segment.retire();
+        if (!segment.file.delete()) {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.DELETE_FILE, TAG, "delete " + segment.file, null);
+        }
+    }
+
+    @Nullable
+    private static Integer getSegmentId(File file) {
+        String name = file.getName();
+        if (!file.isFile() || !name.startsWith(SEGMENT_FILE_PREFIX)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length()));
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    private static int computeChecksum(long timestamp, byte[] keyBytes, int dataLength, @Nullable byte[] data, int dataOffset, int
+            storedDataLength) {
+        ByteBuffer header = ByteBuffer.allocate(8 + 4 + 4);
+        header.putLong(timestamp);
+        header.putInt(keyBytes.length);
+        header.putInt(dataLength);
+        CRC32 crc = new CRC32();
+        crc.update(header.array());
+        crc.update(keyBytes);
+        if (data != null) {
+            crc.update(data, dataOffset, storedDataLength);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void skipFully(InputStream stream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = stream.skip(count);
+            if (skipped <= 0) {
+                if (stream.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void closeQuietly(@Nullable InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ioe) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * A segment file. It is kept open while in use by the storage, and while streams opened on its
+     * resources are, so that those can be read to the end even if the segment gets compacted.
+     */
+    @VisibleForTesting
+    static class Segment {
+        final int id;
+        final File file;
+        final FileChannel channel;
+        private final RandomAccessFile mRandomAccessFile;
+        // The end of the valid records, where the next one gets appended.
+        long length;
+        // The total size of the records of the live resources.
+        long liveSize;
+        @GuardedBy("this") private int mRefCount = 1;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            mRandomAccessFile = new RandomAccessFile(file, "rw");
+            channel = mRandomAccessFile.getChannel();
+            length = mRandomAccessFile.length();
+        }
+
+        synchronized void acquire() throws IOException {
+            if (mRefCount == 0) {
+                throw new FileNotFoundException("segment was deleted: " + file);
+            }
+            mRefCount++;
+        }
+
+        synchronized void release() {
+            if (--mRefCount == 0) {
+                try {
+                    mRandomAccessFile.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+
+        /** Drops the storage's reference, once the segment is not used by the storage anymore. */
+        void retire() {
+            release();
+        }
+    }
+
+    /** A resource stored in a segment. */
+    @VisibleForTesting
+    static class SegmentResource implements BinaryResource {
+        final Segment segment;
+        // The offset of the record of the resource in the segment.
+        final long offset;
+        private final int mKeyLength;
+        private final int mSize;
+
+        SegmentResource(Segment segment, long offset, int keyLength, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            mKeyLength = keyLength;
+            mSize = size;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            segment.acquire();
+            return new SegmentInputStream(segment, getDataOffset(), mSize);
+        }
+
+        @Override
+        public long size() {
+            return mSize;
+        }
+
+        @Override
+        public byte[] read() throws IOException {
+            segment.acquire();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(mSize);
+                long dataOffset = getDataOffset();
+                while (buffer.hasRemaining()) {
+                    if (segment.channel.read(buffer, dataOffset + buffer.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                return buffer.array();
+            } finally {
+                segment.release();
+            }
+        }
+
+        long getRecordSize() {
+            return HEADER_SIZE + mKeyLength + mSize;
+        }
+
+        private long getDataOffset() {
+            return offset + HEADER_SIZE + mKeyLength;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SegmentResource)) {
+                return false;
+            }
+            SegmentResource that = (SegmentResource) obj;
+            return segment == that.segment && offset == that.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * segment.id + (int) (offset ^ (offset >>> 32));
+        }
+    }
+
+    /** Reads a resource with positional reads, so that many streams can share the channel. */
+    private static class SegmentInputStream extends InputStream {
+        private final Segment mSegment;
+        private final long mEnd;
+        private long mPosition;
+        private boolean mIsClosed;
+
+        SegmentInputStream(Segment segment, long offset, int size) {
+            mSegment = segment;
+            mPosition = offset;
+            mEnd = offset + size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mIsClosed) {
+                throw new IOException("stream is closed");
+            }
+            if (length == 0) {
+                return 0;
+            }
+            if (mPosition >= mEnd) {
+                return -1;
+            }
+            int count = (int) Math.min(length, mEnd - mPosition);
+            int read = mSegment.channel.read(ByteBuffer.wrap(buffer, offset, count), mPosition);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            mPosition += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long count) {
+            long skipped = Math.max(0, Math.min(count, mEnd - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, mEnd - mPosition);
+        }
+
+        @Override
+        public void close() {
+            if (!mIsClosed) {
+                mIsClosed = true;
+                mSegment.release();
+            }
+        }
+    }
+
+    /** Where a resource is stored, and when and how often it was accessed. */
+    private static class Location {
+        final SegmentResource resource;
+        long timestamp;
+        int accessCount;
+
+        Location(SegmentResource resource, long timestamp) {
+            this.resource = resource;
+            this.timestamp = timestamp;
+        }
+
+        void recordAccess(long now) {
+            timestamp = now;
+            if (accessCount < Integer.MAX_VALUE) {
+                accessCount++;
+            }
+        }
+    }
+
+    /** A record read from a segment. */
+    private static class Record {
+        final String key;
+        final int keyLength;
+        final long timestamp;
+        final int dataLength;
+        final long offset;
+
+        Record(String key, int keyLength, long timestamp, int dataLength, long offset) {
+            this.key = key;
+            this.keyLength = keyLength;
+            this.timestamp = timestamp;
+            this.dataLength = dataLength;
+            this.offset = offset;
+        }
+
+        long getEnd() {
+            return offset + HEADER_SIZE + keyLength + Math.max(dataLength, 0);
+        }
+    }
+
+    /** A resource not committed yet, held in memory. */
+    private static class TemporaryResource implements BinaryResource {
+        @Nullable private byte[] mBytes;
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new ByteArrayInputStream(read());
+        }
+
+        @Override
+        public long size() {
+            return mBytes == null ? 0 : mBytes.length;
+        }
+
+        @Override
+        public byte[] read() throws IOException {
+            if (mBytes == null) {
+                throw new IOException("resource was not written");
+            }
+            return mBytes;
+        }
+    }
+
+    /** Implementation of Entry listed by getEntries. */
+    @VisibleForTesting
+    static class EntryImpl implements DetailedEntry {
+        private final String id;
+        private final SegmentResource resource;
+        private final long timestamp;
+        private final int accessCount;
+
+        private EntryImpl(String id, SegmentResource resource, long timestamp, int accessCount) {
+            this.id = id;
+            this.resource = resource;
+            this.timestamp = timestamp;
+            this.accessCount = accessCount;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public long getSize() {
+            return resource.size();
+        }
+
+        @Override
+        public int getAccessCount() {
+            return accessCount;
+        }
+
+        @Override
+        public SegmentResource getResource() {
+            return resource;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.Clock;
+
+/**
+ * Sorts entries by how often they were accessed per byte, with aging, evicting first the large
+ * entries that are seldom used. This is a variant of Greedy-Dual-Size-Frequency.
+ *
+ * <p> An entry scores its aged frequency, as computed by
+ * {@link FrequencyEntryEvictionComparatorSupplier}, divided by its size. Evicting one large image
+ * makes room for many thumbnails, so more of the requests hit the cache, though fewer of the
+ * bytes. The inflation GDSF adds to the priorities of the entries as others are evicted is
+ * replaced by the aging, as the scores are computed anew for each eviction.
+ */
+public class SizeAwareEntryEvictionComparatorSupplier extends FrequencyEntryEvictionComparatorSupplier {
+
+    public SizeAwareEntryEvictionComparatorSupplier() {
+    }
+
+    /**
+     * @param halfLifeMs the time after which an access counts half
+     */
+    public SizeAwareEntryEvictionComparatorSupplier(long halfLifeMs) {
+        super(halfLifeMs);
+    }
+
+    @VisibleForTesting
+    SizeAwareEntryEvictionComparatorSupplier(long halfLifeMs, Clock clock) {
+        super(halfLifeMs, clock);
+    }
+
+    @Override
+    double getScore(DiskStorage.Entry entry, long now) {
+        return getAgedFrequency(entry, now) / Math.max(entry.getSize(), 1);
+    }
+}
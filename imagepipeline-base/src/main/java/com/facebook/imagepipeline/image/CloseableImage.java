@@ -16,7 +16,10 @@ import java.io.Closeable;
  * A simple wrapper around an image that implements {@link Closeable}
  */
 public abstract class CloseableImage implements Closeable, ImageInfo {
+    public static final long UNKNOWN_DECODE_TIME = -1;
     private static final String TAG = "CloseableImage";
+    private volatile long mDecodeTimeMs = UNKNOWN_DECODE_TIME;
+    private volatile ImageSource mSource = ImageSource.UNKNOWN;
 
     /**
      * @return size in bytes of the bitmap(s)
@@ -41,6 +44,33 @@ public abstract class CloseableImage implements Closeable, ImageInfo {
         return ImmutableQualityInfo.FULL_QUALITY;
     }
 
+    /**
+     * Records how expensive it was to create this image, so that the caches can tell how expensive
+     * it would be to create it again.
+     *
+     * @param decodeTimeMs how long the decode took, in milliseconds
+     * @param source       where the encoded image was fetched from
+     */
+    public void setDecodeInfo(long decodeTimeMs, ImageSource source) {
+        mDecodeTimeMs = decodeTimeMs;
+        mSource = source;
+    }
+
+    /**
+     * Returns how long the decode of this image took, in milliseconds, or
+     * {@link #UNKNOWN_DECODE_TIME} if not known.
+     */
+    public long getDecodeTimeMs() {
+        return mDecodeTimeMs;
+    }
+
+    /**
+     * Returns where the encoded image was fetched from.
+     */
+    public ImageSource getSource() {
+        return mSource;
+    }
+
     /**
      * Whether or not this image contains state for a particular view of the image (for example,
      * the image for an animated GIF might contain the current frame being viewed). This means
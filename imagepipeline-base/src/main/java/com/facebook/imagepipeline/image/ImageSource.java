@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.image;
+
+/**
+ * Where the encoded bytes of an image were fetched from.
+ */
+public enum ImageSource {
+    /**
+     * Fetched from the network.
+     */
+    NETWORK,
+    /**
+     * Read from the disk cache.
+     */
+    DISK_CACHE,
+    /**
+     * Read from a local file, content provider, asset or resource.
+     */
+    LOCAL,
+    /**
+     * Found in the encoded memory cache.
+     */
+    ENCODED_MEMORY_CACHE,
+    /**
+     * Unknown source.
+     */
+    UNKNOWN
+}
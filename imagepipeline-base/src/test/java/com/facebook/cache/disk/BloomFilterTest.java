@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.SimpleCacheKey;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BloomFilter}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class BloomFilterTest {
+
+  private static final int CAPACITY = 1000;
+
+  @Test
+  public void testNoFalseNegatives() {
+    BloomFilter filter = new BloomFilter(CAPACITY);
+    for (int i = 0; i < CAPACITY; i++) {
+      assertTrue(filter.put(getResourceId("http://example.com/" + i)));
+    }
+    for (int i = 0; i < CAPACITY; i++) {
+      assertTrue(filter.mightContain(getResourceId("http://example.com/" + i)));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    BloomFilter filter = new BloomFilter(CAPACITY);
+    for (int i = 0; i < CAPACITY; i++) {
+      filter.put(getResourceId("http://example.com/" + i));
+    }
+    int falsePositiveCount = 0;
+    for (int i = 0; i < 10 * CAPACITY; i++) {
+      if (filter.mightContain(getResourceId("http://example.org/" + i))) {
+        falsePositiveCount++;
+      }
+    }
+    // about 1%
+    assertTrue(falsePositiveCount < 2 * CAPACITY / 10);
+  }
+
+  @Test
+  public void testEmpty() {
+    BloomFilter filter = new BloomFilter(CAPACITY);
+    assertFalse(filter.mightContain(getResourceId("http://example.com/")));
+  }
+
+  @Test
+  public void testOverCapacity() {
+    BloomFilter filter = new BloomFilter(1);
+    assertTrue(filter.put("r1"));
+    assertFalse(filter.put("r2"));
+    assertTrue(filter.mightContain("r1"));
+    assertTrue(filter.mightContain("r2"));
+  }
+
+  private static String getResourceId(String key) {
+    return CacheKeyUtil.getResourceId(new SimpleCacheKey(key));
+  }
+}
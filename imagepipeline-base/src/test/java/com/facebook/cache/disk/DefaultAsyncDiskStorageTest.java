@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.internal.Suppliers;
+
+import bolts.Continuation;
+import bolts.Task;
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link DefaultAsyncDiskStorage}, on a thread pool.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DefaultAsyncDiskStorageTest {
+
+  private static final int RESOURCE_COUNT = 50;
+
+  private File mDirectory;
+  private ExecutorService mExecutor;
+  private DiskStorageCache mCache;
+  private DefaultAsyncDiskStorage mStorage;
+
+  @Before
+  public void setUp() {
+    mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "async-disk-storage-test");
+    mDirectory.mkdirs();
+    FileTree.deleteContents(mDirectory);
+    mExecutor = Executors.newFixedThreadPool(4);
+    mCache = new DiskStorageCache(
+        new DefaultDiskStorageSupplier(
+            1,
+            Suppliers.of(mDirectory),
+            "cache",
+            NoOpCacheErrorLogger.getInstance()),
+        new DefaultEntryEvictionComparatorSupplier(),
+        new DiskStorageCache.Params(0, 1000, 1000),
+        NoOpCacheEventListener.getInstance(),
+        NoOpCacheErrorLogger.getInstance(),
+        null);
+    mStorage = new DefaultAsyncDiskStorage(mCache, mExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdown();
+  }
+
+  @Test
+  public void testLookupSeesWriteSubmittedBefore() throws Exception {
+    Map<String, WriterCallback> writes = new HashMap<>();
+    for (int i = 0; i < RESOURCE_COUNT; i++) {
+      writes.put("R" + i, WriterCallbacks.from(new byte[] {(byte) i}));
+    }
+    List<String> resourceIds = new ArrayList<>(writes.keySet());
+    resourceIds.add("missing");
+
+    // not waiting for the write before the lookup
+    Task<Map<String, BinaryResource>> insertTask = mStorage.insert(writes);
+    Task<Map<String, BinaryResource>> getTask = mStorage.getResources(resourceIds);
+
+    assertEquals(writes.keySet(), await(insertTask).keySet());
+    Map<String, BinaryResource> resources = await(getTask);
+    assertEquals(writes.keySet(), resources.keySet());
+    for (int i = 0; i < RESOURCE_COUNT; i++) {
+      assertArrayEquals(new byte[] {(byte) i}, resources.get("R" + i).read());
+    }
+    assertEquals(writes.keySet(), await(mStorage.contains(resourceIds)));
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Map<String, WriterCallback> writes = new HashMap<>();
+    for (int i = 0; i < 3; i++) {
+      writes.put("R" + i, WriterCallbacks.from(new byte[10]));
+    }
+    await(mStorage.insert(writes));
+
+    assertEquals(20, (long) await(mStorage.remove(Arrays.asList("R0", "R1", "missing"))));
+    assertEquals(
+        new HashSet<>(Arrays.asList("R2")),
+        await(mStorage.contains(Arrays.asList("R0", "R1", "R2"))));
+  }
+
+  @Test
+  public void testFailedWriteIsLeftOut() throws Exception {
+    Map<String, WriterCallback> writes = new HashMap<>();
+    writes.put("R0", WriterCallbacks.from(new byte[10]));
+    writes.put(
+        "R1",
+        new WriterCallback() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            os.write(new byte[5]);
+            throw new IOException();
+          }
+        });
+
+    assertEquals(new HashSet<>(Arrays.asList("R0")), await(mStorage.insert(writes)).keySet());
+    assertEquals(
+        new HashSet<>(Arrays.asList("R0")),
+        await(mStorage.contains(Arrays.asList("R0", "R1"))));
+    assertEquals(0, countTemporaryFiles(mDirectory));
+  }
+
+  @Test
+  public void testBatchesGoThroughCache() throws Exception {
+    CacheKey key = new SimpleCacheKey("http://cached.uri");
+    CacheKey batchKey = new SimpleCacheKey("http://batch.uri");
+    mCache.insert(key, WriterCallbacks.from(new byte[5]));
+    // lists the entries, for the cache to count its size and fill its filter
+    assertFalse(mCache.hasKey(batchKey));
+
+    String batchResourceId = CacheKeyUtil.getResourceId(batchKey);
+    Map<String, WriterCallback> writes = new HashMap<>();
+    writes.put(batchResourceId, WriterCallbacks.from(new byte[10]));
+    await(mStorage.insert(writes));
+    assertEquals(15, mCache.getSize());
+    assertTrue(mCache.hasKey(batchKey));
+    assertEquals(
+        new HashSet<>(Arrays.asList(batchResourceId, CacheKeyUtil.getResourceId(key))),
+        await(mStorage.contains(
+            Arrays.asList(batchResourceId, CacheKeyUtil.getResourceId(key), "missing"))));
+
+    await(mStorage.remove(Arrays.asList(CacheKeyUtil.getResourceId(key))));
+    assertFalse(mCache.hasKey(key));
+  }
+
+  private static <T> T await(Task<T> task) throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    task.continueWith(
+        new Continuation<T, Void>() {
+          @Override
+          public Void then(Task<T> task) {
+            latch.countDown();
+            return null;
+          }
+        });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertFalse(task.isFaulted());
+    return task.getResult();
+  }
+
+  private static int countTemporaryFiles(File directory) {
+    int count = 0;
+    for (File file : directory.listFiles()) {
+      if (file.isDirectory()) {
+        count += countTemporaryFiles(file);
+      } else if (file.getName().endsWith(".tmp")) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
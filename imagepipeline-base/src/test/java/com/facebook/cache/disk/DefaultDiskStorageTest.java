@@ -242,8 +242,12 @@ public class DefaultDiskStorageTest {
     final long time3 = time2 + 10000;
     when(mClock.now()).thenReturn(time3);
     storage.touch(resourceId1, null);
-    assertTrue(Math.abs(file1.lastModified() - time3) <= 500);
+    // the access time goes into the index, a read does not write to the file
+    assertTrue(Math.abs(file1.lastModified() - startTime) <= 500);
     assertTrue(Math.abs(file2.lastModified() - time2) <= 500);
+    for (DiskStorage.Entry entry : storage.getEntries()) {
+      assertEquals(resourceId1.equals(((DiskStorage.DetailedEntry) entry).getId()) ? time3 : time2, entry.getTimestamp());
+    }
   }
 
   @Test
@@ -330,7 +334,7 @@ public class DefaultDiskStorageTest {
    */
   @Test
   public void testPurgeUnexpectedFiles() throws Exception {
-    final DiskStorage storage = getStorageSupplier(1).get();
+    final DefaultDiskStorage storage = getStorageSupplier(1).get();
 
     final String resourceId = "file1";
     final byte[] CONTENT = "content".getBytes("UTF-8");
@@ -412,7 +416,7 @@ public class DefaultDiskStorageTest {
   public void testDirectoryIsNotNuked() throws Exception {
     Assert.assertEquals(0, mDirectory.listFiles().length);
 
-    final DiskStorage storage = getStorageSupplier(1).get();
+    final DefaultDiskStorage storage = getStorageSupplier(1).get();
     final String resourceId = "file1";
 
     final byte[] CONTENT = "content".getBytes("UTF-8");
@@ -444,7 +448,7 @@ public class DefaultDiskStorageTest {
    */
   @Test
   public void testIterationAndRemoval() throws Exception {
-    DiskStorage storage = getStorageSupplier(1).get();
+    DefaultDiskStorage storage = getStorageSupplier(1).get();
     final String resourceId0 = "file0";
     final String resourceId1 = "file1";
     final String resourceId2 = "file2";
@@ -485,8 +489,67 @@ public class DefaultDiskStorageTest {
     Assert.assertEquals(files.get(2), entriesAfterRemoval.get(1).getResource().getFile());
   }
 
+  /**
+   * Tests that the entries are read back from the journal of the index by a new storage.
+   */
+  @Test
+  public void testEntriesSurviveRestart() throws Exception {
+    DefaultDiskStorage storage = getStorageSupplier(1).get();
+    when(mClock.now()).thenReturn(1000L);
+    File file1 = writeFileToStorage(storage, "resource1", new byte[100]);
+    writeFileToStorage(storage, "resource2", new byte[200]);
+    storage.remove("resource2");
+    when(mClock.now()).thenReturn(2000L);
+    storage.touch("resource1", null);
+
+    List<DefaultDiskStorage.EntryImpl> entries = retrieveEntries(getStorageSupplier(1).get());
+    assertEquals(1, entries.size());
+    assertEquals(file1, entries.get(0).getResource().getFile());
+    assertEquals(100, entries.get(0).getSize());
+    assertEquals(2000L, entries.get(0).getTimestamp());
+  }
+
+  /**
+   * Tests that the index is rebuilt from the files when its journal is gone.
+   */
+  @Test
+  public void testIndexRebuiltWithoutJournal() throws Exception {
+    DefaultDiskStorage storage = getStorageSupplier(1).get();
+    File file1 = writeFileToStorage(storage, "resource1", new byte[100]);
+    File journal = new File(
+        new File(mDirectory, DefaultDiskStorage.getVersionSubdirectoryName(1)),
+        DiskStorageIndex.JOURNAL_FILE_NAME);
+    assertTrue(journal.delete());
+
+    List<DefaultDiskStorage.EntryImpl> entries = retrieveEntries(getStorageSupplier(1).get());
+    assertEquals(1, entries.size());
+    assertEquals(file1, entries.get(0).getResource().getFile());
+    assertEquals(100, entries.get(0).getSize());
+    assertTrue(journal.exists());
+  }
+
+  /**
+   * Tests that purging brings the index in line with files deleted behind the storage's back.
+   */
+  @Test
+  public void testPurgeReconcilesIndex() throws Exception {
+    DefaultDiskStorage storage = getStorageSupplier(1).get();
+    File file1 = writeFileToStorage(storage, "resource1", new byte[100]);
+    File file2 = writeFileToStorage(storage, "resource2", new byte[200]);
+    assertTrue(file1.delete());
+    assertEquals(2, storage.getEntries().size());
+
+    storage.purgeUnexpectedResources();
+    List<DefaultDiskStorage.EntryImpl> entries = retrieveEntries(storage);
+    assertEquals(1, entries.size());
+    assertEquals(file2, entries.get(0).getResource().getFile());
+    // the journal is expected, and survives the purge
+    assertTrue(storage.contains("resource2", null));
+    assertEquals(1, retrieveEntries(getStorageSupplier(1).get()).size());
+  }
+
   private static FileBinaryResource writeToStorage(
-      final DiskStorage storage,
+      final DefaultDiskStorage storage,
       final String resourceId,
       final byte[] value) throws IOException {
     FileBinaryResource temporary = storage.createTemporary(resourceId, null);
@@ -496,14 +559,14 @@ public class DefaultDiskStorageTest {
   }
 
   private static File writeFileToStorage(
-      DiskStorage storage,
+      DefaultDiskStorage storage,
       String resourceId,
       byte[] value) throws IOException {
     return writeToStorage(storage, resourceId, value).getFile();
   }
 
   private static File write(
-      DiskStorage storage,
+      DefaultDiskStorage storage,
       String resourceId,
       byte[] content) throws IOException {
     FileBinaryResource temporary = storage.createTemporary(resourceId, null);
@@ -518,7 +581,7 @@ public class DefaultDiskStorageTest {
   }
 
   private static void writeToResource(
-      DiskStorage storage,
+      DefaultDiskStorage storage,
       String resourceId,
       FileBinaryResource resource,
       final byte[] content) throws IOException {
@@ -551,7 +614,8 @@ public class DefaultDiskStorageTest {
       for (File file: files) {
         if (file.isDirectory() && recurse) {
           findNewFiles(file, existing, true, result);
-        } else if (!existing.contains(file)) {
+        } else if (!existing.contains(file) &&
+            !DiskStorageIndex.JOURNAL_FILE_NAME.equals(file.getName())) {
           result.add(file);
         }
       }
@@ -14,14 +14,20 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import com.facebook.binaryresource.BinaryResource;
 import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.CacheEvent;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.DetailedCacheEventListener;
 import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.cache.common.WriterCallbacks;
@@ -30,6 +36,8 @@ import com.facebook.common.internal.ByteStreams;
 import com.facebook.common.internal.Suppliers;
 import com.facebook.common.time.SystemClock;
 
+import javax.annotation.Nullable;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -47,6 +55,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
@@ -116,6 +125,22 @@ public class DiskStorageCacheTest {
   }
 
   private DiskStorageCache createDiskCache(DiskStorageSupplier diskStorageSupplier) {
+    return createDiskCache(diskStorageSupplier, null);
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorageSupplier diskStorageSupplier,
+      @Nullable Executor evictionExecutor) {
+    return createDiskCache(
+        diskStorageSupplier,
+        new DefaultEntryEvictionComparatorSupplier(),
+        evictionExecutor);
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorageSupplier diskStorageSupplier,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      @Nullable Executor evictionExecutor) {
     DiskStorageCache.Params diskStorageCacheParams =
         new DiskStorageCache.Params(
             0,
@@ -124,11 +149,12 @@ public class DiskStorageCacheTest {
 
     return new DiskStorageCache(
         diskStorageSupplier,
-        new DefaultEntryEvictionComparatorSupplier(),
+        entryEvictionComparatorSupplier,
         diskStorageCacheParams,
         mCacheEventListener,
         mock(CacheErrorLogger.class),
-        mDiskTrimmableRegistry);
+        mDiskTrimmableRegistry,
+        evictionExecutor);
   }
 
   @Test
@@ -155,6 +181,31 @@ public class DiskStorageCacheTest {
   }
 
 
+  @Test
+  public void testDetailedCacheEventListener() throws Exception {
+    RecordingCacheEventListener listener = new RecordingCacheEventListener();
+    mCacheEventListener = listener;
+    mCache = createDiskCache(mStorageSupplier);
+    CacheKey key1 = new SimpleCacheKey("foo");
+    mCache.insert(key1, WriterCallbacks.from(new byte[101]));
+    assertNotNull(mCache.getResource(key1));
+    assertNull(mCache.getResource(new SimpleCacheKey("bar")));
+
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(1));
+    mCache.clearOldEntries(TimeUnit.MINUTES.toMillis(1));
+
+    assertEquals(
+        Arrays.asList(
+            "write foo 101",
+            "hit foo 101",
+            "miss bar -1",
+            "eviction CONTENT_STALE " + mCache.getResourceId(key1) + " 101"),
+        listener.mEvents);
+    assertEquals(TimeUnit.HOURS.toMillis(1), listener.mLastTimeInCacheMs);
+    assertEquals(3, listener.mTimedEventCount);
+  }
+
+
   private BinaryResource getResource(
       DiskStorageSupplier supplier,
       final CacheKey key) throws IOException {
@@ -452,6 +503,22 @@ public class DiskStorageCacheTest {
     t2.join(1000);
   }
 
+  @Test
+  public void testCacheStats() {
+    DiskStorageCache.CacheStats stats = new DiskStorageCache.CacheStats();
+    // increments are ignored until the stats are calculated
+    stats.increment(100, 1);
+    assertFalse(stats.isInitialized());
+    stats.set(1000, 10);
+    stats.increment(100, 1);
+    assertTrue(stats.isInitialized());
+    assertEquals(1100, stats.getSize());
+    assertEquals(11, stats.getCount());
+    stats.reset();
+    stats.increment(-100, -1);
+    assertFalse(stats.isInitialized());
+  }
+
   @Test
   public void testIsEnabled() throws Exception {
     DiskStorage storageMock = mock(DiskStorage.class);
@@ -464,6 +531,142 @@ public class DiskStorageCacheTest {
     assertFalse(cache.isEnabled());
   }
 
+  @Test
+  public void testEvictsInBackground() throws Exception {
+    QueuedExecutor executor = new QueuedExecutor();
+    DiskStorageCache cache = createDiskCache(mStorageSupplier, executor);
+    CacheKey key1 = new SimpleCacheKey("foo");
+    CacheKey key2 = new SimpleCacheKey("bar");
+    CacheKey key3 = new SimpleCacheKey("foobar");
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(1));
+    cache.insert(key1, WriterCallbacks.from(new byte[101]));
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(2));
+    cache.insert(key2, WriterCallbacks.from(new byte[102]));
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(3));
+    cache.insert(key3, WriterCallbacks.from(new byte[103]));
+
+    // the writes left the eviction to the executor, and scheduled it only once
+    assertEquals(1, executor.mRunnables.size());
+    assertTrue(cache.hasKey(key1));
+    executor.runAll();
+    // evicted down to 90% of the limit
+    assertFalse(cache.hasKey(key1));
+    assertFalse(cache.hasKey(key2));
+    assertTrue(cache.hasKey(key3));
+    assertEquals(103, cache.getSize());
+    verify(mCacheEventListener)
+        .onEviction(CacheEventListener.EvictionReason.CACHE_FULL, 2, 203);
+  }
+
+  @Test
+  public void testBackgroundEvictionSkipsEntriesReadAfterSorting() throws Exception {
+    QueuedExecutor executor = new QueuedExecutor();
+    final CacheKey key1 = new SimpleCacheKey("foo");
+    CacheKey key2 = new SimpleCacheKey("bar");
+    CacheKey key3 = new SimpleCacheKey("foobar");
+    final DiskStorageCache[] cacheHolder = new DiskStorageCache[1];
+    EntryEvictionComparatorSupplier comparatorSupplier = new EntryEvictionComparatorSupplier() {
+      @Override
+      public EntryEvictionComparator get() {
+        // the oldest entry gets read once the entries are listed, before it is deleted
+        cacheHolder[0].getResource(key1);
+        return new DefaultEntryEvictionComparatorSupplier().get();
+      }
+    };
+    DiskStorageCache cache = createDiskCache(mStorageSupplier, comparatorSupplier, executor);
+    cacheHolder[0] = cache;
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(1));
+    cache.insert(key1, WriterCallbacks.from(new byte[101]));
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(2));
+    cache.insert(key2, WriterCallbacks.from(new byte[102]));
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(3));
+    cache.insert(key3, WriterCallbacks.from(new byte[103]));
+
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(4));
+    executor.runAll();
+    // the entry read is kept, and the next ones are evicted instead
+    assertTrue(cache.hasKey(key1));
+    assertFalse(cache.hasKey(key2));
+    assertFalse(cache.hasKey(key3));
+    assertEquals(101, cache.getSize());
+    verify(mCacheEventListener)
+        .onEviction(CacheEventListener.EvictionReason.CACHE_FULL, 2, 205);
+  }
+
+  @Test
+  public void testEvictsOverHardCeiling() throws Exception {
+    QueuedExecutor executor = new QueuedExecutor();
+    DiskStorageCache cache = createDiskCache(mStorageSupplier, executor);
+    CacheKey key1 = new SimpleCacheKey("foo");
+    CacheKey key2 = new SimpleCacheKey("bar");
+    CacheKey key3 = new SimpleCacheKey("foobar");
+    CacheKey key4 = new SimpleCacheKey("barfoo");
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(1));
+    cache.insert(key1, WriterCallbacks.from(new byte[101]));
+    // the size is calculated in the background
+    executor.runAll();
+    assertEquals(101, cache.getSize());
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(2));
+    cache.insert(key2, WriterCallbacks.from(new byte[102]));
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(3));
+    cache.insert(key3, WriterCallbacks.from(new byte[103]));
+    assertEquals(1, executor.mRunnables.size());
+    assertTrue(cache.hasKey(key1));
+
+    // over the hard ceiling, the write evicts by itself
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(4));
+    cache.insert(key4, WriterCallbacks.from(new byte[104]));
+    assertFalse(cache.hasKey(key1));
+    assertFalse(cache.hasKey(key2));
+    assertTrue(cache.hasKey(key3));
+    assertTrue(cache.hasKey(key4));
+    assertEquals(207, cache.getSize());
+
+    // the background eviction takes the cache back under its limit
+    executor.runAll();
+    assertFalse(cache.hasKey(key3));
+    assertTrue(cache.hasKey(key4));
+  }
+
+  @Test
+  public void testResourceId() {
+    SimpleCacheKey key = new SimpleCacheKey("http://example.com/image.jpg");
+    String resourceId = mCache.getResourceId(key);
+    assertEquals("489b73fd35ace7ecbf583da56d183bd1", resourceId);
+    // computed once per key
+    assertSame(resourceId, mCache.getResourceId(key));
+    // other keys with the same string get the same id
+    CacheKey otherKey = new CacheKey() {
+      @Override
+      public String toString() {
+        return "http://example.com/image.jpg";
+      }
+    };
+    assertEquals(resourceId, mCache.getResourceId(otherKey));
+  }
+
+  @Test
+  public void testIsDefinitelyMissing() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    CacheKey key2 = new SimpleCacheKey("bar");
+    // nothing is known before the cache directory is listed
+    assertFalse(mCache.isDefinitelyMissing(key2));
+
+    mCache.insert(key1, WriterCallbacks.from(new byte[101]));
+    assertFalse(mCache.isDefinitelyMissing(key1));
+    assertTrue(mCache.isDefinitelyMissing(key2));
+    assertFalse(mCache.probe(key2));
+    assertNull(mCache.getResource(key2));
+
+    mCache.insert(key2, WriterCallbacks.from(new byte[102]));
+    assertFalse(mCache.isDefinitelyMissing(key2));
+    assertTrue(mCache.hasKey(key2));
+
+    mCache.clearAll();
+    assertTrue(mCache.isDefinitelyMissing(key1));
+    assertTrue(mCache.isDefinitelyMissing(key2));
+  }
+
   private Thread runInsertionInSeparateThread(final CacheKey key,
       final WriterCallback callback) {
     Runnable runnable = new Runnable() {
@@ -483,4 +686,90 @@ public class DiskStorageCacheTest {
     return thread;
   }
 
+
+  /** Records the details of the events, as the events are reused. */
+  private static class RecordingCacheEventListener implements DetailedCacheEventListener {
+    private final List<String> mEvents = new ArrayList<>();
+    private long mLastTimeInCacheMs = -1;
+    private int mTimedEventCount;
+
+    @Override
+    public void onHit(CacheEvent event) {
+      record("hit", event);
+    }
+
+    @Override
+    public void onMiss(CacheEvent event) {
+      record("miss", event);
+    }
+
+    @Override
+    public void onWriteSuccess(CacheEvent event) {
+      record("write", event);
+    }
+
+    @Override
+    public void onReadException(CacheEvent event) {
+      record("read exception", event);
+    }
+
+    @Override
+    public void onWriteException(CacheEvent event) {
+      record("write exception", event);
+    }
+
+    @Override
+    public void onEviction(CacheEvent event) {
+      mEvents.add(
+          "eviction " + event.getEvictionReason() + " " + event.getResourceId() + " " +
+              event.getItemSize());
+      mLastTimeInCacheMs = event.getTimeInCacheMs();
+    }
+
+    private void record(String type, CacheEvent event) {
+      mEvents.add(type + " " + event.getCacheKey() + " " + event.getItemSize());
+      if (event.getElapsedTimeNanos() >= 0) {
+        mTimedEventCount++;
+      }
+    }
+
+    @Override
+    public void onHit() {
+    }
+
+    @Override
+    public void onMiss() {
+    }
+
+    @Override
+    public void onWriteAttempt() {
+    }
+
+    @Override
+    public void onReadException() {
+    }
+
+    @Override
+    public void onWriteException() {
+    }
+
+    @Override
+    public void onEviction(EvictionReason evictionReason, int itemCount, long itemSize) {
+    }
+  }
+
+  private static class QueuedExecutor implements Executor {
+    private final List<Runnable> mRunnables = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable runnable) {
+      mRunnables.add(runnable);
+    }
+
+    void runAll() {
+      while (!mRunnables.isEmpty()) {
+        mRunnables.remove(0).run();
+      }
+    }
+  }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.facebook.common.file.FileTree;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link DiskStorageIndex}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DiskStorageIndexTest {
+
+  private File mDirectory;
+  private DiskStorageIndex mIndex;
+
+  @Before
+  public void setUp() {
+    mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "disk-storage-index-test");
+    FileTree.deleteRecursively(mDirectory);
+    assertTrue(mDirectory.mkdirs());
+    mIndex = new DiskStorageIndex(mDirectory, 0);
+  }
+
+  @After
+  public void tearDown() {
+    FileTree.deleteRecursively(mDirectory);
+  }
+
+  @Test
+  public void testMissingJournal() {
+    assertFalse(mIndex.load());
+    assertFalse(mIndex.isLoaded());
+  }
+
+  @Test
+  public void testJournalIsReplayed() {
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    mIndex.recordAdd("r2", 20, 2000);
+    mIndex.recordAdd("r3", 30, 3000);
+    mIndex.recordAccess("r1", 4000);
+    mIndex.recordRemove("r2");
+    // overwriting a resource replaces its size
+    mIndex.recordAdd("r3", 35, 5000);
+    assertEquals(45, mIndex.getSize());
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 0);
+    assertTrue(index.load());
+    assertEquals(2, index.getCount());
+    assertEquals(45, index.getSize());
+    assertFalse(index.contains("r2"));
+    assertEntry(index, "r1", 10, 4000);
+    assertEntry(index, "r3", 35, 5000);
+  }
+
+  @Test
+  public void testAccessesAreBatched() {
+    mIndex = new DiskStorageIndex(mDirectory, 1000);
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    mIndex.recordAdd("r2", 20, 1000);
+    // within the accuracy of the journaled time, not journaled at all
+    mIndex.recordAccess("r1", 1500);
+    assertEquals(0, mIndex.getPendingAccessCount());
+    mIndex.recordAccess("r1", 2500);
+    mIndex.recordAccess("r2", 2600);
+    assertEquals(2, mIndex.getPendingAccessCount());
+    assertEquals(2, mIndex.getRecordCount());
+    // the index is up to date in memory
+    assertEntry(mIndex, "r1", 10, 2500);
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 1000);
+    assertTrue(index.load());
+    assertEntry(index, "r1", 10, 1000);
+
+    // the first pending access is now older than the accuracy
+    mIndex.recordAccess("r2", 3600);
+    assertEquals(0, mIndex.getPendingAccessCount());
+    assertEquals(4, mIndex.getRecordCount());
+    index = new DiskStorageIndex(mDirectory, 1000);
+    assertTrue(index.load());
+    assertEntry(index, "r1", 10, 2500);
+    assertEntry(index, "r2", 20, 3600);
+  }
+
+  @Test
+  public void testAccessCountsAreJournaledWhenDoubled() {
+    mIndex = new DiskStorageIndex(mDirectory, 1000);
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    mIndex.recordAccess("r1", 1100);
+    assertEquals(0, mIndex.getPendingAccessCount());
+    // within the accuracy of the journaled time, but twice the journaled count
+    mIndex.recordAccess("r1", 1200);
+    assertEquals(1, mIndex.getPendingAccessCount());
+    mIndex.recordAccess("r1", 1300);
+    mIndex.flushAccesses();
+    assertEquals(3, getEntry(mIndex, "r1").accessCount);
+
+    mIndex.recordAccess("r1", 1400);
+    mIndex.recordAccess("r1", 1500);
+    assertEquals(0, mIndex.getPendingAccessCount());
+    assertEquals(5, getEntry(mIndex, "r1").accessCount);
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 1000);
+    assertTrue(index.load());
+    assertEntry(index, "r1", 10, 1300);
+    assertEquals(3, getEntry(index, "r1").accessCount);
+  }
+
+  @Test
+  public void testPendingAccessesAreFlushedInBatches() {
+    mIndex = new DiskStorageIndex(mDirectory, 1000);
+    mIndex.clear();
+    for (int i = 0; i < DiskStorageIndex.MAX_PENDING_ACCESS_COUNT; i++) {
+      mIndex.recordAdd("r" + i, 10, 1000);
+    }
+    for (int i = 0; i < DiskStorageIndex.MAX_PENDING_ACCESS_COUNT - 1; i++) {
+      mIndex.recordAccess("r" + i, 5000);
+    }
+    assertEquals(DiskStorageIndex.MAX_PENDING_ACCESS_COUNT - 1, mIndex.getPendingAccessCount());
+    mIndex.recordAccess("r" + (DiskStorageIndex.MAX_PENDING_ACCESS_COUNT - 1), 5000);
+    assertEquals(0, mIndex.getPendingAccessCount());
+    assertEquals(2 * DiskStorageIndex.MAX_PENDING_ACCESS_COUNT, mIndex.getRecordCount());
+  }
+
+  @Test
+  public void testRemovedEntryIsNotFlushed() {
+    mIndex = new DiskStorageIndex(mDirectory, 1000);
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    mIndex.recordAccess("r1", 2000);
+    mIndex.recordRemove("r1");
+    assertEquals(0, mIndex.getPendingAccessCount());
+    mIndex.flushAccesses();
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 1000);
+    assertTrue(index.load());
+    assertEquals(0, index.getCount());
+  }
+
+  @Test
+  public void testAccessOfUnknownResource() {
+    mIndex.clear();
+    assertFalse(mIndex.recordAccess("r1", 1000));
+    assertEquals(0, mIndex.getCount());
+  }
+
+  @Test
+  public void testRebuild() {
+    mIndex.rebuild(
+        Arrays.asList(
+            new DiskStorageIndex.Entry("r1", 10, 1000),
+            new DiskStorageIndex.Entry("r2", 20, 2000)));
+    assertTrue(mIndex.isLoaded());
+    assertEquals(30, mIndex.getSize());
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 0);
+    assertTrue(index.load());
+    assertEntry(index, "r1", 10, 1000);
+    assertEntry(index, "r2", 20, 2000);
+  }
+
+  @Test
+  public void testCorruptJournal() throws Exception {
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    FileOutputStream stream =
+        new FileOutputStream(new File(mDirectory, DiskStorageIndex.JOURNAL_FILE_NAME), true);
+    // a record cut short
+    stream.write("ADD r2 2".getBytes("UTF-8"));
+    stream.close();
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 0);
+    assertFalse(index.load());
+    assertEquals(0, index.getCount());
+  }
+
+  @Test
+  public void testCompaction() {
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    mIndex.recordAdd("r2", 20, 2000);
+    for (int i = 0; i < DiskStorageIndex.MIN_REDUNDANT_RECORD_COUNT - 1; i++) {
+      mIndex.recordAccess("r1", 3000 + i);
+    }
+    assertEquals(DiskStorageIndex.MIN_REDUNDANT_RECORD_COUNT + 1, mIndex.getRecordCount());
+    mIndex.recordAccess("r2", 10000);
+    // the journal is down to one record per entry
+    assertEquals(2, mIndex.getRecordCount());
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 0);
+    assertTrue(index.load());
+    assertEntry(index, "r1", 10, 3000 + DiskStorageIndex.MIN_REDUNDANT_RECORD_COUNT - 2);
+    assertEntry(index, "r2", 20, 10000);
+  }
+
+  @Test
+  public void testRetainAll() {
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    mIndex.recordAdd("r2", 20, 2000);
+    mIndex.retainAll(new HashSet<>(Collections.singletonList("r2")), newResourceChecker());
+    assertEquals(1, mIndex.getCount());
+    assertEquals(20, mIndex.getSize());
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 0);
+    assertTrue(index.load());
+    assertFalse(index.contains("r1"));
+    assertEntry(index, "r2", 20, 2000);
+  }
+
+  @Test
+  public void testRetainAllKeepsResourcesStillThere() {
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    mIndex.recordAdd("r2", 20, 2000);
+    mIndex.recordAdd("r3", 30, 3000);
+    // r2 was added after the walk that found r1
+    mIndex.retainAll(new HashSet<>(Collections.singletonList("r1")), newResourceChecker("r2"));
+    assertTrue(mIndex.contains("r1"));
+    assertTrue(mIndex.contains("r2"));
+    assertFalse(mIndex.contains("r3"));
+    assertEquals(30, mIndex.getSize());
+  }
+
+  @Test
+  public void testJournalDeletedWithStorage() {
+    mIndex.clear();
+    mIndex.recordAdd("r1", 10, 1000);
+    FileTree.deleteContents(mDirectory);
+    mIndex.clear();
+    mIndex.recordAdd("r2", 20, 2000);
+
+    DiskStorageIndex index = new DiskStorageIndex(mDirectory, 0);
+    assertTrue(index.load());
+    assertEquals(1, index.getCount());
+    assertEntry(index, "r2", 20, 2000);
+  }
+
+  private static void assertEntry(DiskStorageIndex index, String resourceId, long size, long timestamp) {
+    DiskStorageIndex.Entry entry = getEntry(index, resourceId);
+    assertEquals(size, entry.size);
+    assertEquals(timestamp, entry.timestamp);
+  }
+
+  private static DiskStorageIndex.Entry getEntry(DiskStorageIndex index, String resourceId) {
+    for (DiskStorageIndex.Entry entry : index.getEntries()) {
+      if (entry.resourceId.equals(resourceId)) {
+        return entry;
+      }
+    }
+    fail("no entry for " + resourceId);
+    return null;
+  }
+
+  private static DiskStorageIndex.ResourceChecker newResourceChecker(String... existingResourceIds) {
+    final Set<String> resourceIds = new HashSet<>(Arrays.asList(existingResourceIds));
+    return new DiskStorageIndex.ResourceChecker() {
+      @Override
+      public boolean exists(String resourceId) {
+        return resourceIds.contains(resourceId);
+      }
+    };
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.common.time.Clock;
+
+/**
+ * Replays a trace of image requests against a cache of limited size, evicting in the order of an
+ * {@link EntryEvictionComparatorSupplier}, and measures how many of the requests hit the cache.
+ *
+ * <p> The trace mixes thumbnails of 10 to 30 KB with large images of 0.5 to 1.5 MB, one in five,
+ * requested with a Zipf-like popularity independent of their size, one second apart.
+ */
+class EvictionTraceSimulator {
+
+  private static final int RESOURCE_COUNT = 2000;
+  private static final int REQUEST_COUNT = 20000;
+  private static final double ZIPF_EXPONENT = 0.8;
+  private static final long REQUEST_INTERVAL_MS = 1000;
+
+  private final long[] mSizes = new long[RESOURCE_COUNT];
+  private final int[] mTrace = new int[REQUEST_COUNT];
+  private final TestClock mClock = new TestClock();
+
+  EvictionTraceSimulator(long seed) {
+    Random random = new Random(seed);
+    for (int i = 0; i < RESOURCE_COUNT; i++) {
+      mSizes[i] = random.nextInt(5) == 0
+          ? 500 * 1024 + random.nextInt(1024 * 1024)
+          : 10 * 1024 + random.nextInt(20 * 1024);
+    }
+    double[] cumulativeWeights = new double[RESOURCE_COUNT];
+    double totalWeight = 0;
+    for (int rank = 0; rank < RESOURCE_COUNT; rank++) {
+      totalWeight += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+      cumulativeWeights[rank] = totalWeight;
+    }
+    for (int i = 0; i < REQUEST_COUNT; i++) {
+      int rank = binarySearch(cumulativeWeights, random.nextDouble() * totalWeight);
+      // the resource ids are the ranks, their sizes were drawn independently
+      mTrace[i] = rank;
+    }
+  }
+
+  /** The clock the requests are timed with, for the suppliers to age the entries by. */
+  Clock getClock() {
+    return mClock;
+  }
+
+  /** Replays the trace against an empty cache holding at most the given number of bytes. */
+  Result run(EntryEvictionComparatorSupplier supplier, long maxSize) {
+    Map<Integer, TestEntry> cache = new HashMap<>();
+    long size = 0;
+    Result result = new Result();
+    mClock.mNow = 0;
+    for (int resource : mTrace) {
+      mClock.mNow += REQUEST_INTERVAL_MS;
+      long resourceSize = mSizes[resource];
+      result.mRequestCount++;
+      result.mRequestedBytes += resourceSize;
+      TestEntry entry = cache.get(resource);
+      if (entry != null) {
+        result.mHitCount++;
+        result.mHitBytes += resourceSize;
+        entry.mTimestamp = mClock.mNow;
+        entry.mAccessCount++;
+        continue;
+      }
+      cache.put(resource, new TestEntry(resource, resourceSize, mClock.mNow));
+      size += resourceSize;
+      if (size > maxSize) {
+        List<DiskStorage.Entry> entries = new ArrayList<DiskStorage.Entry>(cache.values());
+        Collections.sort(entries, supplier.get());
+        for (int i = 0; size > maxSize; i++) {
+          TestEntry evicted = (TestEntry) entries.get(i);
+          cache.remove(evicted.mResource);
+          size -= evicted.mSize;
+        }
+      }
+    }
+    return result;
+  }
+
+  long getTotalSize() {
+    long totalSize = 0;
+    for (long size : mSizes) {
+      totalSize += size;
+    }
+    return totalSize;
+  }
+
+  private static int binarySearch(double[] cumulativeWeights, double value) {
+    int low = 0;
+    int high = cumulativeWeights.length - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (cumulativeWeights[middle] < value) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  static class Result {
+    private int mRequestCount;
+    private int mHitCount;
+    private long mRequestedBytes;
+    private long mHitBytes;
+
+    double getHitRatio() {
+      return (double) mHitCount / mRequestCount;
+    }
+
+    double getByteHitRatio() {
+      return (double) mHitBytes / mRequestedBytes;
+    }
+  }
+
+  private static class TestClock implements Clock {
+    private long mNow;
+
+    @Override
+    public long now() {
+      return mNow;
+    }
+  }
+
+  private static class TestEntry implements DiskStorage.DetailedEntry {
+    private final int mResource;
+    private final long mSize;
+    private long mTimestamp;
+    private int mAccessCount;
+
+    TestEntry(int resource, long size, long timestamp) {
+      mResource = resource;
+      mSize = size;
+      mTimestamp = timestamp;
+    }
+
+    @Override
+    public String getId() {
+      return String.valueOf(mResource);
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    @Override
+    public int getAccessCount() {
+      return mAccessCount;
+    }
+
+    @Override
+    public BinaryResource getResource() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.facebook.common.time.Clock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test for {@link FrequencyEntryEvictionComparatorSupplier}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FrequencyEntryEvictionComparatorSupplierTest {
+
+  private static final long HALF_LIFE_MS = 1000;
+  private static final long NOW = 10000;
+
+  @Test
+  public void testSortingOrder() {
+    DiskStorage.Entry old = createEntry(NOW - 3000, 100, 0);
+    DiskStorage.Entry popular = createEntry(NOW - 3000, 100, 15);
+    DiskStorage.Entry recent = createEntry(NOW, 100, 0);
+    DiskStorage.Entry frequent = createEntry(NOW - 1000, 100, 3);
+    List<DiskStorage.Entry> entries = new ArrayList<>(Arrays.asList(recent, popular, frequent, old));
+    Collections.sort(entries, newSupplier().get());
+    // old scores 1 / 8 and recent 1, while popular and frequent both score 2, popular being older
+    assertEquals(Arrays.asList(old, recent, popular, frequent), entries);
+  }
+
+  @Test
+  public void testEqualScoresAreSortedByTimestamp() {
+    DiskStorage.Entry older = createEntry(NOW - 1000, 100, 1);
+    DiskStorage.Entry newer = createEntry(NOW, 100, 0);
+    List<DiskStorage.Entry> entries = new ArrayList<>(Arrays.asList(newer, older));
+    Collections.sort(entries, newSupplier().get());
+    assertEquals(Arrays.asList(older, newer), entries);
+  }
+
+  @Test
+  public void testByteHitRatioOfTrace() {
+    EvictionTraceSimulator simulator = new EvictionTraceSimulator(42);
+    long maxSize = simulator.getTotalSize() / 10;
+    EvictionTraceSimulator.Result lru =
+        simulator.run(new DefaultEntryEvictionComparatorSupplier(), maxSize);
+    EvictionTraceSimulator.Result lfu = simulator.run(
+        new FrequencyEntryEvictionComparatorSupplier(
+            FrequencyEntryEvictionComparatorSupplier.DEFAULT_HALF_LIFE_MS,
+            simulator.getClock()),
+        maxSize);
+    assertTrue(
+        "LFU " + lfu.getByteHitRatio() + " LRU " + lru.getByteHitRatio(),
+        lfu.getByteHitRatio() > lru.getByteHitRatio());
+  }
+
+  private static FrequencyEntryEvictionComparatorSupplier newSupplier() {
+    Clock clock = mock(Clock.class);
+    when(clock.now()).thenReturn(NOW);
+    return new FrequencyEntryEvictionComparatorSupplier(HALF_LIFE_MS, clock);
+  }
+
+  static DiskStorage.Entry createEntry(long timestamp, long size, int accessCount) {
+    DiskStorage.DetailedEntry entry = mock(DiskStorage.DetailedEntry.class);
+    when(entry.getTimestamp()).thenReturn(timestamp);
+    when(entry.getSize()).thenReturn(size);
+    when(entry.getAccessCount()).thenReturn(accessCount);
+    return entry;
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.internal.ByteStreams;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PackedDiskStorage}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class PackedDiskStorageTest {
+
+  private static final int TESTCACHE_VERSION = 1;
+  private static final long SEGMENT_SIZE = 1000;
+
+  private File mDirectory;
+  private File mVersionDirectory;
+
+  @Before
+  public void setUp() {
+    mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "packed-disk-storage-test");
+    FileTree.deleteRecursively(mDirectory);
+    mVersionDirectory =
+        new File(mDirectory, PackedDiskStorage.getVersionSubdirectoryName(TESTCACHE_VERSION));
+  }
+
+  @After
+  public void tearDown() {
+    FileTree.deleteRecursively(mDirectory);
+  }
+
+  @Test
+  public void testWriteReadRemove() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    byte[] value = newBytes(100, 1);
+    BinaryResource resource = write(storage, "k1", value);
+    assertArrayEquals(value, resource.read());
+    assertTrue(storage.contains("k1", null));
+    assertArrayEquals(value, storage.getResource("k1", null).read());
+    assertNull(storage.getResource("k2", null));
+
+    assertEquals(100, storage.remove("k1"));
+    assertFalse(storage.contains("k1", null));
+    assertEquals(0, storage.remove("k1"));
+    assertTrue(storage.getEntries().isEmpty());
+  }
+
+  @Test
+  public void testOverwrite() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    write(storage, "k1", newBytes(100, 1));
+    byte[] value = newBytes(50, 2);
+    write(storage, "k1", value);
+    List<DiskStorage.Entry> entries = storage.getEntries();
+    assertEquals(1, entries.size());
+    assertEquals(50, entries.get(0).getSize());
+    assertArrayEquals(value, storage.getResource("k1", null).read());
+  }
+
+  @Test
+  public void testAccessesAreCounted() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    write(storage, "k1", newBytes(100, 1));
+    assertEquals(0, getAccessCount(storage));
+    storage.getResource("k1", null);
+    storage.touch("k1", null);
+    assertEquals(2, getAccessCount(storage));
+
+    // the counts are kept in memory only
+    storage = getStorage();
+    assertEquals(0, getAccessCount(storage));
+  }
+
+  @Test
+  public void testEntriesSurviveRestart() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    byte[] value1 = newBytes(100, 1);
+    write(storage, "k1", value1);
+    write(storage, "k2", newBytes(100, 2));
+    storage.remove("k2");
+
+    storage = getStorage();
+    assertEquals(1, storage.getEntries().size());
+    assertArrayEquals(value1, storage.getResource("k1", null).read());
+    // the removed resource is not found again
+    assertFalse(storage.contains("k2", null));
+  }
+
+  @Test
+  public void testTornTailIsTruncated() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    byte[] value1 = newBytes(100, 1);
+    write(storage, "k1", value1);
+    write(storage, "k2", newBytes(100, 2));
+    File segmentFile = new File(storage.getFilename("k1"));
+    long validLength = segmentFile.length();
+    // the last record cut short by a crash
+    RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+    file.setLength(validLength - 10);
+    file.close();
+
+    storage = getStorage();
+    assertArrayEquals(value1, storage.getResource("k1", null).read());
+    assertFalse(storage.contains("k2", null));
+    // the storage appends after the last valid record
+    byte[] value3 = newBytes(100, 3);
+    write(storage, "k3", value3);
+
+    storage = getStorage();
+    assertArrayEquals(value1, storage.getResource("k1", null).read());
+    assertArrayEquals(value3, storage.getResource("k3", null).read());
+  }
+
+  @Test
+  public void testCorruptRecordIsDropped() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    write(storage, "k1", newBytes(100, 1));
+    File segmentFile = new File(storage.getFilename("k1"));
+    RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+    file.seek(segmentFile.length() - 1);
+    file.write(0xFF);
+    file.close();
+
+    storage = getStorage();
+    assertFalse(storage.contains("k1", null));
+  }
+
+  @Test
+  public void testSegmentsAreCompacted() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    for (int i = 0; i < 40; i++) {
+      write(storage, "k" + i, newBytes(100, i));
+    }
+    int segmentCount = storage.getSegmentCount();
+    assertTrue(segmentCount > 3);
+    // overwriting the resources leaves the old segments dead
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 10; i++) {
+        write(storage, "k" + i, newBytes(100, i + round));
+      }
+    }
+    for (int i = 10; i < 40; i++) {
+      storage.remove("k" + i);
+    }
+    assertTrue(storage.getSegmentCount() < segmentCount);
+    assertEquals(10, storage.getEntries().size());
+    for (int i = 0; i < 10; i++) {
+      assertArrayEquals(newBytes(100, i + 2), storage.getResource("k" + i, null).read());
+    }
+
+    storage = getStorage();
+    assertEquals(10, storage.getEntries().size());
+    for (int i = 0; i < 10; i++) {
+      assertArrayEquals(newBytes(100, i + 2), storage.getResource("k" + i, null).read());
+    }
+  }
+
+  @Test
+  public void testStreamOutlivesCompaction() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    byte[] value = newBytes(100, 1);
+    BinaryResource resource = write(storage, "k1", value);
+    write(storage, "k2", newBytes(900, 2));
+    InputStream stream = resource.openStream();
+    PackedDiskStorage.Segment segment = ((PackedDiskStorage.SegmentResource) resource).segment;
+    storage.compact(segment);
+    assertFalse(segment.file.exists());
+
+    assertArrayEquals(value, ByteStreams.toByteArray(stream));
+    stream.close();
+    // the resource was moved to another segment
+    assertArrayEquals(value, storage.getResource("k1", null).read());
+  }
+
+  @Test
+  public void testClearAll() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    write(storage, "k1", newBytes(100, 1));
+    storage.clearAll();
+    assertTrue(storage.getEntries().isEmpty());
+    write(storage, "k2", newBytes(100, 2));
+
+    storage = getStorage();
+    assertFalse(storage.contains("k1", null));
+    assertTrue(storage.contains("k2", null));
+  }
+
+  @Test
+  public void testPurgeUnexpectedResources() throws Exception {
+    PackedDiskStorage storage = getStorage();
+    write(storage, "k1", newBytes(100, 1));
+    File unexpectedFile = new File(mVersionDirectory, "unexpected");
+    FileOutputStream stream = new FileOutputStream(unexpectedFile);
+    stream.write(1);
+    stream.close();
+    File unexpectedDirectory = new File(mDirectory, "other");
+    assertTrue(unexpectedDirectory.mkdirs());
+
+    storage.purgeUnexpectedResources();
+    assertFalse(unexpectedFile.exists());
+    assertFalse(unexpectedDirectory.exists());
+    assertTrue(storage.contains("k1", null));
+    assertTrue(new File(storage.getFilename("k1")).exists());
+  }
+
+  private PackedDiskStorage getStorage() {
+    return new PackedDiskStorage(
+        mDirectory,
+        TESTCACHE_VERSION,
+        NoOpCacheErrorLogger.getInstance(),
+        SEGMENT_SIZE);
+  }
+
+  private static BinaryResource write(PackedDiskStorage storage, String resourceId, byte[] value)
+      throws Exception {
+    BinaryResource temporary = storage.createTemporary(resourceId, null);
+    storage.updateResource(resourceId, temporary, WriterCallbacks.from(value), null);
+    return storage.commit(resourceId, temporary, null);
+  }
+
+  private static int getAccessCount(PackedDiskStorage storage) throws Exception {
+    return ((DiskStorage.DetailedEntry) storage.getEntries().get(0)).getAccessCount();
+  }
+
+  private static byte[] newBytes(int size, int seed) {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) (seed + i);
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.cache.disk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.facebook.common.time.Clock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.facebook.cache.disk.FrequencyEntryEvictionComparatorSupplierTest.createEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test for {@link SizeAwareEntryEvictionComparatorSupplier}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SizeAwareEntryEvictionComparatorSupplierTest {
+
+  private static final long HALF_LIFE_MS = 1000;
+  private static final long NOW = 10000;
+
+  @Test
+  public void testSortingOrder() {
+    DiskStorage.Entry large = createEntry(NOW, 1000, 3);
+    DiskStorage.Entry small = createEntry(NOW - 2000, 10, 0);
+    DiskStorage.Entry medium = createEntry(NOW, 100, 0);
+    List<DiskStorage.Entry> entries = new ArrayList<>(Arrays.asList(small, medium, large));
+    Clock clock = mock(Clock.class);
+    when(clock.now()).thenReturn(NOW);
+    Collections.sort(entries, new SizeAwareEntryEvictionComparatorSupplier(HALF_LIFE_MS, clock).get());
+    // large scores 4 / 1000, medium 1 / 100, and small 1 / 4 / 10
+    assertEquals(Arrays.asList(large, medium, small), entries);
+  }
+
+  @Test
+  public void testHitRatioOfTrace() {
+    EvictionTraceSimulator simulator = new EvictionTraceSimulator(42);
+    long maxSize = simulator.getTotalSize() / 10;
+    EvictionTraceSimulator.Result lru =
+        simulator.run(new DefaultEntryEvictionComparatorSupplier(), maxSize);
+    EvictionTraceSimulator.Result gdsf = simulator.run(
+        new SizeAwareEntryEvictionComparatorSupplier(
+            FrequencyEntryEvictionComparatorSupplier.DEFAULT_HALF_LIFE_MS,
+            simulator.getClock()),
+        maxSize);
+    assertTrue(
+        "GDSF " + gdsf.getHitRatio() + " LRU " + lru.getHitRatio(),
+        gdsf.getHitRatio() > lru.getHitRatio());
+  }
+}
@@ -21,6 +21,7 @@ import com.facebook.imagepipeline.gif.GifImage;
 import com.facebook.imagepipeline.image.CloseableAnimatedImage;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.webp.WebPImage;
 
@@ -58,7 +59,13 @@ public class AnimatedImageFactory {
         try {
             Preconditions.checkState(!options.forceOldAnimationCode);
             final PooledByteBuffer input = bytesRef.get();
-            GifImage gifImage = GifImage.create(input.getNativePtr(), input.size());
+            GifImage gifImage;
+            if (input instanceof MappedPooledByteBuffer) {
+                // a mapped file is a direct buffer already, which saves the native copy its pointer takes
+                gifImage = GifImage.create(((MappedPooledByteBuffer) input).getByteBuffer());
+            } else {
+                gifImage = GifImage.create(input.getNativePtr(), input.size());
+            }
             return getCloseableImage(options, gifImage, bitmapConfig);
         } finally {
             CloseableReference.closeSafely(bytesRef);
@@ -79,7 +86,13 @@ public class AnimatedImageFactory {
         try {
             Preconditions.checkArgument(!options.forceOldAnimationCode);
             final PooledByteBuffer input = bytesRef.get();
-            WebPImage webPImage = WebPImage.create(input.getNativePtr(), input.size());
+            WebPImage webPImage;
+            if (input instanceof MappedPooledByteBuffer) {
+                // a mapped file is a direct buffer already, which saves the native copy its pointer takes
+                webPImage = WebPImage.create(((MappedPooledByteBuffer) input).getByteBuffer());
+            } else {
+                webPImage = WebPImage.create(input.getNativePtr(), input.size());
+            }
             return getCloseableImage(options, webPImage, bitmapConfig);
         } finally {
             CloseableReference.closeSafely(bytesRef);
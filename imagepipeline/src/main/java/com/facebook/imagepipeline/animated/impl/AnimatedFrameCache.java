@@ -12,6 +12,7 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.Objects;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.AbstractCountingMemoryCache;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.image.CloseableImage;
 
@@ -28,10 +29,10 @@ import javax.annotation.concurrent.GuardedBy;
  */
 public class AnimatedFrameCache {
     private final CacheKey mImageCacheKey;
-    private final CountingMemoryCache<CacheKey, CloseableImage> mBackingCache;
+    private final AbstractCountingMemoryCache<CacheKey, CloseableImage> mBackingCache;
     private final CountingMemoryCache.EntryStateObserver<CacheKey> mEntryStateObserver;
     @GuardedBy("this") private final LinkedHashSet<CacheKey> mFreeItemsPool;
-    public AnimatedFrameCache(CacheKey imageCacheKey, final CountingMemoryCache<CacheKey, CloseableImage> backingCache) {
+    public AnimatedFrameCache(CacheKey imageCacheKey, final AbstractCountingMemoryCache<CacheKey, CloseableImage> backingCache) {
         mImageCacheKey = imageCacheKey;
         mBackingCache = backingCache;
         mFreeItemsPool = new LinkedHashSet<>();
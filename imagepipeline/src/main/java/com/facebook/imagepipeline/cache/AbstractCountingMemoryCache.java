@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.MemoryTrimmable;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.common.references.SharedReference;
+import com.facebook.imagepipeline.image.ImageSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Base of the memory caches that count the clients of their items, such as the
+ * {@link CountingMemoryCache} and the {@link SegmentedCountingMemoryCache}.
+ *
+ * <p> Only the exclusively owned elements, i.e. the elements not referenced by any client, can be
+ * evicted. The subclasses decide how the items are stored and locked; this class holds what they
+ * share: the cache configuration, the entries and the client references, and the helpers that
+ * update the entries while holding the lock that guards them.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public abstract class AbstractCountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimmable {
+    /**
+     * Interface used to specify the trimming strategy for the cache.
+     */
+    public interface CacheTrimStrategy {
+        double getTrimRatio(MemoryTrimType trimType);
+    }
+
+    /**
+     * Interface used to observe the state changes of an entry.
+     */
+    public interface EntryStateObserver<K> {
+        /**
+         * Called when the exclusivity status of the entry changes.
+         *
+         * <p> The item can be reused if it is exclusively owned by the cache.
+         */
+        void onExclusivityChanged(K key, boolean isExclusive);
+    }
+
+    /**
+     * Interface used to observe the trims of the cache.
+     */
+    public interface TrimObserver {
+        /** Called before the cache gets trimmed, while it still holds the items about to be trimmed. */
+        void onTrim(MemoryTrimType trimType);
+    }
+
+    /**
+     * Interface used to specify the order in which the exclusively owned items get evicted.
+     *
+     * <p> All the methods are called while holding the lock that guards the cached items, so the
+     * implementations need not be thread-safe, but they should be fast.
+     */
+    public interface EvictionPolicy<K> {
+        /** Called when the item with the given key is requested, whether it is cached or not. */
+        void onAccess(K key, boolean isHit);
+
+        /**
+         * Called when a new item is added to the cache. The new item is in use by the client that
+         * cached it, so it is not exclusively owned by the cache yet.
+         *
+         * @param decodeTimeMs how long the decode of the item took, or -1 if not known
+         * @param source       where the encoded item was fetched from
+         */
+        void onAdd(K key, int sizeInBytes, long decodeTimeMs, ImageSource source);
+
+        /**
+         * Called when the item becomes exclusively owned by the cache, i.e. viable for eviction, or
+         * when a client starts using it again.
+         */
+        void onExclusivityChanged(K key, boolean isExclusive);
+
+        /** Called when the item is no longer tracked by the cache. */
+        void onRemove(K key);
+
+        /**
+         * Gets the key of the item to be evicted next.
+         *
+         * @param exclusiveEntries the exclusively owned items, in the order they became exclusive;
+         *                         the returned key must be one of them
+         * @param params           the cache constraints currently in effect
+         */
+        @Nullable
+        K getNextToEvict(CountingLruMap<K, ?> exclusiveEntries, MemoryCacheParams params);
+    }
+    // How often the cache checks for a new cache configuration.
+    @VisibleForTesting static final long PARAMS_INTERCHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    final ValueDescriptor<V> mValueDescriptor;
+    // Measures the entries by the size of their values.
+    final ValueDescriptor<Entry<K, V>> mEntryValueDescriptor;
+    final CacheTrimStrategy mCacheTrimStrategy;
+    // Cache size constraints.
+    final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+    @Nullable private volatile TrimObserver mTrimObserver;
+
+    AbstractCountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier) {
+        mValueDescriptor = valueDescriptor;
+        mEntryValueDescriptor = wrapValueDescriptor(valueDescriptor);
+        mCacheTrimStrategy = cacheTrimStrategy;
+        mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
+    }
+
+    private static <K, V> ValueDescriptor<Entry<K, V>> wrapValueDescriptor(final ValueDescriptor<V> evictableValueDescriptor) {
+        return new ValueDescriptor<Entry<K, V>>() {
+            @Override
+            public int getSizeInBytes(Entry<K, V> entry) {
+                return evictableValueDescriptor.getSizeInBytes(entry.valueRef.get());
+            }
+        };
+    }
+
+    /**
+     * Caches the given key-value pair.
+     *
+     * <p> Important: the client should use the returned reference instead of the original one.
+     * It is the caller's responsibility to close the returned reference once not needed anymore.
+     *
+     * @return the new reference to be used, null if the value cannot be cached
+     */
+    @Override
+    public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef) {
+        return cache(key, valueRef, null);
+    }
+
+    /**
+     * Caches the given key-value pair.
+     *
+     * <p> Important: the client should use the returned reference instead of the original one.
+     * It is the caller's responsibility to close the returned reference once not needed anymore.
+     *
+     * @return the new reference to be used, null if the value cannot be cached
+     */
+    public abstract CloseableReference<V> cache(K key, CloseableReference<V> valueRef, @Nullable EntryStateObserver<K> observer);
+
+    /**
+     * Gets the value with the given key to be reused, or null if there is no such value.
+     *
+     * <p> The item can be reused only if it is exclusively owned by the cache.
+     */
+    @Nullable
+    public abstract CloseableReference<V> reuse(K key);
+
+    /** Removes all the items from the cache. */
+    public abstract void clear();
+
+    /**
+     * Gets the keys of up to <code>maxCount</code> most recently used items: the items in use come
+     * first, followed by the exclusively owned items from the most recently released one.
+     */
+    public abstract List<K> getMostRecentlyUsedKeys(int maxCount);
+
+    /**
+     * Enables or disables the estimation of the hit rates the cache would have at other sizes,
+     * see {@link #getMissRatioCurve}. The estimation keeps the keys of the recently evicted items,
+     * and costs a little time on each request, so it is disabled by default. Disabling it drops
+     * the estimates gathered so far.
+     */
+    public abstract void setMissRatioCurveTrackingEnabled(boolean enabled);
+
+    /**
+     * Gets the estimated hit rates of the cache at other sizes, based on the requests since the
+     * tracking was enabled, or null if it is not.
+     */
+    @Nullable
+    public abstract MissRatioCurve getMissRatioCurve();
+
+    /**
+     * Gets the cache params (constraints) from the supplier right away, instead of waiting for the
+     * next periodic check, and evicts the items over the new limits.
+     *
+     * <p> Used by the suppliers that change the params on their own, such as the
+     * {@link AdaptiveMemoryCacheParamsSupplier}.
+     */
+    public abstract void updateCacheParams();
+
+    /** Gets the cache params (constraints) currently in effect. */
+    abstract MemoryCacheParams getMemoryCacheParams();
+
+    /**
+     * Calls the visitor for each cached item, while holding the lock that guards the item.
+     *
+     * <p> Used by the tools that need a consistent snapshot of the cache content.
+     */
+    abstract void forEachCachedEntry(EntryVisitor<K, V> visitor);
+
+    /** Gets the total number of all currently cached items. */
+    public abstract int getCount();
+
+    /** Gets the total size in bytes of all currently cached items. */
+    public abstract int getSizeInBytes();
+
+    /** Gets the number of the cached items that are used by at least one client. */
+    public abstract int getInUseCount();
+
+    /** Gets the total size in bytes of the cached items that are used by at least one client. */
+    public abstract int getInUseSizeInBytes();
+
+    /** Gets the number of the exclusively owned items. */
+    public abstract int getEvictionQueueCount();
+
+    /** Gets the total size in bytes of the exclusively owned items. */
+    public abstract int getEvictionQueueSizeInBytes();
+
+    /** Sets the observer notified before each trim of the cache, or null to clear it. */
+    public void setTrimObserver(@Nullable TrimObserver trimObserver) {
+        mTrimObserver = trimObserver;
+    }
+
+    /** Notifies the trim observer, if any, that the cache is about to be trimmed. */
+    final void maybeNotifyTrimObserver(MemoryTrimType trimType) {
+        TrimObserver trimObserver = mTrimObserver;
+        if (trimObserver != null) {
+            trimObserver.onTrim(trimType);
+        }
+    }
+
+    /** Creates a new entry, with the decode cost of the value if the descriptor provides it. */
+    final Entry<K, V> newEntry(K key, CloseableReference<V> valueRef, @Nullable EntryStateObserver<K> observer) {
+        if (mValueDescriptor instanceof DecodeCostDescriptor) {
+            DecodeCostDescriptor<V> decodeCostDescriptor = (DecodeCostDescriptor<V>) mValueDescriptor;
+            V value = valueRef.get();
+            return Entry.of(key, valueRef, observer, decodeCostDescriptor.getDecodeTimeMs(value), decodeCostDescriptor.getSource(value));
+        }
+        return Entry.of(key, valueRef, observer);
+    }
+
+    static <K, V> void maybeNotifyExclusiveEntryRemoval(@Nullable Entry<K, V> entry) {
+        if (entry != null && entry.observer != null) {
+            entry.observer.onExclusivityChanged(entry.key, false);
+        }
+    }
+
+    static <K, V> void maybeNotifyExclusiveEntryRemoval(@Nullable ArrayList<Entry<K, V>> entries) {
+        if (entries != null) {
+            for (Entry<K, V> entry : entries) {
+                maybeNotifyExclusiveEntryRemoval(entry);
+            }
+        }
+    }
+
+    static <K, V> void maybeNotifyExclusiveEntryInsertion(@Nullable Entry<K, V> entry) {
+        if (entry != null && entry.observer != null) {
+            entry.observer.onExclusivityChanged(entry.key, true);
+        }
+    }
+
+    /**
+     * Takes a released client reference from the entry's pool and hands it to a new client, or
+     * returns null if there is none. Must be called while holding the lock guarding the entry.
+     */
+    @Nullable
+    static <K, V> CloseableReference<V> reuseClientReference(Entry<K, V> entry) {
+        ClientReference<K, V> clientReference = entry.clientReferencePool;
+        if (clientReference == null) {
+            return null;
+        }
+        entry.clientReferencePool = clientReference.next;
+        clientReference.next = null;
+        clientReference.sharedReference.reuse(entry.valueRef.get());
+        return CloseableReference.adopt(clientReference.sharedReference);
+    }
+
+    /**
+     * Puts the released client reference back to its entry's pool, unless the entry is an orphan
+     * and cannot get any new client. Must be called while holding the lock guarding the entry.
+     */
+    static <K, V> void recycleClientReference(ClientReference<K, V> clientReference) {
+        Entry<K, V> entry = clientReference.entry;
+        if (!entry.isOrphan) {
+            clientReference.next = entry.clientReferencePool;
+            entry.clientReferencePool = clientReference;
+        }
+    }
+
+    /**
+     * Collects the keys of the items in use, and the keys of the exclusively owned items from the
+     * most recently released one. Must be called while holding the lock guarding the items.
+     */
+    static <K, V> void collectMostRecentlyUsedKeys(CountingLruMap<K, Entry<K, V>> cachedEntries, CountingLruMap<K, Entry<K, V>>
+            exclusiveEntries, List<K> inUseKeys, List<K> exclusiveKeys) {
+        for (LinkedHashMap.Entry<K, Entry<K, V>> cachedEntry : cachedEntries.getMatchingEntries(null)) {
+            if (cachedEntry.getValue().clientCount > 0) {
+                inUseKeys.add(cachedEntry.getKey());
+            }
+        }
+        ArrayList<LinkedHashMap.Entry<K, Entry<K, V>>> exclusives = exclusiveEntries.getMatchingEntries(null);
+        for (int i = exclusives.size() - 1; i >= 0; i--) {
+            exclusiveKeys.add(exclusives.get(i).getKey());
+        }
+    }
+
+    /**
+     * Marks the entry as orphan, i.e. no longer tracked by the cache. Must be called while holding
+     * the lock guarding the entry.
+     */
+    static <K, V> void makeOrphan(Entry<K, V> entry) {
+        Preconditions.checkNotNull(entry);
+        Preconditions.checkState(!entry.isOrphan);
+        entry.isOrphan = true;
+    }
+
+    /** Increases the entry's client count. Must be called while holding the lock guarding the entry. */
+    static <K, V> void increaseClientCount(Entry<K, V> entry) {
+        Preconditions.checkNotNull(entry);
+        Preconditions.checkState(!entry.isOrphan);
+        entry.clientCount++;
+    }
+
+    /** Decreases the entry's client count. Must be called while holding the lock guarding the entry. */
+    static <K, V> void decreaseClientCount(Entry<K, V> entry) {
+        Preconditions.checkNotNull(entry);
+        Preconditions.checkState(entry.clientCount > 0);
+        entry.clientCount--;
+    }
+
+    /**
+     * Returns the value reference of the entry if it should be closed, null otherwise. Must be
+     * called while holding the lock guarding the entry.
+     */
+    @Nullable
+    static <K, V> CloseableReference<V> referenceToClose(Entry<K, V> entry) {
+        Preconditions.checkNotNull(entry);
+        return (entry.isOrphan && entry.clientCount == 0) ? entry.valueRef : null;
+    }
+
+    /**
+     * Interface used to inspect the cached entries.
+     */
+    interface EntryVisitor<K, V> {
+        void visit(Entry<K, V> entry);
+    }
+
+    /**
+     * The internal representation of a key-value pair stored by the cache.
+     */
+    @VisibleForTesting
+    static class Entry<K, V> {
+        public final K key;
+        public final CloseableReference<V> valueRef;
+        @Nullable public final EntryStateObserver<K> observer;
+        // The number of clients that reference the value.
+        public int clientCount;
+        // Whether or not this entry is tracked by this cache. Orphans are not tracked by the cache and
+        // as soon as the last client of an orphaned entry closes their reference, the entry's copy is
+        // closed too.
+        public boolean isOrphan;
+        // How long the decode of the value took, or -1 if not known.
+        public final long decodeTimeMs;
+        // Where the encoded value was fetched from.
+        public final ImageSource source;
+        // The released client references of the value, to be reused by the next clients.
+        @Nullable ClientReference<K, V> clientReferencePool;
+
+        private Entry(K key, CloseableReference<V> valueRef, @Nullable EntryStateObserver<K> observer, long decodeTimeMs, ImageSource
+                source) {
+            this.key = Preconditions.checkNotNull(key);
+            this.valueRef = Preconditions.checkNotNull(CloseableReference.cloneOrNull(valueRef));
+            this.clientCount = 0;
+            this.isOrphan = false;
+            this.observer = observer;
+            this.decodeTimeMs = decodeTimeMs;
+            this.source = Preconditions.checkNotNull(source);
+        }
+
+        /** Creates a new entry with the usage count of 0. */
+        @VisibleForTesting
+        static <K, V> Entry<K, V> of(final K key, final CloseableReference<V> valueRef, final @Nullable EntryStateObserver<K> observer) {
+            return of(key, valueRef, observer, -1, ImageSource.UNKNOWN);
+        }
+
+        /** Creates a new entry with the usage count of 0 and the given decode cost. */
+        static <K, V> Entry<K, V> of(final K key, final CloseableReference<V> valueRef, final @Nullable EntryStateObserver<K> observer, long
+                decodeTimeMs, ImageSource source) {
+            return new Entry<>(key, valueRef, observer, decodeTimeMs, source);
+        }
+    }
+
+    /**
+     * A client reference to the value of an entry that is reused once closed.
+     *
+     * <p> Each client gets its own {@link SharedReference}, so that the cache gets notified when
+     * that client closes its reference. The closed references are kept by the entry to serve the
+     * next clients, so a cache hit allocates nothing but the {@link CloseableReference} handed to
+     * the client. The value is not tracked as a live object by these references, as the entry's
+     * own reference keeps it alive anyway.
+     */
+    @VisibleForTesting
+    abstract static class ClientReference<K, V> implements ResourceReleaser<V> {
+        final Entry<K, V> entry;
+        final SharedReference<V> sharedReference;
+        // The next released client reference in the entry's pool.
+        @Nullable ClientReference<K, V> next;
+
+        ClientReference(Entry<K, V> entry) {
+            this.entry = entry;
+            this.sharedReference = new SharedReference<>(entry.valueRef.get(), this, false);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.MemoryTrimmable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Supplies {@link MemoryCacheParams} whose max cache size follows how the cache is used, within
+ * the given bounds.
+ *
+ * <p> The other params come from the base supplier, with the max eviction queue size scaled along
+ * with the max cache size. The requests are counted in windows of {@link #WINDOW_REQUEST_COUNT}.
+ * At the end of each window:
+ * <ul>
+ *   <li> if the cache churned, i.e. many of the items were put while the cache was full and hence
+ *   evicted others, the max cache size grows by a step;
+ *   <li> if the previous window grew the cache but the hit rate did not improve, the max cache size
+ *   goes back to what it was before the growth, and is held for a few windows.
+ * </ul>
+ *
+ * <p> The memory pressure trims while the app is in the foreground shrink the max cache size by a
+ * step and hold it for a few windows, so that the cache does not grow right back into the memory
+ * the system asked for.
+ *
+ * <p> The supplier has to be attached to its cache, to see how full the cache is and to push the
+ * new params to it right away rather than at the next periodic check. It has to see the requests
+ * as a {@link MemoryCacheTracker}, and the trims as a {@link MemoryTrimmable}; the
+ * {@link com.facebook.imagepipeline.core.ImagePipelineFactory} does all of it for the bitmap and
+ * encoded memory caches.
+ */
+@ThreadSafe
+public class AdaptiveMemoryCacheParamsSupplier implements Supplier<MemoryCacheParams>, MemoryCacheTracker, MemoryTrimmable {
+    @VisibleForTesting static final int WINDOW_REQUEST_COUNT = 1000;
+    // The ratio of the puts into a full cache to the requests above which the cache grows.
+    @VisibleForTesting static final float GROWTH_CHURN_RATIO = 0.05f;
+    // The least improvement of the hit rate a growth has to bring to be kept.
+    @VisibleForTesting static final float MIN_HIT_RATE_GAIN = 0.01f;
+    // How many windows the size is held for after a revert or a trim.
+    @VisibleForTesting static final int HOLD_WINDOW_COUNT = 5;
+    // The max cache size changes by this ratio of itself in a step.
+    @VisibleForTesting static final float STEP_RATIO = 0.125f;
+    // The cache is considered full above this ratio of its max size.
+    private static final float FULL_CACHE_RATIO = 0.9f;
+    private final Supplier<MemoryCacheParams> mBaseParamsSupplier;
+    private final int mMinCacheSize;
+    private final int mMaxCacheSize;
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mChurnCount = new AtomicInteger();
+    @Nullable private volatile AbstractCountingMemoryCache<?, ?> mCache;
+    @GuardedBy("this") private int mCacheSize;
+    @GuardedBy("this") private boolean mHasGrown;
+    // the max cache size before the last growth, which a revert restores
+    @GuardedBy("this") private int mCacheSizeBeforeGrowth;
+    @GuardedBy("this") private float mLastHitRate = -1;
+    @GuardedBy("this") private int mHeldWindowCount;
+
+    /**
+     * @param baseParamsSupplier supplies the params other than the max cache size, and the max
+     *                           cache size to start with
+     * @param minCacheSize       the least the max cache size may shrink to
+     * @param maxCacheSize       the most the max cache size may grow to
+     */
+    public AdaptiveMemoryCacheParamsSupplier(Supplier<MemoryCacheParams> baseParamsSupplier, int minCacheSize, int maxCacheSize) {
+        Preconditions.checkArgument(minCacheSize > 0 && minCacheSize <= maxCacheSize);
+        mBaseParamsSupplier = Preconditions.checkNotNull(baseParamsSupplier);
+        mMinCacheSize = minCacheSize;
+        mMaxCacheSize = maxCacheSize;
+        mCacheSize = clamp(baseParamsSupplier.get().maxCacheSize);
+    }
+
+    /** Attaches the cache the params are supplied to. */
+    public void attach(AbstractCountingMemoryCache<?, ?> cache) {
+        mCache = Preconditions.checkNotNull(cache);
+    }
+
+    @Override
+    public MemoryCacheParams get() {
+        MemoryCacheParams baseParams = mBaseParamsSupplier.get();
+        int cacheSize = getMaxCacheSize();
+        int evictionQueueSize = baseParams.maxEvictionQueueSize;
+        if (evictionQueueSize < baseParams.maxCacheSize) {
+            // keep the share of the cache the eviction queue may take
+            evictionQueueSize = (int) ((long) evictionQueueSize * cacheSize / Math.max(baseParams.maxCacheSize, 1));
+        }
+        return new MemoryCacheParams(cacheSize, baseParams.maxCacheEntries, evictionQueueSize, baseParams.maxEvictionQueueEntries, baseParams
+                .maxCacheEntrySize);
+    }
+
+    /** Gets the max cache size currently in effect. */
+    public synchronized int getMaxCacheSize() {
+        return mCacheSize;
+    }
+
+    @Override
+    public void onCacheHit() {
+        mHitCount.incrementAndGet();
+        maybeEndWindow();
+    }
+
+    @Override
+    public void onCacheMiss() {
+        mMissCount.incrementAndGet();
+        maybeEndWindow();
+    }
+
+    @Override
+    public void onCachePut() {
+        AbstractCountingMemoryCache<?, ?> cache = mCache;
+        if (cache != null && cache.getSizeInBytes() >= FULL_CACHE_RATIO * getMaxCacheSize()) {
+            mChurnCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void trim(MemoryTrimType trimType) {
+        if (trimType != MemoryTrimType.OnCloseToDalvikHeapLimit &&
+                trimType != MemoryTrimType.OnSystemLowMemoryWhileAppInForeground) {
+            // the background trims empty the cache anyway, and say nothing about its size
+            return;
+        }
+        boolean isChanged;
+        synchronized (this) {
+            isChanged = setCacheSize(mCacheSize - step());
+            mHasGrown = false;
+            mHeldWindowCount = HOLD_WINDOW_COUNT;
+        }
+        maybePushParams(isChanged);
+    }
+
+    private void maybeEndWindow() {
+        if (mHitCount.get() + mMissCount.get() < WINDOW_REQUEST_COUNT) {
+            return;
+        }
+        boolean isChanged;
+        synchronized (this) {
+            int hitCount = mHitCount.get();
+            int requestCount = hitCount + mMissCount.get();
+            // another thread may have ended the window already
+            if (requestCount < WINDOW_REQUEST_COUNT) {
+                return;
+            }
+            float churnRatio = (float) mChurnCount.get() / requestCount;
+            mHitCount.set(0);
+            mMissCount.set(0);
+            mChurnCount.set(0);
+            isChanged = onWindowEnd((float) hitCount / requestCount, churnRatio);
+        }
+        maybePushParams(isChanged);
+    }
+
+    /** Adapts the max cache size to the window just ended, returns whether it changed. */
+    @VisibleForTesting
+    synchronized boolean onWindowEnd(float hitRate, float churnRatio) {
+        boolean isChanged = false;
+        if (mHeldWindowCount > 0) {
+            mHeldWindowCount--;
+        } else if (mHasGrown && hitRate < mLastHitRate + MIN_HIT_RATE_GAIN) {
+            // the cache did not benefit from the growth, give the memory back
+            isChanged = setCacheSize(mCacheSizeBeforeGrowth);
+            mHasGrown = false;
+            mHeldWindowCount = HOLD_WINDOW_COUNT;
+        } else if (churnRatio >= GROWTH_CHURN_RATIO) {
+            mCacheSizeBeforeGrowth = mCacheSize;
+            isChanged = setCacheSize(mCacheSize + step());
+            mHasGrown = isChanged;
+        } else {
+            mHasGrown = false;
+        }
+        mLastHitRate = hitRate;
+        return isChanged;
+    }
+
+    @GuardedBy("this")
+    private int step() {
+        return Math.max((int) (mCacheSize * STEP_RATIO), 1);
+    }
+
+    @GuardedBy("this")
+    private boolean setCacheSize(int cacheSize) {
+        int oldCacheSize = mCacheSize;
+        mCacheSize = clamp(cacheSize);
+        return mCacheSize != oldCacheSize;
+    }
+
+    private int clamp(long cacheSize) {
+        return (int) Math.max(mMinCacheSize, Math.min(mMaxCacheSize, cacheSize));
+    }
+
+    /** Pushes the changed params to the cache. Must not be called while holding the lock. */
+    private void maybePushParams(boolean isChanged) {
+        AbstractCountingMemoryCache<?, ?> cache = mCache;
+        if (isChanged && cache != null) {
+            cache.updateCacheParams();
+        }
+    }
+}
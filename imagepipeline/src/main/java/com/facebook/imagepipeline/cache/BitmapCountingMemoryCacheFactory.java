@@ -12,20 +12,111 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.ImageSource;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
 
 public class BitmapCountingMemoryCacheFactory {
-    public static CountingMemoryCache<CacheKey, CloseableImage> get(Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+    public static AbstractCountingMemoryCache<CacheKey, CloseableImage> get(Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
                                                                     MemoryTrimmableRegistry memoryTrimmableRegistry) {
-        ValueDescriptor<CloseableImage> valueDescriptor = new ValueDescriptor<CloseableImage>() {
+        return get(bitmapMemoryCacheParamsSupplier, memoryTrimmableRegistry, 1);
+    }
+
+    public static AbstractCountingMemoryCache<CacheKey, CloseableImage> get(Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+                                                                    MemoryTrimmableRegistry memoryTrimmableRegistry, int segmentCount) {
+        return get(bitmapMemoryCacheParamsSupplier, memoryTrimmableRegistry, segmentCount, null);
+    }
+
+    /**
+     * Creates the counting cache. If <code>segmentCount</code> is greater than one, a lock-striped
+     * {@link SegmentedCountingMemoryCache} with that many segments is created.
+     *
+     * @param evictionPolicySupplier supplies the eviction policy of the cache (or of each of its
+     *                               segments); if null, the items are evicted in LRU order
+     */
+    public static AbstractCountingMemoryCache<CacheKey, CloseableImage> get(Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+                                                                    MemoryTrimmableRegistry memoryTrimmableRegistry, int segmentCount,
+                                                                    @Nullable Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> evictionPolicySupplier) {
+        return get(bitmapMemoryCacheParamsSupplier, memoryTrimmableRegistry, segmentCount, evictionPolicySupplier, null);
+    }
+
+    /**
+     * Creates the counting cache. If <code>segmentCount</code> is greater than one, a lock-striped
+     * {@link SegmentedCountingMemoryCache} with that many segments is created.
+     *
+     * @param evictionPolicySupplier supplies the eviction policy of the cache (or of each of its
+     *                               segments); if null, the items are evicted in LRU order
+     * @param evictionExecutor       executor the items are evicted on in batches; if null, the
+     *                               items are evicted right away by the threads using the cache
+     */
+    public static AbstractCountingMemoryCache<CacheKey, CloseableImage> get(Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+                                                                    MemoryTrimmableRegistry memoryTrimmableRegistry, int segmentCount,
+                                                                    @Nullable Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> evictionPolicySupplier,
+                                                                    @Nullable Executor evictionExecutor) {
+        ValueDescriptor<CloseableImage> valueDescriptor = newValueDescriptor();
+        CountingMemoryCache.CacheTrimStrategy trimStrategy = new BitmapMemoryCacheTrimStrategy();
+        if (evictionPolicySupplier == null) {
+            evictionPolicySupplier = newLruEvictionPolicySupplier();
+        }
+        AbstractCountingMemoryCache<CacheKey, CloseableImage> countingCache = segmentCount > 1 ? new SegmentedCountingMemoryCache<>(valueDescriptor,
+                trimStrategy, bitmapMemoryCacheParamsSupplier, segmentCount, evictionPolicySupplier, evictionExecutor) : new CountingMemoryCache<>(
+                valueDescriptor, trimStrategy, bitmapMemoryCacheParamsSupplier, evictionPolicySupplier.get(), evictionExecutor);
+        memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
+        return countingCache;
+    }
+
+    /**
+     * Creates a {@link PartitionedCountingMemoryCache}, split by the given partitioner.
+     *
+     * @param partitionParamsSuppliers supply the budget of each partition, in the order of the
+     *                                 partition indices
+     * @param evictionPolicySupplier   supplies the eviction policy of each partition; if null, the
+     *                                 items are evicted in LRU order
+     * @param evictionExecutor         executor the items are evicted on in batches; if null, the
+     *                                 items are evicted right away by the threads using the cache
+     */
+    public static AbstractCountingMemoryCache<CacheKey, CloseableImage> getPartitioned(MemoryCachePartitioner<CacheKey> partitioner,
+                                                                               List<Supplier<MemoryCacheParams>> partitionParamsSuppliers,
+                                                                               MemoryTrimmableRegistry memoryTrimmableRegistry,
+                                                                               @Nullable Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> evictionPolicySupplier,
+                                                                               @Nullable Executor evictionExecutor) {
+        if (evictionPolicySupplier == null) {
+            evictionPolicySupplier = newLruEvictionPolicySupplier();
+        }
+        AbstractCountingMemoryCache<CacheKey, CloseableImage> countingCache = new PartitionedCountingMemoryCache<>(newValueDescriptor(), new
+                BitmapMemoryCacheTrimStrategy(), partitioner, partitionParamsSuppliers, evictionPolicySupplier, evictionExecutor);
+        memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
+        return countingCache;
+    }
+
+    private static ValueDescriptor<CloseableImage> newValueDescriptor() {
+        return new DecodeCostDescriptor<CloseableImage>() {
             @Override
             public int getSizeInBytes(CloseableImage value) {
                 return value.getSizeInBytes();
             }
+
+            @Override
+            public long getDecodeTimeMs(CloseableImage value) {
+                return value.getDecodeTimeMs();
+            }
+
+            @Override
+            public ImageSource getSource(CloseableImage value) {
+                return value.getSource();
+            }
+        };
+    }
+
+    private static Supplier<CountingMemoryCache.EvictionPolicy<CacheKey>> newLruEvictionPolicySupplier() {
+        return new Supplier<CountingMemoryCache.EvictionPolicy<CacheKey>>() {
+            @Override
+            public CountingMemoryCache.EvictionPolicy<CacheKey> get() {
+                return new LruEvictionPolicy<>();
+            }
         };
-        CountingMemoryCache.CacheTrimStrategy trimStrategy = new BitmapMemoryCacheTrimStrategy();
-        CountingMemoryCache<CacheKey, CloseableImage> countingCache = new CountingMemoryCache<>(valueDescriptor, trimStrategy,
-                bitmapMemoryCacheParamsSupplier);
-        memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
-        return countingCache;
     }
 }
@@ -11,24 +11,45 @@ package com.facebook.imagepipeline.cache;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.imagepipeline.image.CloseableImage;
 
+import javax.annotation.Nullable;
+
 public class BitmapMemoryCacheFactory {
-    public static MemoryCache<CacheKey, CloseableImage> get(final CountingMemoryCache<CacheKey, CloseableImage> bitmapCountingMemoryCache, final
-    ImageCacheStatsTracker imageCacheStatsTracker) {
+    public static MemoryCache<CacheKey, CloseableImage> get(AbstractCountingMemoryCache<CacheKey, CloseableImage> bitmapCountingMemoryCache,
+                                                            ImageCacheStatsTracker imageCacheStatsTracker) {
+        return get(bitmapCountingMemoryCache, imageCacheStatsTracker, null);
+    }
+
+    /**
+     * @param paramsTracker also notified of the cache events, e.g. an
+     *                      {@link AdaptiveMemoryCacheParamsSupplier} of the cache, or null
+     */
+    public static MemoryCache<CacheKey, CloseableImage> get(final AbstractCountingMemoryCache<CacheKey, CloseableImage> bitmapCountingMemoryCache,
+                                                            final ImageCacheStatsTracker imageCacheStatsTracker,
+                                                            @Nullable final MemoryCacheTracker paramsTracker) {
         imageCacheStatsTracker.registerBitmapMemoryCache(bitmapCountingMemoryCache);
         MemoryCacheTracker memoryCacheTracker = new MemoryCacheTracker() {
             @Override
             public void onCacheHit() {
                 imageCacheStatsTracker.onBitmapCacheHit();
+                if (paramsTracker != null) {
+                    paramsTracker.onCacheHit();
+                }
             }
 
             @Override
             public void onCacheMiss() {
                 imageCacheStatsTracker.onBitmapCacheMiss();
+                if (paramsTracker != null) {
+                    paramsTracker.onCacheMiss();
+                }
             }
 
             @Override
             public void onCachePut() {
                 imageCacheStatsTracker.onBitmapCachePut();
+                if (paramsTracker != null) {
+                    paramsTracker.onCachePut();
+                }
             }
         };
         return new InstrumentedMemoryCache<>(bitmapCountingMemoryCache, memoryCacheTracker);
@@ -14,6 +14,7 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.util.HashCodeUtil;
 import com.facebook.imagepipeline.common.ImageDecodeOptions;
 import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
 
 import java.util.Locale;
 
@@ -31,18 +32,42 @@ public class BitmapMemoryCacheKey implements CacheKey {
     private final ImageDecodeOptions mImageDecodeOptions;
     private final @Nullable CacheKey mPostprocessorCacheKey;
     private final @Nullable String mPostprocessorName;
+    // The memory cache partition is chosen from these, so they are part of the key identity: equal
+    // keys always live in the same partition. Only the PartitionedCacheKeyFactory sets them, the
+    // other keys are of the default type and untagged.
+    private final ImageRequest.ImageType mImageType;
+    private final @Nullable String mPartitionTag;
     private final int mHash;
 
     public BitmapMemoryCacheKey(String sourceString, @Nullable ResizeOptions resizeOptions, boolean autoRotated, ImageDecodeOptions
             imageDecodeOptions, @Nullable CacheKey postprocessorCacheKey, @Nullable String postprocessorName) {
+        this(sourceString, resizeOptions, autoRotated, imageDecodeOptions, postprocessorCacheKey, postprocessorName, ImageRequest.ImageType
+                .DEFAULT, null);
+    }
+
+    /**
+     * Creates a key for a partitioned bitmap memory cache, see {@link PartitionedCacheKeyFactory}.
+     *
+     * @param imageType    type of the requested image, used to choose the memory cache partition
+     * @param partitionTag tag of the memory cache partition chosen by the caller, if any
+     */
+    public BitmapMemoryCacheKey(String sourceString, @Nullable ResizeOptions resizeOptions, boolean autoRotated, ImageDecodeOptions
+            imageDecodeOptions, @Nullable CacheKey postprocessorCacheKey, @Nullable String postprocessorName, ImageRequest.ImageType
+            imageType, @Nullable String partitionTag) {
+        mImageType = Preconditions.checkNotNull(imageType);
+        mPartitionTag = partitionTag;
         mSourceString = Preconditions.checkNotNull(sourceString);
         mResizeOptions = resizeOptions;
         mAutoRotated = autoRotated;
         mImageDecodeOptions = imageDecodeOptions;
         mPostprocessorCacheKey = postprocessorCacheKey;
         mPostprocessorName = postprocessorName;
-        mHash = HashCodeUtil.hashCode(sourceString.hashCode(), (resizeOptions != null) ? resizeOptions.hashCode() : 0, autoRotated ? Boolean.TRUE
-                .hashCode() : Boolean.FALSE.hashCode(), mImageDecodeOptions, mPostprocessorCacheKey, postprocessorName);
+        int hash = HashCodeUtil.hashCode(sourceString.hashCode(), (resizeOptions != null) ? resizeOptions.hashCode() : 0, autoRotated ?
+                Boolean.TRUE.hashCode() : Boolean.FALSE.hashCode(), mImageDecodeOptions, mPostprocessorCacheKey, postprocessorName);
+        if (imageType != ImageRequest.ImageType.DEFAULT || partitionTag != null) {
+            hash = 31 * hash + HashCodeUtil.hashCode(imageType, partitionTag);
+        }
+        mHash = hash;
     }
 
     @Override
@@ -57,7 +82,9 @@ public class BitmapMemoryCacheKey implements CacheKey {
                 mAutoRotated == otherKey.mAutoRotated &&
                 Objects.equal(mImageDecodeOptions, otherKey.mImageDecodeOptions) &&
                 Objects.equal(mPostprocessorCacheKey, otherKey.mPostprocessorCacheKey) &&
-                Objects.equal(mPostprocessorName, otherKey.mPostprocessorName);
+                Objects.equal(mPostprocessorName, otherKey.mPostprocessorName) &&
+                mImageType == otherKey.mImageType &&
+                Objects.equal(mPartitionTag, otherKey.mPartitionTag);
     }
 
     @Override
@@ -69,11 +96,33 @@ public class BitmapMemoryCacheKey implements CacheKey {
         return mSourceString;
     }
 
+    @Nullable
+    public ResizeOptions getResizeOptions() {
+        return mResizeOptions;
+    }
+
+    public boolean isAutoRotated() {
+        return mAutoRotated;
+    }
+
+    public ImageDecodeOptions getImageDecodeOptions() {
+        return mImageDecodeOptions;
+    }
+
     @Nullable
     public String getPostprocessorName() {
         return mPostprocessorName;
     }
 
+    public ImageRequest.ImageType getImageType() {
+        return mImageType;
+    }
+
+    @Nullable
+    public String getPartitionTag() {
+        return mPartitionTag;
+    }
+
     @Override
     public String toString() {
         return String.format((Locale) null, "%s_%s_%s_%s_%s_%s_%d", mSourceString, mResizeOptions, Boolean.toString(mAutoRotated),
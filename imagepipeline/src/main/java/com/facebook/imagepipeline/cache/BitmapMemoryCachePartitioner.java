@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the bitmap memory cache by the type of the images and by the tags chosen by the callers.
+ *
+ * <p> The images of the {@link ImageRequest.ImageType#DEFAULT} type belong to the partition
+ * {@link #DEFAULT_PARTITION} and the ones of the {@link ImageRequest.ImageType#SMALL} type belong
+ * to the partition {@link #SMALL_PARTITION}. The images requested with a caller context
+ * implementing {@link MemoryCachePartitionTagged} belong to the partition of the tag, which
+ * follows the image type partitions in the order of the tags given to the constructor. The images
+ * with unknown tags fall back to the image type partitions.
+ */
+public class BitmapMemoryCachePartitioner implements MemoryCachePartitioner<CacheKey> {
+    public static final int DEFAULT_PARTITION = 0;
+    public static final int SMALL_PARTITION = 1;
+    private static final int IMAGE_TYPE_PARTITION_COUNT = 2;
+    private final List<String> mPartitionTags;
+
+    public BitmapMemoryCachePartitioner() {
+        this(new ArrayList<String>());
+    }
+
+    /**
+     * @param partitionTags the tags of the partitions in addition to the image type ones
+     */
+    public BitmapMemoryCachePartitioner(List<String> partitionTags) {
+        mPartitionTags = new ArrayList<>(partitionTags);
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return IMAGE_TYPE_PARTITION_COUNT + mPartitionTags.size();
+    }
+
+    @Override
+    public int getPartition(CacheKey key) {
+        if (!(key instanceof BitmapMemoryCacheKey)) {
+            return DEFAULT_PARTITION;
+        }
+        BitmapMemoryCacheKey bitmapMemoryCacheKey = (BitmapMemoryCacheKey) key;
+        String partitionTag = bitmapMemoryCacheKey.getPartitionTag();
+        if (partitionTag != null) {
+            int tagIndex = mPartitionTags.indexOf(partitionTag);
+            if (tagIndex >= 0) {
+                return IMAGE_TYPE_PARTITION_COUNT + tagIndex;
+            }
+        }
+        return (bitmapMemoryCacheKey.getImageType() == ImageRequest.ImageType.SMALL) ? SMALL_PARTITION : DEFAULT_PARTITION;
+    }
+
+    /** Gets the index of the partition of the given tag, or -1 if the tag is unknown. */
+    public int getPartition(String partitionTag) {
+        int tagIndex = mPartitionTags.indexOf(partitionTag);
+        return (tagIndex >= 0) ? IMAGE_TYPE_PARTITION_COUNT + tagIndex : -1;
+    }
+}
@@ -9,25 +9,51 @@
 package com.facebook.imagepipeline.cache;
 
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.AsyncDiskStorage;
+import com.facebook.cache.disk.DefaultAsyncDiskStorage;
+import com.facebook.cache.disk.DefiniteMissFileCache;
+import com.facebook.cache.disk.DiskStorageCache;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImageSource;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
+import com.facebook.imagepipeline.memory.PooledByteBufferInputStream;
 import com.facebook.imagepipeline.memory.PooledByteStreams;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import bolts.Continuation;
 import bolts.Task;
 
 /**
@@ -36,41 +62,95 @@ import bolts.Task;
  */
 public class BufferedDiskCache {
     private static final Class<?> TAG = BufferedDiskCache.class;
+    // the reads that do not say otherwise are not made to wait behind the prioritized ones
+    private static final Priority DEFAULT_READ_PRIORITY = Priority.HIGH;
+    /** The size of the images waiting to be written above which the new writes are dropped. */
+    public static final int DEFAULT_MAX_STAGED_BYTES = 8 * ByteConstants.MB;
+    // the uris have no spaces, so the partial download keys cannot be image keys
+    private static final String PARTIAL_DOWNLOAD_KEY_PREFIX = "partial ";
+    private static final int PARTIAL_DOWNLOAD_MAGIC = 0x50415254;
     private final FileCache mFileCache;
     private final PooledByteBufferFactory mPooledByteBufferFactory;
     private final PooledByteStreams mPooledByteStreams;
     private final Executor mReadExecutor;
     private final Executor mWriteExecutor;
+    private final Executor mRemovalExecutor;
+    @Nullable private final DiskCacheIoScheduler mIoScheduler;
+    // the batched access to the file cache, if it is a DiskStorageCache
+    @Nullable private final AsyncDiskStorage mAsyncDiskStorage;
     private final StagingArea mStagingArea;
     private final ImageCacheStatsTracker mImageCacheStatsTracker;
+    private final boolean mMappedFileReadEnabled;
+    private final int mMaxStagedBytes;
+    private final ConcurrentMap<CacheKey, PendingWrite> mPendingWrites = new ConcurrentHashMap<>();
+    private final AtomicLong mStagedBytes = new AtomicLong();
+    // the partial downloads waiting to be written, by their key
+    private final ConcurrentMap<CacheKey, PartialDownload> mPendingPartialDownloads = new ConcurrentHashMap<>();
 
     public BufferedDiskCache(FileCache fileCache, PooledByteBufferFactory pooledByteBufferFactory, PooledByteStreams pooledByteStreams, Executor
             readExecutor, Executor writeExecutor, ImageCacheStatsTracker imageCacheStatsTracker) {
+        this(fileCache, pooledByteBufferFactory, pooledByteStreams, readExecutor, writeExecutor, imageCacheStatsTracker, false);
+    }
+
+    /**
+     * @param mappedFileReadEnabled whether to map the large cached files into memory on a hit,
+     *                              rather than copying them into the native memory pool
+     */
+    public BufferedDiskCache(FileCache fileCache, PooledByteBufferFactory pooledByteBufferFactory, PooledByteStreams pooledByteStreams, Executor
+            readExecutor, Executor writeExecutor, ImageCacheStatsTracker imageCacheStatsTracker, boolean mappedFileReadEnabled) {
+        this(fileCache, pooledByteBufferFactory, pooledByteStreams, readExecutor, writeExecutor, writeExecutor, null,
+                imageCacheStatsTracker, mappedFileReadEnabled);
+    }
+
+    /**
+     * Creates a cache that schedules its reads and writes with the given scheduler, so the reads go
+     * ahead of the queued writes in the order of their priority, and the writes can be paused.
+     *
+     * @param mappedFileReadEnabled whether to map the large cached files into memory on a hit,
+     *                              rather than copying them into the native memory pool
+     */
+    public BufferedDiskCache(FileCache fileCache, PooledByteBufferFactory pooledByteBufferFactory, PooledByteStreams pooledByteStreams,
+            DiskCacheIoScheduler ioScheduler, ImageCacheStatsTracker imageCacheStatsTracker, boolean mappedFileReadEnabled) {
+        this(fileCache, pooledByteBufferFactory, pooledByteStreams, ioScheduler.getReadExecutor(DEFAULT_READ_PRIORITY), ioScheduler
+                .getWriteExecutor(), ioScheduler.getRemovalExecutor(), ioScheduler, imageCacheStatsTracker, mappedFileReadEnabled);
+    }
+
+    private BufferedDiskCache(FileCache fileCache, PooledByteBufferFactory pooledByteBufferFactory, PooledByteStreams pooledByteStreams,
+            Executor readExecutor, Executor writeExecutor, Executor removalExecutor, @Nullable DiskCacheIoScheduler ioScheduler,
+            ImageCacheStatsTracker imageCacheStatsTracker, boolean mappedFileReadEnabled) {
         mFileCache = fileCache;
         mPooledByteBufferFactory = pooledByteBufferFactory;
         mPooledByteStreams = pooledByteStreams;
         mReadExecutor = readExecutor;
         mWriteExecutor = writeExecutor;
+        mRemovalExecutor = removalExecutor;
+        mIoScheduler = ioScheduler;
+        mAsyncDiskStorage = fileCache instanceof DiskStorageCache ? new DefaultAsyncDiskStorage((DiskStorageCache) fileCache, readExecutor)
+                : null;
         mImageCacheStatsTracker = imageCacheStatsTracker;
+        mMappedFileReadEnabled = mappedFileReadEnabled;
+        mMaxStagedBytes = DEFAULT_MAX_STAGED_BYTES;
         mStagingArea = StagingArea.getInstance();
     }
 
     /**
      * Performs a key-value look up in the disk cache. If the value is not found in the staging area,
-     * then a disk cache check is scheduled on a background thread. Any error manifests itself as a
-     * cache miss, i.e. the returned Task resolves to false.
+     * and the disk cache cannot rule it out right away, then a disk cache check is scheduled on a
+     * background thread. Any error manifests itself as a cache miss, i.e. the returned Task resolves
+     * to false.
      *
      * @return Task that resolves to true if the element is found, or false otherwise
      */
     public Task<Boolean> contains(final CacheKey key) {
         Preconditions.checkNotNull(key);
-        final EncodedImage pinnedImage = mStagingArea.get(key);
-        if (pinnedImage != null) {
-            pinnedImage.close();
-            FLog.v(TAG, "Found image for %s in staging area", key.toString());
-            mImageCacheStatsTracker.onStagingAreaHit();
+        if (isInStagingArea(key)) {
             return Task.forResult(true);
         }
+        if (isDefinitelyMissing(key)) {
+            FLog.v(TAG, "Did not find image for %s in staging area or disk cache", key.toString());
+            mImageCacheStatsTracker.onStagingAreaMiss();
+            return Task.forResult(false);
+        }
         try {
             return Task.call(new Callable<Boolean>() {
                 @Override
@@ -100,6 +180,101 @@ public class BufferedDiskCache {
         }
     }
 
+    /**
+     * Finds which of the keys are in the disk cache, with a single disk cache check on a background
+     * thread for all of those neither in the staging area nor ruled out by the disk cache right away.
+     * If the disk cache is a {@link DiskStorageCache}, the check is a batch of a
+     * {@link DefaultAsyncDiskStorage} over it, split by the shards of the cache. Any error manifests
+     * itself as a cache miss for the keys being checked.
+     *
+     * @return Task that resolves to the keys found
+     */
+    public Task<Set<CacheKey>> findCachedKeys(final Collection<? extends CacheKey> keys) {
+        Preconditions.checkNotNull(keys);
+        final Set<CacheKey> cachedKeys = new HashSet<>();
+        final List<CacheKey> keysToCheck = new ArrayList<>();
+        for (CacheKey key : keys) {
+            if (isInStagingArea(key)) {
+                cachedKeys.add(key);
+            } else if (!isDefinitelyMissing(key)) {
+                keysToCheck.add(key);
+            }
+        }
+        if (keysToCheck.isEmpty()) {
+            return Task.forResult(cachedKeys);
+        }
+        if (mAsyncDiskStorage != null) {
+            return findCachedKeysInBatch(cachedKeys, keysToCheck);
+        }
+        try {
+            return Task.call(new Callable<Set<CacheKey>>() {
+                @Override
+                public Set<CacheKey> call() throws Exception {
+                    for (CacheKey key : keysToCheck) {
+                        try {
+                            if (isInStagingArea(key) || mFileCache.hasKey(key)) {
+                                cachedKeys.add(key);
+                            }
+                        } catch (Exception exception) {
+                            // a miss
+                        }
+                    }
+                    return cachedKeys;
+                }
+            }, mReadExecutor);
+        } catch (Exception exception) {
+            FLog.w(TAG, exception, "Failed to schedule disk-cache read for %d keys", keysToCheck.size());
+            return Task.forError(exception);
+        }
+    }
+
+    /**
+     * Checks the keys with a single batch of the disk cache, which costs at most one task on the read
+     * executor per shard of the cache instead of one file system call after the other.
+     */
+    private Task<Set<CacheKey>> findCachedKeysInBatch(final Set<CacheKey> cachedKeys, final List<CacheKey> keysToCheck) {
+        final List<String> resourceIds = new ArrayList<>(keysToCheck.size());
+        for (CacheKey key : keysToCheck) {
+            resourceIds.add(CacheKeyUtil.getResourceId(key));
+        }
+        return mAsyncDiskStorage.contains(resourceIds).continueWith(new Continuation<Set<String>, Set<CacheKey>>() {
+            @Override
+            public Set<CacheKey> then(Task<Set<String>> task) {
+                if (task.isFaulted()) {
+                    // a miss for the keys being checked
+                    FLog.w(TAG, task.getError(), "Failed disk-cache read for %d keys", keysToCheck.size());
+                }
+                for (int i = 0; i < keysToCheck.size(); i++) {
+                    CacheKey key = keysToCheck.get(i);
+                    boolean isFound = !task.isFaulted() && !task.isCancelled() && task.getResult().contains(resourceIds.get(i));
+                    if (isFound || isInStagingArea(key)) {
+                        cachedKeys.add(key);
+                    }
+                }
+                return cachedKeys;
+            }
+        });
+    }
+
+    /**
+     * Tells whether the disk cache rules the key out without any I/O. Only the caches implementing
+     * {@link DefiniteMissFileCache} can; the lookups of the others always go to the disk.
+     */
+    private boolean isDefinitelyMissing(CacheKey key) {
+        return mFileCache instanceof DefiniteMissFileCache && ((DefiniteMissFileCache) mFileCache).isDefinitelyMissing(key);
+    }
+
+    private boolean isInStagingArea(CacheKey key) {
+        final EncodedImage pinnedImage = mStagingArea.get(key);
+        if (pinnedImage != null) {
+            pinnedImage.close();
+            FLog.v(TAG, "Found image for %s in staging area", key.toString());
+            mImageCacheStatsTracker.onStagingAreaHit();
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Performs key-value look up in disk cache. If value is not found in disk cache staging area
      * then disk cache read is scheduled on background thread. Any error manifests itself as
@@ -109,14 +284,29 @@ public class BufferedDiskCache {
      * returned future never rethrows any exception
      */
     public Task<EncodedImage> get(final CacheKey key, final AtomicBoolean isCancelled) {
+        return get(key, isCancelled, DEFAULT_READ_PRIORITY);
+    }
+
+    /**
+     * Performs a key-value look up in the disk cache, like {@link #get(CacheKey, AtomicBoolean)}.
+     * If the cache has a scheduler, the disk cache read is queued by the given priority.
+     */
+    public Task<EncodedImage> get(final CacheKey key, final AtomicBoolean isCancelled, Priority priority) {
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(isCancelled);
+        Preconditions.checkNotNull(priority);
         final EncodedImage pinnedImage = mStagingArea.get(key);
         if (pinnedImage != null) {
             FLog.v(TAG, "Found image for %s in staging area", key.toString());
             mImageCacheStatsTracker.onStagingAreaHit();
             return Task.forResult(pinnedImage);
         }
+        if (isDefinitelyMissing(key)) {
+            FLog.v(TAG, "Did not find image for %s in staging area or disk cache", key.toString());
+            mImageCacheStatsTracker.onStagingAreaMiss();
+            mImageCacheStatsTracker.onDiskCacheMiss();
+            return Task.forResult(null);
+        }
         try {
             return Task.call(new Callable<EncodedImage>() {
                 @Override
@@ -136,6 +326,7 @@ public class BufferedDiskCache {
                             CloseableReference<PooledByteBuffer> ref = CloseableReference.of(buffer);
                             try {
                                 result = new EncodedImage(ref);
+                                result.setSource(ImageSource.DISK_CACHE);
                             } finally {
                                 CloseableReference.closeSafely(ref);
                             }
@@ -153,7 +344,7 @@ public class BufferedDiskCache {
                         return result;
                     }
                 }
-            }, mReadExecutor);
+            }, mIoScheduler != null ? mIoScheduler.getReadExecutor(priority) : mReadExecutor);
         } catch (Exception exception) {
             // Log failure
             // TODO: 3697790
@@ -164,26 +355,60 @@ public class BufferedDiskCache {
 
     /**
      * Associates encodedImage with given key in disk cache. Disk write is performed on background
-     * thread, so the caller of this method is not blocked
+     * thread, so the caller of this method is not blocked.
+     *
+     * <p> If a write of the key is still queued, it writes this image instead, so a key put twice
+     * is only written once. If the images waiting to be written already take up the byte budget,
+     * the write is dropped: the image was just fetched and still is in the memory caches, so this
+     * costs at most a refetch, while a slow disk cannot pin an unbounded amount of memory.
      */
     public void put(final CacheKey key, EncodedImage encodedImage) {
         Preconditions.checkNotNull(key);
         Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
+        final int size = encodedImage.getSize();
+        if (mStagedBytes.get() + size > mMaxStagedBytes && !mPendingWrites.containsKey(key)) {
+            FLog.w(TAG, "Dropped disk-cache write for %s, %d bytes waiting to be written", key.toString(), mStagedBytes.get());
+            return;
+        }
         // Store encodedImage in staging area
         mStagingArea.put(key, encodedImage);
         // Write to disk cache. This will be executed on background thread, so increment the ref count.
         // When this write completes (with success/failure), then we will bump down the ref count
         // again.
         final EncodedImage finalEncodedImage = EncodedImage.cloneOrNull(encodedImage);
+        while (true) {
+            final PendingWrite pendingWrite = mPendingWrites.get(key);
+            if (pendingWrite != null && pendingWrite.coalesce(finalEncodedImage, size)) {
+                FLog.v(TAG, "Coalesced disk-cache write for %s", key.toString());
+                return;
+            }
+            // the write already started, or there is none
+            final PendingWrite newPendingWrite = new PendingWrite(finalEncodedImage, size);
+            if (pendingWrite == null ? mPendingWrites.putIfAbsent(key, newPendingWrite) == null : mPendingWrites.replace(key,
+                    pendingWrite, newPendingWrite)) {
+                mStagedBytes.addAndGet(size);
+                scheduleWrite(key, newPendingWrite);
+                return;
+            }
+        }
+    }
+
+    private void scheduleWrite(final CacheKey key, final PendingWrite pendingWrite) {
         try {
             mWriteExecutor.execute(new Runnable() {
                 @Override
                 public void run() {
+                    mPendingWrites.remove(key, pendingWrite);
+                    final EncodedImage encodedImage = pendingWrite.start();
+                    if (encodedImage == null) {
+                        // cancelled
+                        return;
+                    }
                     try {
-                        writeToDiskCache(key, finalEncodedImage);
+                        writeToDiskCache(key, encodedImage);
                     } finally {
-                        mStagingArea.remove(key, finalEncodedImage);
-                        EncodedImage.closeSafely(finalEncodedImage);
+                        mStagingArea.remove(key, encodedImage);
+                        pendingWrite.finish();
                     }
                 }
             });
@@ -191,8 +416,44 @@ public class BufferedDiskCache {
             // We failed to enqueue cache write. Log failure and decrement ref count
             // TODO: 3697790
             FLog.w(TAG, exception, "Failed to schedule disk-cache write for %s", key.toString());
-            mStagingArea.remove(key, encodedImage);
-            EncodedImage.closeSafely(finalEncodedImage);
+            mPendingWrites.remove(key, pendingWrite);
+            final EncodedImage encodedImage = pendingWrite.start();
+            if (encodedImage != null) {
+                mStagingArea.remove(key, encodedImage);
+                pendingWrite.finish();
+            }
+        }
+    }
+
+    /** Cancels the write of the key, unless it started already. */
+    private void cancelPendingWrite(CacheKey key) {
+        final PendingWrite pendingWrite = mPendingWrites.remove(key);
+        if (pendingWrite != null) {
+            pendingWrite.cancel();
+        }
+    }
+
+    /** Gets the size of the images and partial downloads waiting to be written, or being written. */
+    public long getStagedBytes() {
+        return mStagedBytes.get();
+    }
+
+    /**
+     * Stops starting the queued disk cache writes, until {@link #resumeWrites} is called. The images
+     * stay in the staging area meanwhile. Only has an effect if the cache has a scheduler, which
+     * might be shared with other caches. The removals and the clears are not paused: they cancel
+     * the writes they undo, and go ahead of the other writes.
+     */
+    public void pauseWrites() {
+        if (mIoScheduler != null) {
+            mIoScheduler.pauseWrites();
+        }
+    }
+
+    /** Starts the disk cache writes queued while paused. */
+    public void resumeWrites() {
+        if (mIoScheduler != null) {
+            mIoScheduler.resumeWrites();
         }
     }
 
@@ -201,6 +462,7 @@ public class BufferedDiskCache {
      */
     public Task<Void> remove(final CacheKey key) {
         Preconditions.checkNotNull(key);
+        cancelPendingWrite(key);
         mStagingArea.remove(key);
         try {
             return Task.call(new Callable<Void>() {
@@ -210,7 +472,7 @@ public class BufferedDiskCache {
                     mFileCache.remove(key);
                     return null;
                 }
-            }, mWriteExecutor);
+            }, mRemovalExecutor);
         } catch (Exception exception) {
             // Log failure
             // TODO: 3697790
@@ -219,10 +481,133 @@ public class BufferedDiskCache {
         }
     }
 
+    /**
+     * Looks up the first bytes of the image of the key, kept from a download that stopped before
+     * the end. Unless the disk cache can rule them out right away, the disk cache read is scheduled
+     * on a background thread. Any error manifests itself as a miss, i.e. the returned Task resolves
+     * to null. The lookups are not counted in the cache stats.
+     *
+     * @return Task that resolves to the partial download, which the caller has to close, or null
+     */
+    public Task<PartialDownload> getPartialDownload(CacheKey key) {
+        Preconditions.checkNotNull(key);
+        final CacheKey partialDownloadKey = getPartialDownloadKey(key);
+        if (isDefinitelyMissing(partialDownloadKey)) {
+            return Task.forResult(null);
+        }
+        try {
+            return Task.call(new Callable<PartialDownload>() {
+                @Override
+                public PartialDownload call() throws Exception {
+                    try {
+                        return readPartialDownload(partialDownloadKey);
+                    } catch (IOException ioe) {
+                        FLog.w(TAG, ioe, "Exception reading from cache for %s", partialDownloadKey.toString());
+                        return null;
+                    }
+                }
+            }, mReadExecutor);
+        } catch (Exception exception) {
+            FLog.w(TAG, exception, "Failed to schedule disk-cache read for %s", partialDownloadKey.toString());
+            return Task.forError(exception);
+        }
+    }
+
+    /**
+     * Keeps the first bytes of the image of the key, from a download that stopped before the end,
+     * in place of any kept before. The disk write is performed on a background thread, and bypasses
+     * the staging area: the image is not in the cache until the download completes.
+     *
+     * <p> The bytes waiting to be written count against the same budget as the images, see
+     * {@link #put}: the write is dropped if the budget is used up, as the download can start over.
+     * Until it starts, a removal of the partial download, or a newer one, cancels the write.
+     *
+     * @param partialDownload the partial download, which is closed once written or dropped
+     */
+    public void putPartialDownload(CacheKey key, final PartialDownload partialDownload) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(partialDownload);
+        final CacheKey partialDownloadKey = getPartialDownloadKey(key);
+        final int size = partialDownload.getSize();
+        if (mStagedBytes.get() + size > mMaxStagedBytes && !mPendingPartialDownloads.containsKey(partialDownloadKey)) {
+            FLog.w(TAG, "Dropped disk-cache write for %s, %d bytes waiting to be written", partialDownloadKey.toString(), mStagedBytes.get());
+            partialDownload.close();
+            return;
+        }
+        mStagedBytes.addAndGet(size);
+        cancelPendingPartialDownload(partialDownloadKey, mPendingPartialDownloads.put(partialDownloadKey, partialDownload));
+        try {
+            mWriteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mPendingPartialDownloads.remove(partialDownloadKey, partialDownload)) {
+                        // cancelled
+                        return;
+                    }
+                    try {
+                        writePartialDownload(partialDownloadKey, partialDownload);
+                    } finally {
+                        releasePartialDownload(partialDownload);
+                    }
+                }
+            });
+        } catch (Exception exception) {
+            FLog.w(TAG, exception, "Failed to schedule disk-cache write for %s", partialDownloadKey.toString());
+            if (mPendingPartialDownloads.remove(partialDownloadKey, partialDownload)) {
+                releasePartialDownload(partialDownload);
+            }
+        }
+    }
+
+    /**
+     * Removes the first bytes kept of the image of the key, once the download completed. A write
+     * of them still queued is cancelled.
+     */
+    public Task<Void> removePartialDownload(CacheKey key) {
+        Preconditions.checkNotNull(key);
+        final CacheKey partialDownloadKey = getPartialDownloadKey(key);
+        cancelPendingPartialDownload(partialDownloadKey, mPendingPartialDownloads.remove(partialDownloadKey));
+        // no shortcut on the Bloom filter: a write of them may be running
+        try {
+            return Task.call(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    mFileCache.remove(partialDownloadKey);
+                    return null;
+                }
+            }, mWriteExecutor);
+        } catch (Exception exception) {
+            FLog.w(TAG, exception, "Failed to schedule disk-cache remove for %s", partialDownloadKey.toString());
+            return Task.forError(exception);
+        }
+    }
+
+    private void cancelPendingPartialDownload(CacheKey partialDownloadKey, @Nullable PartialDownload partialDownload) {
+        if (partialDownload != null) {
+            FLog.v(TAG, "Cancelled disk-cache write for %s", partialDownloadKey.toString());
+            releasePartialDownload(partialDownload);
+        }
+    }
+
+    private void releasePartialDownload(PartialDownload partialDownload) {
+        mStagedBytes.addAndGet(-partialDownload.getSize());
+        partialDownload.close();
+    }
+
+    private static CacheKey getPartialDownloadKey(CacheKey key) {
+        return new SimpleCacheKey(PARTIAL_DOWNLOAD_KEY_PREFIX + key.toString());
+    }
+
     /**
      * Clears the disk cache and the staging area.
      */
     public Task<Void> clearAll() {
+        for (CacheKey key : mPendingWrites.keySet()) {
+            cancelPendingWrite(key);
+        }
+        for (CacheKey partialDownloadKey : mPendingPartialDownloads.keySet()) {
+            cancelPendingPartialDownload(partialDownloadKey, mPendingPartialDownloads.remove(partialDownloadKey));
+        }
         mStagingArea.clearAll();
         try {
             return Task.call(new Callable<Void>() {
@@ -232,7 +617,7 @@ public class BufferedDiskCache {
                     mFileCache.clearAll();
                     return null;
                 }
-            }, mWriteExecutor);
+            }, mRemovalExecutor);
         } catch (Exception exception) {
             // Log failure
             // TODO: 3697790
@@ -257,6 +642,13 @@ public class BufferedDiskCache {
                 mImageCacheStatsTracker.onDiskCacheHit();
             }
             PooledByteBuffer byteBuffer;
+            if (mMappedFileReadEnabled && diskCacheResource instanceof FileBinaryResource && diskCacheResource.size() >=
+                    MappedPooledByteBuffer.MIN_MAPPED_SIZE) {
+                // the decoder reads the file through the mapping, without a copy in native memory
+                byteBuffer = MappedPooledByteBuffer.map(((FileBinaryResource) diskCacheResource).getFile());
+                FLog.v(TAG, "Successful mapping of disk cache file for %s", key.toString());
+                return byteBuffer;
+            }
             final InputStream is = diskCacheResource.openStream();
             try {
                 byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
@@ -294,4 +686,122 @@ public class BufferedDiskCache {
             FLog.w(TAG, ioe, "Failed to write to disk-cache for key %s", key.toString());
         }
     }
+
+    /**
+     * Reads a partial download, stored as its validators followed by its bytes.
+     */
+    @Nullable
+    private PartialDownload readPartialDownload(CacheKey partialDownloadKey) throws IOException {
+        FLog.v(TAG, "Disk cache read for %s", partialDownloadKey.toString());
+        final BinaryResource diskCacheResource = mFileCache.getResource(partialDownloadKey);
+        if (diskCacheResource == null) {
+            return null;
+        }
+        final DataInputStream is = new DataInputStream(diskCacheResource.openStream());
+        try {
+            if (is.readInt() != PARTIAL_DOWNLOAD_MAGIC) {
+                throw new IOException("Not a partial download");
+            }
+            final String entityTag = emptyToNull(is.readUTF());
+            final String lastModified = emptyToNull(is.readUTF());
+            final int size = is.readInt();
+            final CloseableReference<PooledByteBuffer> ref = CloseableReference.of(mPooledByteBufferFactory.newByteBuffer(is, size));
+            try {
+                if (ref.get().size() != size) {
+                    throw new IOException("Truncated partial download");
+                }
+                FLog.v(TAG, "Successful read from disk cache for %s", partialDownloadKey.toString());
+                return new PartialDownload(ref, entityTag, lastModified);
+            } finally {
+                ref.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private void writePartialDownload(final CacheKey partialDownloadKey, final PartialDownload partialDownload) {
+        FLog.v(TAG, "About to write to disk-cache for key %s", partialDownloadKey.toString());
+        try {
+            mFileCache.insert(partialDownloadKey, new WriterCallback() {
+                @Override
+                public void write(OutputStream os) throws IOException {
+                    final DataOutputStream dos = new DataOutputStream(os);
+                    dos.writeInt(PARTIAL_DOWNLOAD_MAGIC);
+                    dos.writeUTF(nullToEmpty(partialDownload.getEntityTag()));
+                    dos.writeUTF(nullToEmpty(partialDownload.getLastModified()));
+                    dos.writeInt(partialDownload.getSize());
+                    mPooledByteStreams.copy(new PooledByteBufferInputStream(partialDownload.getBytes()), dos);
+                    dos.flush();
+                }
+            });
+            FLog.v(TAG, "Successful disk-cache write for key %s", partialDownloadKey.toString());
+        } catch (IOException ioe) {
+            FLog.w(TAG, ioe, "Failed to write to disk-cache for key %s", partialDownloadKey.toString());
+        }
+    }
+
+    private static String nullToEmpty(@Nullable String string) {
+        return string == null ? "" : string;
+    }
+
+    @Nullable
+    private static String emptyToNull(String string) {
+        return string.isEmpty() ? null : string;
+    }
+
+    /**
+     * A disk cache write of a key. Until it starts, a later put of the key has it write the newer
+     * image instead, and a removal of the key cancels it.
+     */
+    private class PendingWrite {
+        @GuardedBy("this") private EncodedImage mEncodedImage;
+        @GuardedBy("this") private int mSize;
+        @GuardedBy("this") private boolean mIsQueued = true;
+
+        PendingWrite(EncodedImage encodedImage, int size) {
+            mEncodedImage = encodedImage;
+            mSize = size;
+        }
+
+        /** Makes the write write the image instead, unless it started or was cancelled. */
+        synchronized boolean coalesce(EncodedImage encodedImage, int size) {
+            if (!mIsQueued) {
+                return false;
+            }
+            EncodedImage oldEncodedImage = mEncodedImage;
+            mEncodedImage = encodedImage;
+            mStagedBytes.addAndGet(size - mSize);
+            mSize = size;
+            oldEncodedImage.close();
+            return true;
+        }
+
+        /**
+         * Starts the write.
+         *
+         * @return the image to write, or null if the write was cancelled
+         */
+        @Nullable
+        synchronized EncodedImage start() {
+            if (!mIsQueued) {
+                return null;
+            }
+            mIsQueued = false;
+            return mEncodedImage;
+        }
+
+        /** Releases the image once it is written. */
+        synchronized void finish() {
+            mStagedBytes.addAndGet(-mSize);
+            mEncodedImage.close();
+        }
+
+        synchronized void cancel() {
+            if (mIsQueued) {
+                mIsQueued = false;
+                finish();
+            }
+        }
+    }
 }
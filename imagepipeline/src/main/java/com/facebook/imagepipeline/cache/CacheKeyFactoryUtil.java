@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import javax.annotation.Nullable;
+
+/**
+ * Builds bitmap cache keys with any {@link CacheKeyFactory}, passing the caller context on to the
+ * factories implementing {@link CallerContextCacheKeyFactory}.
+ */
+public final class CacheKeyFactoryUtil {
+    private CacheKeyFactoryUtil() {
+    }
+
+    public static CacheKey getBitmapCacheKey(CacheKeyFactory cacheKeyFactory, ImageRequest request, @Nullable Object callerContext) {
+        return (cacheKeyFactory instanceof CallerContextCacheKeyFactory) ? ((CallerContextCacheKeyFactory) cacheKeyFactory)
+                .getBitmapCacheKey(request, callerContext) : cacheKeyFactory.getBitmapCacheKey(request);
+    }
+
+    public static CacheKey getPostprocessedBitmapCacheKey(CacheKeyFactory cacheKeyFactory, ImageRequest request, @Nullable Object
+            callerContext) {
+        return (cacheKeyFactory instanceof CallerContextCacheKeyFactory) ? ((CallerContextCacheKeyFactory) cacheKeyFactory)
+                .getPostprocessedBitmapCacheKey(request, callerContext) : cacheKeyFactory.getPostprocessedBitmapCacheKey(request);
+    }
+}
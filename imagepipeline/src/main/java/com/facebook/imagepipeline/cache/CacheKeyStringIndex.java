@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+
+/**
+ * Indexes the memory cache keys by their string value.
+ *
+ * <p> The encoded memory cache keys are built from the source uri of the images, so this finds
+ * them by uri. See {@link SourceUriKeyIndex} for the bitmap memory cache keys.
+ */
+public class CacheKeyStringIndex implements KeyIndex<CacheKey> {
+    private static final CacheKeyStringIndex sInstance = new CacheKeyStringIndex();
+
+    private CacheKeyStringIndex() {
+    }
+
+    public static CacheKeyStringIndex getInstance() {
+        return sInstance;
+    }
+
+    /** Gets the predicate matching the keys with the given string value. */
+    public static IndexedPredicate<CacheKey> predicateForKeyString(String keyString) {
+        return new IndexedPredicate<CacheKey>(sInstance, keyString);
+    }
+
+    @Override
+    public String getIndexValue(CacheKey key) {
+        return key.toString();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link CacheKeyFactory} whose bitmap cache keys may depend on the caller context of the request,
+ * for example to carry the tag of a {@link MemoryCachePartitionTagged} caller context.
+ *
+ * <p>The pipeline uses these overloads whenever the configured factory implements this interface,
+ * and the caller context independent methods of {@link CacheKeyFactory} otherwise.
+ */
+public interface CallerContextCacheKeyFactory extends CacheKeyFactory {
+    /**
+     * @param callerContext the caller context of the request, if known
+     * @return {@link CacheKey} for doing bitmap cache lookups in the pipeline.
+     */
+    CacheKey getBitmapCacheKey(ImageRequest request, @Nullable Object callerContext);
+    /**
+     * @param callerContext the caller context of the request, if known
+     * @return {@link CacheKey} for doing post-processed bitmap cache lookups in the pipeline.
+     */
+    CacheKey getPostprocessedBitmapCacheKey(ImageRequest request, @Nullable Object callerContext);
+}
@@ -11,9 +11,13 @@ package com.facebook.imagepipeline.cache;
 import com.android.internal.util.Predicate;
 import com.facebook.common.internal.VisibleForTesting;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -21,12 +25,18 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Map that keeps track of the elements order (according to the LRU policy) and their size.
+ *
+ * <p> The elements matching an {@link IndexedPredicate} are looked up in a secondary index of the
+ * keys. The index is built the first time it is queried, and is kept up to date from then on.
  */
 @ThreadSafe
 public class CountingLruMap<K, V> {
     private final ValueDescriptor<V> mValueDescriptor;
     @GuardedBy("this") private final LinkedHashMap<K, V> mMap = new LinkedHashMap<>();
     @GuardedBy("this") private int mSizeInBytes = 0;
+    // Maps the index values to the keys, for each key index queried so far. The keys of a value are
+    // kept in a set, as the removals look them up one by one.
+    @GuardedBy("this") @Nullable private HashMap<KeyIndex<K>, HashMap<String, LinkedHashSet<K>>> mIndices;
 
     public CountingLruMap(ValueDescriptor<V> valueDescriptor) {
         mValueDescriptor = valueDescriptor;
@@ -61,6 +71,12 @@ public class CountingLruMap<K, V> {
     /** Gets the all matching elements. */
     public synchronized ArrayList<LinkedHashMap.Entry<K, V>> getMatchingEntries(@Nullable Predicate<K> predicate) {
         ArrayList<LinkedHashMap.Entry<K, V>> matchingEntries = new ArrayList<>();
+        if (predicate instanceof IndexedPredicate) {
+            for (K key : getIndexedKeys((IndexedPredicate<K>) predicate)) {
+                matchingEntries.add(new AbstractMap.SimpleImmutableEntry<>(key, mMap.get(key)));
+            }
+            return matchingEntries;
+        }
         for (LinkedHashMap.Entry<K, V> entry : mMap.entrySet()) {
             if (predicate == null || predicate.apply(entry.getKey())) {
                 matchingEntries.add(entry);
@@ -89,6 +105,9 @@ public class CountingLruMap<K, V> {
         mSizeInBytes -= getValueSizeInBytes(oldValue);
         mMap.put(key, value);
         mSizeInBytes += getValueSizeInBytes(value);
+        if (oldValue == null) {
+            addToIndices(key);
+        }
         return oldValue;
     }
 
@@ -97,12 +116,21 @@ public class CountingLruMap<K, V> {
     public synchronized V remove(K key) {
         V oldValue = mMap.remove(key);
         mSizeInBytes -= getValueSizeInBytes(oldValue);
+        if (oldValue != null) {
+            removeFromIndices(key);
+        }
         return oldValue;
     }
 
     /** Removes all the matching elements from the map. */
     public synchronized ArrayList<V> removeAll(@Nullable Predicate<K> predicate) {
         ArrayList<V> oldValues = new ArrayList<>();
+        if (predicate instanceof IndexedPredicate) {
+            for (K key : getIndexedKeys((IndexedPredicate<K>) predicate)) {
+                oldValues.add(remove(key));
+            }
+            return oldValues;
+        }
         Iterator<LinkedHashMap.Entry<K, V>> iterator = mMap.entrySet().iterator();
         while (iterator.hasNext()) {
             LinkedHashMap.Entry<K, V> entry = iterator.next();
@@ -110,6 +138,7 @@ public class CountingLruMap<K, V> {
                 oldValues.add(entry.getValue());
                 mSizeInBytes -= getValueSizeInBytes(entry.getValue());
                 iterator.remove();
+                removeFromIndices(entry.getKey());
             }
         }
         return oldValues;
@@ -120,9 +149,69 @@ public class CountingLruMap<K, V> {
         ArrayList<V> oldValues = new ArrayList<>(mMap.values());
         mMap.clear();
         mSizeInBytes = 0;
+        if (mIndices != null) {
+            for (HashMap<String, LinkedHashSet<K>> index : mIndices.values()) {
+                index.clear();
+            }
+        }
         return oldValues;
     }
 
+    /** Gets a copy of the keys matching the predicate from the index, building the index if needed. */
+    private ArrayList<K> getIndexedKeys(IndexedPredicate<K> predicate) {
+        if (mIndices == null) {
+            mIndices = new HashMap<>();
+        }
+        KeyIndex<K> keyIndex = predicate.getKeyIndex();
+        HashMap<String, LinkedHashSet<K>> index = mIndices.get(keyIndex);
+        if (index == null) {
+            index = new HashMap<>();
+            for (K key : mMap.keySet()) {
+                addToIndex(index, keyIndex, key);
+            }
+            mIndices.put(keyIndex, index);
+        }
+        LinkedHashSet<K> keys = index.get(predicate.getIndexValue());
+        return (keys == null) ? new ArrayList<K>() : new ArrayList<>(keys);
+    }
+
+    private void addToIndices(K key) {
+        if (mIndices != null) {
+            for (Map.Entry<KeyIndex<K>, HashMap<String, LinkedHashSet<K>>> index : mIndices.entrySet()) {
+                addToIndex(index.getValue(), index.getKey(), key);
+            }
+        }
+    }
+
+    private void removeFromIndices(K key) {
+        if (mIndices == null) {
+            return;
+        }
+        for (Map.Entry<KeyIndex<K>, HashMap<String, LinkedHashSet<K>>> index : mIndices.entrySet()) {
+            String indexValue = index.getKey().getIndexValue(key);
+            LinkedHashSet<K> keys = (indexValue == null) ? null : index.getValue().get(indexValue);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    index.getValue().remove(indexValue);
+                }
+            }
+        }
+    }
+
+    private static <K> void addToIndex(HashMap<String, LinkedHashSet<K>> index, KeyIndex<K> keyIndex, K key) {
+        String indexValue = keyIndex.getIndexValue(key);
+        if (indexValue == null) {
+            return;
+        }
+        LinkedHashSet<K> keys = index.get(indexValue);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            index.put(indexValue, keys);
+        }
+        keys.add(key);
+    }
+
     private int getValueSizeInBytes(V value) {
         return (value == null) ? 0 : mValueDescriptor.getSizeInBytes(value);
     }
@@ -13,14 +13,15 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.MemoryTrimType;
-import com.facebook.common.memory.MemoryTrimmable;
 import com.facebook.common.references.CloseableReference;
-import com.facebook.common.references.ResourceReleaser;
 
 import android.os.SystemClock;
 
 import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -35,117 +36,92 @@ import javax.annotation.concurrent.ThreadSafe;
  * <p> Only the exclusively owned elements, i.e. the elements not referenced by any client, can be
  * evicted.
  *
+ * <p> If an eviction executor is provided, the items are evicted on that executor in small batches,
+ * so that the threads using the cache don't pay for closing the evicted items. Only the items
+ * exceeding the max cache size are then evicted right away.
+ *
  * @param <K> the key type
  * @param <V> the value type
  */
 @ThreadSafe
-public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimmable {
-    /**
-     * Interface used to specify the trimming strategy for the cache.
-     */
-    public interface CacheTrimStrategy {
-        double getTrimRatio(MemoryTrimType trimType);
-    }
-
-    /**
-     * Interface used to observe the state changes of an entry.
-     */
-    public interface EntryStateObserver<K> {
-        /**
-         * Called when the exclusivity status of the entry changes.
-         *
-         * <p> The item can be reused if it is exclusively owned by the cache.
-         */
-        void onExclusivityChanged(K key, boolean isExclusive);
-    }
-    // How often the cache checks for a new cache configuration.
-    @VisibleForTesting static final long PARAMS_INTERCHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+public class CountingMemoryCache<K, V> extends AbstractCountingMemoryCache<K, V> {
+    // How many items the eviction executor evicts at most while holding the lock.
+    @VisibleForTesting static final int EVICTION_BATCH_SIZE = 16;
     // Contains the items that are not being used by any client and are hence viable for eviction.
     @GuardedBy("this") @VisibleForTesting final CountingLruMap<K, Entry<K, V>> mExclusiveEntries;
     // Contains all the cached items including the exclusively owned ones.
     @GuardedBy("this") @VisibleForTesting final CountingLruMap<K, Entry<K, V>> mCachedEntries;
-    private final ValueDescriptor<V> mValueDescriptor;
-    private final CacheTrimStrategy mCacheTrimStrategy;
-    // Cache size constraints.
-    private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+    @GuardedBy("this") private final EvictionPolicy<K> mEvictionPolicy;
     @GuardedBy("this") protected MemoryCacheParams mMemoryCacheParams;
     @GuardedBy("this") private long mLastCacheParamsCheck;
-    public CountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
-            memoryCacheParamsSupplier) {
-        mValueDescriptor = valueDescriptor;
-        mExclusiveEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-        mCachedEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-        mCacheTrimStrategy = cacheTrimStrategy;
-        mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
-        mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
-        mLastCacheParamsCheck = SystemClock.elapsedRealtime();
-    }
-
-    private static <K, V> void maybeNotifyExclusiveEntryRemoval(@Nullable Entry<K, V> entry) {
-        if (entry != null && entry.observer != null) {
-            entry.observer.onExclusivityChanged(entry.key, false);
+    // Amortized eviction, see evictEntriesInBatches.
+    @Nullable private final Executor mEvictionExecutor;
+    private final AtomicBoolean mIsEvictionScheduled = new AtomicBoolean();
+    private final Runnable mEvictionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evictEntriesInBatches();
         }
-    }
+    };
+    // Estimates the hit rates at other cache sizes, or null if not enabled.
+    @GuardedBy("this") @Nullable private MissRatioCurveTracker<K> mMissRatioCurveTracker;
 
-    private static <K, V> void maybeNotifyExclusiveEntryInsertion(@Nullable Entry<K, V> entry) {
-        if (entry != null && entry.observer != null) {
-            entry.observer.onExclusivityChanged(entry.key, true);
-        }
+    public CountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier) {
+        this(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier, new LruEvictionPolicy<K>());
     }
 
-    private ValueDescriptor<Entry<K, V>> wrapValueDescriptor(final ValueDescriptor<V> evictableValueDescriptor) {
-        return new ValueDescriptor<Entry<K, V>>() {
-            @Override
-            public int getSizeInBytes(Entry<K, V> entry) {
-                return evictableValueDescriptor.getSizeInBytes(entry.valueRef.get());
-            }
-        };
+    public CountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier, EvictionPolicy<K> evictionPolicy) {
+        this(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier, evictionPolicy, null);
     }
 
     /**
-     * Caches the given key-value pair.
-     *
-     * <p> Important: the client should use the returned reference instead of the original one.
-     * It is the caller's responsibility to close the returned reference once not needed anymore.
-     *
-     * @return the new reference to be used, null if the value cannot be cached
+     * @param evictionExecutor executor the items are evicted on, or null to evict them right away
+     *                         on the thread that changed the cache
      */
-    public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef) {
-        return cache(key, valueRef, null);
+    public CountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier, EvictionPolicy<K> evictionPolicy, @Nullable Executor evictionExecutor) {
+        super(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier);
+        mEvictionExecutor = evictionExecutor;
+        mEvictionPolicy = Preconditions.checkNotNull(evictionPolicy);
+        mExclusiveEntries = new CountingLruMap<>(mEntryValueDescriptor);
+        mCachedEntries = new CountingLruMap<>(mEntryValueDescriptor);
+        mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        mLastCacheParamsCheck = SystemClock.elapsedRealtime();
     }
 
-    /**
-     * Caches the given key-value pair.
-     *
-     * <p> Important: the client should use the returned reference instead of the original one.
-     * It is the caller's responsibility to close the returned reference once not needed anymore.
-     *
-     * @return the new reference to be used, null if the value cannot be cached
-     */
-    public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef, final EntryStateObserver<K> observer) {
+    @Override
+    public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef, @Nullable final EntryStateObserver<K> observer) {
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(valueRef);
-        maybeUpdateCacheParams();
         Entry<K, V> oldExclusive;
         CloseableReference<V> oldRefToClose = null;
         CloseableReference<V> clientRef = null;
         synchronized (this) {
+            maybeUpdateCacheParams();
             // remove the old item (if any) as it is stale now
             oldExclusive = mExclusiveEntries.remove(key);
             Entry<K, V> oldEntry = mCachedEntries.remove(key);
             if (oldEntry != null) {
-                makeOrphan(oldEntry);
+                makeOrphanAndRemoveFromPolicy(oldEntry);
                 oldRefToClose = referenceToClose(oldEntry);
             }
             if (canCacheNewValue(valueRef.get())) {
-                Entry<K, V> newEntry = Entry.of(key, valueRef, observer);
+                Entry<K, V> newEntry = newEntry(key, valueRef, observer);
                 mCachedEntries.put(key, newEntry);
+                mEvictionPolicy.onAdd(key, mValueDescriptor.getSizeInBytes(valueRef.get()), newEntry.decodeTimeMs, newEntry.source);
+                if (mMissRatioCurveTracker != null) {
+                    mMissRatioCurveTracker.recordAdd(key, mValueDescriptor.getSizeInBytes(valueRef.get()), mMemoryCacheParams.maxCacheSize);
+                }
                 clientRef = newClientReference(newEntry);
+            } else if (oldEntry != null && mMissRatioCurveTracker != null) {
+                mMissRatioCurveTracker.recordRemove(key);
             }
         }
         CloseableReference.closeSafely(oldRefToClose);
         maybeNotifyExclusiveEntryRemoval(oldExclusive);
-        maybeEvictEntries();
+        maybeEvictEntriesOrScheduleEviction();
         return clientRef;
     }
 
@@ -163,65 +139,75 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
      * <p> It is the caller's responsibility to close the returned reference once not needed anymore.
      */
     @Nullable
+    @Override
     public CloseableReference<V> get(final K key) {
         Preconditions.checkNotNull(key);
         Entry<K, V> oldExclusive;
         CloseableReference<V> clientRef = null;
         synchronized (this) {
             oldExclusive = mExclusiveEntries.remove(key);
+            if (oldExclusive != null) {
+                mEvictionPolicy.onExclusivityChanged(key, false);
+            }
             Entry<K, V> entry = mCachedEntries.get(key);
             if (entry != null) {
                 clientRef = newClientReference(entry);
             }
+            mEvictionPolicy.onAccess(key, entry != null);
+            if (mMissRatioCurveTracker != null) {
+                mMissRatioCurveTracker.recordAccess(key, mMemoryCacheParams.maxCacheSize);
+            }
         }
         maybeNotifyExclusiveEntryRemoval(oldExclusive);
-        maybeUpdateCacheParams();
-        maybeEvictEntries();
+        maybeEvictEntriesOrScheduleEviction();
         return clientRef;
     }
 
-    /** Creates a new reference for the client. */
+    /** Creates a new reference for the client, reusing a released one of the entry if possible. */
     private synchronized CloseableReference<V> newClientReference(final Entry<K, V> entry) {
         increaseClientCount(entry);
-        return CloseableReference.of(entry.valueRef.get(), new ResourceReleaser<V>() {
-            @Override
-            public void release(V unused) {
-                releaseClientReference(entry);
-            }
-        });
+        CloseableReference<V> clientRef = reuseClientReference(entry);
+        if (clientRef == null) {
+            ClientReference<K, V> clientReference = new ClientReference<K, V>(entry) {
+                @Override
+                public void release(V unused) {
+                    releaseClientReference(this);
+                }
+            };
+            clientRef = CloseableReference.adopt(clientReference.sharedReference);
+        }
+        return clientRef;
     }
 
     /** Called when the client closes its reference. */
-    private void releaseClientReference(final Entry<K, V> entry) {
-        Preconditions.checkNotNull(entry);
+    private void releaseClientReference(final ClientReference<K, V> clientReference) {
+        Preconditions.checkNotNull(clientReference);
+        final Entry<K, V> entry = clientReference.entry;
         boolean isExclusiveAdded;
         CloseableReference<V> oldRefToClose;
         synchronized (this) {
             decreaseClientCount(entry);
+            recycleClientReference(clientReference);
             isExclusiveAdded = maybeAddToExclusives(entry);
             oldRefToClose = referenceToClose(entry);
         }
         CloseableReference.closeSafely(oldRefToClose);
         maybeNotifyExclusiveEntryInsertion(isExclusiveAdded ? entry : null);
-        maybeUpdateCacheParams();
-        maybeEvictEntries();
+        maybeEvictEntriesOrScheduleEviction();
     }
 
     /** Adds the entry to the exclusively owned queue if it is viable for eviction. */
     private synchronized boolean maybeAddToExclusives(Entry<K, V> entry) {
         if (!entry.isOrphan && entry.clientCount == 0) {
             mExclusiveEntries.put(entry.key, entry);
+            mEvictionPolicy.onExclusivityChanged(entry.key, true);
             return true;
         }
         return false;
     }
 
-    /**
-     * Gets the value with the given key to be reused, or null if there is no such value.
-     *
-     * <p> The item can be reused only if it is exclusively owned by the cache.
-     */
     @Nullable
+    @Override
     public CloseableReference<V> reuse(K key) {
         Preconditions.checkNotNull(key);
         CloseableReference<V> clientRef = null;
@@ -233,6 +219,10 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
                 Entry<K, V> entry = mCachedEntries.remove(key);
                 Preconditions.checkNotNull(entry);
                 Preconditions.checkState(entry.clientCount == 0);
+                mEvictionPolicy.onRemove(key);
+                if (mMissRatioCurveTracker != null) {
+                    mMissRatioCurveTracker.recordRemove(key);
+                }
                 // optimization: instead of cloning and then closing the original reference,
                 // we just do a move
                 clientRef = entry.valueRef;
@@ -251,6 +241,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
      * @param predicate returns true if an item with the given key should be removed
      * @return number of the items removed from the cache
      */
+    @Override
     public int removeAll(Predicate<K> predicate) {
         ArrayList<Entry<K, V>> oldExclusives;
         ArrayList<Entry<K, V>> oldEntries;
@@ -258,15 +249,19 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
             oldExclusives = mExclusiveEntries.removeAll(predicate);
             oldEntries = mCachedEntries.removeAll(predicate);
             makeOrphans(oldEntries);
+            if (mMissRatioCurveTracker != null) {
+                for (Entry<K, V> oldEntry : oldEntries) {
+                    mMissRatioCurveTracker.recordRemove(oldEntry.key);
+                }
+            }
         }
         maybeClose(oldEntries);
         maybeNotifyExclusiveEntryRemoval(oldExclusives);
-        maybeUpdateCacheParams();
-        maybeEvictEntries();
+        maybeEvictEntriesOrScheduleEviction();
         return oldEntries.size();
     }
 
-    /** Removes all the items from the cache. */
+    @Override
     public void clear() {
         ArrayList<Entry<K, V>> oldExclusives;
         ArrayList<Entry<K, V>> oldEntries;
@@ -274,6 +269,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
             oldExclusives = mExclusiveEntries.clear();
             oldEntries = mCachedEntries.clear();
             makeOrphans(oldEntries);
+            if (mMissRatioCurveTracker != null) {
+                mMissRatioCurveTracker.clear();
+            }
         }
         maybeClose(oldEntries);
         maybeNotifyExclusiveEntryRemoval(oldExclusives);
@@ -294,13 +292,13 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     /** Trims the cache according to the specified trimming strategy and the given trim type. */
     @Override
     public void trim(MemoryTrimType trimType) {
+        maybeNotifyTrimObserver(trimType);
         ArrayList<Entry<K, V>> oldEntries;
         final double trimRatio = mCacheTrimStrategy.getTrimRatio(trimType);
         synchronized (this) {
             int targetCacheSize = (int) (mCachedEntries.getSizeInBytes() * (1 - trimRatio));
             int targetEvictionQueueSize = Math.max(0, targetCacheSize - getInUseSizeInBytes());
             oldEntries = trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
-            makeOrphans(oldEntries);
         }
         maybeClose(oldEntries);
         maybeNotifyExclusiveEntryRemoval(oldEntries);
@@ -308,6 +306,53 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         maybeEvictEntries();
     }
 
+    @Override
+    public List<K> getMostRecentlyUsedKeys(int maxCount) {
+        ArrayList<K> inUseKeys = new ArrayList<>();
+        ArrayList<K> exclusiveKeys = new ArrayList<>();
+        synchronized (this) {
+            collectMostRecentlyUsedKeys(mCachedEntries, mExclusiveEntries, inUseKeys, exclusiveKeys);
+        }
+        inUseKeys.addAll(exclusiveKeys);
+        return (inUseKeys.size() > maxCount) ? new ArrayList<>(inUseKeys.subList(0, maxCount)) : inUseKeys;
+    }
+
+    @Override
+    public synchronized void setMissRatioCurveTrackingEnabled(boolean enabled) {
+        if (!enabled) {
+            mMissRatioCurveTracker = null;
+        } else if (mMissRatioCurveTracker == null) {
+            mMissRatioCurveTracker = new MissRatioCurveTracker<>();
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized MissRatioCurve getMissRatioCurve() {
+        return (mMissRatioCurveTracker != null) ? mMissRatioCurveTracker.getMissRatioCurve() : null;
+    }
+
+    @Override
+    synchronized MemoryCacheParams getMemoryCacheParams() {
+        return mMemoryCacheParams;
+    }
+
+    @Override
+    synchronized void forEachCachedEntry(EntryVisitor<K, V> visitor) {
+        for (LinkedHashMap.Entry<K, Entry<K, V>> cachedEntry : mCachedEntries.getMatchingEntries(null)) {
+            visitor.visit(cachedEntry.getValue());
+        }
+    }
+
+    @Override
+    public void updateCacheParams() {
+        synchronized (this) {
+            mLastCacheParamsCheck = SystemClock.elapsedRealtime();
+            mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        }
+        maybeEvictEntries();
+    }
+
     /**
      * Updates the cache params (constraints) if enough time has passed since the last update.
      */
@@ -328,24 +373,92 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     private void maybeEvictEntries() {
         ArrayList<Entry<K, V>> oldEntries;
         synchronized (this) {
-            int maxCount = Math.min(mMemoryCacheParams.maxEvictionQueueEntries, mMemoryCacheParams.maxCacheEntries - getInUseCount());
-            int maxSize = Math.min(mMemoryCacheParams.maxEvictionQueueSize, mMemoryCacheParams.maxCacheSize - getInUseSizeInBytes());
-            oldEntries = trimExclusivelyOwnedEntries(maxCount, maxSize);
-            makeOrphans(oldEntries);
+            oldEntries = trimExclusivelyOwnedEntries(getMaxEvictionQueueCount(), getMaxEvictionQueueSizeInBytes());
         }
         maybeClose(oldEntries);
         maybeNotifyExclusiveEntryRemoval(oldEntries);
     }
 
+    /**
+     * Called after the cache content has changed. Evicts the items right away if there is no
+     * eviction executor. Otherwise only the items exceeding the max cache size are evicted right
+     * away, and the eviction down to the eviction queue limits is scheduled on the executor.
+     *
+     * <p> This method invokes the external {@link CloseableReference#close} method,
+     * so it must not be called while holding the <code>this</code> lock.
+     */
+    private void maybeEvictEntriesOrScheduleEviction() {
+        if (mEvictionExecutor == null) {
+            maybeUpdateCacheParams();
+            maybeEvictEntries();
+            return;
+        }
+        ArrayList<Entry<K, V>> oldEntries;
+        boolean isEvictionNeeded;
+        synchronized (this) {
+            maybeUpdateCacheParams();
+            // only the hard limits of the cache are enforced right away
+            oldEntries = trimExclusivelyOwnedEntries(mMemoryCacheParams.maxCacheEntries - getInUseCount(), mMemoryCacheParams.maxCacheSize -
+                    getInUseSizeInBytes());
+            isEvictionNeeded = mExclusiveEntries.getCount() > getMaxEvictionQueueCount() || mExclusiveEntries.getSizeInBytes() >
+                    getMaxEvictionQueueSizeInBytes();
+        }
+        maybeClose(oldEntries);
+        maybeNotifyExclusiveEntryRemoval(oldEntries);
+        if (isEvictionNeeded && mIsEvictionScheduled.compareAndSet(false, true)) {
+            mEvictionExecutor.execute(mEvictionRunnable);
+        }
+    }
+
+    /**
+     * Removes the exclusively owned items until the cache constraints are met, releasing the lock
+     * after every {@link #EVICTION_BATCH_SIZE} items so that the other threads are not blocked.
+     *
+     * <p> Run on the eviction executor.
+     */
+    @VisibleForTesting
+    void evictEntriesInBatches() {
+        // cleared first, so that the changes made while evicting schedule another pass
+        mIsEvictionScheduled.set(false);
+        ArrayList<Entry<K, V>> oldEntries;
+        do {
+            synchronized (this) {
+                maybeUpdateCacheParams();
+                oldEntries = trimExclusivelyOwnedEntries(getMaxEvictionQueueCount(), getMaxEvictionQueueSizeInBytes(), EVICTION_BATCH_SIZE);
+            }
+            maybeClose(oldEntries);
+            maybeNotifyExclusiveEntryRemoval(oldEntries);
+        } while (oldEntries != null && oldEntries.size() == EVICTION_BATCH_SIZE);
+    }
+
+    /** Gets the max number of the exclusively owned items allowed by the cache constraints. */
+    private synchronized int getMaxEvictionQueueCount() {
+        return Math.min(mMemoryCacheParams.maxEvictionQueueEntries, mMemoryCacheParams.maxCacheEntries - getInUseCount());
+    }
+
+    /** Gets the max total size of the exclusively owned items allowed by the cache constraints. */
+    private synchronized int getMaxEvictionQueueSizeInBytes() {
+        return Math.min(mMemoryCacheParams.maxEvictionQueueSize, mMemoryCacheParams.maxCacheSize - getInUseSizeInBytes());
+    }
+
     /**
      * Removes the exclusively owned items until there is at most <code>count</code> of them
-     * and they occupy no more than <code>size</code> bytes.
+     * and they occupy no more than <code>size</code> bytes. The removed items are marked as orphans.
      *
      * <p> This method returns the removed items instead of actually closing them, so it is safe to
      * be called while holding the <code>this</code> lock.
      */
     @Nullable
     private synchronized ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, int size) {
+        return trimExclusivelyOwnedEntries(count, size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #trimExclusivelyOwnedEntries(int, int)}, but removes no more than
+     * <code>maxRemovedCount</code> items.
+     */
+    @Nullable
+    private synchronized ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, int size, int maxRemovedCount) {
         count = Math.max(count, 0);
         size = Math.max(size, 0);
         // fast path without array allocation if no eviction is necessary
@@ -353,14 +466,23 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
             return null;
         }
         ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
-        while (mExclusiveEntries.getCount() > count || mExclusiveEntries.getSizeInBytes() > size) {
-            K key = mExclusiveEntries.getFirstKey();
+        while ((mExclusiveEntries.getCount() > count || mExclusiveEntries.getSizeInBytes() > size) && oldEntries.size() < maxRemovedCount) {
+            K key = getNextToEvict();
             mExclusiveEntries.remove(key);
-            oldEntries.add(mCachedEntries.remove(key));
+            Entry<K, V> oldEntry = mCachedEntries.remove(key);
+            makeOrphanAndRemoveFromPolicy(oldEntry);
+            oldEntries.add(oldEntry);
         }
         return oldEntries;
     }
 
+    /** Gets the key of the exclusively owned item to be evicted next, as chosen by the policy. */
+    private synchronized K getNextToEvict() {
+        K key = mEvictionPolicy.getNextToEvict(mExclusiveEntries, mMemoryCacheParams);
+        // fall back to the LRU order if the policy failed to choose a viable item
+        return (key != null && mExclusiveEntries.contains(key)) ? key : mExclusiveEntries.getFirstKey();
+    }
+
     /**
      * Notifies the client that the cache no longer tracks the given items.
      *
@@ -370,15 +492,11 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     private void maybeClose(@Nullable ArrayList<Entry<K, V>> oldEntries) {
         if (oldEntries != null) {
             for (Entry<K, V> oldEntry : oldEntries) {
-                CloseableReference.closeSafely(referenceToClose(oldEntry));
-            }
-        }
-    }
-
-    private void maybeNotifyExclusiveEntryRemoval(@Nullable ArrayList<Entry<K, V>> entries) {
-        if (entries != null) {
-            for (Entry<K, V> entry : entries) {
-                maybeNotifyExclusiveEntryRemoval(entry);
+                CloseableReference<V> oldRefToClose;
+                synchronized (this) {
+                    oldRefToClose = referenceToClose(oldEntry);
+                }
+                CloseableReference.closeSafely(oldRefToClose);
             }
         }
     }
@@ -387,96 +505,44 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     private synchronized void makeOrphans(@Nullable ArrayList<Entry<K, V>> oldEntries) {
         if (oldEntries != null) {
             for (Entry<K, V> oldEntry : oldEntries) {
-                makeOrphan(oldEntry);
+                makeOrphanAndRemoveFromPolicy(oldEntry);
             }
         }
     }
 
-    /** Marks the entry as orphan. */
-    private synchronized void makeOrphan(Entry<K, V> entry) {
-        Preconditions.checkNotNull(entry);
-        Preconditions.checkState(!entry.isOrphan);
-        entry.isOrphan = true;
-    }
-
-    /** Increases the entry's client count. */
-    private synchronized void increaseClientCount(Entry<K, V> entry) {
-        Preconditions.checkNotNull(entry);
-        Preconditions.checkState(!entry.isOrphan);
-        entry.clientCount++;
-    }
-
-    /** Decreases the entry's client count. */
-    private synchronized void decreaseClientCount(Entry<K, V> entry) {
-        Preconditions.checkNotNull(entry);
-        Preconditions.checkState(entry.clientCount > 0);
-        entry.clientCount--;
+    /** Marks the entry as orphan, and tells the eviction policy it is no longer tracked. */
+    private synchronized void makeOrphanAndRemoveFromPolicy(Entry<K, V> entry) {
+        makeOrphan(entry);
+        mEvictionPolicy.onRemove(entry.key);
     }
 
-    /** Returns the value reference of the entry if it should be closed, null otherwise. */
-    @Nullable
-    private synchronized CloseableReference<V> referenceToClose(Entry<K, V> entry) {
-        Preconditions.checkNotNull(entry);
-        return (entry.isOrphan && entry.clientCount == 0) ? entry.valueRef : null;
-    }
-
-    /** Gets the total number of all currently cached items. */
+    @Override
     public synchronized int getCount() {
         return mCachedEntries.getCount();
     }
 
-    /** Gets the total size in bytes of all currently cached items. */
+    @Override
     public synchronized int getSizeInBytes() {
         return mCachedEntries.getSizeInBytes();
     }
 
-    /** Gets the number of the cached items that are used by at least one client. */
+    @Override
     public synchronized int getInUseCount() {
         return mCachedEntries.getCount() - mExclusiveEntries.getCount();
     }
 
-    /** Gets the total size in bytes of the cached items that are used by at least one client. */
+    @Override
     public synchronized int getInUseSizeInBytes() {
         return mCachedEntries.getSizeInBytes() - mExclusiveEntries.getSizeInBytes();
     }
 
-    /** Gets the number of the exclusively owned items. */
+    @Override
     public synchronized int getEvictionQueueCount() {
         return mExclusiveEntries.getCount();
     }
 
-    /** Gets the total size in bytes of the exclusively owned items. */
+    @Override
     public synchronized int getEvictionQueueSizeInBytes() {
         return mExclusiveEntries.getSizeInBytes();
     }
-
-    /**
-     * The internal representation of a key-value pair stored by the cache.
-     */
-    @VisibleForTesting
-    static class Entry<K, V> {
-        public final K key;
-        public final CloseableReference<V> valueRef;
-        @Nullable public final EntryStateObserver<K> observer;
-        // The number of clients that reference the value.
-        public int clientCount;
-        // Whether or not this entry is tracked by this cache. Orphans are not tracked by the cache and
-        // as soon as the last client of an orphaned entry closes their reference, the entry's copy is
-        // closed too.
-        public boolean isOrphan;
-
-        private Entry(K key, CloseableReference<V> valueRef, @Nullable EntryStateObserver<K> observer) {
-            this.key = Preconditions.checkNotNull(key);
-            this.valueRef = Preconditions.checkNotNull(CloseableReference.cloneOrNull(valueRef));
-            this.clientCount = 0;
-            this.isOrphan = false;
-            this.observer = observer;
-        }
-
-        /** Creates a new entry with the usage count of 0. */
-        @VisibleForTesting
-        static <K, V> Entry<K, V> of(final K key, final CloseableReference<V> valueRef, final @Nullable EntryStateObserver<K> observer) {
-            return new Entry<>(key, valueRef, observer);
-        }
-    }
 }
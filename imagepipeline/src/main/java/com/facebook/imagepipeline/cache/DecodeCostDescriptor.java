@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.imagepipeline.image.ImageSource;
+
+/**
+ * Interface used to get how expensive it was to create the values, in addition to their size.
+ *
+ * <p> The {@link CountingMemoryCache} records this information on its entries when the value
+ * descriptor implements this interface.
+ */
+public interface DecodeCostDescriptor<V> extends ValueDescriptor<V> {
+    /** Returns how long the decode of the given value took, in milliseconds, or -1 if not known. */
+    long getDecodeTimeMs(V value);
+
+    /** Returns where the encoded data of the given value was fetched from. */
+    ImageSource getSource(V value);
+}
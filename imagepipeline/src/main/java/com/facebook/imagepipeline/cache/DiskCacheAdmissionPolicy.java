@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+
+/**
+ * Decides which of the fetched images are written to the disk cache.
+ *
+ * <p> Writing the images that will not be requested again, such as one-off ads or the images
+ * passed by in a fling, wastes write bandwidth and flash endurance, and evicts the cached images
+ * that would have been reused. The requests can override the policy, see
+ * {@link com.facebook.imagepipeline.request.ImageRequestBuilder#setDiskCacheAdmission}.
+ *
+ * <p> Implementations are called from several threads, and have to be thread safe.
+ */
+public interface DiskCacheAdmissionPolicy {
+    /** Called when the image is looked up in the disk cache. */
+    void onRequest(CacheKey key);
+
+    /**
+     * Called once the image was fetched.
+     *
+     * @param size the size of the encoded image, in bytes
+     * @return whether to write the image to the disk cache
+     */
+    boolean shouldAdmit(CacheKey key, int size);
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.common.Priority;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Schedules the disk cache reads and writes of {@link BufferedDiskCache} on a shared I/O executor.
+ *
+ * <p> The reads and the writes wait in separate queues, and an operation is only picked once a
+ * thread is free to run it, so a read always goes ahead of the writes still queued. The reads are
+ * ordered by priority, then by arrival. The writes keep their order, as a removal must not
+ * overtake the write it undoes, and they can be paused, e.g. during a fling: the images waiting to
+ * be written stay in the staging area meanwhile, so they can still be read. The removals queued
+ * with {@link #getRemovalExecutor} are not paused, as their callers wait for them: while the writes
+ * are paused, they go ahead of the writes still queued, which the caller has to cancel first.
+ *
+ * <p> The time the operations spend queued is recorded, see {@link #getReadQueueWaitStats} and
+ * {@link #getWriteQueueWaitStats}.
+ */
+@ThreadSafe
+public class DiskCacheIoScheduler {
+    /** The number of I/O threads of {@link com.facebook.imagepipeline.core.DefaultExecutorSupplier}. */
+    public static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 2;
+    private final Executor mExecutor;
+    private final int mMaxConcurrentOperations;
+    private final MonotonicClock mClock;
+    private final Executor[] mReadExecutors;
+    private final Executor mWriteExecutor;
+    private final Executor mRemovalExecutor;
+    private final QueueWaitStats mReadQueueWaitStats = new QueueWaitStats();
+    private final QueueWaitStats mWriteQueueWaitStats = new QueueWaitStats();
+    @GuardedBy("this") private final PriorityQueue<Operation> mReads = new PriorityQueue<>();
+    @GuardedBy("this") private final ArrayDeque<Operation> mWrites = new ArrayDeque<>();
+    // the removals among the queued writes
+    @GuardedBy("this") private int mQueuedRemovalCount;
+    @GuardedBy("this") private long mNextSequenceNumber;
+    @GuardedBy("this") private int mRunningCount;
+    // the workers started that have not picked their operation yet
+    @GuardedBy("this") private int mStartingCount;
+    @GuardedBy("this") private boolean mWritesPaused;
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            Operation operation;
+            synchronized (DiskCacheIoScheduler.this) {
+                mStartingCount--;
+                operation = pollLocked();
+                if (operation == null) {
+                    mRunningCount--;
+                    return;
+                }
+            }
+            try {
+                long waitMs = mClock.now() - operation.mEnqueueTime;
+                (operation.mIsRead ? mReadQueueWaitStats : mWriteQueueWaitStats).record(waitMs);
+                operation.mRunnable.run();
+            } finally {
+                synchronized (DiskCacheIoScheduler.this) {
+                    mRunningCount--;
+                }
+                scheduleOperations();
+            }
+        }
+    };
+
+    /**
+     * @param executor                the executor to run the operations on
+     * @param maxConcurrentOperations the number of operations to run at once, at most the number of
+     *                                threads of the executor, so none of them waits in its queue
+     * @param clock                   the clock to time the queue waits with
+     */
+    public DiskCacheIoScheduler(Executor executor, int maxConcurrentOperations, MonotonicClock clock) {
+        Preconditions.checkArgument(maxConcurrentOperations > 0);
+        mExecutor = Preconditions.checkNotNull(executor);
+        mMaxConcurrentOperations = maxConcurrentOperations;
+        mClock = Preconditions.checkNotNull(clock);
+        Priority[] priorities = Priority.values();
+        mReadExecutors = new Executor[priorities.length];
+        for (final Priority priority : priorities) {
+            mReadExecutors[priority.ordinal()] = new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    enqueue(new Operation(runnable, true, false, priority));
+                }
+            };
+        }
+        mWriteExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                enqueue(new Operation(runnable, false, false, Priority.LOW));
+            }
+        };
+        mRemovalExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                enqueue(new Operation(runnable, false, true, Priority.LOW));
+            }
+        };
+    }
+
+    /** Gets an executor that queues reads of the given priority. */
+    public Executor getReadExecutor(Priority priority) {
+        return mReadExecutors[priority.ordinal()];
+    }
+
+    /** Gets an executor that queues writes, and removals, in order. */
+    public Executor getWriteExecutor() {
+        return mWriteExecutor;
+    }
+
+    /**
+     * Gets an executor that queues removals in order with the writes, but still starts them while
+     * the writes are paused. The writes the removals undo must be cancelled before they are queued.
+     */
+    public Executor getRemovalExecutor() {
+        return mRemovalExecutor;
+    }
+
+    /**
+     * Stops starting the queued writes, until {@link #resumeWrites} is called. The removals queued
+     * with {@link #getRemovalExecutor} still start.
+     */
+    public synchronized void pauseWrites() {
+        mWritesPaused = true;
+    }
+
+    /** Starts the writes queued while paused. */
+    public void resumeWrites() {
+        synchronized (this) {
+            mWritesPaused = false;
+        }
+        scheduleOperations();
+    }
+
+    public synchronized boolean areWritesPaused() {
+        return mWritesPaused;
+    }
+
+    public synchronized int getQueuedReadCount() {
+        return mReads.size();
+    }
+
+    public synchronized int getQueuedWriteCount() {
+        return mWrites.size();
+    }
+
+    /** Gets the time the reads started so far have waited in the queue. */
+    public QueueWaitStats getReadQueueWaitStats() {
+        return mReadQueueWaitStats;
+    }
+
+    /** Gets the time the writes started so far have waited in the queue. */
+    public QueueWaitStats getWriteQueueWaitStats() {
+        return mWriteQueueWaitStats;
+    }
+
+    private void enqueue(Operation operation) {
+        synchronized (this) {
+            operation.mEnqueueTime = mClock.now();
+            operation.mSequenceNumber = mNextSequenceNumber++;
+            if (operation.mIsRead) {
+                mReads.add(operation);
+            } else {
+                mWrites.add(operation);
+                if (operation.mIsRemoval) {
+                    mQueuedRemovalCount++;
+                }
+            }
+        }
+        scheduleOperations();
+    }
+
+    /** Starts a worker for each operation that can run, up to the maximum. */
+    private void scheduleOperations() {
+        while (true) {
+            synchronized (this) {
+                int availableCount = mReads.size() + (mWritesPaused ? mQueuedRemovalCount : mWrites.size());
+                if (mRunningCount >= mMaxConcurrentOperations || mStartingCount >= availableCount) {
+                    return;
+                }
+                mRunningCount++;
+                mStartingCount++;
+            }
+            try {
+                mExecutor.execute(mWorker);
+            } catch (RuntimeException exception) {
+                synchronized (this) {
+                    mRunningCount--;
+                    mStartingCount--;
+                }
+                throw exception;
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private Operation pollLocked() {
+        Operation operation = mReads.poll();
+        if (operation != null) {
+            return operation;
+        }
+        if (!mWritesPaused) {
+            operation = mWrites.poll();
+        } else if (mQueuedRemovalCount > 0) {
+            // the first removal, behind the paused writes
+            Iterator<Operation> iterator = mWrites.iterator();
+            do {
+                operation = iterator.next();
+            } while (!operation.mIsRemoval);
+            iterator.remove();
+        }
+        if (operation != null && operation.mIsRemoval) {
+            mQueuedRemovalCount--;
+        }
+        return operation;
+    }
+
+    private static class Operation implements Comparable<Operation> {
+        final Runnable mRunnable;
+        final boolean mIsRead;
+        final boolean mIsRemoval;
+        final Priority mPriority;
+        long mEnqueueTime;
+        long mSequenceNumber;
+
+        Operation(Runnable runnable, boolean isRead, boolean isRemoval, Priority priority) {
+            mRunnable = Preconditions.checkNotNull(runnable);
+            mIsRead = isRead;
+            mIsRemoval = isRemoval;
+            mPriority = Preconditions.checkNotNull(priority);
+        }
+
+        @Override
+        public int compareTo(Operation other) {
+            if (mPriority != other.mPriority) {
+                // higher priorities first
+                return other.mPriority.ordinal() - mPriority.ordinal();
+            }
+            return mSequenceNumber < other.mSequenceNumber ? -1 : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+
+    /**
+     * The time operations of one kind have waited in the queue before they started.
+     */
+    @ThreadSafe
+    public static class QueueWaitStats {
+        @GuardedBy("this") private int mCount;
+        @GuardedBy("this") private long mTotalWaitMs;
+        @GuardedBy("this") private long mMaxWaitMs;
+
+        synchronized void record(long waitMs) {
+            mCount++;
+            mTotalWaitMs += waitMs;
+            mMaxWaitMs = Math.max(mMaxWaitMs, waitMs);
+        }
+
+        /** Gets the number of operations started. */
+        public synchronized int getCount() {
+            return mCount;
+        }
+
+        public synchronized long getTotalWaitMs() {
+            return mTotalWaitMs;
+        }
+
+        public synchronized long getMaxWaitMs() {
+            return mMaxWaitMs;
+        }
+
+        public synchronized long getAverageWaitMs() {
+            return mCount == 0 ? 0 : mTotalWaitMs / mCount;
+        }
+    }
+}
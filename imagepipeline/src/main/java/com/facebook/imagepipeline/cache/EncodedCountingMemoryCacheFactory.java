@@ -13,9 +13,47 @@ import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
 public class EncodedCountingMemoryCacheFactory {
-    public static CountingMemoryCache<CacheKey, PooledByteBuffer> get(Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
+    public static AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> get(Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
                                                                       MemoryTrimmableRegistry memoryTrimmableRegistry) {
+        return get(encodedMemoryCacheParamsSupplier, memoryTrimmableRegistry, 1);
+    }
+
+    public static AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> get(Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
+                                                                      MemoryTrimmableRegistry memoryTrimmableRegistry, int segmentCount) {
+        return get(encodedMemoryCacheParamsSupplier, memoryTrimmableRegistry, segmentCount, null);
+    }
+
+    /**
+     * Creates the counting cache. If <code>segmentCount</code> is greater than one, a lock-striped
+     * {@link SegmentedCountingMemoryCache} with that many segments is created.
+     *
+     * @param evictionPolicySupplier supplies the eviction policy of the cache (or of each of its
+     *                               segments); if null, the items are evicted in LRU order
+     */
+    public static AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> get(Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
+                                                                      MemoryTrimmableRegistry memoryTrimmableRegistry, int segmentCount,
+                                                                      @Nullable Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> evictionPolicySupplier) {
+        return get(encodedMemoryCacheParamsSupplier, memoryTrimmableRegistry, segmentCount, evictionPolicySupplier, null);
+    }
+
+    /**
+     * Creates the counting cache. If <code>segmentCount</code> is greater than one, a lock-striped
+     * {@link SegmentedCountingMemoryCache} with that many segments is created.
+     *
+     * @param evictionPolicySupplier supplies the eviction policy of the cache (or of each of its
+     *                               segments); if null, the items are evicted in LRU order
+     * @param evictionExecutor       executor the items are evicted on in batches; if null, the
+     *                               items are evicted right away by the threads using the cache
+     */
+    public static AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> get(Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
+                                                                      MemoryTrimmableRegistry memoryTrimmableRegistry, int segmentCount,
+                                                                      @Nullable Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> evictionPolicySupplier,
+                                                                      @Nullable Executor evictionExecutor) {
         ValueDescriptor<PooledByteBuffer> valueDescriptor = new ValueDescriptor<PooledByteBuffer>() {
             @Override
             public int getSizeInBytes(PooledByteBuffer value) {
@@ -23,8 +61,17 @@ public class EncodedCountingMemoryCacheFactory {
             }
         };
         CountingMemoryCache.CacheTrimStrategy trimStrategy = new NativeMemoryCacheTrimStrategy();
-        CountingMemoryCache<CacheKey, PooledByteBuffer> countingCache = new CountingMemoryCache<>(valueDescriptor, trimStrategy,
-                encodedMemoryCacheParamsSupplier);
+        if (evictionPolicySupplier == null) {
+            evictionPolicySupplier = new Supplier<CountingMemoryCache.EvictionPolicy<CacheKey>>() {
+                @Override
+                public CountingMemoryCache.EvictionPolicy<CacheKey> get() {
+                    return new LruEvictionPolicy<>();
+                }
+            };
+        }
+        AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> countingCache = segmentCount > 1 ? new SegmentedCountingMemoryCache<>(valueDescriptor,
+                trimStrategy, encodedMemoryCacheParamsSupplier, segmentCount, evictionPolicySupplier, evictionExecutor) : new CountingMemoryCache<>(
+                valueDescriptor, trimStrategy, encodedMemoryCacheParamsSupplier, evictionPolicySupplier.get(), evictionExecutor);
         memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
         return countingCache;
     }
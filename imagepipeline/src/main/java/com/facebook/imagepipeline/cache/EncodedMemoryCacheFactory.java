@@ -11,24 +11,46 @@ package com.facebook.imagepipeline.cache;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 
+import javax.annotation.Nullable;
+
 public class EncodedMemoryCacheFactory {
-    public static MemoryCache<CacheKey, PooledByteBuffer> get(final CountingMemoryCache<CacheKey, PooledByteBuffer> encodedCountingMemoryCache,
-                                                              final ImageCacheStatsTracker imageCacheStatsTracker) {
+    public static MemoryCache<CacheKey, PooledByteBuffer> get(AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> encodedCountingMemoryCache,
+                                                              ImageCacheStatsTracker imageCacheStatsTracker) {
+        return get(encodedCountingMemoryCache, imageCacheStatsTracker, null);
+    }
+
+    /**
+     * @param paramsTracker also notified of the cache events, e.g. an
+     *                      {@link AdaptiveMemoryCacheParamsSupplier} of the cache, or null
+     */
+    public static MemoryCache<CacheKey, PooledByteBuffer> get(final AbstractCountingMemoryCache<CacheKey, PooledByteBuffer>
+                                                                      encodedCountingMemoryCache,
+                                                              final ImageCacheStatsTracker imageCacheStatsTracker,
+                                                              @Nullable final MemoryCacheTracker paramsTracker) {
         imageCacheStatsTracker.registerEncodedMemoryCache(encodedCountingMemoryCache);
         MemoryCacheTracker memoryCacheTracker = new MemoryCacheTracker() {
             @Override
             public void onCacheHit() {
                 imageCacheStatsTracker.onMemoryCacheHit();
+                if (paramsTracker != null) {
+                    paramsTracker.onCacheHit();
+                }
             }
 
             @Override
             public void onCacheMiss() {
                 imageCacheStatsTracker.onMemoryCacheMiss();
+                if (paramsTracker != null) {
+                    paramsTracker.onCacheMiss();
+                }
             }
 
             @Override
             public void onCachePut() {
                 imageCacheStatsTracker.onMemoryCachePut();
+                if (paramsTracker != null) {
+                    paramsTracker.onCachePut();
+                }
             }
         };
         return new InstrumentedMemoryCache<>(encodedCountingMemoryCache, memoryCacheTracker);
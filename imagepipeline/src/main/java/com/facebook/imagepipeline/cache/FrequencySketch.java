@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Compact count-min sketch estimating how often the items have been accessed recently.
+ *
+ * <p> Each item is counted by four 4-bit counters in a table of longs, so the frequencies saturate
+ * at 15. Once the number of recorded accesses reaches ten times the capacity, or the given sample
+ * size multiplier, all the counters are halved, so that the sketch forgets the items that are no
+ * longer popular.
+ */
+@NotThreadSafe
+public class FrequencySketch<K> {
+    // Seeds of the four hash functions of the sketch.
+    private static final long[] SEEDS = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_FREQUENCY = 15;
+    private static final int DEFAULT_SAMPLE_SIZE_MULTIPLIER = 10;
+    private final int mSampleSizeMultiplier;
+    private long[] mTable;
+    private int mTableMask;
+    private int mSampleSize;
+    private int mAdditions;
+
+    public FrequencySketch(int capacity) {
+        this(capacity, DEFAULT_SAMPLE_SIZE_MULTIPLIER);
+    }
+
+    /**
+     * @param sampleSizeMultiplier the number of accesses to record before halving the counters, per
+     *                             item of capacity. The lower it is, the fewer items share the
+     *                             counters, and the less the low frequencies are overestimated
+     */
+    public FrequencySketch(int capacity, int sampleSizeMultiplier) {
+        Preconditions.checkArgument(sampleSizeMultiplier > 0);
+        mSampleSizeMultiplier = sampleSizeMultiplier;
+        ensureCapacity(capacity);
+    }
+
+    /** Returns the smallest power of two that is greater than or equal to the given value. */
+    private static int ceilingPowerOfTwo(int value) {
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(value, 1) - 1));
+    }
+
+    /** Spreads the bits of the hash code, as the keys' hash codes are often poorly distributed. */
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+    /**
+     * Resizes the sketch so that it can track about <code>capacity</code> items. The recorded
+     * frequencies are lost if the sketch grows.
+     */
+    public void ensureCapacity(int capacity) {
+        int tableSize = ceilingPowerOfTwo(capacity);
+        if (mTable != null && mTable.length >= tableSize) {
+            return;
+        }
+        mTable = new long[tableSize];
+        mTableMask = tableSize - 1;
+        mSampleSize = (capacity > Integer.MAX_VALUE / mSampleSizeMultiplier) ? Integer.MAX_VALUE : mSampleSizeMultiplier * Math.max(capacity,
+                1);
+        mAdditions = 0;
+    }
+
+    /** Gets the estimated number of recent accesses of the item, up to 15. */
+    public int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /** Records an access of the item. */
+    public void increment(K key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++mAdditions >= mSampleSize) {
+            reset();
+        }
+    }
+
+    /** Increments the <code>j</code>-th counter of the <code>i</code>-th long, unless saturated. */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((mTable[i] & mask) != mask) {
+            mTable[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** Gets the table index of the counter of the <code>i</code>-th hash function. */
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return ((int) hash) & mTableMask;
+    }
+
+    /** Halves all the counters, so that the old accesses weigh less than the recent ones. */
+    @VisibleForTesting
+    void reset() {
+        int oddCounters = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            oddCounters += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mAdditions = (mAdditions >>> 1) - (oddCounters >>> 2);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.image.ImageSource;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * GreedyDual-Size eviction policy for the {@link CountingMemoryCache}.
+ *
+ * <p> Each item gets the priority <code>H = L + cost / size</code>, where the cost is how long it
+ * would take to get the item back once evicted: the time its decode took, plus an estimate of the
+ * time needed to fetch its encoded bytes again from where they came from. The item with the lowest
+ * priority gets evicted, and the inflation value <code>L</code> is raised to its priority, so that
+ * the items that are not hit anymore age out even if they were expensive. A hit resets the
+ * priority of the item against the current <code>L</code>.
+ *
+ * <p> This keeps the small, slow to decode images (e.g. progressive JPEGs or animated frames) over
+ * the large ones that decode quickly.
+ *
+ * <p> Only the exclusively owned items are considered for eviction: the items in use are kept out
+ * of the priority queue until they are released.
+ */
+@NotThreadSafe
+public class GreedyDualSizeEvictionPolicy<K> implements CountingMemoryCache.EvictionPolicy<K> {
+    // Cost assumed for the items whose decode time is not known.
+    @VisibleForTesting static final long DEFAULT_DECODE_TIME_MS = 10;
+    // Estimated time needed to fetch the encoded bytes again, per source.
+    @VisibleForTesting static final long LOCAL_REFETCH_TIME_MS = 5;
+    @VisibleForTesting static final long NETWORK_REFETCH_TIME_MS = 20;
+    private final Map<K, Node<K>> mNodes = new HashMap<>();
+    // The exclusively owned items, by priority.
+    private final TreeSet<Node<K>> mQueue = new TreeSet<>(new Comparator<Node<K>>() {
+        @Override
+        public int compare(Node<K> lhs, Node<K> rhs) {
+            int result = Double.compare(lhs.priority, rhs.priority);
+            if (result != 0) {
+                return result;
+            }
+            // not Long.compare, which needs API level 19
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    });
+    @VisibleForTesting double mInflation;
+    private long mSequence;
+
+    @Override
+    public void onAccess(K key, boolean isHit) {
+        if (!isHit) {
+            return;
+        }
+        Node<K> node = mNodes.get(key);
+        if (node != null) {
+            mQueue.remove(node);
+            updatePriority(node);
+            if (node.isExclusive) {
+                mQueue.add(node);
+            }
+        }
+    }
+
+    @Override
+    public void onAdd(K key, int sizeInBytes, long decodeTimeMs, ImageSource source) {
+        onRemove(key);
+        Node<K> node = new Node<>(key, (double) getCost(decodeTimeMs, source) / Math.max(sizeInBytes, 1));
+        updatePriority(node);
+        mNodes.put(key, node);
+    }
+
+    @Override
+    public void onExclusivityChanged(K key, boolean isExclusive) {
+        Node<K> node = mNodes.get(key);
+        if (node == null || node.isExclusive == isExclusive) {
+            return;
+        }
+        node.isExclusive = isExclusive;
+        if (isExclusive) {
+            mQueue.add(node);
+        } else {
+            mQueue.remove(node);
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Node<K> node = mNodes.remove(key);
+        if (node != null) {
+            mQueue.remove(node);
+        }
+    }
+
+    @Nullable
+    @Override
+    public K getNextToEvict(CountingLruMap<K, ?> exclusiveEntries, MemoryCacheParams params) {
+        if (mQueue.isEmpty()) {
+            return null;
+        }
+        Node<K> node = mQueue.first();
+        mInflation = Math.max(mInflation, node.priority);
+        return node.key;
+    }
+
+    /** Gets the priority the item would have right now. */
+    @VisibleForTesting
+    @Nullable
+    Double getPriority(K key) {
+        Node<K> node = mNodes.get(key);
+        return (node == null) ? null : node.priority;
+    }
+
+    /** Gets the estimated time needed to get the item back once evicted. */
+    @VisibleForTesting
+    static long getCost(long decodeTimeMs, ImageSource source) {
+        long cost = (decodeTimeMs >= 0) ? decodeTimeMs : DEFAULT_DECODE_TIME_MS;
+        switch (source) {
+            case NETWORK:
+                return cost + NETWORK_REFETCH_TIME_MS;
+            case DISK_CACHE:
+            case LOCAL:
+                return cost + LOCAL_REFETCH_TIME_MS;
+            default:
+                return cost;
+        }
+    }
+
+    private void updatePriority(Node<K> node) {
+        node.priority = mInflation + node.costPerByte;
+        node.sequence = mSequence++;
+    }
+
+    private static class Node<K> {
+        final K key;
+        final double costPerByte;
+        double priority;
+        // Breaks the ties between the items of the same priority, in LRU order.
+        long sequence;
+        boolean isExclusive;
+
+        Node(K key, double costPerByte) {
+            this.key = key;
+            this.costPerByte = costPerByte;
+        }
+    }
+}
@@ -46,13 +46,17 @@ public interface ImageCacheStatsTracker {
     /**
      * Registers a bitmap cache with this tracker.
      *
-     * <p>Use this method if you need access to the cache itself to compile your stats.
+     * <p>Use this method if you need access to the cache itself to compile your stats. If the
+     * miss ratio curve tracking is enabled, {@link CountingMemoryCache#getMissRatioCurve} gives
+     * the hit rates the cache would have at other sizes.
      */
-    void registerBitmapMemoryCache(CountingMemoryCache<?, ?> bitmapMemoryCache);
+    void registerBitmapMemoryCache(AbstractCountingMemoryCache<?, ?> bitmapMemoryCache);
     /**
      * Registers an encoded memory cache with this tracker.
      *
-     * <p>Use this method if you need access to the cache itself to compile your stats.
+     * <p>Use this method if you need access to the cache itself to compile your stats. If the
+     * miss ratio curve tracking is enabled, {@link CountingMemoryCache#getMissRatioCurve} gives
+     * the hit rates the cache would have at other sizes.
      */
-    void registerEncodedMemoryCache(CountingMemoryCache<?, ?> encodedMemoryCache);
+    void registerEncodedMemoryCache(AbstractCountingMemoryCache<?, ?> encodedMemoryCache);
 }
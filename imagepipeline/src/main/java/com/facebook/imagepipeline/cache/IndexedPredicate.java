@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.android.internal.util.Predicate;
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * Predicate that matches the keys with the given value in the given {@link KeyIndex}.
+ *
+ * <p> The {@link CountingLruMap} looks the matching keys up in its index instead of testing every
+ * key, so removing or finding the items matching this predicate takes time proportional to the
+ * number of the matching items only.
+ */
+public class IndexedPredicate<K> implements Predicate<K> {
+    private final KeyIndex<K> mKeyIndex;
+    private final String mIndexValue;
+
+    public IndexedPredicate(KeyIndex<K> keyIndex, String indexValue) {
+        mKeyIndex = Preconditions.checkNotNull(keyIndex);
+        mIndexValue = Preconditions.checkNotNull(indexValue);
+    }
+
+    public KeyIndex<K> getKeyIndex() {
+        return mKeyIndex;
+    }
+
+    public String getIndexValue() {
+        return mIndexValue;
+    }
+
+    @Override
+    public boolean apply(K key) {
+        return mIndexValue.equals(mKeyIndex.getIndexValue(key));
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import javax.annotation.Nullable;
+
+/**
+ * Interface used to index the keys of a {@link CountingLruMap} by a secondary value, such as the
+ * source uri of the images.
+ *
+ * <p> The map keeps one index per instance of this interface, so the instances should be shared
+ * rather than created for each query.
+ *
+ * @see IndexedPredicate
+ */
+public interface KeyIndex<K> {
+    /** Returns the value the given key is indexed by, or null if the key is not indexed. */
+    @Nullable
+    String getIndexValue(K key);
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.imagepipeline.image.ImageSource;
+
+import javax.annotation.Nullable;
+
+/**
+ * The default eviction policy of the {@link CountingMemoryCache}.
+ *
+ * <p> Evicts the item that has been exclusively owned by the cache for the longest time, i.e. the
+ * least recently used one.
+ */
+public class LruEvictionPolicy<K> implements CountingMemoryCache.EvictionPolicy<K> {
+    @Override
+    public void onAccess(K key, boolean isHit) {
+    }
+
+    @Override
+    public void onAdd(K key, int sizeInBytes, long decodeTimeMs, ImageSource source) {
+    }
+
+    @Override
+    public void onExclusivityChanged(K key, boolean isExclusive) {
+    }
+
+    @Override
+    public void onRemove(K key) {
+    }
+
+    @Nullable
+    @Override
+    public K getNextToEvict(CountingLruMap<K, ?> exclusiveEntries, MemoryCacheParams params) {
+        return exclusiveEntries.getFirstKey();
+    }
+}
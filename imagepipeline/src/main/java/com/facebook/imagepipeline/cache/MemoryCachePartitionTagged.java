@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import javax.annotation.Nullable;
+
+/**
+ * Interface implemented by the caller contexts that choose the bitmap memory cache partition of
+ * the images they request.
+ *
+ * @see BitmapMemoryCachePartitioner
+ */
+public interface MemoryCachePartitionTagged {
+    /** Returns the tag of the partition, or null to choose the partition by the image type. */
+    @Nullable
+    String getMemoryCachePartitionTag();
+}
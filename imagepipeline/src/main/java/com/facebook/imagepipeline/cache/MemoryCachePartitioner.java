@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+/**
+ * Interface used to split the items of a {@link PartitionedCountingMemoryCache} into partitions.
+ */
+public interface MemoryCachePartitioner<K> {
+    /** Returns the number of the partitions. */
+    int getPartitionCount();
+
+    /** Returns the index of the partition the given key belongs to, between 0 and the partition count. */
+    int getPartition(K key);
+}
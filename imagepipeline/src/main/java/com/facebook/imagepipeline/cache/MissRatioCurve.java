@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Estimated hit rates of a memory cache, were its max size a multiple of the current one.
+ *
+ * <p> The estimates come from replaying the requests of the cache against an LRU cache of each of
+ * the sizes, see {@link MissRatioCurveTracker}. They tell whether the cache would benefit from
+ * more memory, or could give some of it back without losing many hits.
+ */
+@Immutable
+public class MissRatioCurve {
+    private final float[] mSizeRatios;
+    private final long[] mHitCounts;
+    private final long mRequestCount;
+
+    MissRatioCurve(float[] sizeRatios, long[] hitCounts, long requestCount) {
+        Preconditions.checkArgument(sizeRatios.length == hitCounts.length);
+        mSizeRatios = sizeRatios.clone();
+        mHitCounts = hitCounts.clone();
+        mRequestCount = requestCount;
+    }
+
+    /** Sums up the curves of the parts of a cache, such as the segments. */
+    static MissRatioCurve merge(List<MissRatioCurve> curves) {
+        Preconditions.checkArgument(!curves.isEmpty());
+        float[] sizeRatios = curves.get(0).mSizeRatios;
+        long[] hitCounts = new long[sizeRatios.length];
+        long requestCount = 0;
+        for (MissRatioCurve curve : curves) {
+            Preconditions.checkArgument(Arrays.equals(sizeRatios, curve.mSizeRatios));
+            for (int i = 0; i < hitCounts.length; i++) {
+                hitCounts[i] += curve.mHitCounts[i];
+            }
+            requestCount += curve.mRequestCount;
+        }
+        return new MissRatioCurve(sizeRatios, hitCounts, requestCount);
+    }
+
+    /** Gets the ratios of the max cache size the hit rates are estimated for, in ascending order. */
+    public float[] getSizeRatios() {
+        return mSizeRatios.clone();
+    }
+
+    /** Gets the number of the requests since the tracking started. */
+    public long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Gets the number of the requests that would have been hits, were the max cache size
+     * <code>sizeRatio</code> times the current one.
+     *
+     * @throws IllegalArgumentException if the hit rate is not estimated for the given ratio
+     */
+    public long getHitCount(float sizeRatio) {
+        for (int i = 0; i < mSizeRatios.length; i++) {
+            if (mSizeRatios[i] == sizeRatio) {
+                return mHitCounts[i];
+            }
+        }
+        throw new IllegalArgumentException("No estimate for the size ratio " + sizeRatio);
+    }
+
+    /**
+     * Gets the estimated hit rate, were the max cache size <code>sizeRatio</code> times the current
+     * one, or 0 if there were no requests yet.
+     *
+     * @throws IllegalArgumentException if the hit rate is not estimated for the given ratio
+     */
+    public float getEstimatedHitRate(float sizeRatio) {
+        long hitCount = getHitCount(sizeRatio);
+        return (mRequestCount > 0) ? (float) hitCount / mRequestCount : 0;
+    }
+}
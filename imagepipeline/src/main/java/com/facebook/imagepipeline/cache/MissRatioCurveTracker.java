@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.VisibleForTesting;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Estimates the hit rates a memory cache would have at other sizes, see {@link MissRatioCurve}.
+ *
+ * <p> The tracker keeps the keys and the sizes, but not the values, of the cached items and of the
+ * items evicted recently (the ghost entries), up to {@link #MAX_SIZE_RATIO} times the max cache
+ * size, in the LRU order. On each request it computes the LRU stack distance of the key: the total
+ * size of the keys requested since the last request of this one, including its own size. An LRU
+ * cache at least that large would have had the item, so the request counts as a hit for each of
+ * the sizes that are.
+ *
+ * <p> The distances are summed up with a Fenwick tree indexed by the time of the last request of
+ * each key, which takes <code>O(log n)</code> per request. The times are renumbered once they run
+ * out of the tree's capacity.
+ */
+@NotThreadSafe
+public class MissRatioCurveTracker<K> {
+    // The ratios of the max cache size the hit rates are estimated for.
+    @VisibleForTesting static final float[] SIZE_RATIOS = {0.5f, 1, 2, 4};
+    @VisibleForTesting static final int MAX_SIZE_RATIO = 4;
+    private static final int INITIAL_CAPACITY = 256;
+    // The tracked keys, from the least recently requested one.
+    private final LinkedHashMap<K, Node> mNodes = new LinkedHashMap<>();
+    private final long[] mHitCounts = new long[SIZE_RATIOS.length];
+    private long mRequestCount;
+    // Fenwick tree of the sizes of the keys, indexed by the time of their last request.
+    private long[] mTree = new long[INITIAL_CAPACITY + 1];
+    private int mNextTime = 1;
+    private long mSizeInBytes;
+
+    /**
+     * Records a request of the key.
+     *
+     * @param maxCacheSize the max size of the cache currently in effect
+     */
+    public void recordAccess(K key, int maxCacheSize) {
+        mRequestCount++;
+        Node node = mNodes.get(key);
+        if (node == null) {
+            return;
+        }
+        long distance = mSizeInBytes - sum(node.time - 1);
+        for (int i = 0; i < SIZE_RATIOS.length; i++) {
+            if (distance <= SIZE_RATIOS[i] * maxCacheSize) {
+                mHitCounts[i]++;
+            }
+        }
+        // move the key to the top of the stack; it is off the map while the times may get renumbered
+        mNodes.remove(key);
+        add(node.time, -node.sizeInBytes);
+        node.time = nextTime();
+        mNodes.put(key, node);
+        add(node.time, node.sizeInBytes);
+    }
+
+    /**
+     * Records an item added to the cache, and drops the least recently requested ghost entries
+     * that would not fit even in the largest of the estimated caches.
+     *
+     * @param maxCacheSize the max size of the cache currently in effect
+     */
+    public void recordAdd(K key, int sizeInBytes, int maxCacheSize) {
+        recordRemove(key);
+        Node node = new Node(sizeInBytes, nextTime());
+        mNodes.put(key, node);
+        add(node.time, sizeInBytes);
+        mSizeInBytes += sizeInBytes;
+        Iterator<Node> iterator = mNodes.values().iterator();
+        while (mSizeInBytes > (long) MAX_SIZE_RATIO * maxCacheSize && iterator.hasNext()) {
+            Node eldest = iterator.next();
+            iterator.remove();
+            add(eldest.time, -eldest.sizeInBytes);
+            mSizeInBytes -= eldest.sizeInBytes;
+        }
+    }
+
+    /**
+     * Records an item removed from the cache explicitly, rather than evicted. Its key is forgotten,
+     * since a later request of it would miss regardless of the cache size.
+     */
+    public void recordRemove(K key) {
+        Node node = mNodes.remove(key);
+        if (node != null) {
+            add(node.time, -node.sizeInBytes);
+            mSizeInBytes -= node.sizeInBytes;
+        }
+    }
+
+    /** Forgets all the keys, but keeps the counts of the requests recorded so far. */
+    public void clear() {
+        mNodes.clear();
+        mTree = new long[INITIAL_CAPACITY + 1];
+        mNextTime = 1;
+        mSizeInBytes = 0;
+    }
+
+    public MissRatioCurve getMissRatioCurve() {
+        return new MissRatioCurve(SIZE_RATIOS, mHitCounts, mRequestCount);
+    }
+
+    @VisibleForTesting
+    int getCount() {
+        return mNodes.size();
+    }
+
+    @VisibleForTesting
+    long getSizeInBytes() {
+        return mSizeInBytes;
+    }
+
+    /** Gets the time for a key just requested, renumbering the times if they ran out. */
+    private int nextTime() {
+        if (mNextTime >= mTree.length) {
+            renumber();
+        }
+        return mNextTime++;
+    }
+
+    /**
+     * Numbers the times of the keys from 1 in the LRU order, and rebuilds the tree. The capacity
+     * of the tree gets doubled if the keys occupy more than half of it.
+     */
+    private void renumber() {
+        int capacity = mTree.length - 1;
+        if (mNodes.size() * 2 > capacity) {
+            capacity *= 2;
+        }
+        mTree = new long[capacity + 1];
+        mNextTime = 1;
+        for (Node node : mNodes.values()) {
+            node.time = mNextTime++;
+            add(node.time, node.sizeInBytes);
+        }
+    }
+
+    private void add(int time, long delta) {
+        for (int i = time; i < mTree.length; i += i & -i) {
+            mTree[i] += delta;
+        }
+    }
+
+    /** Sums up the sizes of the keys last requested no later than at the given time. */
+    private long sum(int time) {
+        long sum = 0;
+        for (int i = time; i > 0; i -= i & -i) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    private static class Node {
+        final int sizeInBytes;
+        int time;
+
+        Node(int sizeInBytes, int time) {
+            this.sizeInBytes = sizeInBytes;
+            this.time = time;
+        }
+    }
+}
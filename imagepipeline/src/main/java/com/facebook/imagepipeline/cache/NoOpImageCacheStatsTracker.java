@@ -69,10 +69,10 @@ public class NoOpImageCacheStatsTracker implements ImageCacheStatsTracker {
     }
 
     @Override
-    public void registerBitmapMemoryCache(CountingMemoryCache<?, ?> bitmapMemoryCache) {
+    public void registerBitmapMemoryCache(AbstractCountingMemoryCache<?, ?> bitmapMemoryCache) {
     }
 
     @Override
-    public void registerEncodedMemoryCache(CountingMemoryCache<?, ?> encodedMemoryCache) {
+    public void registerEncodedMemoryCache(AbstractCountingMemoryCache<?, ?> encodedMemoryCache) {
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+
+import java.io.Closeable;
+
+import javax.annotation.Nullable;
+
+/**
+ * The first bytes of an image whose download stopped before the end, with the validators of the
+ * response they were read from. A later download can ask the server for the rest of the image
+ * only, on the condition that it did not change since.
+ *
+ * <p> The validators are the values of the ETag and Last-Modified response headers.
+ */
+public class PartialDownload implements Closeable {
+    private final CloseableReference<PooledByteBuffer> mBytesRef;
+    @Nullable private final String mEntityTag;
+    @Nullable private final String mLastModified;
+
+    /**
+     * @param bytesRef the downloaded bytes, the reference is cloned
+     */
+    public PartialDownload(CloseableReference<PooledByteBuffer> bytesRef, @Nullable String entityTag, @Nullable String lastModified) {
+        Preconditions.checkArgument(CloseableReference.isValid(bytesRef));
+        mBytesRef = bytesRef.clone();
+        mEntityTag = entityTag;
+        mLastModified = lastModified;
+    }
+
+    /** Gets the downloaded bytes, valid until this is closed. */
+    public PooledByteBuffer getBytes() {
+        return mBytesRef.get();
+    }
+
+    public int getSize() {
+        return mBytesRef.get().size();
+    }
+
+    @Nullable
+    public String getEntityTag() {
+        return mEntityTag;
+    }
+
+    @Nullable
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Gets the validator the server can check the image did not change against, for the If-Range
+     * request header: the entity tag unless it is a weak one, which If-Range does not accept, or
+     * else the last modification date.
+     *
+     * @return the validator, or null if there is none
+     */
+    @Nullable
+    public String getValidator() {
+        if (isStrongEntityTag(mEntityTag)) {
+            return mEntityTag;
+        }
+        return mLastModified;
+    }
+
+    @Override
+    public void close() {
+        mBytesRef.close();
+    }
+
+    /** Whether the download can be resumed from the bytes of a response with the given validators. */
+    public static boolean hasValidator(@Nullable String entityTag, @Nullable String lastModified) {
+        return isStrongEntityTag(entityTag) || lastModified != null;
+    }
+
+    private static boolean isStrongEntityTag(@Nullable String entityTag) {
+        return entityTag != null && !entityTag.startsWith("W/");
+    }
+}
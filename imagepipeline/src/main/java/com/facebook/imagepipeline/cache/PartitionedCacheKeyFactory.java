@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.Postprocessor;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link CacheKeyFactory} for a partitioned bitmap memory cache, see
+ * {@link BitmapMemoryCachePartitioner}.
+ *
+ * <p> The bitmap cache keys carry the image type of the request, and the tag of its caller context
+ * if it implements {@link MemoryCachePartitionTagged}, so they are told apart by partition: the
+ * same image requested for two partitions is cached, and fetched, once per partition. The other
+ * keys are the ones of {@link DefaultCacheKeyFactory}.
+ */
+public class PartitionedCacheKeyFactory extends DefaultCacheKeyFactory implements CallerContextCacheKeyFactory {
+    private static PartitionedCacheKeyFactory sInstance = null;
+
+    protected PartitionedCacheKeyFactory() {
+    }
+
+    public static synchronized PartitionedCacheKeyFactory getInstance() {
+        if (sInstance == null) {
+            sInstance = new PartitionedCacheKeyFactory();
+        }
+        return sInstance;
+    }
+
+    @Override
+    public CacheKey getBitmapCacheKey(ImageRequest request) {
+        return getBitmapCacheKey(request, null);
+    }
+
+    @Override
+    public CacheKey getBitmapCacheKey(ImageRequest request, @Nullable Object callerContext) {
+        return new BitmapMemoryCacheKey(getCacheKeySourceUri(request.getSourceUri()).toString(), request.getResizeOptions(), request
+                .getAutoRotateEnabled(), request.getImageDecodeOptions(), null, null, request.getImageType(), getPartitionTag(callerContext));
+    }
+
+    @Override
+    public CacheKey getPostprocessedBitmapCacheKey(ImageRequest request) {
+        return getPostprocessedBitmapCacheKey(request, null);
+    }
+
+    @Override
+    public CacheKey getPostprocessedBitmapCacheKey(ImageRequest request, @Nullable Object callerContext) {
+        final Postprocessor postprocessor = request.getPostprocessor();
+        final CacheKey postprocessorCacheKey;
+        final String postprocessorName;
+        if (postprocessor != null) {
+            postprocessorCacheKey = postprocessor.getPostprocessorCacheKey();
+            postprocessorName = postprocessor.getClass().getName();
+        } else {
+            postprocessorCacheKey = null;
+            postprocessorName = null;
+        }
+        return new BitmapMemoryCacheKey(getCacheKeySourceUri(request.getSourceUri()).toString(), request.getResizeOptions(), request
+                .getAutoRotateEnabled(), request.getImageDecodeOptions(), postprocessorCacheKey, postprocessorName, request.getImageType(),
+                getPartitionTag(callerContext));
+    }
+
+    @Nullable
+    private static String getPartitionTag(@Nullable Object callerContext) {
+        return (callerContext instanceof MemoryCachePartitionTagged) ? ((MemoryCachePartitionTagged) callerContext).getMemoryCachePartitionTag()
+                : null;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Supplier;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Variant of the {@link CountingMemoryCache} split into partitions, so that the different kinds of
+ * items (e.g. small avatars and full screen photos) do not compete for the same space.
+ *
+ * <p> A {@link MemoryCachePartitioner} chooses the partition of each key. Each partition has its
+ * own budget, its own lock and its own eviction order. The limits of the whole cache are the sums
+ * of the partitions' budgets.
+ *
+ * <p> The capacity a partition does not use is lent to the others: a partition may grow past its
+ * budget as long as the whole cache has room. Once the cache is full, the items are evicted from
+ * the partitions that exceed their budget, so a burst of items in one partition does not evict
+ * the items of the other partitions that stay within their budget.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public class PartitionedCountingMemoryCache<K, V> extends SegmentedCountingMemoryCache<K, V> {
+
+    /**
+     * @param partitioner               chooses the partition of each key
+     * @param partitionParamsSuppliers  supply the budget of each partition, in the order of the
+     *                                  partition indices
+     * @param evictionPolicySupplier    supplies a new eviction policy for each of the partitions
+     * @param evictionExecutor          executor the items are evicted on, or null to evict them
+     *                                  right away on the thread that changed the cache
+     */
+    public PartitionedCountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, MemoryCachePartitioner<K>
+            partitioner, List<Supplier<MemoryCacheParams>> partitionParamsSuppliers, Supplier<? extends EvictionPolicy<K>> evictionPolicySupplier,
+            @Nullable Executor evictionExecutor) {
+        super(valueDescriptor, cacheTrimStrategy, getTotalParamsSupplier(partitionParamsSuppliers), partitioner.getPartitionCount(),
+                partitioner, partitionParamsSuppliers, evictionPolicySupplier, evictionExecutor);
+    }
+
+    /** Gets the supplier of the limits of the whole cache, which are the sums of the partitions' budgets. */
+    private static Supplier<MemoryCacheParams> getTotalParamsSupplier(final List<Supplier<MemoryCacheParams>> partitionParamsSuppliers) {
+        return new Supplier<MemoryCacheParams>() {
+            @Override
+            public MemoryCacheParams get() {
+                long maxCacheSize = 0;
+                long maxCacheEntries = 0;
+                long maxEvictionQueueSize = 0;
+                long maxEvictionQueueEntries = 0;
+                int maxCacheEntrySize = 0;
+                for (Supplier<MemoryCacheParams> supplier : partitionParamsSuppliers) {
+                    MemoryCacheParams params = supplier.get();
+                    maxCacheSize += params.maxCacheSize;
+                    maxCacheEntries += params.maxCacheEntries;
+                    maxEvictionQueueSize += params.maxEvictionQueueSize;
+                    maxEvictionQueueEntries += params.maxEvictionQueueEntries;
+                    maxCacheEntrySize = Math.max(maxCacheEntrySize, params.maxCacheEntrySize);
+                }
+                return new MemoryCacheParams(toInt(maxCacheSize), toInt(maxCacheEntries), toInt(maxEvictionQueueSize), toInt(
+                        maxEvictionQueueEntries), maxCacheEntrySize);
+            }
+        };
+    }
+
+    private static int toInt(long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+    /** Gets the number of the partitions. */
+    public int getPartitionCount() {
+        return getSegmentCount();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.util.ByteConstants;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Admits an image into the disk cache once it is requested for the second time, the first request
+ * only being remembered. The large images, which evict many others, are only admitted on their
+ * third request.
+ *
+ * <p> The requests are counted by a {@link FrequencySketch}, which halves its counts after each
+ * window of requests: an image requested once is forgotten by the end of the next window. The
+ * sketch takes 8 bytes per request of the window, and counts only that many requests between the
+ * halvings, so few of the images requested once share all their counters with others, and pass
+ * for images requested again.
+ */
+@ThreadSafe
+public class SecondHitDiskCacheAdmissionPolicy implements DiskCacheAdmissionPolicy {
+    public static final int DEFAULT_WINDOW_SIZE = 4096;
+    public static final int DEFAULT_LARGE_IMAGE_SIZE_THRESHOLD = 512 * ByteConstants.KB;
+    private static final int MIN_REQUEST_COUNT = 2;
+    private static final int LARGE_IMAGE_MIN_REQUEST_COUNT = 3;
+    private final int mLargeImageSizeThreshold;
+    @GuardedBy("this") private final FrequencySketch<CacheKey> mSketch;
+
+    public SecondHitDiskCacheAdmissionPolicy() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_LARGE_IMAGE_SIZE_THRESHOLD);
+    }
+
+    /**
+     * @param windowSize              the number of requests after which the counts are halved
+     * @param largeImageSizeThreshold the size from which the images need a third request, or
+     *                                {@link Integer#MAX_VALUE} for none to
+     */
+    public SecondHitDiskCacheAdmissionPolicy(int windowSize, int largeImageSizeThreshold) {
+        Preconditions.checkArgument(windowSize > 0);
+        Preconditions.checkArgument(largeImageSizeThreshold > 0);
+        mSketch = new FrequencySketch<>(windowSize, 1);
+        mLargeImageSizeThreshold = largeImageSizeThreshold;
+    }
+
+    @Override
+    public synchronized void onRequest(CacheKey key) {
+        mSketch.increment(key);
+    }
+
+    @Override
+    public synchronized boolean shouldAdmit(CacheKey key, int size) {
+        int minRequestCount = size >= mLargeImageSizeThreshold ? LARGE_IMAGE_MIN_REQUEST_COUNT : MIN_REQUEST_COUNT;
+        return mSketch.frequency(key) >= minRequestCount;
+    }
+}
@@ -0,0 +1,748 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.android.internal.util.Predicate;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock-striped variant of the {@link CountingMemoryCache}, sharing its entries and client
+ * references through the {@link AbstractCountingMemoryCache}.
+ *
+ * <p> The items are split into a fixed number of segments selected by the key hash. Each segment
+ * has its own pair of exclusive and cached {@link CountingLruMap}s and its own lock, so the
+ * operations on keys that fall into different segments do not contend with each other.
+ *
+ * <p> The size of the whole cache is accounted with atomic counters, so the cache constraints are
+ * checked without taking any lock. Because of that the constraints are enforced approximately:
+ * concurrent insertions into different segments may briefly exceed them.
+ *
+ * <p> Each segment has its own {@link EvictionPolicy} that orders the segment's items, LRU by
+ * default. When the eviction queue is over its limits, the segments are trimmed one after another
+ * down to their fair share of the limits, until the whole cache fits again. With an eviction
+ * executor, that happens on the executor, one segment lock at a time.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public class SegmentedCountingMemoryCache<K, V> extends AbstractCountingMemoryCache<K, V> {
+    @VisibleForTesting final Segment<K, V>[] mSegments;
+    private volatile MemoryCacheParams mSegmentedCacheParams;
+    // Chooses the segment of each key, or null to choose it by the key hash.
+    @Nullable private final MemoryCachePartitioner<K> mPartitioner;
+    // Supplies the budget of each segment, or null to split the cache params evenly.
+    @Nullable private final List<Supplier<MemoryCacheParams>> mSegmentParamsSuppliers;
+    private final AtomicLong mLastSegmentedCacheParamsCheck;
+    // Size of the whole cache, including the exclusively owned items.
+    private final AtomicInteger mCount = new AtomicInteger();
+    private final AtomicInteger mSizeInBytes = new AtomicInteger();
+    // Size of the exclusively owned items of the whole cache.
+    private final AtomicInteger mEvictionQueueCount = new AtomicInteger();
+    private final AtomicInteger mEvictionQueueSizeInBytes = new AtomicInteger();
+    // Segment the next eviction pass starts with, so that the passes are spread evenly.
+    private final AtomicInteger mNextEvictedSegment = new AtomicInteger();
+    @Nullable private final Executor mEvictionExecutor;
+    private final AtomicBoolean mIsEvictionScheduled = new AtomicBoolean();
+    private final Runnable mEvictionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mIsEvictionScheduled.set(false);
+            maybeUpdateCacheParams();
+            maybeEvictEntries();
+        }
+    };
+
+    public SegmentedCountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier, int segmentCount) {
+        this(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier, segmentCount, new Supplier<EvictionPolicy<K>>() {
+            @Override
+            public EvictionPolicy<K> get() {
+                return new LruEvictionPolicy<>();
+            }
+        });
+    }
+
+    /**
+     * @param evictionPolicySupplier supplies a new eviction policy for each of the segments
+     */
+    public SegmentedCountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier, int segmentCount, Supplier<? extends EvictionPolicy<K>> evictionPolicySupplier) {
+        this(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier, segmentCount, evictionPolicySupplier, null);
+    }
+
+    /**
+     * @param evictionPolicySupplier supplies a new eviction policy for each of the segments
+     * @param evictionExecutor       executor the items are evicted on, or null to evict them right
+     *                               away on the thread that changed the cache
+     */
+    public SegmentedCountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier, int segmentCount, Supplier<? extends EvictionPolicy<K>> evictionPolicySupplier, @Nullable Executor
+            evictionExecutor) {
+        this(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier, segmentCount, null, null, evictionPolicySupplier, evictionExecutor);
+    }
+
+    /**
+     * @param partitioner            chooses the segment of each key, or null to choose it by the key
+     *                               hash
+     * @param segmentParamsSuppliers supply the budget of each segment, or null to split the cache
+     *                               params evenly between the segments
+     */
+    @SuppressWarnings("unchecked")
+    SegmentedCountingMemoryCache(ValueDescriptor<V> valueDescriptor, CacheTrimStrategy cacheTrimStrategy, Supplier<MemoryCacheParams>
+            memoryCacheParamsSupplier, int segmentCount, @Nullable MemoryCachePartitioner<K> partitioner, @Nullable
+            List<Supplier<MemoryCacheParams>> segmentParamsSuppliers, Supplier<? extends EvictionPolicy<K>> evictionPolicySupplier, @Nullable
+            Executor evictionExecutor) {
+        super(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier);
+        Preconditions.checkArgument(segmentCount > 0);
+        Preconditions.checkArgument(segmentParamsSuppliers == null || segmentParamsSuppliers.size() == segmentCount);
+        mPartitioner = partitioner;
+        mSegmentParamsSuppliers = segmentParamsSuppliers;
+        mEvictionExecutor = evictionExecutor;
+        mLastSegmentedCacheParamsCheck = new AtomicLong(SystemClock.elapsedRealtime());
+        mSegments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            mSegments[i] = new Segment<>(mEntryValueDescriptor, evictionPolicySupplier.get());
+        }
+        setCacheParams(mMemoryCacheParamsSupplier.get());
+    }
+
+    private void setCacheParams(MemoryCacheParams params) {
+        int segmentCount = mSegments.length;
+        if (mSegmentParamsSuppliers == null) {
+            MemoryCacheParams segmentParams = new MemoryCacheParams(params.maxCacheSize / segmentCount, Math.max(1, params.maxCacheEntries /
+                    segmentCount), params.maxEvictionQueueSize / segmentCount, Math.max(1, params.maxEvictionQueueEntries / segmentCount), params
+                    .maxCacheEntrySize);
+            for (Segment<K, V> segment : mSegments) {
+                segment.mCacheParams = segmentParams;
+            }
+        } else {
+            for (int i = 0; i < segmentCount; i++) {
+                mSegments[i].mCacheParams = mSegmentParamsSuppliers.get(i).get();
+            }
+        }
+        mSegmentedCacheParams = params;
+    }
+
+    /** Gets the segment responsible for the given key. */
+    private Segment<K, V> segmentFor(K key) {
+        if (mPartitioner != null) {
+            return mSegments[mPartitioner.getPartition(key)];
+        }
+        int hash = key.hashCode();
+        // spread the high bits, as the keys' hash codes are often poorly distributed in the low bits
+        hash ^= (hash >>> 16);
+        return mSegments[(hash & Integer.MAX_VALUE) % mSegments.length];
+    }
+
+    @Override
+    public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef, @Nullable final EntryStateObserver<K> observer) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(valueRef);
+        maybeUpdateCacheParams();
+        final Segment<K, V> segment = segmentFor(key);
+        Entry<K, V> oldExclusive;
+        CloseableReference<V> oldRefToClose = null;
+        CloseableReference<V> clientRef = null;
+        synchronized (segment) {
+            // remove the old item (if any) as it is stale now
+            oldExclusive = removeExclusive(segment, key);
+            Entry<K, V> oldEntry = removeCached(segment, key);
+            if (oldEntry != null) {
+                makeOrphan(oldEntry);
+                oldRefToClose = referenceToClose(oldEntry);
+            }
+            if (canCacheNewValue(segment, valueRef.get())) {
+                Entry<K, V> newEntry = newEntry(key, valueRef, observer);
+                putCached(segment, key, newEntry);
+                if (segment.mMissRatioCurveTracker != null) {
+                    segment.mMissRatioCurveTracker.recordAdd(key, mEntryValueDescriptor.getSizeInBytes(newEntry), segment.mCacheParams
+                            .maxCacheSize);
+                }
+                clientRef = newClientReference(segment, newEntry);
+            } else if (oldEntry != null && segment.mMissRatioCurveTracker != null) {
+                segment.mMissRatioCurveTracker.recordRemove(key);
+            }
+        }
+        CloseableReference.closeSafely(oldRefToClose);
+        maybeNotifyExclusiveEntryRemoval(oldExclusive);
+        maybeEvictEntriesOrScheduleEviction();
+        return clientRef;
+    }
+
+    /** Checks the cache constraints to determine whether the new value can be cached or not. */
+    private boolean canCacheNewValue(Segment<K, V> segment, V value) {
+        MemoryCacheParams params = mSegmentedCacheParams;
+        int newValueSize = mValueDescriptor.getSizeInBytes(value);
+        return (newValueSize <= params.maxCacheEntrySize) &&
+                (newValueSize <= segment.mCacheParams.maxCacheEntrySize) &&
+                (getInUseCount() <= params.maxCacheEntries - 1) &&
+                (getInUseSizeInBytes() <= params.maxCacheSize - newValueSize);
+    }
+
+    @Nullable
+    @Override
+    public CloseableReference<V> get(final K key) {
+        Preconditions.checkNotNull(key);
+        final Segment<K, V> segment = segmentFor(key);
+        Entry<K, V> oldExclusive;
+        CloseableReference<V> clientRef = null;
+        synchronized (segment) {
+            oldExclusive = removeExclusive(segment, key);
+            Entry<K, V> entry = segment.mCachedEntries.get(key);
+            if (entry != null) {
+                clientRef = newClientReference(segment, entry);
+            }
+            segment.mEvictionPolicy.onAccess(key, entry != null);
+            if (segment.mMissRatioCurveTracker != null) {
+                segment.mMissRatioCurveTracker.recordAccess(key, segment.mCacheParams.maxCacheSize);
+            }
+        }
+        maybeNotifyExclusiveEntryRemoval(oldExclusive);
+        maybeEvictEntriesOrScheduleEviction();
+        return clientRef;
+    }
+
+    /**
+     * Creates a new reference for the client, reusing a released one of the entry if possible.
+     * Must be called while holding the segment lock.
+     */
+    private CloseableReference<V> newClientReference(final Segment<K, V> segment, final Entry<K, V> entry) {
+        increaseClientCount(entry);
+        CloseableReference<V> clientRef = reuseClientReference(entry);
+        if (clientRef == null) {
+            ClientReference<K, V> clientReference = new ClientReference<K, V>(entry) {
+                @Override
+                public void release(V unused) {
+                    releaseClientReference(segment, this);
+                }
+            };
+            clientRef = CloseableReference.adopt(clientReference.sharedReference);
+        }
+        return clientRef;
+    }
+
+    /** Called when the client closes its reference. */
+    private void releaseClientReference(final Segment<K, V> segment, final ClientReference<K, V> clientReference) {
+        Preconditions.checkNotNull(clientReference);
+        final Entry<K, V> entry = clientReference.entry;
+        boolean isExclusiveAdded;
+        CloseableReference<V> oldRefToClose;
+        synchronized (segment) {
+            decreaseClientCount(entry);
+            recycleClientReference(clientReference);
+            isExclusiveAdded = maybeAddToExclusives(segment, entry);
+            oldRefToClose = referenceToClose(entry);
+        }
+        CloseableReference.closeSafely(oldRefToClose);
+        maybeNotifyExclusiveEntryInsertion(isExclusiveAdded ? entry : null);
+        maybeEvictEntriesOrScheduleEviction();
+    }
+
+    /** Adds the entry to the exclusively owned queue if it is viable for eviction. */
+    private boolean maybeAddToExclusives(Segment<K, V> segment, Entry<K, V> entry) {
+        if (!entry.isOrphan && entry.clientCount == 0) {
+            putExclusive(segment, entry.key, entry);
+            return true;
+        }
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public CloseableReference<V> reuse(K key) {
+        Preconditions.checkNotNull(key);
+        final Segment<K, V> segment = segmentFor(key);
+        CloseableReference<V> clientRef = null;
+        Entry<K, V> oldExclusive;
+        synchronized (segment) {
+            oldExclusive = removeExclusive(segment, key);
+            if (oldExclusive != null) {
+                Entry<K, V> entry = removeCached(segment, key);
+                Preconditions.checkNotNull(entry);
+                Preconditions.checkState(entry.clientCount == 0);
+                if (segment.mMissRatioCurveTracker != null) {
+                    segment.mMissRatioCurveTracker.recordRemove(key);
+                }
+                // optimization: instead of cloning and then closing the original reference,
+                // we just do a move
+                clientRef = entry.valueRef;
+            }
+        }
+        maybeNotifyExclusiveEntryRemoval(oldExclusive);
+        return clientRef;
+    }
+
+    @Override
+    public int removeAll(Predicate<K> predicate) {
+        int removedCount = 0;
+        for (Segment<K, V> segment : mSegments) {
+            ArrayList<Entry<K, V>> oldExclusives;
+            ArrayList<Entry<K, V>> oldEntries;
+            synchronized (segment) {
+                oldExclusives = removeAllExclusives(segment, predicate);
+                oldEntries = removeAllCached(segment, predicate);
+                makeOrphans(oldEntries);
+                if (segment.mMissRatioCurveTracker != null) {
+                    for (Entry<K, V> oldEntry : oldEntries) {
+                        segment.mMissRatioCurveTracker.recordRemove(oldEntry.key);
+                    }
+                }
+            }
+            maybeClose(segment, oldEntries);
+            maybeNotifyExclusiveEntryRemoval(oldExclusives);
+            removedCount += oldEntries.size();
+        }
+        maybeEvictEntriesOrScheduleEviction();
+        return removedCount;
+    }
+
+    @Override
+    public void clear() {
+        removeAll(null);
+    }
+
+    @Override
+    public boolean contains(Predicate<K> predicate) {
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                if (!segment.mCachedEntries.getMatchingEntries(predicate).isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void trim(MemoryTrimType trimType) {
+        maybeNotifyTrimObserver(trimType);
+        final double trimRatio = mCacheTrimStrategy.getTrimRatio(trimType);
+        for (Segment<K, V> segment : mSegments) {
+            ArrayList<Entry<K, V>> oldEntries;
+            synchronized (segment) {
+                int segmentInUseSize = segment.mCachedEntries.getSizeInBytes() - segment.mExclusiveEntries.getSizeInBytes();
+                int targetCacheSize = (int) (segment.mCachedEntries.getSizeInBytes() * (1 - trimRatio));
+                int targetEvictionQueueSize = Math.max(0, targetCacheSize - segmentInUseSize);
+                oldEntries = trimExclusivelyOwnedEntries(segment, Integer.MAX_VALUE, targetEvictionQueueSize);
+                makeOrphans(oldEntries);
+            }
+            maybeClose(segment, oldEntries);
+            maybeNotifyExclusiveEntryRemoval(oldEntries);
+        }
+        maybeUpdateCacheParams();
+        maybeEvictEntries();
+    }
+
+    /**
+     * Updates the cache params (constraints) if enough time has passed since the last update.
+     *
+     * <p> Only one of the racing threads gets to update the params, the others proceed with the
+     * current ones.
+     */
+    private void maybeUpdateCacheParams() {
+        long lastCheck = mLastSegmentedCacheParamsCheck.get();
+        long now = SystemClock.elapsedRealtime();
+        if (lastCheck + PARAMS_INTERCHECK_INTERVAL_MS > now || !mLastSegmentedCacheParamsCheck.compareAndSet(lastCheck, now)) {
+            return;
+        }
+        setCacheParams(mMemoryCacheParamsSupplier.get());
+    }
+
+    @Override
+    public void updateCacheParams() {
+        mLastSegmentedCacheParamsCheck.set(SystemClock.elapsedRealtime());
+        setCacheParams(mMemoryCacheParamsSupplier.get());
+        maybeEvictEntries();
+    }
+
+    /** Returns whether the exclusively owned items exceed the given limits. */
+    private boolean isEvictionQueueOverLimits(int maxCount, int maxSize) {
+        return mEvictionQueueCount.get() > maxCount || mEvictionQueueSizeInBytes.get() > maxSize;
+    }
+
+    /**
+     * Removes the exclusively owned items until the cache constraints are met.
+     *
+     * <p> This method invokes the external {@link CloseableReference#close} method,
+     * so it must not be called while holding any segment lock.
+     */
+    private void maybeEvictEntries() {
+        MemoryCacheParams params = mSegmentedCacheParams;
+        evictEntries(Math.min(params.maxEvictionQueueEntries, params.maxCacheEntries - getInUseCount()), Math.min(params
+                .maxEvictionQueueSize, params.maxCacheSize - getInUseSizeInBytes()));
+    }
+
+    /**
+     * Called after the cache content has changed. Evicts the items right away if there is no
+     * eviction executor. Otherwise only the items exceeding the max cache size are evicted right
+     * away, and the eviction down to the eviction queue limits is scheduled on the executor.
+     *
+     * <p> This method invokes the external {@link CloseableReference#close} method,
+     * so it must not be called while holding any segment lock.
+     */
+    private void maybeEvictEntriesOrScheduleEviction() {
+        maybeUpdateCacheParams();
+        if (mEvictionExecutor == null) {
+            maybeEvictEntries();
+            return;
+        }
+        MemoryCacheParams params = mSegmentedCacheParams;
+        evictEntries(params.maxCacheEntries - getInUseCount(), params.maxCacheSize - getInUseSizeInBytes());
+        boolean isEvictionNeeded = isEvictionQueueOverLimits(Math.min(params.maxEvictionQueueEntries, params.maxCacheEntries -
+                getInUseCount()), Math.min(params.maxEvictionQueueSize, params.maxCacheSize - getInUseSizeInBytes()));
+        if (isEvictionNeeded && mIsEvictionScheduled.compareAndSet(false, true)) {
+            mEvictionExecutor.execute(mEvictionRunnable);
+        }
+    }
+
+    /**
+     * Removes the exclusively owned items until there is at most <code>maxCount</code> of them
+     * and they occupy no more than <code>maxSize</code> bytes.
+     *
+     * <p> A segment may grow past its share while the cache has room, borrowing the capacity the
+     * other segments do not use. The first pass only takes back that borrowed capacity, so that
+     * the segments within their share keep their items. Only if that is not enough, the second
+     * pass trims the segments regardless of their share.
+     *
+     * <p> This method invokes the external {@link CloseableReference#close} method,
+     * so it must not be called while holding any segment lock.
+     */
+    private void evictEntries(int maxCount, int maxSize) {
+        // fast path without taking any lock if no eviction is necessary
+        if (!isEvictionQueueOverLimits(maxCount, maxSize)) {
+            return;
+        }
+        int firstSegment = (mNextEvictedSegment.getAndIncrement() & Integer.MAX_VALUE) % mSegments.length;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < mSegments.length && isEvictionQueueOverLimits(maxCount, maxSize); i++) {
+                Segment<K, V> segment = mSegments[(firstSegment + i) % mSegments.length];
+                ArrayList<Entry<K, V>> oldEntries;
+                synchronized (segment) {
+                    // only evict as much as the whole cache is over its limits
+                    int segmentMaxCount = segment.mExclusiveEntries.getCount() - (mEvictionQueueCount.get() - maxCount);
+                    int segmentMaxSize = segment.mExclusiveEntries.getSizeInBytes() - (mEvictionQueueSizeInBytes.get() - maxSize);
+                    if (pass == 0) {
+                        segmentMaxCount = Math.max(segmentMaxCount, getSegmentMaxEvictionQueueCount(segment, maxCount));
+                        segmentMaxSize = Math.max(segmentMaxSize, getSegmentMaxEvictionQueueSize(segment, maxSize));
+                    }
+                    oldEntries = trimExclusivelyOwnedEntries(segment, segmentMaxCount, segmentMaxSize);
+                    makeOrphans(oldEntries);
+                }
+                maybeClose(segment, oldEntries);
+                maybeNotifyExclusiveEntryRemoval(oldEntries);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of the exclusively owned items the segment is entitled to, given the limit of
+     * the whole cache. Must be called while holding the segment lock.
+     */
+    private int getSegmentMaxEvictionQueueCount(Segment<K, V> segment, int maxCount) {
+        if (mSegmentParamsSuppliers == null) {
+            return maxCount / mSegments.length;
+        }
+        MemoryCacheParams params = segment.mCacheParams;
+        int inUseCount = segment.mCachedEntries.getCount() - segment.mExclusiveEntries.getCount();
+        return Math.min(params.maxEvictionQueueEntries, params.maxCacheEntries - inUseCount);
+    }
+
+    /**
+     * Gets the size of the exclusively owned items the segment is entitled to, given the limit of
+     * the whole cache. Must be called while holding the segment lock.
+     */
+    private int getSegmentMaxEvictionQueueSize(Segment<K, V> segment, int maxSize) {
+        if (mSegmentParamsSuppliers == null) {
+            return maxSize / mSegments.length;
+        }
+        MemoryCacheParams params = segment.mCacheParams;
+        int inUseSize = segment.mCachedEntries.getSizeInBytes() - segment.mExclusiveEntries.getSizeInBytes();
+        return Math.min(params.maxEvictionQueueSize, params.maxCacheSize - inUseSize);
+    }
+
+    /**
+     * Removes the exclusively owned items of the segment until there is at most <code>count</code>
+     * of them and they occupy no more than <code>size</code> bytes.
+     *
+     * <p> Must be called while holding the segment lock. This method returns the removed items
+     * instead of actually closing them.
+     */
+    @Nullable
+    private ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(Segment<K, V> segment, int count, int size) {
+        count = Math.max(count, 0);
+        size = Math.max(size, 0);
+        CountingLruMap<K, Entry<K, V>> exclusiveEntries = segment.mExclusiveEntries;
+        // fast path without array allocation if no eviction is necessary
+        if (exclusiveEntries.getCount() <= count && exclusiveEntries.getSizeInBytes() <= size) {
+            return null;
+        }
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        while (exclusiveEntries.getCount() > count || exclusiveEntries.getSizeInBytes() > size) {
+            K key = segment.mEvictionPolicy.getNextToEvict(exclusiveEntries, segment.mCacheParams);
+            if (key == null || !exclusiveEntries.contains(key)) {
+                // fall back to the LRU order if the policy failed to choose a viable item
+                key = exclusiveEntries.getFirstKey();
+            }
+            removeExclusive(segment, key);
+            oldEntries.add(removeCached(segment, key));
+        }
+        return oldEntries;
+    }
+
+    /**
+     * Notifies the client that the cache no longer tracks the given items.
+     *
+     * <p> This method invokes the external {@link CloseableReference#close} method,
+     * so it must not be called while holding any segment lock.
+     */
+    private void maybeClose(Segment<K, V> segment, @Nullable ArrayList<Entry<K, V>> oldEntries) {
+        if (oldEntries != null) {
+            for (Entry<K, V> oldEntry : oldEntries) {
+                CloseableReference<V> oldRefToClose;
+                synchronized (segment) {
+                    oldRefToClose = referenceToClose(oldEntry);
+                }
+                CloseableReference.closeSafely(oldRefToClose);
+            }
+        }
+    }
+
+    /** Marks the given entries as orphans. Must be called while holding the segment lock. */
+    private void makeOrphans(@Nullable ArrayList<Entry<K, V>> oldEntries) {
+        if (oldEntries != null) {
+            for (Entry<K, V> oldEntry : oldEntries) {
+                makeOrphan(oldEntry);
+            }
+        }
+    }
+
+    /** Adds a new item to the segment. Must be called while holding the segment lock. */
+    private void putCached(Segment<K, V> segment, K key, Entry<K, V> entry) {
+        Preconditions.checkState(segment.mCachedEntries.put(key, entry) == null);
+        onAdded(entry, mCount, mSizeInBytes);
+        segment.mEvictionPolicy.onAdd(key, mEntryValueDescriptor.getSizeInBytes(entry), entry.decodeTimeMs, entry.source);
+    }
+
+    @Nullable
+    private Entry<K, V> removeCached(Segment<K, V> segment, K key) {
+        Entry<K, V> oldEntry = segment.mCachedEntries.remove(key);
+        if (oldEntry != null) {
+            onRemoved(oldEntry, mCount, mSizeInBytes);
+            segment.mEvictionPolicy.onRemove(key);
+        }
+        return oldEntry;
+    }
+
+    private ArrayList<Entry<K, V>> removeAllCached(Segment<K, V> segment, @Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = segment.mCachedEntries.removeAll(predicate);
+        for (Entry<K, V> oldEntry : oldEntries) {
+            onRemoved(oldEntry, mCount, mSizeInBytes);
+            segment.mEvictionPolicy.onRemove(oldEntry.key);
+        }
+        return oldEntries;
+    }
+
+    @Nullable
+    private Entry<K, V> putExclusive(Segment<K, V> segment, K key, Entry<K, V> entry) {
+        Entry<K, V> oldEntry = segment.mExclusiveEntries.put(key, entry);
+        segment.mEvictionPolicy.onExclusivityChanged(key, true);
+        onAdded(entry, mEvictionQueueCount, mEvictionQueueSizeInBytes);
+        onRemoved(oldEntry, mEvictionQueueCount, mEvictionQueueSizeInBytes);
+        return oldEntry;
+    }
+
+    @Nullable
+    private Entry<K, V> removeExclusive(Segment<K, V> segment, K key) {
+        Entry<K, V> oldEntry = segment.mExclusiveEntries.remove(key);
+        if (oldEntry != null) {
+            segment.mEvictionPolicy.onExclusivityChanged(key, false);
+        }
+        onRemoved(oldEntry, mEvictionQueueCount, mEvictionQueueSizeInBytes);
+        return oldEntry;
+    }
+
+    private ArrayList<Entry<K, V>> removeAllExclusives(Segment<K, V> segment, @Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = segment.mExclusiveEntries.removeAll(predicate);
+        for (Entry<K, V> oldEntry : oldEntries) {
+            onRemoved(oldEntry, mEvictionQueueCount, mEvictionQueueSizeInBytes);
+        }
+        return oldEntries;
+    }
+
+    private void onAdded(@Nullable Entry<K, V> entry, AtomicInteger count, AtomicInteger sizeInBytes) {
+        if (entry != null) {
+            count.incrementAndGet();
+            sizeInBytes.addAndGet(mEntryValueDescriptor.getSizeInBytes(entry));
+        }
+    }
+
+    private void onRemoved(@Nullable Entry<K, V> entry, AtomicInteger count, AtomicInteger sizeInBytes) {
+        if (entry != null) {
+            count.decrementAndGet();
+            sizeInBytes.addAndGet(-mEntryValueDescriptor.getSizeInBytes(entry));
+        }
+    }
+
+    @Override
+    MemoryCacheParams getMemoryCacheParams() {
+        return mSegmentedCacheParams;
+    }
+
+    @Override
+    void forEachCachedEntry(EntryVisitor<K, V> visitor) {
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                for (LinkedHashMap.Entry<K, Entry<K, V>> cachedEntry : segment.mCachedEntries.getMatchingEntries(null)) {
+                    visitor.visit(cachedEntry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The recency is only known within each segment, so the exclusively owned items of the
+     * segments are interleaved.
+     */
+    @Override
+    public List<K> getMostRecentlyUsedKeys(int maxCount) {
+        ArrayList<K> keys = new ArrayList<>();
+        List<List<K>> segmentsExclusiveKeys = new ArrayList<>(mSegments.length);
+        for (Segment<K, V> segment : mSegments) {
+            ArrayList<K> exclusiveKeys = new ArrayList<>();
+            synchronized (segment) {
+                collectMostRecentlyUsedKeys(segment.mCachedEntries, segment.mExclusiveEntries, keys, exclusiveKeys);
+            }
+            segmentsExclusiveKeys.add(exclusiveKeys);
+        }
+        for (int i = 0; keys.size() < maxCount; i++) {
+            boolean isAnyLeft = false;
+            for (List<K> exclusiveKeys : segmentsExclusiveKeys) {
+                if (i < exclusiveKeys.size() && keys.size() < maxCount) {
+                    keys.add(exclusiveKeys.get(i));
+                    isAnyLeft = true;
+                }
+            }
+            if (!isAnyLeft) {
+                break;
+            }
+        }
+        return (keys.size() > maxCount) ? new ArrayList<>(keys.subList(0, maxCount)) : keys;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> Each segment estimates the hit rates for its own share of the cache size.
+     */
+    @Override
+    public void setMissRatioCurveTrackingEnabled(boolean enabled) {
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                if (!enabled) {
+                    segment.mMissRatioCurveTracker = null;
+                } else if (segment.mMissRatioCurveTracker == null) {
+                    segment.mMissRatioCurveTracker = new MissRatioCurveTracker<>();
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public MissRatioCurve getMissRatioCurve() {
+        List<MissRatioCurve> curves = new ArrayList<>(mSegments.length);
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                if (segment.mMissRatioCurveTracker == null) {
+                    return null;
+                }
+                curves.add(segment.mMissRatioCurveTracker.getMissRatioCurve());
+            }
+        }
+        return MissRatioCurve.merge(curves);
+    }
+
+    /** Gets the number of the segments. */
+    public int getSegmentCount() {
+        return mSegments.length;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount.get();
+    }
+
+    @Override
+    public int getSizeInBytes() {
+        return mSizeInBytes.get();
+    }
+
+    @Override
+    public int getInUseCount() {
+        return mCount.get() - mEvictionQueueCount.get();
+    }
+
+    @Override
+    public int getInUseSizeInBytes() {
+        return mSizeInBytes.get() - mEvictionQueueSizeInBytes.get();
+    }
+
+    @Override
+    public int getEvictionQueueCount() {
+        return mEvictionQueueCount.get();
+    }
+
+    @Override
+    public int getEvictionQueueSizeInBytes() {
+        return mEvictionQueueSizeInBytes.get();
+    }
+
+    /**
+     * A part of the cache with its own lock. Its state is guarded by the segment itself.
+     */
+    @VisibleForTesting
+    static class Segment<K, V> {
+        // Contains the items of this segment that are not being used by any client.
+        @GuardedBy("this") final CountingLruMap<K, Entry<K, V>> mExclusiveEntries;
+        // Contains all the items of this segment including the exclusively owned ones.
+        @GuardedBy("this") final CountingLruMap<K, Entry<K, V>> mCachedEntries;
+        @GuardedBy("this") final EvictionPolicy<K> mEvictionPolicy;
+        // Budget of this segment.
+        volatile MemoryCacheParams mCacheParams;
+        // Estimates the hit rates of this segment at other sizes, or null if not enabled.
+        @GuardedBy("this") @Nullable MissRatioCurveTracker<K> mMissRatioCurveTracker;
+
+        Segment(ValueDescriptor<Entry<K, V>> entryValueDescriptor, EvictionPolicy<K> evictionPolicy) {
+            mExclusiveEntries = new CountingLruMap<>(entryValueDescriptor);
+            mCachedEntries = new CountingLruMap<>(entryValueDescriptor);
+            mEvictionPolicy = Preconditions.checkNotNull(evictionPolicy);
+        }
+    }
+}
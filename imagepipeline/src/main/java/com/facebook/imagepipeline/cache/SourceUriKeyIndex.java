@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+
+import javax.annotation.Nullable;
+
+/**
+ * Indexes the memory cache keys by the source uri of their images.
+ *
+ * <p> Only the bitmap memory cache keys are indexed, by {@link
+ * BitmapMemoryCacheKey#getSourceUriString}. The other keys, such as the encoded memory cache keys,
+ * are never matched, as their string value need not be the source uri.
+ */
+public class SourceUriKeyIndex implements KeyIndex<CacheKey> {
+    private static final SourceUriKeyIndex sInstance = new SourceUriKeyIndex();
+
+    private SourceUriKeyIndex() {
+    }
+
+    public static SourceUriKeyIndex getInstance() {
+        return sInstance;
+    }
+
+    /** Gets the predicate matching the keys of the images with the given source uri. */
+    public static IndexedPredicate<CacheKey> predicateForSourceUri(String sourceUriString) {
+        return new IndexedPredicate<CacheKey>(sInstance, sourceUriString);
+    }
+
+    @Nullable
+    @Override
+    public String getIndexValue(CacheKey key) {
+        if (key instanceof BitmapMemoryCacheKey) {
+            return ((BitmapMemoryCacheKey) key).getSourceUriString();
+        }
+        return null;
+    }
+}
@@ -15,24 +15,28 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * This is class encapsulates Map that maps ImageCacheKeys to EncodedImages pointing to
  * PooledByteBuffers. It is used by SimpleImageCache to store values that are being written
  * to disk cache, so that they can be returned by parallel cache get operations.
+ *
+ * <p> The map is concurrent, so the reads of the staging area do not wait for each other nor for
+ * the writes. An entry is only closed once it was taken out of the map, and a get that races with
+ * its removal fails to clone it, rather than returning a closed image.
  */
+@ThreadSafe
 public class StagingArea {
     private static final Class<?> TAG = StagingArea.class;
-    @GuardedBy("this") private Map<CacheKey, EncodedImage> mMap;
+    private final ConcurrentMap<CacheKey, EncodedImage> mMap;
 
     private StagingArea() {
-        mMap = new HashMap<>();
+        mMap = new ConcurrentHashMap<>();
     }
 
     public static StagingArea getInstance() {
@@ -45,7 +49,7 @@ public class StagingArea {
      *
      * @param encodedImage EncodedImage to be associated with key
      */
-    public synchronized void put(final CacheKey key, final EncodedImage encodedImage) {
+    public void put(final CacheKey key, final EncodedImage encodedImage) {
         Preconditions.checkNotNull(key);
         Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
         // we're making a 'copy' of this reference - so duplicate it
@@ -58,15 +62,9 @@ public class StagingArea {
      * Removes all items from the StagingArea.
      */
     public void clearAll() {
-        final List<EncodedImage> old;
-        synchronized (this) {
-            old = new ArrayList<>(mMap.values());
-            mMap.clear();
-        }
-        for (int i = 0; i < old.size(); i++) {
-            EncodedImage encodedImage = old.get(i);
-            if (encodedImage != null) {
-                encodedImage.close();
+        for (Map.Entry<CacheKey, EncodedImage> entry : mMap.entrySet()) {
+            if (mMap.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
             }
         }
     }
@@ -78,10 +76,7 @@ public class StagingArea {
      */
     public boolean remove(final CacheKey key) {
         Preconditions.checkNotNull(key);
-        final EncodedImage encodedImage;
-        synchronized (this) {
-            encodedImage = mMap.remove(key);
-        }
+        final EncodedImage encodedImage = mMap.remove(key);
         if (encodedImage == null) {
             return false;
         }
@@ -98,7 +93,7 @@ public class StagingArea {
      * @param encodedImage value corresponding to key
      * @return true if item was removed
      */
-    public synchronized boolean remove(final CacheKey key, final EncodedImage encodedImage) {
+    public boolean remove(final CacheKey key, final EncodedImage encodedImage) {
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(encodedImage);
         Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
@@ -109,15 +104,15 @@ public class StagingArea {
         CloseableReference<PooledByteBuffer> oldRef = oldValue.getByteBufferRef();
         CloseableReference<PooledByteBuffer> ref = encodedImage.getByteBufferRef();
         try {
-            if (oldRef == null || ref == null || oldRef.get() != ref.get()) {
+            // the value might have been replaced since, in which case it is left alone
+            if (oldRef == null || ref == null || oldRef.get() != ref.get() || !mMap.remove(key, oldValue)) {
                 return false;
             }
-            mMap.remove(key);
         } finally {
             CloseableReference.closeSafely(ref);
             CloseableReference.closeSafely(oldRef);
-            EncodedImage.closeSafely(oldValue);
         }
+        oldValue.close();
         logStats();
         return true;
     }
@@ -125,29 +120,31 @@ public class StagingArea {
     /**
      * @return value associated with given key or null if no value is associated
      */
-    public synchronized EncodedImage get(final CacheKey key) {
+    public EncodedImage get(final CacheKey key) {
         Preconditions.checkNotNull(key);
         EncodedImage storedEncodedImage = mMap.get(key);
-        if (storedEncodedImage != null) {
-            synchronized (storedEncodedImage) {
-                if (!EncodedImage.isValid(storedEncodedImage)) {
-                    // Reference is not valid, this means that someone cleared reference while it was still in
-                    // use. Log error
-                    // TODO: 3697790
-                    mMap.remove(key);
-                    FLog.w(TAG, "Found closed reference %d for key %s (%d)", System.identityHashCode(storedEncodedImage), key.toString(), System.identityHashCode(key));
-                    return null;
-                }
-                storedEncodedImage = EncodedImage.cloneOrNull(storedEncodedImage);
+        if (storedEncodedImage == null) {
+            return null;
+        }
+        // cloning a closed reference fails atomically
+        EncodedImage encodedImage = EncodedImage.cloneOrNull(storedEncodedImage);
+        if (encodedImage == null) {
+            if (mMap.remove(key, storedEncodedImage)) {
+                // Reference is not valid, this means that someone cleared reference while it was still in
+                // use. Log error
+                // TODO: 3697790
+                FLog.w(TAG, "Found closed reference %d for key %s (%d)", System.identityHashCode(storedEncodedImage), key.toString(), System.identityHashCode(key));
             }
+            // otherwise it was removed, and closed, concurrently
+            return null;
         }
-        return storedEncodedImage;
+        return encodedImage;
     }
 
     /**
      * Simple 'debug' logging of stats.
      */
-    private synchronized void logStats() {
+    private void logStats() {
         FLog.v(TAG, "Count = %d", mMap.size());
     }
 }
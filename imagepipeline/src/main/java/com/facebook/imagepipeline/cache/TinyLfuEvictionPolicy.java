@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.image.ImageSource;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * W-TinyLFU eviction policy for the {@link CountingMemoryCache}.
+ *
+ * <p> The newly added items enter a small LRU admission window. The rest of the cache is a
+ * segmented LRU: the items that leave the window land in the probation segment, and get promoted
+ * to the protected segment once they are hit again. Once the main segments are full, the window's
+ * LRU item (the candidate) competes with the probation's LRU item (the victim): a
+ * {@link FrequencySketch} of the recent accesses decides which of them is more likely to be
+ * requested again, and the other one is evicted.
+ *
+ * <p> This makes the cache resistant to scans, such as a burst of prefetches or a long fling
+ * through a feed, which would otherwise push the frequently reused items out of an LRU cache.
+ *
+ * <p> Only the exclusively owned items are considered for eviction: the segment queues hold just
+ * those, while the items in use are tracked aside until they are released, so that picking the
+ * next item to evict never has to skip over them.
+ */
+@NotThreadSafe
+public class TinyLfuEvictionPolicy<K> implements CountingMemoryCache.EvictionPolicy<K> {
+    private static final float DEFAULT_WINDOW_RATIO = 0.01f;
+    private static final float PROTECTED_RATIO = 0.8f;
+    // Upper bound of the items tracked by the sketch, as caches bound only by size may allow
+    // virtually unlimited entries.
+    private static final int MAX_SKETCH_CAPACITY = 1 << 12;
+    private static final int DEFAULT_SKETCH_CAPACITY = 256;
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private final float mWindowRatio;
+    private final FrequencySketch<K> mSketch;
+    // All the tracked items, whether in use or not.
+    private final Map<K, Node> mNodes = new HashMap<>();
+    // The exclusively owned items of each segment, in LRU order.
+    @VisibleForTesting final LinkedHashMap<K, Node> mWindow = new LinkedHashMap<>();
+    @VisibleForTesting final LinkedHashMap<K, Node> mProbation = new LinkedHashMap<>();
+    @VisibleForTesting final LinkedHashMap<K, Node> mProtected = new LinkedHashMap<>();
+    // The sizes of the segments, including their items in use.
+    private final int[] mSegmentSizesInBytes = new int[3];
+
+    public TinyLfuEvictionPolicy() {
+        this(DEFAULT_WINDOW_RATIO);
+    }
+
+    /**
+     * @param windowRatio the fraction of the max cache size dedicated to the admission window
+     */
+    public TinyLfuEvictionPolicy(float windowRatio) {
+        Preconditions.checkArgument(windowRatio >= 0 && windowRatio <= 1);
+        mWindowRatio = windowRatio;
+        mSketch = new FrequencySketch<>(DEFAULT_SKETCH_CAPACITY);
+    }
+
+    @Override
+    public void onAccess(K key, boolean isHit) {
+        mSketch.increment(key);
+        Node node = isHit ? mNodes.get(key) : null;
+        if (node == null) {
+            return;
+        }
+        // the items of the main segments proved to be reused, so they are promoted to (or refreshed
+        // in) the protected segment
+        moveTo(key, node, (node.segment == WINDOW) ? WINDOW : PROTECTED);
+    }
+
+    @Override
+    public void onAdd(K key, int sizeInBytes, long decodeTimeMs, ImageSource source) {
+        onRemove(key);
+        mNodes.put(key, new Node(sizeInBytes));
+        mSegmentSizesInBytes[WINDOW] += sizeInBytes;
+    }
+
+    @Override
+    public void onExclusivityChanged(K key, boolean isExclusive) {
+        Node node = mNodes.get(key);
+        if (node == null || node.isExclusive == isExclusive) {
+            return;
+        }
+        node.isExclusive = isExclusive;
+        if (isExclusive) {
+            getQueue(node.segment).put(key, node);
+        } else {
+            getQueue(node.segment).remove(key);
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Node node = mNodes.remove(key);
+        if (node != null) {
+            mSegmentSizesInBytes[node.segment] -= node.sizeInBytes;
+            getQueue(node.segment).remove(key);
+        }
+    }
+
+    @Nullable
+    @Override
+    public K getNextToEvict(CountingLruMap<K, ?> exclusiveEntries, MemoryCacheParams params) {
+        mSketch.ensureCapacity(Math.min(params.maxCacheEntries, MAX_SKETCH_CAPACITY));
+        int maxWindowSize = (int) (params.maxCacheSize * mWindowRatio);
+        int maxMainSize = params.maxCacheSize - maxWindowSize;
+        // demote the LRU items of the protected segment to the probation one, until it fits the budget
+        while (mSegmentSizesInBytes[PROTECTED] > maxMainSize * PROTECTED_RATIO && !mProtected.isEmpty()) {
+            K key = getFirstKey(mProtected);
+            moveTo(key, mProtected.get(key), PROBATION);
+        }
+        // the items leaving the window are admitted for free as long as the main segments have room
+        while (mSegmentSizesInBytes[WINDOW] > maxWindowSize && !mWindow.isEmpty()) {
+            K key = getFirstKey(mWindow);
+            Node node = mWindow.get(key);
+            if (mSegmentSizesInBytes[PROBATION] + mSegmentSizesInBytes[PROTECTED] + node.sizeInBytes > maxMainSize) {
+                break;
+            }
+            moveTo(key, node, PROBATION);
+        }
+        K candidate = (mSegmentSizesInBytes[WINDOW] > maxWindowSize) ? getFirstKey(mWindow) : null;
+        K victim = getFirstKey(mProbation);
+        if (victim == null) {
+            victim = getFirstKey(mProtected);
+        }
+        if (candidate == null) {
+            return (victim != null) ? victim : getFirstKey(mWindow);
+        }
+        if (victim == null) {
+            return candidate;
+        }
+        if (mSketch.frequency(candidate) > mSketch.frequency(victim)) {
+            // the candidate is admitted to the main segments at the expense of the victim
+            moveTo(candidate, mWindow.get(candidate), PROBATION);
+            return victim;
+        }
+        return candidate;
+    }
+
+    /** Moves the item to the most recently used end of the given segment. */
+    private void moveTo(K key, Node node, int segment) {
+        mSegmentSizesInBytes[node.segment] -= node.sizeInBytes;
+        mSegmentSizesInBytes[segment] += node.sizeInBytes;
+        if (node.isExclusive) {
+            getQueue(node.segment).remove(key);
+            getQueue(segment).put(key, node);
+        }
+        node.segment = segment;
+    }
+
+    private LinkedHashMap<K, Node> getQueue(int segment) {
+        switch (segment) {
+            case WINDOW:
+                return mWindow;
+            case PROBATION:
+                return mProbation;
+            default:
+                return mProtected;
+        }
+    }
+
+    @Nullable
+    private static <K> K getFirstKey(LinkedHashMap<K, ?> queue) {
+        return queue.isEmpty() ? null : queue.keySet().iterator().next();
+    }
+
+    static class Node {
+        final int sizeInBytes;
+        int segment = WINDOW;
+        boolean isExclusive;
+
+        Node(int sizeInBytes) {
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+}
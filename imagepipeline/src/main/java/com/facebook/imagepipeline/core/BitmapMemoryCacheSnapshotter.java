@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.core;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.imagepipeline.cache.AbstractCountingMemoryCache;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Persists the keys of the most recently used items of the bitmap memory cache, so that they can
+ * be prefetched again after the process gets restarted.
+ *
+ * <p> The snapshot is written each time the cache is about to be trimmed, which includes the app
+ * going to the background, from where the process may be killed at any time. On the next startup,
+ * {@link #replay} submits the snapshot as low priority prefetches that may only be served by the
+ * disk caches, so that the images shown right before the process died get decoded before the UI
+ * asks for them.
+ *
+ * <p> The requests are rebuilt from the {@link BitmapMemoryCacheKey}s, which assumes that the
+ * source uri of a key is the uri of its request, as with the {@link
+ * com.facebook.imagepipeline.cache.DefaultCacheKeyFactory}. The postprocessed items and the items
+ * of tagged memory cache partitions, whose caller context cannot be rebuilt, are not persisted.
+ */
+@ThreadSafe
+public class BitmapMemoryCacheSnapshotter implements CountingMemoryCache.TrimObserver {
+    private static final Class<?> TAG = BitmapMemoryCacheSnapshotter.class;
+    public static final int DEFAULT_MAX_SNAPSHOT_SIZE = 100;
+    @VisibleForTesting static final int SNAPSHOT_VERSION = 1;
+    // Longer uris, such as the data uris, are not worth persisting.
+    @VisibleForTesting static final int MAX_SOURCE_URI_LENGTH = 2048;
+    private static final int NO_RESIZE = -1;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private final AbstractCountingMemoryCache<CacheKey, ?> mCache;
+    private final File mSnapshotFile;
+    private final int mMaxSnapshotSize;
+    private final Executor mExecutor;
+
+    /**
+     * @param snapshotFile    file the snapshot is persisted to
+     * @param maxSnapshotSize max number of the items in the snapshot
+     * @param executor        executor the snapshot is written and read on
+     */
+    public BitmapMemoryCacheSnapshotter(AbstractCountingMemoryCache<CacheKey, ?> cache, File snapshotFile, int maxSnapshotSize, Executor executor) {
+        Preconditions.checkArgument(maxSnapshotSize > 0);
+        mCache = Preconditions.checkNotNull(cache);
+        mSnapshotFile = Preconditions.checkNotNull(snapshotFile);
+        mMaxSnapshotSize = maxSnapshotSize;
+        mExecutor = Preconditions.checkNotNull(executor);
+    }
+
+    @Override
+    public void onTrim(MemoryTrimType trimType) {
+        final List<CacheKey> keys = mCache.getMostRecentlyUsedKeys(mMaxSnapshotSize);
+        // a trim that follows another one finds the cache (almost) empty, and should not overwrite
+        // the snapshot of the previous one
+        if (keys.isEmpty()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshot(keys);
+            }
+        });
+    }
+
+    /**
+     * Prefetches the items of the last snapshot, if any, to the bitmap memory cache. Only the items
+     * still in the disk caches are fetched.
+     */
+    public void replay(final ImagePipeline imagePipeline) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ImageRequest imageRequest : readSnapshot()) {
+                    imagePipeline.prefetchToBitmapCache(imageRequest, null);
+                }
+            }
+        });
+    }
+
+    /** Writes the snapshot to a temporary file first, so that a process death cannot corrupt it. */
+    @VisibleForTesting
+    synchronized void writeSnapshot(List<CacheKey> keys) {
+        File tempFile = new File(mSnapshotFile.getPath() + TEMP_FILE_SUFFIX);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                writeSnapshot(keys, out);
+            } finally {
+                Closeables.close(out, false);
+            }
+            if (!tempFile.renameTo(mSnapshotFile)) {
+                FLog.w(TAG, "Failed to rename the bitmap memory cache snapshot to %s", mSnapshotFile.getPath());
+            }
+        } catch (IOException ioe) {
+            FLog.w(TAG, ioe, "Failed to write the bitmap memory cache snapshot to %s", tempFile.getPath());
+        }
+    }
+
+    /** Reads the requests of the last snapshot, or returns an empty list if there is none. */
+    @VisibleForTesting
+    synchronized List<ImageRequest> readSnapshot() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSnapshotFile)));
+            try {
+                return readSnapshot(in);
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+        } catch (FileNotFoundException fnfe) {
+            return new ArrayList<>();
+        } catch (IOException ioe) {
+            FLog.w(TAG, ioe, "Failed to read the bitmap memory cache snapshot from %s", mSnapshotFile.getPath());
+            return new ArrayList<>();
+        }
+    }
+
+    @VisibleForTesting
+    static void writeSnapshot(List<CacheKey> keys, DataOutputStream out) throws IOException {
+        List<BitmapMemoryCacheKey> persistedKeys = new ArrayList<>(keys.size());
+        for (CacheKey key : keys) {
+            if (key instanceof BitmapMemoryCacheKey) {
+                BitmapMemoryCacheKey bitmapKey = (BitmapMemoryCacheKey) key;
+                if (bitmapKey.getPostprocessorName() == null && bitmapKey.getPartitionTag() == null && bitmapKey.getSourceUriString()
+                        .length() <= MAX_SOURCE_URI_LENGTH) {
+                    persistedKeys.add(bitmapKey);
+                }
+            }
+        }
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(persistedKeys.size());
+        for (BitmapMemoryCacheKey key : persistedKeys) {
+            out.writeUTF(key.getSourceUriString());
+            ResizeOptions resizeOptions = key.getResizeOptions();
+            out.writeInt((resizeOptions != null) ? resizeOptions.width : NO_RESIZE);
+            out.writeInt((resizeOptions != null) ? resizeOptions.height : NO_RESIZE);
+            out.writeBoolean(key.isAutoRotated());
+            out.writeBoolean(key.getImageType() == ImageRequest.ImageType.SMALL);
+            ImageDecodeOptions decodeOptions = key.getImageDecodeOptions();
+            out.writeInt(decodeOptions.minDecodeIntervalMs);
+            out.writeInt(decodeOptions.backgroundColor);
+            out.writeBoolean(decodeOptions.forceOldAnimationCode);
+            out.writeBoolean(decodeOptions.decodePreviewFrame);
+            out.writeBoolean(decodeOptions.useLastFrameForPreview);
+            out.writeBoolean(decodeOptions.decodeAllFrames);
+        }
+    }
+
+    @VisibleForTesting
+    static List<ImageRequest> readSnapshot(DataInputStream in) throws IOException {
+        List<ImageRequest> imageRequests = new ArrayList<>();
+        if (in.readInt() != SNAPSHOT_VERSION) {
+            return imageRequests;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String sourceUri = in.readUTF();
+            int width = in.readInt();
+            int height = in.readInt();
+            boolean isAutoRotated = in.readBoolean();
+            boolean isSmall = in.readBoolean();
+            ImageDecodeOptions decodeOptions = ImageDecodeOptions.newBuilder().setMinDecodeIntervalMs(in.readInt()).setBackgroundColor(in
+                    .readInt()).setForceOldAnimationCode(in.readBoolean()).setDecodePreviewFrame(in.readBoolean()).setUseLastFrameForPreview(in
+                    .readBoolean()).setDecodeAllFrames(in.readBoolean()).build();
+            try {
+                imageRequests.add(ImageRequestBuilder.newBuilderWithSource(Uri.parse(sourceUri)).setResizeOptions((width != NO_RESIZE) ? new
+                        ResizeOptions(width, height) : null).setAutoRotateEnabled(isAutoRotated).setImageType(isSmall ? ImageRequest.ImageType
+                        .SMALL : ImageRequest.ImageType.DEFAULT).setImageDecodeOptions(decodeOptions).setLowestPermittedRequestLevel(ImageRequest
+                        .RequestLevel.DISK_CACHE).build());
+            } catch (ImageRequestBuilder.BuilderException be) {
+                FLog.w(TAG, be, "Skipping the invalid snapshot item %s", sourceUri);
+            }
+        }
+        return imageRequests;
+    }
+}
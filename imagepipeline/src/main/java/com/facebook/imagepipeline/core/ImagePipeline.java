@@ -18,10 +18,12 @@ import com.facebook.common.util.UriUtil;
 import com.facebook.datasource.DataSource;
 import com.facebook.datasource.DataSources;
 import com.facebook.datasource.SimpleDataSource;
-import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactoryUtil;
+import com.facebook.imagepipeline.cache.CacheKeyStringIndex;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.SourceUriKeyIndex;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.datasource.CloseableProducerToDataSourceAdapter;
 import com.facebook.imagepipeline.datasource.ProducerToDataSourceAdapter;
@@ -37,10 +39,15 @@ import com.facebook.imagepipeline.request.ImageRequestBuilder;
 
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import bolts.Continuation;
@@ -244,12 +251,7 @@ public class ImagePipeline {
         Predicate<CacheKey> bitmapCachePredicate = predicateForUri(uri);
         mBitmapMemoryCache.removeAll(bitmapCachePredicate);
         final String cacheKeySourceString = mCacheKeyFactory.getCacheKeySourceUri(uri).toString();
-        Predicate<CacheKey> encodedCachePredicate = new Predicate<CacheKey>() {
-            @Override
-            public boolean apply(CacheKey key) {
-                return key.toString().equals(cacheKeySourceString);
-            }
-        };
+        Predicate<CacheKey> encodedCachePredicate = CacheKeyStringIndex.predicateForKeyString(cacheKeySourceString);
         mEncodedMemoryCache.removeAll(encodedCachePredicate);
     }
 
@@ -332,11 +334,25 @@ public class ImagePipeline {
     /**
      * Returns whether the image is stored in the bitmap memory cache.
      *
+     * <p>Images requested by a {@link com.facebook.imagepipeline.cache.MemoryCachePartitionTagged}
+     * caller context are only found by {@link #isInBitmapMemoryCache(ImageRequest, Object)}.
+     *
      * @param imageRequest the imageRequest for the image to be looked up.
      * @return true if the image was found in the bitmap memory cache, false otherwise.
      */
     public boolean isInBitmapMemoryCache(final ImageRequest imageRequest) {
-        final CacheKey cacheKey = mCacheKeyFactory.getBitmapCacheKey(imageRequest);
+        return isInBitmapMemoryCache(imageRequest, null);
+    }
+
+    /**
+     * Returns whether the image is stored in the bitmap memory cache.
+     *
+     * @param imageRequest  the imageRequest for the image to be looked up.
+     * @param callerContext the caller context the image was requested with.
+     * @return true if the image was found in the bitmap memory cache, false otherwise.
+     */
+    public boolean isInBitmapMemoryCache(final ImageRequest imageRequest, @Nullable final Object callerContext) {
+        final CacheKey cacheKey = CacheKeyFactoryUtil.getBitmapCacheKey(mCacheKeyFactory, imageRequest, callerContext);
         CloseableReference<CloseableImage> ref = mBitmapMemoryCache.get(cacheKey);
         try {
             return CloseableReference.isValid(ref);
@@ -386,6 +402,65 @@ public class ImagePipeline {
         return dataSource;
     }
 
+    /**
+     * Returns which of the images are stored in the disk cache, looking them all up at once: the
+     * misses the disk caches can rule out right away are answered without going to disk, and the
+     * rest is checked in a single background task per disk cache. Meant for deciding what to load
+     * for a whole page of upcoming items.
+     *
+     * @param imageRequests the requests for the images to be looked up.
+     * @return for each request in turn, true if the image was found in the disk cache, false
+     * otherwise.
+     */
+    public DataSource<List<Boolean>> areInDiskCache(final List<ImageRequest> imageRequests) {
+        final List<CacheKey> cacheKeys = new ArrayList<>(imageRequests.size());
+        for (ImageRequest imageRequest : imageRequests) {
+            cacheKeys.add(mCacheKeyFactory.getEncodedCacheKey(imageRequest));
+        }
+        final SimpleDataSource<List<Boolean>> dataSource = SimpleDataSource.create();
+        mMainBufferedDiskCache.findCachedKeys(cacheKeys).continueWithTask(new Continuation<Set<CacheKey>, Task<Set<CacheKey>>>() {
+            @Override
+            public Task<Set<CacheKey>> then(Task<Set<CacheKey>> task) throws Exception {
+                final Set<CacheKey> cachedKeys = isSuccessful(task) ? task.getResult() : new HashSet<CacheKey>();
+                List<CacheKey> otherKeys = new ArrayList<>();
+                for (CacheKey cacheKey : cacheKeys) {
+                    if (!cachedKeys.contains(cacheKey)) {
+                        otherKeys.add(cacheKey);
+                    }
+                }
+                if (otherKeys.isEmpty()) {
+                    return Task.forResult(cachedKeys);
+                }
+                Continuation<Set<CacheKey>, Set<CacheKey>> mergeCachedKeys = new Continuation<Set<CacheKey>, Set<CacheKey>>() {
+                    @Override
+                    public Set<CacheKey> then(Task<Set<CacheKey>> task) throws Exception {
+                        if (isSuccessful(task)) {
+                            cachedKeys.addAll(task.getResult());
+                        }
+                        return cachedKeys;
+                    }
+                };
+                return mSmallImageBufferedDiskCache.findCachedKeys(otherKeys).continueWith(mergeCachedKeys);
+            }
+        }).continueWith(new Continuation<Set<CacheKey>, Void>() {
+            @Override
+            public Void then(Task<Set<CacheKey>> task) throws Exception {
+                Set<CacheKey> cachedKeys = isSuccessful(task) ? task.getResult() : Collections.<CacheKey>emptySet();
+                List<Boolean> result = new ArrayList<>(cacheKeys.size());
+                for (CacheKey cacheKey : cacheKeys) {
+                    result.add(cachedKeys.contains(cacheKey));
+                }
+                dataSource.setResult(result);
+                return null;
+            }
+        });
+        return dataSource;
+    }
+
+    private static boolean isSuccessful(Task<?> task) {
+        return !task.isCancelled() && !task.isFaulted();
+    }
+
     private <T> DataSource<CloseableReference<T>> submitFetchRequest(Producer<CloseableReference<T>> producerSequence, ImageRequest imageRequest,
                                                                      ImageRequest.RequestLevel lowestPermittedRequestLevelOnSubmit, Object
                                                                              callerContext) {
@@ -418,24 +493,24 @@ public class ImagePipeline {
     }
 
     private Predicate<CacheKey> predicateForUri(Uri uri) {
-        final String cacheKeySourceString = mCacheKeyFactory.getCacheKeySourceUri(uri).toString();
-        return new Predicate<CacheKey>() {
-            @Override
-            public boolean apply(CacheKey key) {
-                if (key instanceof BitmapMemoryCacheKey) {
-                    return ((BitmapMemoryCacheKey) key).getSourceUriString().equals(cacheKeySourceString);
-                }
-                return false;
-            }
-        };
+        return SourceUriKeyIndex.predicateForSourceUri(mCacheKeyFactory.getCacheKeySourceUri(uri).toString());
     }
 
+    /**
+     * Pauses the submission of new requests, and the disk cache writes, e.g. during a fling. The
+     * images waiting to be written can still be read meanwhile. The disk cache removals and clears
+     * still run, so the tasks they return complete without waiting for {@link #resume}.
+     */
     public void pause() {
         mThreadHandoffProducerQueue.startQueueing();
+        mMainBufferedDiskCache.pauseWrites();
+        mSmallImageBufferedDiskCache.pauseWrites();
     }
 
     public void resume() {
         mThreadHandoffProducerQueue.stopQueuing();
+        mMainBufferedDiskCache.resumeWrites();
+        mSmallImageBufferedDiskCache.resumeWrites();
     }
 
     public boolean isPaused() {
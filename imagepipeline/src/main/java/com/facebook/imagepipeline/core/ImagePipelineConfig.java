@@ -8,6 +8,7 @@
  */
 package com.facebook.imagepipeline.core;
 
+import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
@@ -16,12 +17,16 @@ import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
 import com.facebook.imagepipeline.animated.factory.AnimatedImageFactory;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.cache.DefaultBitmapMemoryCacheParamsSupplier;
 import com.facebook.imagepipeline.cache.DefaultCacheKeyFactory;
 import com.facebook.imagepipeline.cache.DefaultEncodedMemoryCacheParamsSupplier;
+import com.facebook.imagepipeline.cache.DiskCacheAdmissionPolicy;
 import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
 import com.facebook.imagepipeline.cache.MemoryCacheParams;
+import com.facebook.imagepipeline.cache.MemoryCachePartitioner;
 import com.facebook.imagepipeline.cache.NoOpImageCacheStatsTracker;
+import com.facebook.imagepipeline.cache.PartitionedCacheKeyFactory;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.decoder.SimpleProgressiveJpegConfig;
@@ -35,8 +40,10 @@ import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -65,18 +72,27 @@ public class ImagePipelineConfig {
     @Nullable private final AnimatedImageFactory mAnimatedImageFactory;
     private final Bitmap.Config mBitmapConfig;
     private final Supplier<MemoryCacheParams> mBitmapMemoryCacheParamsSupplier;
+    @Nullable private final MemoryCachePartitioner<CacheKey> mBitmapMemoryCachePartitioner;
+    @Nullable private final List<Supplier<MemoryCacheParams>> mBitmapMemoryCachePartitionParamsSuppliers;
+    @Nullable private final File mBitmapMemoryCacheSnapshotFile;
     private final CacheKeyFactory mCacheKeyFactory;
     private final Context mContext;
     private final boolean mDownsampleEnabled;
     private final boolean mWebpSupportEnabled;
     private final boolean mDecodeFileDescriptorEnabled;
     private final boolean mDecodeMemoryFileEnabled;
+    @Nullable private final DiskCacheAdmissionPolicy mDiskCacheAdmissionPolicy;
     private final Supplier<MemoryCacheParams> mEncodedMemoryCacheParamsSupplier;
     private final ExecutorSupplier mExecutorSupplier;
     private final ImageCacheStatsTracker mImageCacheStatsTracker;
     @Nullable private final ImageDecoder mImageDecoder;
     private final Supplier<Boolean> mIsPrefetchEnabledSupplier;
     private final DiskCacheConfig mMainDiskCacheConfig;
+    private final boolean mMappedFileReadEnabled;
+    private final boolean mMemoryCacheBackgroundEvictionEnabled;
+    @Nullable private final Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> mMemoryCacheEvictionPolicySupplier;
+    private final boolean mMemoryCacheMissRatioCurveTrackingEnabled;
+    private final int mMemoryCacheSegmentCount;
     private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
     private final NetworkFetcher mNetworkFetcher;
     @Nullable private final PlatformBitmapFactory mPlatformBitmapFactory;
@@ -84,17 +100,29 @@ public class ImagePipelineConfig {
     private final ProgressiveJpegConfig mProgressiveJpegConfig;
     private final Set<RequestListener> mRequestListeners;
     private final boolean mResizeAndRotateEnabledForNetwork;
+    private final boolean mResumableDownloadsEnabled;
     private final DiskCacheConfig mSmallImageDiskCacheConfig;
 
     private ImagePipelineConfig(Builder builder) {
         mAnimatedImageFactory = builder.mAnimatedImageFactory;
         mBitmapMemoryCacheParamsSupplier = builder.mBitmapMemoryCacheParamsSupplier == null ? new DefaultBitmapMemoryCacheParamsSupplier(
                 (ActivityManager) builder.mContext.getSystemService(Context.ACTIVITY_SERVICE)) : builder.mBitmapMemoryCacheParamsSupplier;
+        mBitmapMemoryCachePartitioner = builder.mBitmapMemoryCachePartitioner;
+        mBitmapMemoryCachePartitionParamsSuppliers = builder.mBitmapMemoryCachePartitionParamsSuppliers;
+        mBitmapMemoryCacheSnapshotFile = builder.mBitmapMemoryCacheSnapshotFile;
         mBitmapConfig = builder.mBitmapConfig == null ? Bitmap.Config.ARGB_8888 : builder.mBitmapConfig;
-        mCacheKeyFactory = builder.mCacheKeyFactory == null ? DefaultCacheKeyFactory.getInstance() : builder.mCacheKeyFactory;
+        if (builder.mCacheKeyFactory != null) {
+            mCacheKeyFactory = builder.mCacheKeyFactory;
+        } else if (mBitmapMemoryCachePartitioner != null) {
+            // the partition of an image has to be part of its key
+            mCacheKeyFactory = PartitionedCacheKeyFactory.getInstance();
+        } else {
+            mCacheKeyFactory = DefaultCacheKeyFactory.getInstance();
+        }
         mContext = Preconditions.checkNotNull(builder.mContext);
         mDecodeFileDescriptorEnabled = builder.mDownsampleEnabled && builder.mDecodeFileDescriptorEnabled;
         mDecodeMemoryFileEnabled = builder.mDecodeMemoryFileEnabled;
+        mDiskCacheAdmissionPolicy = builder.mDiskCacheAdmissionPolicy;
         mDownsampleEnabled = builder.mDownsampleEnabled;
         mWebpSupportEnabled = builder.mWebpSupportEnabled && sWebpLibraryPresent;
         mEncodedMemoryCacheParamsSupplier = builder.mEncodedMemoryCacheParamsSupplier == null ? new DefaultEncodedMemoryCacheParamsSupplier() :
@@ -109,6 +137,11 @@ public class ImagePipelineConfig {
             }
         } : builder.mIsPrefetchEnabledSupplier;
         mMainDiskCacheConfig = builder.mMainDiskCacheConfig == null ? getDefaultMainDiskCacheConfig(builder.mContext) : builder.mMainDiskCacheConfig;
+        mMappedFileReadEnabled = builder.mMappedFileReadEnabled;
+        mMemoryCacheBackgroundEvictionEnabled = builder.mMemoryCacheBackgroundEvictionEnabled;
+        mMemoryCacheEvictionPolicySupplier = builder.mMemoryCacheEvictionPolicySupplier;
+        mMemoryCacheMissRatioCurveTrackingEnabled = builder.mMemoryCacheMissRatioCurveTrackingEnabled;
+        mMemoryCacheSegmentCount = builder.mMemoryCacheSegmentCount;
         mMemoryTrimmableRegistry = builder.mMemoryTrimmableRegistry == null ? NoOpMemoryTrimmableRegistry.getInstance() : builder
                 .mMemoryTrimmableRegistry;
         mNetworkFetcher = builder.mNetworkFetcher == null ? new HttpUrlConnectionNetworkFetcher() : builder.mNetworkFetcher;
@@ -117,6 +150,7 @@ public class ImagePipelineConfig {
         mProgressiveJpegConfig = builder.mProgressiveJpegConfig == null ? new SimpleProgressiveJpegConfig() : builder.mProgressiveJpegConfig;
         mRequestListeners = builder.mRequestListeners == null ? new HashSet<RequestListener>() : builder.mRequestListeners;
         mResizeAndRotateEnabledForNetwork = builder.mResizeAndRotateEnabledForNetwork;
+        mResumableDownloadsEnabled = builder.mResumableDownloadsEnabled;
         mSmallImageDiskCacheConfig = builder.mSmallImageDiskCacheConfig == null ? mMainDiskCacheConfig : builder.mSmallImageDiskCacheConfig;
         // Below this comment can't be built in alphabetical order, because of dependencies
         int numCpuBoundThreads = mPoolFactory.getFlexByteArrayPoolMaxNumThreads();
@@ -144,6 +178,21 @@ public class ImagePipelineConfig {
         return mBitmapMemoryCacheParamsSupplier;
     }
 
+    @Nullable
+    public MemoryCachePartitioner<CacheKey> getBitmapMemoryCachePartitioner() {
+        return mBitmapMemoryCachePartitioner;
+    }
+
+    @Nullable
+    public List<Supplier<MemoryCacheParams>> getBitmapMemoryCachePartitionParamsSuppliers() {
+        return mBitmapMemoryCachePartitionParamsSuppliers;
+    }
+
+    @Nullable
+    public File getBitmapMemoryCacheSnapshotFile() {
+        return mBitmapMemoryCacheSnapshotFile;
+    }
+
     public CacheKeyFactory getCacheKeyFactory() {
         return mCacheKeyFactory;
     }
@@ -160,6 +209,11 @@ public class ImagePipelineConfig {
         return mDecodeMemoryFileEnabled;
     }
 
+    @Nullable
+    public DiskCacheAdmissionPolicy getDiskCacheAdmissionPolicy() {
+        return mDiskCacheAdmissionPolicy;
+    }
+
     public boolean isDownsampleEnabled() {
         return mDownsampleEnabled;
     }
@@ -193,6 +247,27 @@ public class ImagePipelineConfig {
         return mMainDiskCacheConfig;
     }
 
+    public boolean isMappedFileReadEnabled() {
+        return mMappedFileReadEnabled;
+    }
+
+    public boolean isMemoryCacheBackgroundEvictionEnabled() {
+        return mMemoryCacheBackgroundEvictionEnabled;
+    }
+
+    @Nullable
+    public Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> getMemoryCacheEvictionPolicySupplier() {
+        return mMemoryCacheEvictionPolicySupplier;
+    }
+
+    public boolean isMemoryCacheMissRatioCurveTrackingEnabled() {
+        return mMemoryCacheMissRatioCurveTrackingEnabled;
+    }
+
+    public int getMemoryCacheSegmentCount() {
+        return mMemoryCacheSegmentCount;
+    }
+
     public MemoryTrimmableRegistry getMemoryTrimmableRegistry() {
         return mMemoryTrimmableRegistry;
     }
@@ -222,6 +297,10 @@ public class ImagePipelineConfig {
         return mResizeAndRotateEnabledForNetwork;
     }
 
+    public boolean isResumableDownloadsEnabled() {
+        return mResumableDownloadsEnabled;
+    }
+
     public DiskCacheConfig getSmallImageDiskCacheConfig() {
         return mSmallImageDiskCacheConfig;
     }
@@ -231,17 +310,26 @@ public class ImagePipelineConfig {
         private AnimatedImageFactory mAnimatedImageFactory;
         private Bitmap.Config mBitmapConfig;
         private Supplier<MemoryCacheParams> mBitmapMemoryCacheParamsSupplier;
+        private MemoryCachePartitioner<CacheKey> mBitmapMemoryCachePartitioner;
+        private List<Supplier<MemoryCacheParams>> mBitmapMemoryCachePartitionParamsSuppliers;
+        private File mBitmapMemoryCacheSnapshotFile;
         private CacheKeyFactory mCacheKeyFactory;
         private boolean mDownsampleEnabled = false;
         private boolean mWebpSupportEnabled = false;
         private boolean mDecodeFileDescriptorEnabled = mDownsampleEnabled;
         private boolean mDecodeMemoryFileEnabled;
+        private DiskCacheAdmissionPolicy mDiskCacheAdmissionPolicy;
         private Supplier<MemoryCacheParams> mEncodedMemoryCacheParamsSupplier;
         private ExecutorSupplier mExecutorSupplier;
         private ImageCacheStatsTracker mImageCacheStatsTracker;
         private ImageDecoder mImageDecoder;
         private Supplier<Boolean> mIsPrefetchEnabledSupplier;
         private DiskCacheConfig mMainDiskCacheConfig;
+        private boolean mMappedFileReadEnabled = false;
+        private boolean mMemoryCacheBackgroundEvictionEnabled = false;
+        private Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>> mMemoryCacheEvictionPolicySupplier;
+        private boolean mMemoryCacheMissRatioCurveTrackingEnabled = false;
+        private int mMemoryCacheSegmentCount = 1;
         private MemoryTrimmableRegistry mMemoryTrimmableRegistry;
         private NetworkFetcher mNetworkFetcher;
         private PlatformBitmapFactory mPlatformBitmapFactory;
@@ -249,6 +337,7 @@ public class ImagePipelineConfig {
         private ProgressiveJpegConfig mProgressiveJpegConfig;
         private Set<RequestListener> mRequestListeners;
         private boolean mResizeAndRotateEnabledForNetwork = true;
+        private boolean mResumableDownloadsEnabled = false;
         private DiskCacheConfig mSmallImageDiskCacheConfig;
 
         private Builder(Context context) {
@@ -266,11 +355,62 @@ public class ImagePipelineConfig {
             return this;
         }
 
+        /**
+         * Sets the supplier of the bitmap memory cache params. With an
+         * {@link com.facebook.imagepipeline.cache.AdaptiveMemoryCacheParamsSupplier}, the max cache
+         * size follows the hit rate, the eviction churn and the memory pressure trims within the
+         * given bounds, and the changes take effect right away. The same goes for the encoded
+         * memory cache params supplier.
+         */
         public Builder setBitmapMemoryCacheParamsSupplier(Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier) {
             mBitmapMemoryCacheParamsSupplier = Preconditions.checkNotNull(bitmapMemoryCacheParamsSupplier);
             return this;
         }
 
+        /**
+         * Splits the bitmap memory cache into partitions, each with its own budget and its own
+         * eviction order, so that e.g. opening a full screen photo does not evict all the avatars of
+         * a feed. The capacity a partition does not use is lent to the others.
+         *
+         * <p> A {@link com.facebook.imagepipeline.cache.BitmapMemoryCachePartitioner} splits the
+         * images by their {@link com.facebook.imagepipeline.request.ImageRequest.ImageType} and by
+         * the tags of the caller contexts implementing
+         * {@link com.facebook.imagepipeline.cache.MemoryCachePartitionTagged}.
+         *
+         * <p> The partitions' budgets replace the bitmap memory cache params supplier, and the
+         * memory cache segment count does not apply to the bitmap memory cache.
+         *
+         * <p> The partitioner sees the image type and the tag in the bitmap cache keys of a
+         * {@link com.facebook.imagepipeline.cache.PartitionedCacheKeyFactory}, which is the default
+         * cache key factory once the cache is partitioned. With another factory, all the images go
+         * to the default partition, unless its keys carry the image type and the tag too.
+         *
+         * @param partitionParamsSuppliers supply the budget of each partition, in the order of the
+         *                                 partition indices
+         */
+        public Builder setBitmapMemoryCachePartitions(MemoryCachePartitioner<CacheKey> partitioner, List<Supplier<MemoryCacheParams>>
+                partitionParamsSuppliers) {
+            Preconditions.checkArgument(partitioner.getPartitionCount() == partitionParamsSuppliers.size());
+            mBitmapMemoryCachePartitioner = partitioner;
+            mBitmapMemoryCachePartitionParamsSuppliers = partitionParamsSuppliers;
+            return this;
+        }
+
+        /**
+         * Enables the warm restart of the bitmap memory cache.
+         *
+         * <p> The most recently used images are persisted to the given file whenever the cache gets
+         * trimmed, including when the app goes to the background. Once the pipeline is created on
+         * the next startup, they are prefetched from the disk caches at a low priority, so that the
+         * first screen does not start cold after a process death.
+         *
+         * @param snapshotFile file the snapshot is persisted to, e.g. in the app's cache directory
+         */
+        public Builder setBitmapMemoryCacheSnapshotFile(File snapshotFile) {
+            mBitmapMemoryCacheSnapshotFile = snapshotFile;
+            return this;
+        }
+
         public Builder setCacheKeyFactory(CacheKeyFactory cacheKeyFactory) {
             mCacheKeyFactory = cacheKeyFactory;
             return this;
@@ -286,6 +426,20 @@ public class ImagePipelineConfig {
             return this;
         }
 
+        /**
+         * Sets the policy deciding which of the fetched images are written to the disk caches. By
+         * default all of them are.
+         *
+         * <p> A {@link com.facebook.imagepipeline.cache.SecondHitDiskCacheAdmissionPolicy} only writes
+         * the images requested again, sparing the writes of the images seen once, such as one-off ads
+         * or the images passed by in a fling. The requests can override the policy, see
+         * {@link com.facebook.imagepipeline.request.ImageRequestBuilder#setDiskCacheAdmission}.
+         */
+        public Builder setDiskCacheAdmissionPolicy(DiskCacheAdmissionPolicy diskCacheAdmissionPolicy) {
+            mDiskCacheAdmissionPolicy = diskCacheAdmissionPolicy;
+            return this;
+        }
+
         public Builder setDownsampleEnabled(boolean downsampleEnabled) {
             mDownsampleEnabled = downsampleEnabled;
             return this;
@@ -326,6 +480,75 @@ public class ImagePipelineConfig {
             return this;
         }
 
+        /**
+         * Enables mapping the large disk cache files and local files into memory, instead of copying
+         * them into the native memory pool before decoding.
+         *
+         * <p> This saves the copy and the transient native memory of the large images. The mapped
+         * pages belong to the page cache, which the system can reclaim under memory pressure. The
+         * disk cache never writes its files in place, but a local file truncated while it is mapped
+         * crashes the process, so only enable this if the app's local files are not modified while
+         * displayed.
+         */
+        public Builder setMappedFileReadEnabled(boolean mappedFileReadEnabled) {
+            mMappedFileReadEnabled = mappedFileReadEnabled;
+            return this;
+        }
+
+        /**
+         * Enables evicting the items of the bitmap and encoded memory caches in batches on the
+         * lightweight background executor, instead of on the thread that uses the cache.
+         *
+         * <p> This moves the bitmap recycling and the native memory frees off the UI thread. The
+         * items exceeding the max cache size are still evicted right away.
+         */
+        public Builder setMemoryCacheBackgroundEvictionEnabled(boolean memoryCacheBackgroundEvictionEnabled) {
+            mMemoryCacheBackgroundEvictionEnabled = memoryCacheBackgroundEvictionEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the eviction policy of the bitmap and encoded memory caches. The supplier is asked for
+         * a new policy for each cache (and each of its segments).
+         *
+         * <p> By default the items are evicted in LRU order. A
+         * {@link com.facebook.imagepipeline.cache.TinyLfuEvictionPolicy} keeps the frequently reused
+         * images cached through scans such as prefetches or long flings, and a
+         * {@link com.facebook.imagepipeline.cache.GreedyDualSizeEvictionPolicy} keeps the images that
+         * are the most expensive to decode and fetch again, relative to their size.
+         */
+        public Builder setMemoryCacheEvictionPolicySupplier(Supplier<? extends CountingMemoryCache.EvictionPolicy<CacheKey>>
+                memoryCacheEvictionPolicySupplier) {
+            mMemoryCacheEvictionPolicySupplier = memoryCacheEvictionPolicySupplier;
+            return this;
+        }
+
+        /**
+         * Enables estimating the hit rates the bitmap and encoded memory caches would have at half,
+         * double and four times their max size, by keeping the keys of the recently evicted items.
+         *
+         * <p> The estimates are available from
+         * {@link CountingMemoryCache#getMissRatioCurve} of the caches registered with the
+         * {@link ImageCacheStatsTracker}, and in the Stetho memcache dump. Use them to tune the
+         * memory cache params.
+         */
+        public Builder setMemoryCacheMissRatioCurveTrackingEnabled(boolean memoryCacheMissRatioCurveTrackingEnabled) {
+            mMemoryCacheMissRatioCurveTrackingEnabled = memoryCacheMissRatioCurveTrackingEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the number of independently locked segments of the bitmap and encoded memory caches.
+         *
+         * <p> The default of 1 uses a single lock per cache. A higher value reduces the lock
+         * contention when many threads hit the caches at the same time.
+         */
+        public Builder setMemoryCacheSegmentCount(int memoryCacheSegmentCount) {
+            Preconditions.checkArgument(memoryCacheSegmentCount > 0);
+            mMemoryCacheSegmentCount = memoryCacheSegmentCount;
+            return this;
+        }
+
         public Builder setMemoryTrimmableRegistry(MemoryTrimmableRegistry memoryTrimmableRegistry) {
             mMemoryTrimmableRegistry = memoryTrimmableRegistry;
             return this;
@@ -361,6 +584,17 @@ public class ImagePipelineConfig {
             return this;
         }
 
+        /**
+         * Keeps the bytes of the network downloads failing or cancelled midway in the disk cache, so
+         * the next fetch of the image only downloads the rest of it, if the server supports range
+         * requests. The network fetcher has to send the range headers, as
+         * {@link HttpUrlConnectionNetworkFetcher} does.
+         */
+        public Builder setResumableDownloadsEnabled(boolean resumableDownloadsEnabled) {
+            mResumableDownloadsEnabled = resumableDownloadsEnabled;
+            return this;
+        }
+
         public Builder setSmallImageDiskCacheConfig(DiskCacheConfig smallImageDiskCacheConfig) {
             mSmallImageDiskCacheConfig = smallImageDiskCacheConfig;
             return this;
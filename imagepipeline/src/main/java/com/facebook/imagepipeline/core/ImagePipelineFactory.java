@@ -10,12 +10,14 @@ package com.facebook.imagepipeline.core;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.disk.DiskCacheFactory;
+import com.facebook.cache.disk.FileCache;
 import com.facebook.cache.disk.DiskStorageCache;
 import com.facebook.common.executors.DefaultSerialExecutorService;
 import com.facebook.common.executors.SerialExecutorService;
 import com.facebook.common.executors.UiThreadImmediateExecutorService;
 import com.facebook.common.internal.AndroidPredicates;
 import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
 import com.facebook.common.time.MonotonicClock;
 import com.facebook.common.time.RealtimeSinceBootClock;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
@@ -33,13 +35,18 @@ import com.facebook.imagepipeline.bitmaps.EmptyJpegGenerator;
 import com.facebook.imagepipeline.bitmaps.GingerbreadBitmapFactory;
 import com.facebook.imagepipeline.bitmaps.HoneycombBitmapFactory;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.AbstractCountingMemoryCache;
+import com.facebook.imagepipeline.cache.AdaptiveMemoryCacheParamsSupplier;
 import com.facebook.imagepipeline.cache.BitmapCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
-import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.cache.DiskCacheIoScheduler;
 import com.facebook.imagepipeline.cache.EncodedCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.EncodedMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.MemoryCacheParams;
+import com.facebook.imagepipeline.cache.MemoryCacheTracker;
+import com.facebook.imagepipeline.cache.MemoryCachePartitioner;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.memory.PoolFactory;
@@ -56,8 +63,12 @@ import android.content.res.Resources;
 import android.graphics.Rect;
 import android.os.Build;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -78,9 +89,9 @@ public class ImagePipelineFactory {
     private AnimatedDrawableUtil mAnimatedDrawableUtil;
     private AnimatedDrawableFactory mAnimatedDrawableFactory;
     private AnimatedImageFactory mAnimatedImageFactory;
-    private CountingMemoryCache<CacheKey, CloseableImage> mBitmapCountingMemoryCache;
+    private AbstractCountingMemoryCache<CacheKey, CloseableImage> mBitmapCountingMemoryCache;
     private MemoryCache<CacheKey, CloseableImage> mBitmapMemoryCache;
-    private CountingMemoryCache<CacheKey, PooledByteBuffer> mEncodedCountingMemoryCache;
+    private AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> mEncodedCountingMemoryCache;
     private MemoryCache<CacheKey, PooledByteBuffer> mEncodedMemoryCache;
     private BufferedDiskCache mMainBufferedDiskCache;
     private DiskStorageCache mMainDiskStorageCache;
@@ -89,6 +100,7 @@ public class ImagePipelineFactory {
     private ProducerFactory mProducerFactory;
     private ProducerSequenceFactory mProducerSequenceFactory;
     private BufferedDiskCache mSmallImageBufferedDiskCache;
+    private DiskCacheIoScheduler mDiskCacheIoScheduler;
     private DiskStorageCache mSmallImageDiskStorageCache;
     private PlatformBitmapFactory mPlatformBitmapFactory;
     private PlatformDecoder mPlatformDecoder;
@@ -226,32 +238,74 @@ public class ImagePipelineFactory {
         return mAnimatedImageFactory;
     }
 
-    public CountingMemoryCache<CacheKey, CloseableImage> getBitmapCountingMemoryCache() {
+    public AbstractCountingMemoryCache<CacheKey, CloseableImage> getBitmapCountingMemoryCache() {
         if (mBitmapCountingMemoryCache == null) {
-            mBitmapCountingMemoryCache = BitmapCountingMemoryCacheFactory.get(mConfig.getBitmapMemoryCacheParamsSupplier(), mConfig
-                    .getMemoryTrimmableRegistry());
+            MemoryCachePartitioner<CacheKey> partitioner = mConfig.getBitmapMemoryCachePartitioner();
+            List<Supplier<MemoryCacheParams>> partitionParamsSuppliers = mConfig.getBitmapMemoryCachePartitionParamsSuppliers();
+            if (partitioner != null && partitionParamsSuppliers != null) {
+                mBitmapCountingMemoryCache = BitmapCountingMemoryCacheFactory.getPartitioned(partitioner, partitionParamsSuppliers, mConfig
+                        .getMemoryTrimmableRegistry(), mConfig.getMemoryCacheEvictionPolicySupplier(), getMemoryCacheEvictionExecutor());
+            } else {
+                mBitmapCountingMemoryCache = BitmapCountingMemoryCacheFactory.get(mConfig.getBitmapMemoryCacheParamsSupplier(), mConfig
+                        .getMemoryTrimmableRegistry(), mConfig.getMemoryCacheSegmentCount(), mConfig.getMemoryCacheEvictionPolicySupplier(),
+                        getMemoryCacheEvictionExecutor());
+                maybeAttachAdaptiveParamsSupplier(mConfig.getBitmapMemoryCacheParamsSupplier(), mBitmapCountingMemoryCache);
+            }
+            mBitmapCountingMemoryCache.setMissRatioCurveTrackingEnabled(mConfig.isMemoryCacheMissRatioCurveTrackingEnabled());
         }
         return mBitmapCountingMemoryCache;
     }
 
+    /**
+     * Attaches the params supplier to the cache, if it is an adaptive one, and lets it see the
+     * trims.
+     */
+    private void maybeAttachAdaptiveParamsSupplier(Supplier<MemoryCacheParams> paramsSupplier, AbstractCountingMemoryCache<?, ?> cache) {
+        if (paramsSupplier instanceof AdaptiveMemoryCacheParamsSupplier) {
+            AdaptiveMemoryCacheParamsSupplier adaptiveParamsSupplier = (AdaptiveMemoryCacheParamsSupplier) paramsSupplier;
+            adaptiveParamsSupplier.attach(cache);
+            mConfig.getMemoryTrimmableRegistry().registerMemoryTrimmable(adaptiveParamsSupplier);
+        }
+    }
+
+    /** Gets the params supplier of the cache to notify of the cache events, if it is an adaptive one. */
+    @Nullable
+    private static MemoryCacheTracker getParamsTracker(Supplier<MemoryCacheParams> paramsSupplier) {
+        return (paramsSupplier instanceof AdaptiveMemoryCacheParamsSupplier) ? (AdaptiveMemoryCacheParamsSupplier) paramsSupplier : null;
+    }
+
+    /** Gets the executor the memory caches evict their items on, or null to evict them right away. */
+    @Nullable
+    private Executor getMemoryCacheEvictionExecutor() {
+        return mConfig.isMemoryCacheBackgroundEvictionEnabled() ? mConfig.getExecutorSupplier().forLightweightBackgroundTasks() : null;
+    }
+
     public MemoryCache<CacheKey, CloseableImage> getBitmapMemoryCache() {
         if (mBitmapMemoryCache == null) {
-            mBitmapMemoryCache = BitmapMemoryCacheFactory.get(getBitmapCountingMemoryCache(), mConfig.getImageCacheStatsTracker());
+            // the partitioned cache does not use the bitmap memory cache params supplier
+            MemoryCacheTracker paramsTracker = (mConfig.getBitmapMemoryCachePartitioner() == null) ? getParamsTracker(mConfig
+                    .getBitmapMemoryCacheParamsSupplier()) : null;
+            mBitmapMemoryCache = BitmapMemoryCacheFactory.get(getBitmapCountingMemoryCache(), mConfig.getImageCacheStatsTracker(),
+                    paramsTracker);
         }
         return mBitmapMemoryCache;
     }
 
-    public CountingMemoryCache<CacheKey, PooledByteBuffer> getEncodedCountingMemoryCache() {
+    public AbstractCountingMemoryCache<CacheKey, PooledByteBuffer> getEncodedCountingMemoryCache() {
         if (mEncodedCountingMemoryCache == null) {
             mEncodedCountingMemoryCache = EncodedCountingMemoryCacheFactory.get(mConfig.getEncodedMemoryCacheParamsSupplier(), mConfig
-                    .getMemoryTrimmableRegistry());
+                    .getMemoryTrimmableRegistry(), mConfig.getMemoryCacheSegmentCount(), mConfig.getMemoryCacheEvictionPolicySupplier(),
+                    getMemoryCacheEvictionExecutor());
+            mEncodedCountingMemoryCache.setMissRatioCurveTrackingEnabled(mConfig.isMemoryCacheMissRatioCurveTrackingEnabled());
+            maybeAttachAdaptiveParamsSupplier(mConfig.getEncodedMemoryCacheParamsSupplier(), mEncodedCountingMemoryCache);
         }
         return mEncodedCountingMemoryCache;
     }
 
     public MemoryCache<CacheKey, PooledByteBuffer> getEncodedMemoryCache() {
         if (mEncodedMemoryCache == null) {
-            mEncodedMemoryCache = EncodedMemoryCacheFactory.get(getEncodedCountingMemoryCache(), mConfig.getImageCacheStatsTracker());
+            mEncodedMemoryCache = EncodedMemoryCacheFactory.get(getEncodedCountingMemoryCache(), mConfig.getImageCacheStatsTracker(),
+                    getParamsTracker(mConfig.getEncodedMemoryCacheParamsSupplier()));
         }
         return mEncodedMemoryCache;
     }
@@ -269,16 +323,15 @@ public class ImagePipelineFactory {
 
     private BufferedDiskCache getMainBufferedDiskCache() {
         if (mMainBufferedDiskCache == null) {
-            mMainBufferedDiskCache = new BufferedDiskCache(getMainDiskStorageCache(), mConfig.getPoolFactory().getPooledByteBufferFactory(),
-                    mConfig.getPoolFactory().getPooledByteStreams(), mConfig.getExecutorSupplier().forLocalStorageRead(), mConfig
-                    .getExecutorSupplier().forLocalStorageWrite(), mConfig.getImageCacheStatsTracker());
+            mMainBufferedDiskCache = newBufferedDiskCache(getMainDiskStorageCache());
         }
         return mMainBufferedDiskCache;
     }
 
     public DiskStorageCache getMainDiskStorageCache() {
         if (mMainDiskStorageCache == null) {
-            mMainDiskStorageCache = DiskCacheFactory.newDiskStorageCache(mConfig.getMainDiskCacheConfig());
+            mMainDiskStorageCache = DiskCacheFactory.newDiskStorageCache(mConfig.getMainDiskCacheConfig(), mConfig.getExecutorSupplier()
+                    .forBackgroundTasks());
         }
         return mMainDiskStorageCache;
     }
@@ -288,10 +341,23 @@ public class ImagePipelineFactory {
             mImagePipeline = new ImagePipeline(getProducerSequenceFactory(), mConfig.getRequestListeners(), mConfig.getIsPrefetchEnabledSupplier(),
                     getBitmapMemoryCache(), getEncodedMemoryCache(), getMainBufferedDiskCache(), getSmallImageBufferedDiskCache(), mConfig
                     .getCacheKeyFactory(), mThreadHandoffProducerQueue);
+            maybeReplayBitmapMemoryCacheSnapshot(mImagePipeline);
         }
         return mImagePipeline;
     }
 
+    /** Persists the bitmap memory cache on trim and prefetches its last snapshot, if enabled. */
+    private void maybeReplayBitmapMemoryCacheSnapshot(ImagePipeline imagePipeline) {
+        File snapshotFile = mConfig.getBitmapMemoryCacheSnapshotFile();
+        if (snapshotFile == null) {
+            return;
+        }
+        BitmapMemoryCacheSnapshotter snapshotter = new BitmapMemoryCacheSnapshotter(getBitmapCountingMemoryCache(), snapshotFile,
+                BitmapMemoryCacheSnapshotter.DEFAULT_MAX_SNAPSHOT_SIZE, mConfig.getExecutorSupplier().forBackgroundTasks());
+        getBitmapCountingMemoryCache().setTrimObserver(snapshotter);
+        snapshotter.replay(imagePipeline);
+    }
+
     public PlatformBitmapFactory getPlatformBitmapFactory() {
         if (mPlatformBitmapFactory == null) {
             mPlatformBitmapFactory = buildPlatformBitmapFactory(mConfig.getPoolFactory(), getPlatformDecoder());
@@ -312,7 +378,8 @@ public class ImagePipelineFactory {
                     mConfig.getProgressiveJpegConfig(), mConfig.isDownsampleEnabled(), mConfig.isResizeAndRotateEnabledForNetwork(), mConfig
                     .getExecutorSupplier(), mConfig.getPoolFactory().getPooledByteBufferFactory(), getBitmapMemoryCache(), getEncodedMemoryCache(),
                     getMainBufferedDiskCache(), getSmallImageBufferedDiskCache(), mConfig.getCacheKeyFactory(), getPlatformBitmapFactory(), mConfig
-                    .isDecodeFileDescriptorEnabled());
+                    .isDecodeFileDescriptorEnabled(), mConfig.isMappedFileReadEnabled(), mConfig.getDiskCacheAdmissionPolicy(), mConfig
+                    .isResumableDownloadsEnabled());
         }
         return mProducerFactory;
     }
@@ -328,17 +395,47 @@ public class ImagePipelineFactory {
 
     public DiskStorageCache getSmallImageDiskStorageCache() {
         if (mSmallImageDiskStorageCache == null) {
-            mSmallImageDiskStorageCache = DiskCacheFactory.newDiskStorageCache(mConfig.getSmallImageDiskCacheConfig());
+            mSmallImageDiskStorageCache = DiskCacheFactory.newDiskStorageCache(mConfig.getSmallImageDiskCacheConfig(), mConfig
+                    .getExecutorSupplier().forBackgroundTasks());
         }
         return mSmallImageDiskStorageCache;
     }
 
     private BufferedDiskCache getSmallImageBufferedDiskCache() {
         if (mSmallImageBufferedDiskCache == null) {
-            mSmallImageBufferedDiskCache = new BufferedDiskCache(getSmallImageDiskStorageCache(), mConfig.getPoolFactory()
-                    .getPooledByteBufferFactory(), mConfig.getPoolFactory().getPooledByteStreams(), mConfig.getExecutorSupplier()
-                    .forLocalStorageRead(), mConfig.getExecutorSupplier().forLocalStorageWrite(), mConfig.getImageCacheStatsTracker());
+            mSmallImageBufferedDiskCache = newBufferedDiskCache(getSmallImageDiskStorageCache());
         }
         return mSmallImageBufferedDiskCache;
     }
+
+    /**
+     * Creates a buffered disk cache. If the reads and the writes share the executor, as with
+     * {@link DefaultExecutorSupplier}, both disk caches schedule them with one scheduler, so the reads
+     * go ahead of the queued writes. Otherwise the executors are used as they are.
+     */
+    private BufferedDiskCache newBufferedDiskCache(FileCache fileCache) {
+        ExecutorSupplier executorSupplier = mConfig.getExecutorSupplier();
+        Executor readExecutor = executorSupplier.forLocalStorageRead();
+        Executor writeExecutor = executorSupplier.forLocalStorageWrite();
+        if (readExecutor != writeExecutor) {
+            return new BufferedDiskCache(fileCache, mConfig.getPoolFactory().getPooledByteBufferFactory(), mConfig.getPoolFactory()
+                    .getPooledByteStreams(), readExecutor, writeExecutor, mConfig.getImageCacheStatsTracker(), mConfig
+                    .isMappedFileReadEnabled());
+        }
+        if (mDiskCacheIoScheduler == null) {
+            mDiskCacheIoScheduler = new DiskCacheIoScheduler(readExecutor, DiskCacheIoScheduler.DEFAULT_MAX_CONCURRENT_OPERATIONS,
+                    RealtimeSinceBootClock.get());
+        }
+        return new BufferedDiskCache(fileCache, mConfig.getPoolFactory().getPooledByteBufferFactory(), mConfig.getPoolFactory()
+                .getPooledByteStreams(), mDiskCacheIoScheduler, mConfig.getImageCacheStatsTracker(), mConfig.isMappedFileReadEnabled());
+    }
+
+    /**
+     * Gets the scheduler of the disk cache reads and writes, e.g. for its queue wait stats, or null
+     * if the disk caches use separate executors for reads and writes, or were not created yet.
+     */
+    @Nullable
+    public DiskCacheIoScheduler getDiskCacheIoScheduler() {
+        return mDiskCacheIoScheduler;
+    }
 }
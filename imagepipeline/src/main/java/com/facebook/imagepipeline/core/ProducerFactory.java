@@ -13,6 +13,7 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.DiskCacheAdmissionPolicy;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
@@ -55,6 +56,8 @@ import android.content.Context;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
 
+import javax.annotation.Nullable;
+
 public class ProducerFactory {
     // Decode dependencies
     private final ByteArrayPool mByteArrayPool;
@@ -63,6 +66,8 @@ public class ProducerFactory {
     private final boolean mDownsampleEnabled;
     private final boolean mResizeAndRotateEnabledForNetwork;
     private final boolean mDecodeFileDescriptorEnabled;
+    private final boolean mMappedFileReadEnabled;
+    private final boolean mResumableDownloadsEnabled;
     // Dependencies used by multiple steps
     private final ExecutorSupplier mExecutorSupplier;
     private final PooledByteBufferFactory mPooledByteBufferFactory;
@@ -72,6 +77,7 @@ public class ProducerFactory {
     private final MemoryCache<CacheKey, PooledByteBuffer> mEncodedMemoryCache;
     private final MemoryCache<CacheKey, CloseableImage> mBitmapMemoryCache;
     private final CacheKeyFactory mCacheKeyFactory;
+    @Nullable private final DiskCacheAdmissionPolicy mDiskCacheAdmissionPolicy;
     // Postproc dependencies
     private final PlatformBitmapFactory mPlatformBitmapFactory;
     // Local dependencies
@@ -84,7 +90,8 @@ public class ProducerFactory {
                            PooledByteBufferFactory pooledByteBufferFactory, MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache,
                            MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache, BufferedDiskCache defaultBufferedDiskCache,
                            BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory cacheKeyFactory, PlatformBitmapFactory
-                                   platformBitmapFactory, boolean decodeFileDescriptorEnabled) {
+                                   platformBitmapFactory, boolean decodeFileDescriptorEnabled, boolean mappedFileReadEnabled, @Nullable
+                           DiskCacheAdmissionPolicy diskCacheAdmissionPolicy, boolean resumableDownloadsEnabled) {
         mContentResolver = context.getApplicationContext().getContentResolver();
         mResources = context.getApplicationContext().getResources();
         mAssetManager = context.getApplicationContext().getAssets();
@@ -102,6 +109,9 @@ public class ProducerFactory {
         mCacheKeyFactory = cacheKeyFactory;
         mPlatformBitmapFactory = platformBitmapFactory;
         mDecodeFileDescriptorEnabled = decodeFileDescriptorEnabled;
+        mMappedFileReadEnabled = mappedFileReadEnabled;
+        mDiskCacheAdmissionPolicy = diskCacheAdmissionPolicy;
+        mResumableDownloadsEnabled = resumableDownloadsEnabled;
     }
 
     public static AddImageTransformMetaDataProducer newAddImageTransformMetaDataProducer(Producer<EncodedImage> inputProducer) {
@@ -144,7 +154,8 @@ public class ProducerFactory {
     }
 
     public DiskCacheProducer newDiskCacheProducer(Producer<EncodedImage> inputProducer) {
-        return new DiskCacheProducer(mDefaultBufferedDiskCache, mSmallImageBufferedDiskCache, mCacheKeyFactory, inputProducer);
+        return new DiskCacheProducer(mDefaultBufferedDiskCache, mSmallImageBufferedDiskCache, mCacheKeyFactory, inputProducer,
+                mDiskCacheAdmissionPolicy);
     }
 
     public EncodedCacheKeyMultiplexProducer newEncodedCacheKeyMultiplexProducer(Producer<EncodedImage> inputProducer) {
@@ -170,7 +181,8 @@ public class ProducerFactory {
     }
 
     public LocalFileFetchProducer newLocalFileFetchProducer() {
-        return new LocalFileFetchProducer(mExecutorSupplier.forLocalStorageRead(), mPooledByteBufferFactory, mDecodeFileDescriptorEnabled);
+        return new LocalFileFetchProducer(mExecutorSupplier.forLocalStorageRead(), mPooledByteBufferFactory, mDecodeFileDescriptorEnabled,
+                mMappedFileReadEnabled);
     }
 
     public LocalResourceFetchProducer newLocalResourceFetchProducer() {
@@ -183,6 +195,10 @@ public class ProducerFactory {
     }
 
     public NetworkFetchProducer newNetworkFetchProducer(NetworkFetcher networkFetcher) {
+        if (mResumableDownloadsEnabled) {
+            return new NetworkFetchProducer(mPooledByteBufferFactory, mByteArrayPool, networkFetcher, mDefaultBufferedDiskCache,
+                    mSmallImageBufferedDiskCache, mCacheKeyFactory);
+        }
         return new NetworkFetchProducer(mPooledByteBufferFactory, mByteArrayPool, networkFetcher);
     }
 
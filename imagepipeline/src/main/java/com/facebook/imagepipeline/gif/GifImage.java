@@ -61,6 +61,19 @@ public class GifImage implements AnimatedImage {
         return nativeCreateFromDirectByteBuffer(byteBuffer);
     }
 
+    /**
+     * Creates a {@link GifImage} from the encoded data of a direct buffer, such as a file mapped into
+     * memory. This will throw if it fails to create. This is meant to be called on a worker thread.
+     *
+     * @param directBuffer the data to the image (a copy will be made)
+     */
+    public static GifImage create(ByteBuffer directBuffer) {
+        ensure();
+        Preconditions.checkArgument(directBuffer.isDirect());
+        directBuffer.rewind();
+        return nativeCreateFromDirectByteBuffer(directBuffer);
+    }
+
     public static GifImage create(long nativePtr, int sizeInBytes) {
         ensure();
         Preconditions.checkArgument(nativePtr != 0);
@@ -58,6 +58,7 @@ public class EncodedImage implements Closeable {
     private int mHeight = UNKNOWN_HEIGHT;
     private int mSampleSize = DEFAULT_SAMPLE_SIZE;
     private int mStreamSize = UNKNOWN_STREAM_SIZE;
+    private ImageSource mSource = ImageSource.UNKNOWN;
 
     public EncodedImage(CloseableReference<PooledByteBuffer> pooledByteBufferRef) {
         Preconditions.checkArgument(CloseableReference.isValid(pooledByteBufferRef));
@@ -265,6 +266,20 @@ public class EncodedImage implements Closeable {
         this.mSampleSize = sampleSize;
     }
 
+    /**
+     * Returns where the image was fetched from.
+     */
+    public ImageSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * Sets where the image was fetched from
+     */
+    public void setSource(ImageSource source) {
+        mSource = source;
+    }
+
     /**
      * Returns true if the image is a JPEG and its data is already complete at the specified length,
      * false otherwise.
@@ -334,6 +349,7 @@ public class EncodedImage implements Closeable {
         mRotationAngle = encodedImage.getRotationAngle();
         mSampleSize = encodedImage.getSampleSize();
         mStreamSize = encodedImage.getSize();
+        mSource = encodedImage.getSource();
     }
 
     /**
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.util.ByteConstants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} that maps a file into memory, rather than copying
+ * it. The pages are read in by the kernel as they are accessed, and are backed by the page cache
+ * instead of the native memory pool, so the system can reclaim them under memory pressure.
+ *
+ * <p> The buffer does not own native memory: {@link #getNativePtr} falls back to copying the bytes
+ * into a native memory chunk, so the callers that can take a direct buffer should use
+ * {@link #getByteBuffer} instead. The mapping itself is released once the buffer is garbage
+ * collected, as Java has no way of unmapping a file explicitly.
+ */
+@ThreadSafe
+public class MappedPooledByteBuffer implements PooledByteBuffer {
+    /**
+     * The files smaller than this are cheaper to copy than to map, given the cost of setting up the
+     * mapping and of the page faults.
+     */
+    public static final int MIN_MAPPED_SIZE = 16 * ByteConstants.KB;
+    private static final int COPY_BUFFER_SIZE = 16 * ByteConstants.KB;
+    private final int mSize;
+    @GuardedBy("this") private ByteBuffer mBuffer;
+    // The native copy of the bytes made for getNativePtr, if any.
+    @GuardedBy("this") @Nullable private NativeMemoryChunk mNativeCopy;
+
+    public MappedPooledByteBuffer(MappedByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+        mBuffer = buffer;
+        mSize = buffer.capacity();
+    }
+
+    /**
+     * Maps the whole file into memory, read-only.
+     *
+     * @param file the file to map
+     * @return the buffer of the file contents
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MappedPooledByteBuffer map(File file) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            // the mapping stays valid after the channel is closed
+            return new MappedPooledByteBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        ensureValid();
+        return mSize;
+    }
+
+    @Override
+    public synchronized byte read(int offset) {
+        ensureValid();
+        Preconditions.checkArgument(offset >= 0);
+        Preconditions.checkArgument(offset < mSize);
+        return mBuffer.get(offset);
+    }
+
+    @Override
+    public synchronized void read(int offset, byte[] buffer, int bufferOffset, int length) {
+        ensureValid();
+        Preconditions.checkArgument(offset >= 0 && length >= 0);
+        Preconditions.checkArgument(offset + length <= mSize);
+        // the position of a duplicate is independent of the original's
+        ByteBuffer duplicate = mBuffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(buffer, bufferOffset, length);
+    }
+
+    /**
+     * Gets the pointer to a native copy of the bytes, made on the first call. The copy is freed
+     * when this buffer is closed.
+     *
+     * <p> The copy defeats the purpose of the mapping, so prefer {@link #getByteBuffer} wherever a
+     * direct buffer will do.
+     */
+    @Override
+    public synchronized long getNativePtr() {
+        ensureValid();
+        if (mNativeCopy == null) {
+            NativeMemoryChunk nativeCopy = newNativeMemoryChunk(mSize);
+            byte[] chunk = new byte[Math.min(mSize, COPY_BUFFER_SIZE)];
+            ByteBuffer duplicate = mBuffer.duplicate();
+            duplicate.position(0);
+            for (int offset = 0; offset < mSize; offset += chunk.length) {
+                int count = Math.min(chunk.length, mSize - offset);
+                duplicate.get(chunk, 0, count);
+                nativeCopy.write(offset, chunk, 0, count);
+            }
+            mNativeCopy = nativeCopy;
+        }
+        return mNativeCopy.getNativePtr();
+    }
+
+    @VisibleForTesting
+    NativeMemoryChunk newNativeMemoryChunk(int size) {
+        return new NativeMemoryChunk(size);
+    }
+
+    /**
+     * Gets a read-only direct buffer of the mapped bytes. It must not be used after this buffer is
+     * closed.
+     */
+    public synchronized ByteBuffer getByteBuffer() {
+        ensureValid();
+        return mBuffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return mBuffer == null;
+    }
+
+    /**
+     * Drops the reference to the mapping, and frees the native copy if any. It is not an error to
+     * close an already closed buffer.
+     */
+    @Override
+    public synchronized void close() {
+        mBuffer = null;
+        if (mNativeCopy != null) {
+            mNativeCopy.close();
+            mNativeCopy = null;
+        }
+    }
+
+    synchronized void ensureValid() {
+        if (isClosed()) {
+            throw new ClosedException();
+        }
+    }
+}
@@ -11,6 +11,7 @@ package com.facebook.imagepipeline.producers;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactoryUtil;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -29,7 +30,8 @@ public class BitmapMemoryCacheKeyMultiplexProducer extends MultiplexProducer<Pai
     }
 
     protected Pair<CacheKey, ImageRequest.RequestLevel> getKey(ProducerContext producerContext) {
-        return Pair.create(mCacheKeyFactory.getBitmapCacheKey(producerContext.getImageRequest()), producerContext.getLowestPermittedRequestLevel());
+        return Pair.create(CacheKeyFactoryUtil.getBitmapCacheKey(mCacheKeyFactory, producerContext.getImageRequest(),
+                producerContext.getCallerContext()), producerContext.getLowestPermittedRequestLevel());
     }
 
     public CloseableReference<CloseableImage> cloneOrNull(CloseableReference<CloseableImage> closeableImage) {
@@ -13,17 +13,24 @@ import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactoryUtil;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.QualityInfo;
 import com.facebook.imagepipeline.request.ImageRequest;
 
+import java.util.Map;
+
 /**
  * Memory cache producer for the bitmap memory cache.
  */
 public class BitmapMemoryCacheProducer implements Producer<CloseableReference<CloseableImage>> {
     @VisibleForTesting static final String PRODUCER_NAME = "BitmapMemoryCacheProducer";
     @VisibleForTesting static final String VALUE_FOUND = "cached_value_found";
+    // The extra maps are immutable, so they are shared by all the requests instead of being
+    // allocated on each cache lookup.
+    private static final Map<String, String> VALUE_FOUND_EXTRA_MAP = ImmutableMap.of(VALUE_FOUND, "true");
+    private static final Map<String, String> VALUE_NOT_FOUND_EXTRA_MAP = ImmutableMap.of(VALUE_FOUND, "false");
     private final MemoryCache<CacheKey, CloseableImage> mMemoryCache;
     private final CacheKeyFactory mCacheKeyFactory;
     private final Producer<CloseableReference<CloseableImage>> mInputProducer;
@@ -41,13 +48,13 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
         final String requestId = producerContext.getId();
         listener.onProducerStart(requestId, getProducerName());
         final ImageRequest imageRequest = producerContext.getImageRequest();
-        final CacheKey cacheKey = mCacheKeyFactory.getBitmapCacheKey(imageRequest);
+        final CacheKey cacheKey = CacheKeyFactoryUtil.getBitmapCacheKey(mCacheKeyFactory, imageRequest, producerContext.getCallerContext());
         CloseableReference<CloseableImage> cachedReference = mMemoryCache.get(cacheKey);
         if (cachedReference != null) {
             boolean isFinal = cachedReference.get().getQualityInfo().isOfFullQuality();
             if (isFinal) {
-                listener.onProducerFinishWithSuccess(requestId, getProducerName(), listener.requiresExtraMap(requestId) ? ImmutableMap.of
-                        (VALUE_FOUND, "true") : null);
+                listener.onProducerFinishWithSuccess(requestId, getProducerName(), listener.requiresExtraMap(requestId) ? VALUE_FOUND_EXTRA_MAP :
+                        null);
                 consumer.onProgressUpdate(1f);
             }
             consumer.onNewResult(cachedReference, isFinal);
@@ -57,14 +64,13 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
             }
         }
         if (producerContext.getLowestPermittedRequestLevel().getValue() >= ImageRequest.RequestLevel.BITMAP_MEMORY_CACHE.getValue()) {
-            listener.onProducerFinishWithSuccess(requestId, getProducerName(), listener.requiresExtraMap(requestId) ? ImmutableMap.of(VALUE_FOUND,
-                    "false") : null);
+            listener.onProducerFinishWithSuccess(requestId, getProducerName(), listener.requiresExtraMap(requestId) ? VALUE_NOT_FOUND_EXTRA_MAP :
+                    null);
             consumer.onNewResult(null, true);
             return;
         }
         Consumer<CloseableReference<CloseableImage>> wrappedConsumer = wrapConsumer(consumer, cacheKey);
-        listener.onProducerFinishWithSuccess(requestId, getProducerName(), listener.requiresExtraMap(requestId) ? ImmutableMap.of(VALUE_FOUND,
-                "false") : null);
+        listener.onProducerFinishWithSuccess(requestId, getProducerName(), listener.requiresExtraMap(requestId) ? VALUE_NOT_FOUND_EXTRA_MAP : null);
         mInputProducer.produceResults(wrappedConsumer, producerContext);
     }
 
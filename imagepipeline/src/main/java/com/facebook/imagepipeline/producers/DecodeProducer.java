@@ -25,6 +25,7 @@ import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.request.ImageRequest;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -158,7 +159,12 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
                 mProducerListener.onProducerStart(mProducerContext.getId(), PRODUCER_NAME);
                 CloseableImage image = null;
                 try {
+                    long decodeStartTime = SystemClock.uptimeMillis();
                     image = mImageDecoder.decodeImage(encodedImage, length, quality, mImageDecodeOptions);
+                    if (image != null) {
+                        // recorded so that the caches can weigh how expensive it would be to decode it again
+                        image.setDecodeInfo(SystemClock.uptimeMillis() - decodeStartTime, encodedImage.getSource());
+                    }
                 } catch (Exception e) {
                     Map<String, String> extraMap = getExtraMap(image, queueTime, quality, isLast);
                     mProducerListener.
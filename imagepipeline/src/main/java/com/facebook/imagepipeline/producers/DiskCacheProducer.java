@@ -13,6 +13,7 @@ import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.DiskCacheAdmissionPolicy;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -20,6 +21,8 @@ import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 import bolts.Continuation;
 import bolts.Task;
 
@@ -29,7 +32,8 @@ import bolts.Task;
  * <p>This producer looks in the disk cache for the requested image. If the image is found, then it
  * is passed to the consumer. If the image is not found, then the request is passed to the next
  * producer in the sequence. Any results that the producer returns are passed to the consumer, and
- * the last result is also put into the disk cache.
+ * the last result is also put into the disk cache, unless the request or the admission policy
+ * says otherwise.
  *
  * <p>This implementation delegates disk cache requests to BufferedDiskCache.
  */
@@ -40,13 +44,24 @@ public class DiskCacheProducer implements Producer<EncodedImage> {
     private final BufferedDiskCache mSmallImageBufferedDiskCache;
     private final CacheKeyFactory mCacheKeyFactory;
     private final Producer<EncodedImage> mInputProducer;
+    @Nullable private final DiskCacheAdmissionPolicy mAdmissionPolicy;
 
     public DiskCacheProducer(BufferedDiskCache defaultBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory
             cacheKeyFactory, Producer<EncodedImage> inputProducer) {
+        this(defaultBufferedDiskCache, smallImageBufferedDiskCache, cacheKeyFactory, inputProducer, null);
+    }
+
+    /**
+     * @param admissionPolicy decides which of the fetched images are put into the disk cache, all of
+     *                        them if null
+     */
+    public DiskCacheProducer(BufferedDiskCache defaultBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory
+            cacheKeyFactory, Producer<EncodedImage> inputProducer, @Nullable DiskCacheAdmissionPolicy admissionPolicy) {
         mDefaultBufferedDiskCache = defaultBufferedDiskCache;
         mSmallImageBufferedDiskCache = smallImageBufferedDiskCache;
         mCacheKeyFactory = cacheKeyFactory;
         mInputProducer = inputProducer;
+        mAdmissionPolicy = admissionPolicy;
     }
 
     @VisibleForTesting
@@ -67,8 +82,12 @@ public class DiskCacheProducer implements Producer<EncodedImage> {
         final String requestId = producerContext.getId();
         listener.onProducerStart(requestId, PRODUCER_NAME);
         final CacheKey cacheKey = mCacheKeyFactory.getEncodedCacheKey(imageRequest);
+        if (mAdmissionPolicy != null) {
+            mAdmissionPolicy.onRequest(cacheKey);
+        }
         final BufferedDiskCache cache = imageRequest.getImageType() == ImageRequest.ImageType.SMALL ? mSmallImageBufferedDiskCache :
                 mDefaultBufferedDiskCache;
+        final ImageRequest.DiskCacheAdmission admission = imageRequest.getDiskCacheAdmission();
         Continuation<EncodedImage, Void> continuation = new Continuation<EncodedImage, Void>() {
             @Override
             public Void then(Task<EncodedImage> task) throws Exception {
@@ -77,7 +96,7 @@ public class DiskCacheProducer implements Producer<EncodedImage> {
                     consumer.onCancellation();
                 } else if (task.isFaulted()) {
                     listener.onProducerFinishWithFailure(requestId, PRODUCER_NAME, task.getError(), null);
-                    maybeStartInputProducer(consumer, new DiskCacheConsumer(consumer, cache, cacheKey), producerContext);
+                    maybeStartInputProducer(consumer, new DiskCacheConsumer(consumer, cache, cacheKey, admission), producerContext);
                 } else {
                     EncodedImage cachedReference = task.getResult();
                     if (cachedReference != null) {
@@ -87,18 +106,29 @@ public class DiskCacheProducer implements Producer<EncodedImage> {
                         cachedReference.close();
                     } else {
                         listener.onProducerFinishWithSuccess(requestId, PRODUCER_NAME, getExtraMap(listener, requestId, false));
-                        maybeStartInputProducer(consumer, new DiskCacheConsumer(consumer, cache, cacheKey), producerContext);
+                        maybeStartInputProducer(consumer, new DiskCacheConsumer(consumer, cache, cacheKey, admission), producerContext);
                     }
                 }
                 return null;
             }
         };
         AtomicBoolean isCancelled = new AtomicBoolean(false);
-        final Task<EncodedImage> diskCacheLookupTask = cache.get(cacheKey, isCancelled);
+        final Task<EncodedImage> diskCacheLookupTask = cache.get(cacheKey, isCancelled, producerContext.getPriority());
         diskCacheLookupTask.continueWith(continuation);
         subscribeTaskForRequestCancellation(isCancelled, producerContext);
     }
 
+    private boolean shouldAdmit(CacheKey cacheKey, EncodedImage encodedImage, ImageRequest.DiskCacheAdmission admission) {
+        switch (admission) {
+            case ALWAYS:
+                return true;
+            case NEVER:
+                return false;
+            default:
+                return mAdmissionPolicy == null || mAdmissionPolicy.shouldAdmit(cacheKey, encodedImage.getSize());
+        }
+    }
+
     private void maybeStartInputProducer(Consumer<EncodedImage> consumerOfDiskCacheProducer, Consumer<EncodedImage> consumerOfInputProducer,
                                          ProducerContext producerContext) {
         if (producerContext.getLowestPermittedRequestLevel().getValue() >= ImageRequest.RequestLevel.DISK_CACHE.getValue()) {
@@ -120,22 +150,25 @@ public class DiskCacheProducer implements Producer<EncodedImage> {
     /**
      * Consumer that consumes results from next producer in the sequence.
      *
-     * <p>The consumer puts the last result received into disk cache, and passes all results (success
-     * or failure) down to the next consumer.
+     * <p>The consumer puts the last result received into disk cache, if admitted, and passes all
+     * results (success or failure) down to the next consumer.
      */
     private class DiskCacheConsumer extends DelegatingConsumer<EncodedImage, EncodedImage> {
         private final BufferedDiskCache mCache;
         private final CacheKey mCacheKey;
+        private final ImageRequest.DiskCacheAdmission mAdmission;
 
-        private DiskCacheConsumer(final Consumer<EncodedImage> consumer, final BufferedDiskCache cache, final CacheKey cacheKey) {
+        private DiskCacheConsumer(final Consumer<EncodedImage> consumer, final BufferedDiskCache cache, final CacheKey cacheKey, final
+                ImageRequest.DiskCacheAdmission admission) {
             super(consumer);
             mCache = cache;
             mCacheKey = cacheKey;
+            mAdmission = admission;
         }
 
         @Override
         public void onNewResultImpl(EncodedImage newResult, boolean isLast) {
-            if (newResult != null && isLast) {
+            if (newResult != null && isLast && shouldAdmit(mCacheKey, newResult, mAdmission)) {
                 mCache.put(mCacheKey, newResult);
             }
             getConsumer().onNewResult(newResult, isLast);
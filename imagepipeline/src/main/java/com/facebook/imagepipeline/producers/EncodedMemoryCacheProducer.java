@@ -15,6 +15,7 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImageSource;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -46,6 +47,7 @@ public class EncodedMemoryCacheProducer implements Producer<EncodedImage> {
         try {
             if (cachedReference != null) {
                 EncodedImage cachedEncodedImage = new EncodedImage(cachedReference);
+                cachedEncodedImage.setSource(ImageSource.ENCODED_MEMORY_CACHE);
                 try {
                     listener.onProducerFinishWithSuccess(requestId, PRODUCER_NAME, listener.requiresExtraMap(requestId) ? ImmutableMap.of
                             (VALUE_FOUND, "true") : null);
@@ -8,19 +8,37 @@
  */
 package com.facebook.imagepipeline.producers;
 
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.cache.PartialDownload;
 import com.facebook.imagepipeline.image.EncodedImage;
 
 import android.net.Uri;
 
+import javax.annotation.Nullable;
+
 /**
  * Used by {@link NetworkFetcher} to encapsulate the state of one network fetch.
  *
  * <p>Implementations can subclass this to store additional fetch-scoped fields.
+ *
+ * <p> When the disk cache holds the first bytes of the image from a download that stopped before
+ * the end, {@link #getRangeHeader} and {@link #getIfRangeHeader} give the request headers asking
+ * for the rest of the image only. A fetcher sending them has to report the response headers with
+ * {@link #onResponseHeaders} before passing the response on, as the response may hold either the
+ * rest or the whole image.
  */
 public class FetchState {
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final String RANGE_UNIT_PREFIX = "bytes ";
     private final Consumer<EncodedImage> mConsumer;
     private final ProducerContext mContext;
     private long mLastIntermediateResultTimeMs;
+    @Nullable private PartialDownload mPartialDownload;
+    private int mResponseStatusCode;
+    private long mResponseOffset;
+    @Nullable private String mResponseEntityTag;
+    @Nullable private String mResponseLastModified;
 
     public FetchState(Consumer<EncodedImage> consumer, ProducerContext context) {
         mConsumer = consumer;
@@ -55,4 +73,101 @@ public class FetchState {
     public void setLastIntermediateResultTimeMs(long lastIntermediateResultTimeMs) {
         mLastIntermediateResultTimeMs = lastIntermediateResultTimeMs;
     }
+
+    /** Gets the number of bytes of the image already downloaded, or 0 if none. */
+    public synchronized int getResumeOffset() {
+        return mPartialDownload == null ? 0 : mPartialDownload.getSize();
+    }
+
+    /**
+     * Gets the value of the Range request header asking for the bytes of the image not downloaded
+     * yet, or null if the fetch starts from the beginning.
+     */
+    @Nullable
+    public synchronized String getRangeHeader() {
+        return mPartialDownload == null ? null : "bytes=" + mPartialDownload.getSize() + "-";
+    }
+
+    /**
+     * Gets the value of the If-Range request header, which has the server ignore the Range header
+     * and send the whole image if it changed since the bytes already downloaded, or null if the
+     * fetch starts from the beginning.
+     */
+    @Nullable
+    public synchronized String getIfRangeHeader() {
+        return mPartialDownload == null ? null : mPartialDownload.getValidator();
+    }
+
+    /**
+     * Reports the headers of the response, before it is passed to
+     * {@link NetworkFetcher.Callback#onResponse}, or to {@link NetworkFetcher.Callback#onFailure} if
+     * the status code is not a success one.
+     *
+     * @param statusCode   the HTTP status code, 206 if the server sent part of the image only
+     * @param contentRange the value of the Content-Range header, or null if none
+     * @param entityTag    the value of the ETag header, or null if none
+     * @param lastModified the value of the Last-Modified header, or null if none
+     */
+    public void onResponseHeaders(int statusCode, @Nullable String contentRange, @Nullable String entityTag, @Nullable String lastModified) {
+        mResponseStatusCode = statusCode;
+        mResponseOffset = statusCode == HTTP_PARTIAL_CONTENT ? parseRangeStart(contentRange) : 0;
+        mResponseEntityTag = entityTag;
+        mResponseLastModified = lastModified;
+    }
+
+    /**
+     * Gets the offset in the image of the first byte of the response: 0 if it holds the whole
+     * image, or -1 if the server sent a part it did not say the start of.
+     */
+    public long getResponseOffset() {
+        return mResponseOffset;
+    }
+
+    /**
+     * Whether the server refused the range asked for, in which case the bytes already downloaded
+     * are of no use.
+     */
+    public boolean isRangeNotSatisfiable() {
+        return mResponseStatusCode == HTTP_RANGE_NOT_SATISFIABLE;
+    }
+
+    @Nullable
+    public String getResponseEntityTag() {
+        return mResponseEntityTag;
+    }
+
+    @Nullable
+    public String getResponseLastModified() {
+        return mResponseLastModified;
+    }
+
+    /** Sets the bytes already downloaded, which the fetch state then owns. */
+    synchronized void setPartialDownload(PartialDownload partialDownload) {
+        mPartialDownload = partialDownload;
+    }
+
+    /** Takes the bytes already downloaded, the caller then has to close them. */
+    @Nullable
+    synchronized PartialDownload takePartialDownload() {
+        PartialDownload partialDownload = mPartialDownload;
+        mPartialDownload = null;
+        return partialDownload;
+    }
+
+    /** Parses the first byte position of a Content-Range header value, "bytes first-last/length". */
+    @VisibleForTesting
+    static long parseRangeStart(@Nullable String contentRange) {
+        if (contentRange == null || !contentRange.startsWith(RANGE_UNIT_PREFIX)) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-', RANGE_UNIT_PREFIX.length());
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(RANGE_UNIT_PREFIX.length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 }
@@ -24,6 +24,9 @@ import java.util.concurrent.Future;
  *
  * <p> Apps requiring more sophisticated networking should implement their own
  * {@link NetworkFetcher}.
+ *
+ * <p> The fetcher asks for the rest of the image only when part of it was downloaded already, see
+ * {@link FetchState#getRangeHeader}.
  */
 public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchState> {
     private static final int NUM_NETWORK_THREADS = 3;
@@ -54,9 +57,16 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
                     try {
                         URL url = new URL(uriString);
                         connection = (HttpURLConnection) url.openConnection();
+                        String range = fetchState.getRangeHeader();
+                        if (range != null) {
+                            connection.setRequestProperty("Range", range);
+                            connection.setRequestProperty("If-Range", fetchState.getIfRangeHeader());
+                        }
                         nextUriString = connection.getHeaderField("Location");
                         nextScheme = (nextUriString == null) ? null : Uri.parse(nextUriString).getScheme();
                         if (nextUriString == null || nextScheme.equals(scheme)) {
+                            fetchState.onResponseHeaders(connection.getResponseCode(), connection.getHeaderField("Content-Range"),
+                                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
                             is = connection.getInputStream();
                             callback.onResponse(is, -1);
                             break;
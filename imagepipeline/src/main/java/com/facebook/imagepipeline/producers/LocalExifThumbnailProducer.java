@@ -14,6 +14,7 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.UriUtil;
 import com.facebook.imageformat.ImageFormat;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImageSource;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteBufferInputStream;
@@ -106,6 +107,7 @@ public class LocalExifThumbnailProducer implements Producer<EncodedImage> {
         int height = dimensions != null ? dimensions.second : EncodedImage.UNKNOWN_HEIGHT;
         EncodedImage encodedImage = new EncodedImage(CloseableReference.of(imageBytes));
         encodedImage.setImageFormat(ImageFormat.JPEG);
+        encodedImage.setSource(ImageSource.LOCAL);
         encodedImage.setRotationAngle(rotationAngle);
         encodedImage.setWidth(width);
         encodedImage.setHeight(height);
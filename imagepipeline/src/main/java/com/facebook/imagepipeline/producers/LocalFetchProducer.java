@@ -13,6 +13,7 @@ import com.facebook.common.internal.Supplier;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.ByteConstants;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImageSource;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -53,6 +54,7 @@ public abstract class LocalFetchProducer implements Producer<EncodedImage> {
                     return null;
                 }
                 encodedImage.parseMetaData();
+                encodedImage.setSource(ImageSource.LOCAL);
                 return encodedImage;
             }
 
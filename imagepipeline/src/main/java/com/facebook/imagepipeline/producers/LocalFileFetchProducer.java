@@ -9,10 +9,14 @@
 package com.facebook.imagepipeline.producers;
 
 import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.request.ImageRequest;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.concurrent.Executor;
@@ -23,15 +27,40 @@ import java.util.concurrent.Executor;
 public class LocalFileFetchProducer extends LocalFetchProducer {
     @VisibleForTesting static final String PRODUCER_NAME = "LocalFileFetchProducer";
 
+    private final boolean mMappedFileReadEnabled;
+
     public LocalFileFetchProducer(Executor executor, PooledByteBufferFactory pooledByteBufferFactory, boolean decodeFileDescriptorEnabled) {
+        this(executor, pooledByteBufferFactory, decodeFileDescriptorEnabled, false);
+    }
+
+    /**
+     * @param mappedFileReadEnabled whether to map the large files into memory, rather than copying
+     *                              them into the native memory pool
+     */
+    public LocalFileFetchProducer(Executor executor, PooledByteBufferFactory pooledByteBufferFactory, boolean decodeFileDescriptorEnabled,
+                                  boolean mappedFileReadEnabled) {
         super(executor, pooledByteBufferFactory, decodeFileDescriptorEnabled);
+        mMappedFileReadEnabled = mappedFileReadEnabled;
     }
 
     @Override
     protected EncodedImage getEncodedImage(final ImageRequest imageRequest) throws IOException {
+        File file = imageRequest.getSourceFile();
+        if (mMappedFileReadEnabled && file.length() >= MappedPooledByteBuffer.MIN_MAPPED_SIZE) {
+            return getMappedEncodedImage(file);
+        }
         return getEncodedImage(new FileInputStream(imageRequest.getSourceFile().toString()), (int) imageRequest.getSourceFile().length());
     }
 
+    private static EncodedImage getMappedEncodedImage(File file) throws IOException {
+        CloseableReference<PooledByteBuffer> ref = CloseableReference.<PooledByteBuffer>of(MappedPooledByteBuffer.map(file));
+        try {
+            return new EncodedImage(ref);
+        } finally {
+            CloseableReference.closeSafely(ref);
+        }
+    }
+
     @Override
     protected String getProducerName() {
         return PRODUCER_NAME;
@@ -8,13 +8,20 @@
  */
 package com.facebook.imagepipeline.producers;
 
+import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.PartialDownload;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImageSource;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
+import com.facebook.imagepipeline.request.ImageRequest;
 
 import android.os.SystemClock;
 
@@ -24,6 +31,9 @@ import java.util.Map;
 
 import javax.annotation.Nullable;
 
+import bolts.Continuation;
+import bolts.Task;
+
 /**
  * A producer to actually fetch images from the network.
  *
@@ -32,6 +42,12 @@ import javax.annotation.Nullable;
  *
  * <p>Clients should provide an instance of {@link NetworkFetcher} to make use of their networking
  * stack. Use {@link HttpUrlConnectionNetworkFetcher} as a model.
+ *
+ * <p> Given the disk caches, the producer keeps the bytes of the downloads failing or cancelled
+ * midway in the disk cache, with the validators of the response, and the next fetch of the image
+ * asks for the rest only, see {@link FetchState#getRangeHeader}. A fetcher that does not send the
+ * range headers, or a server ignoring them, downloads the whole image again. If the server refuses
+ * the range, the bytes kept are dropped and the image is fetched again without the range headers.
  */
 public class NetworkFetchProducer implements Producer<EncodedImage> {
     public static final String INTERMEDIATE_RESULT_PRODUCER_EVENT = "intermediate_result";
@@ -42,15 +58,33 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
      * TODO 5399646: make this configurable
      */
     @VisibleForTesting static final long TIME_BETWEEN_PARTIAL_RESULTS_MS = 100;
+    /** The number of bytes from which the downloads stopping midway are kept for the next fetch. */
+    @VisibleForTesting static final int MIN_PARTIAL_DOWNLOAD_SIZE = 32 * ByteConstants.KB;
     private static final int READ_SIZE = 16 * 1024;
     private final PooledByteBufferFactory mPooledByteBufferFactory;
     private final ByteArrayPool mByteArrayPool;
     private final NetworkFetcher mNetworkFetcher;
+    @Nullable private final BufferedDiskCache mDefaultBufferedDiskCache;
+    @Nullable private final BufferedDiskCache mSmallImageBufferedDiskCache;
+    @Nullable private final CacheKeyFactory mCacheKeyFactory;
 
     public NetworkFetchProducer(PooledByteBufferFactory pooledByteBufferFactory, ByteArrayPool byteArrayPool, NetworkFetcher networkFetcher) {
+        this(pooledByteBufferFactory, byteArrayPool, networkFetcher, null, null, null);
+    }
+
+    /**
+     * Creates a producer resuming the downloads that stopped midway, from the bytes it keeps in the
+     * disk cache of the image.
+     */
+    public NetworkFetchProducer(PooledByteBufferFactory pooledByteBufferFactory, ByteArrayPool byteArrayPool, NetworkFetcher networkFetcher,
+            @Nullable BufferedDiskCache defaultBufferedDiskCache, @Nullable BufferedDiskCache smallImageBufferedDiskCache, @Nullable
+            CacheKeyFactory cacheKeyFactory) {
         mPooledByteBufferFactory = pooledByteBufferFactory;
         mByteArrayPool = byteArrayPool;
         mNetworkFetcher = networkFetcher;
+        mDefaultBufferedDiskCache = defaultBufferedDiskCache;
+        mSmallImageBufferedDiskCache = smallImageBufferedDiskCache;
+        mCacheKeyFactory = cacheKeyFactory;
     }
 
     private static float calculateProgress(int downloaded, int total) {
@@ -76,14 +110,51 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     public void produceResults(Consumer<EncodedImage> consumer, ProducerContext context) {
         context.getListener().onProducerStart(context.getId(), PRODUCER_NAME);
         final FetchState fetchState = mNetworkFetcher.createFetchState(consumer, context);
+        final BufferedDiskCache partialDownloadCache = getPartialDownloadCache(context.getImageRequest());
+        if (partialDownloadCache == null) {
+            fetch(fetchState, null, null);
+            return;
+        }
+        final CacheKey cacheKey = mCacheKeyFactory.getEncodedCacheKey(context.getImageRequest());
+        partialDownloadCache.getPartialDownload(cacheKey).continueWith(new Continuation<PartialDownload, Void>() {
+            @Override
+            public Void then(Task<PartialDownload> task) throws Exception {
+                if (!task.isCancelled() && !task.isFaulted() && task.getResult() != null) {
+                    fetchState.setPartialDownload(task.getResult());
+                }
+                fetch(fetchState, partialDownloadCache, cacheKey);
+                return null;
+            }
+        });
+    }
+
+    @Nullable
+    private BufferedDiskCache getPartialDownloadCache(ImageRequest imageRequest) {
+        if (mCacheKeyFactory == null || !imageRequest.isDiskCacheEnabled()) {
+            return null;
+        }
+        return imageRequest.getImageType() == ImageRequest.ImageType.SMALL ? mSmallImageBufferedDiskCache : mDefaultBufferedDiskCache;
+    }
+
+    private void fetch(final FetchState fetchState, @Nullable final BufferedDiskCache partialDownloadCache, @Nullable final CacheKey cacheKey) {
         mNetworkFetcher.fetch(fetchState, new NetworkFetcher.Callback() {
             @Override
             public void onResponse(InputStream response, int responseLength) throws IOException {
-                NetworkFetchProducer.this.onResponse(fetchState, response, responseLength);
+                NetworkFetchProducer.this.onResponse(fetchState, response, responseLength, partialDownloadCache, cacheKey);
             }
 
             @Override
             public void onFailure(Throwable throwable) {
+                if (partialDownloadCache != null && fetchState.isRangeNotSatisfiable()) {
+                    final PartialDownload partialDownload = fetchState.takePartialDownload();
+                    if (partialDownload != null) {
+                        // the bytes kept are of no use, download the whole image instead
+                        partialDownload.close();
+                        partialDownloadCache.removePartialDownload(cacheKey);
+                        fetch(fetchState, partialDownloadCache, cacheKey);
+                        return;
+                    }
+                }
                 NetworkFetchProducer.this.onFailure(fetchState, throwable);
             }
 
@@ -94,32 +165,113 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
         });
     }
 
-    private void onResponse(FetchState fetchState, InputStream responseData, int responseContentLength) throws IOException {
+    private void onResponse(FetchState fetchState, InputStream responseData, int responseContentLength, @Nullable BufferedDiskCache
+            partialDownloadCache, @Nullable CacheKey cacheKey) throws IOException {
+        final PartialDownload partialDownload = fetchState.takePartialDownload();
+        final int prefixLength;
+        try {
+            prefixLength = getPrefixLength(fetchState, partialDownload);
+        } catch (IOException ioe) {
+            closeSafely(partialDownload);
+            throw ioe;
+        }
+        final int totalLength = responseContentLength > 0 ? prefixLength + responseContentLength : responseContentLength;
         final PooledByteBufferOutputStream pooledOutputStream;
-        if (responseContentLength > 0) {
-            pooledOutputStream = mPooledByteBufferFactory.newOutputStream(responseContentLength);
+        if (totalLength > 0) {
+            pooledOutputStream = mPooledByteBufferFactory.newOutputStream(totalLength);
         } else {
             pooledOutputStream = mPooledByteBufferFactory.newOutputStream();
         }
         final byte[] ioArray = mByteArrayPool.get(READ_SIZE);
         try {
+            if (prefixLength > 0) {
+                writePrefix(partialDownload.getBytes(), pooledOutputStream, ioArray);
+            }
             int length;
-            while ((length = responseData.read(ioArray)) >= 0) {
-                if (length > 0) {
-                    pooledOutputStream.write(ioArray, 0, length);
-                    maybeHandleIntermediateResult(pooledOutputStream, fetchState);
-                    float progress = calculateProgress(pooledOutputStream.size(), responseContentLength);
-                    fetchState.getConsumer().onProgressUpdate(progress);
+            try {
+                while ((length = responseData.read(ioArray)) >= 0) {
+                    if (length > 0) {
+                        pooledOutputStream.write(ioArray, 0, length);
+                        maybeHandleIntermediateResult(pooledOutputStream, fetchState);
+                        float progress = calculateProgress(pooledOutputStream.size(), totalLength);
+                        fetchState.getConsumer().onProgressUpdate(progress);
+                    }
                 }
+            } catch (IOException ioe) {
+                maybeKeepPartialDownload(fetchState, pooledOutputStream, partialDownload, partialDownloadCache, cacheKey);
+                throw ioe;
+            }
+            if (partialDownloadCache != null && partialDownload != null) {
+                partialDownloadCache.removePartialDownload(cacheKey);
             }
             mNetworkFetcher.onFetchCompletion(fetchState, pooledOutputStream.size());
             handleFinalResult(pooledOutputStream, fetchState);
         } finally {
+            closeSafely(partialDownload);
             mByteArrayPool.release(ioArray);
             pooledOutputStream.close();
         }
     }
 
+    /**
+     * Gets the number of bytes already downloaded the response follows, 0 if the response holds the
+     * whole image.
+     *
+     * @throws IOException if the response follows none of the bytes downloaded
+     */
+    private static int getPrefixLength(FetchState fetchState, @Nullable PartialDownload partialDownload) throws IOException {
+        final long responseOffset = fetchState.getResponseOffset();
+        if (responseOffset == 0) {
+            return 0;
+        }
+        if (partialDownload == null || responseOffset != partialDownload.getSize()) {
+            throw new IOException("Unexpected response range starting at " + responseOffset);
+        }
+        return partialDownload.getSize();
+    }
+
+    private static void writePrefix(PooledByteBuffer prefix, PooledByteBufferOutputStream pooledOutputStream, byte[] ioArray) throws
+            IOException {
+        for (int offset = 0; offset < prefix.size(); offset += ioArray.length) {
+            int length = Math.min(ioArray.length, prefix.size() - offset);
+            prefix.read(offset, ioArray, 0, length);
+            pooledOutputStream.write(ioArray, 0, length);
+        }
+    }
+
+    /**
+     * Keeps the bytes downloaded for the next fetch, if there are enough of them, and the response
+     * has validators the server can tell the image did not change by.
+     */
+    private void maybeKeepPartialDownload(FetchState fetchState, PooledByteBufferOutputStream pooledOutputStream, @Nullable
+            PartialDownload previousPartialDownload, @Nullable BufferedDiskCache partialDownloadCache, @Nullable CacheKey cacheKey) {
+        if (partialDownloadCache == null || pooledOutputStream.size() < MIN_PARTIAL_DOWNLOAD_SIZE) {
+            return;
+        }
+        String entityTag = fetchState.getResponseEntityTag();
+        String lastModified = fetchState.getResponseLastModified();
+        if (!PartialDownload.hasValidator(entityTag, lastModified) && previousPartialDownload != null && fetchState.getResponseOffset() > 0) {
+            // the range was sent on the condition the image did not change
+            entityTag = previousPartialDownload.getEntityTag();
+            lastModified = previousPartialDownload.getLastModified();
+        }
+        if (!PartialDownload.hasValidator(entityTag, lastModified)) {
+            return;
+        }
+        final CloseableReference<PooledByteBuffer> bytesRef = CloseableReference.of(pooledOutputStream.toByteBuffer());
+        try {
+            partialDownloadCache.putPartialDownload(cacheKey, new PartialDownload(bytesRef, entityTag, lastModified));
+        } finally {
+            bytesRef.close();
+        }
+    }
+
+    private static void closeSafely(@Nullable PartialDownload partialDownload) {
+        if (partialDownload != null) {
+            partialDownload.close();
+        }
+    }
+
     private void maybeHandleIntermediateResult(PooledByteBufferOutputStream pooledOutputStream, FetchState fetchState) {
         final long nowMs = SystemClock.elapsedRealtime();
         if (shouldPropagateIntermediateResults(fetchState) && nowMs - fetchState.getLastIntermediateResultTimeMs() >=
@@ -142,6 +294,7 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
         try {
             encodedImage = new EncodedImage(result);
             encodedImage.parseMetaData();
+            encodedImage.setSource(ImageSource.NETWORK);
             consumer.onNewResult(encodedImage, isFinal);
         } finally {
             EncodedImage.closeSafely(encodedImage);
@@ -150,11 +303,13 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     }
 
     private void onFailure(FetchState fetchState, Throwable e) {
+        closeSafely(fetchState.takePartialDownload());
         fetchState.getListener().onProducerFinishWithFailure(fetchState.getId(), PRODUCER_NAME, e, null);
         fetchState.getConsumer().onFailure(e);
     }
 
     private void onCancellation(FetchState fetchState) {
+        closeSafely(fetchState.takePartialDownload());
         fetchState.getListener().onProducerFinishWithCancellation(fetchState.getId(), PRODUCER_NAME, null);
         fetchState.getConsumer().onCancellation();
     }
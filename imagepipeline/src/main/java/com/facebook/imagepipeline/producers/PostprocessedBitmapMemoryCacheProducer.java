@@ -13,6 +13,7 @@ import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactoryUtil;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -48,7 +49,8 @@ public class PostprocessedBitmapMemoryCacheProducer implements Producer<Closeabl
             return;
         }
         listener.onProducerStart(requestId, getProducerName());
-        final CacheKey cacheKey = mCacheKeyFactory.getPostprocessedBitmapCacheKey(imageRequest);
+        final CacheKey cacheKey = CacheKeyFactoryUtil.getPostprocessedBitmapCacheKey(mCacheKeyFactory, imageRequest, producerContext
+                .getCallerContext());
         CloseableReference<CloseableImage> cachedReference = mMemoryCache.get(cacheKey);
         if (cachedReference != null) {
             listener.onProducerFinishWithSuccess(requestId, getProducerName(), listener.requiresExtraMap(requestId) ? ImmutableMap.of(VALUE_FOUND,
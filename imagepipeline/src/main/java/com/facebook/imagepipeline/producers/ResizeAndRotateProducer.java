@@ -17,6 +17,7 @@ import com.facebook.common.util.TriState;
 import com.facebook.imageformat.ImageFormat;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImageSource;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
@@ -204,6 +205,7 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage> {
                 try {
                     ret = new EncodedImage(ref);
                     ret.setImageFormat(ImageFormat.JPEG);
+                    ret.setSource(encodedImage.getSource());
                     try {
                         ret.parseMetaData();
                         mProducerContext.getListener().
@@ -43,6 +43,8 @@ public class ImageRequest {
     private final RequestLevel mLowestPermittedRequestLevel;
     /** Whether the disk cache should be used for this request */
     private final boolean mIsDiskCacheEnabled;
+    /** Whether the fetched image is written to the disk cache */
+    private final DiskCacheAdmission mDiskCacheAdmission;
     /** Postprocessor to run on the output bitmap. */
     private final Postprocessor mPostprocessor;
     /** resize options */
@@ -61,6 +63,7 @@ public class ImageRequest {
         mRequestPriority = builder.getRequestPriority();
         mLowestPermittedRequestLevel = builder.getLowestPermittedRequestLevel();
         mIsDiskCacheEnabled = builder.isDiskCacheEnabled();
+        mDiskCacheAdmission = builder.getDiskCacheAdmission();
         mPostprocessor = builder.getPostprocessor();
     }
 
@@ -122,6 +125,10 @@ public class ImageRequest {
         return mIsDiskCacheEnabled;
     }
 
+    public DiskCacheAdmission getDiskCacheAdmission() {
+        return mDiskCacheAdmission;
+    }
+
     public synchronized File getSourceFile() {
         if (mSourceFile == null) {
             mSourceFile = new File(mSourceUri.getPath());
@@ -161,6 +168,18 @@ public class ImageRequest {
         DEFAULT,
     }
 
+    /**
+     * Whether the image fetched for the request is written to the disk cache.
+     */
+    public enum DiskCacheAdmission {
+        /* As decided by the pipeline's disk cache admission policy, if any. Default */
+        DEFAULT,
+        /* Always written, e.g. for an image known to be shown again */
+        ALWAYS,
+        /* Never written, e.g. for a one-off ad */
+        NEVER,
+    }
+
     /**
      * Level down to we are willing to go in order to find an image. E.g., we might only want to go
      * down to bitmap memory cache, and not check the disk cache or do a full fetch.
@@ -18,6 +18,7 @@ import android.net.Uri;
 
 import javax.annotation.Nullable;
 
+import static com.facebook.imagepipeline.request.ImageRequest.DiskCacheAdmission;
 import static com.facebook.imagepipeline.request.ImageRequest.ImageType;
 import static com.facebook.imagepipeline.request.ImageRequest.RequestLevel;
 
@@ -35,6 +36,7 @@ public class ImageRequestBuilder {
     private boolean mLocalThumbnailPreviewsEnabled = false;
     private Priority mRequestPriority = Priority.HIGH;
     private @Nullable Postprocessor mPostprocessor = null;
+    private DiskCacheAdmission mDiskCacheAdmission = DiskCacheAdmission.DEFAULT;
 
     private ImageRequestBuilder() {
     }
@@ -82,7 +84,7 @@ public class ImageRequestBuilder {
                 .setLocalThumbnailPreviewsEnabled(imageRequest.getLocalThumbnailPreviewsEnabled()).setLowestPermittedRequestLevel(imageRequest
                         .getLowestPermittedRequestLevel()).setPostprocessor(imageRequest.getPostprocessor()).setProgressiveRenderingEnabled
                         (imageRequest.getProgressiveRenderingEnabled()).setRequestPriority(imageRequest.getPriority()).setResizeOptions
-                        (imageRequest.getResizeOptions());
+                        (imageRequest.getResizeOptions()).setDiskCacheAdmission(imageRequest.getDiskCacheAdmission());
     }
 
     /**
@@ -213,6 +215,22 @@ public class ImageRequestBuilder {
         return UriUtil.isNetworkUri(mSourceUri);
     }
 
+    /** Returns whether the fetched image is written to the disk cache */
+    public DiskCacheAdmission getDiskCacheAdmission() {
+        return mDiskCacheAdmission;
+    }
+
+    /**
+     * Sets whether the fetched image is written to the disk cache, overriding the pipeline's
+     * {@link com.facebook.imagepipeline.cache.DiskCacheAdmissionPolicy}.
+     *
+     * @return the modified builder instance
+     */
+    public ImageRequestBuilder setDiskCacheAdmission(DiskCacheAdmission diskCacheAdmission) {
+        mDiskCacheAdmission = Preconditions.checkNotNull(diskCacheAdmission);
+        return this;
+    }
+
     /** Returns the request priority */
     public Priority getRequestPriority() {
         return mRequestPriority;
@@ -67,6 +67,19 @@ public class WebPImage implements AnimatedImage {
         return nativeCreateFromDirectByteBuffer(byteBuffer);
     }
 
+    /**
+     * Creates a {@link WebPImage} from the encoded data of a direct buffer, such as a file mapped into
+     * memory. This will throw if it fails to create. This is meant to be called on a worker thread.
+     *
+     * @param directBuffer the data to the image (a copy will be made)
+     */
+    public static WebPImage create(ByteBuffer directBuffer) {
+        ensure();
+        Preconditions.checkArgument(directBuffer.isDirect());
+        directBuffer.rewind();
+        return nativeCreateFromDirectByteBuffer(directBuffer);
+    }
+
     public static WebPImage create(long nativePtr, int sizeInBytes) {
         ensure();
         Preconditions.checkArgument(nativePtr != 0);
@@ -15,8 +15,8 @@ import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.cache.AbstractCountingMemoryCache;
 import com.facebook.imagepipeline.cache.BitmapCountingMemoryCacheFactory;
-import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.cache.MemoryCacheParams;
 import com.facebook.imagepipeline.image.CloseableImage;
 
@@ -55,7 +55,7 @@ public class AnimatedFrameCacheTest {
         Integer.MAX_VALUE,
         Integer.MAX_VALUE);
     when(mMemoryCacheParamsSupplier.get()).thenReturn(params);
-    CountingMemoryCache<CacheKey, CloseableImage> countingMemoryCache =
+    AbstractCountingMemoryCache<CacheKey, CloseableImage> countingMemoryCache =
         BitmapCountingMemoryCacheFactory.get(mMemoryCacheParamsSupplier, mMemoryTrimmableRegistry);
     mCacheKey = new SimpleCacheKey("key");
     mAnimatedFrameCache = new AnimatedFrameCache(mCacheKey, countingMemoryCache);
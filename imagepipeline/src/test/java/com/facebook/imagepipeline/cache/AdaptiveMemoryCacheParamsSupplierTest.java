@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link AdaptiveMemoryCacheParamsSupplier}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class AdaptiveMemoryCacheParamsSupplierTest {
+
+  private static final int BASE_CACHE_SIZE = 800;
+  private static final int BASE_EVICTION_QUEUE_SIZE = 400;
+  private static final int MIN_CACHE_SIZE = 600;
+  private static final int MAX_CACHE_SIZE = 1000;
+
+  private AdaptiveMemoryCacheParamsSupplier mSupplier;
+  private CountingMemoryCache<String, Integer> mCache;
+
+  @Before
+  public void setUp() {
+    Supplier<MemoryCacheParams> baseParamsSupplier =
+        new Supplier<MemoryCacheParams>() {
+          @Override
+          public MemoryCacheParams get() {
+            return new MemoryCacheParams(BASE_CACHE_SIZE, 100, BASE_EVICTION_QUEUE_SIZE, 100, 100);
+          }
+        };
+    mSupplier = new AdaptiveMemoryCacheParamsSupplier(baseParamsSupplier, MIN_CACHE_SIZE, MAX_CACHE_SIZE);
+    mCache = new CountingMemoryCache<>(
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        },
+        new CountingMemoryCache.CacheTrimStrategy() {
+          @Override
+          public double getTrimRatio(MemoryTrimType trimType) {
+            return 0;
+          }
+        },
+        mSupplier);
+    mSupplier.attach(mCache);
+  }
+
+  @Test
+  public void testBaseParams() {
+    MemoryCacheParams params = mSupplier.get();
+    assertEquals(BASE_CACHE_SIZE, params.maxCacheSize);
+    assertEquals(BASE_EVICTION_QUEUE_SIZE, params.maxEvictionQueueSize);
+    assertEquals(100, params.maxCacheEntries);
+  }
+
+  @Test
+  public void testChurnGrowsCache() {
+    assertTrue(mSupplier.onWindowEnd(0.5f, AdaptiveMemoryCacheParamsSupplier.GROWTH_CHURN_RATIO));
+    assertEquals(900, mSupplier.getMaxCacheSize());
+    // the eviction queue keeps its share of the cache
+    assertEquals(450, mSupplier.get().maxEvictionQueueSize);
+    // the hit rate improved, so the cache keeps growing, up to the max size
+    assertTrue(mSupplier.onWindowEnd(0.6f, AdaptiveMemoryCacheParamsSupplier.GROWTH_CHURN_RATIO));
+    assertEquals(MAX_CACHE_SIZE, mSupplier.getMaxCacheSize());
+    assertFalse(mSupplier.onWindowEnd(0.7f, AdaptiveMemoryCacheParamsSupplier.GROWTH_CHURN_RATIO));
+    assertEquals(MAX_CACHE_SIZE, mSupplier.getMaxCacheSize());
+  }
+
+  @Test
+  public void testGrowthWithoutGainIsReverted() {
+    mSupplier.onWindowEnd(0.5f, 1);
+    assertEquals(900, mSupplier.getMaxCacheSize());
+    assertTrue(mSupplier.onWindowEnd(0.5f, 1));
+    // the size before the growth is restored exactly
+    assertEquals(BASE_CACHE_SIZE, mSupplier.getMaxCacheSize());
+    // the size is held for a few windows, despite the churn
+    for (int i = 0; i < AdaptiveMemoryCacheParamsSupplier.HOLD_WINDOW_COUNT; i++) {
+      assertFalse(mSupplier.onWindowEnd(0.5f, 1));
+    }
+    assertTrue(mSupplier.onWindowEnd(0.5f, 1));
+    assertEquals(900, mSupplier.getMaxCacheSize());
+  }
+
+  @Test
+  public void testRepeatedRevertsDoNotShrinkCache() {
+    for (int cycle = 0; cycle < 3; cycle++) {
+      assertTrue(mSupplier.onWindowEnd(0.5f, 1));
+      assertEquals(900, mSupplier.getMaxCacheSize());
+      assertTrue(mSupplier.onWindowEnd(0.5f, 1));
+      assertEquals(BASE_CACHE_SIZE, mSupplier.getMaxCacheSize());
+      for (int i = 0; i < AdaptiveMemoryCacheParamsSupplier.HOLD_WINDOW_COUNT; i++) {
+        assertFalse(mSupplier.onWindowEnd(0.5f, 1));
+      }
+    }
+  }
+
+  @Test
+  public void testRevertRestoresSizeBeforeLastGrowth() {
+    mSupplier.onWindowEnd(0.5f, 1);
+    mSupplier.onWindowEnd(0.6f, 1);
+    assertEquals(MAX_CACHE_SIZE, mSupplier.getMaxCacheSize());
+    assertTrue(mSupplier.onWindowEnd(0.6f, 1));
+    assertEquals(900, mSupplier.getMaxCacheSize());
+  }
+
+  @Test
+  public void testNoChurnKeepsSize() {
+    assertFalse(mSupplier.onWindowEnd(0.9f, 0));
+    assertEquals(BASE_CACHE_SIZE, mSupplier.getMaxCacheSize());
+  }
+
+  @Test
+  public void testForegroundTrimShrinksCacheRightAway() {
+    cache("k1", 50).close();
+    cache("k2", 50).close();
+    mSupplier.trim(MemoryTrimType.OnAppBackgrounded);
+    assertEquals(BASE_CACHE_SIZE, mSupplier.getMaxCacheSize());
+
+    mSupplier.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+    assertEquals(700, mCache.getMemoryCacheParams().maxCacheSize);
+    assertEquals(350, mCache.getMemoryCacheParams().maxEvictionQueueSize);
+    mSupplier.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+    mSupplier.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+    assertEquals(MIN_CACHE_SIZE, mCache.getMemoryCacheParams().maxCacheSize);
+    assertEquals(2, mCache.getCount());
+  }
+
+  @Test
+  public void testWindowOfRequests() {
+    // the items in use are not evicted, so the cache stays full
+    List<CloseableReference<Integer>> inUseRefs = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      inUseRefs.add(cache("k" + i, 80));
+    }
+    for (int i = 0; i < AdaptiveMemoryCacheParamsSupplier.WINDOW_REQUEST_COUNT / 10; i++) {
+      // the cache is full, so the put counts as churn
+      mSupplier.onCachePut();
+    }
+    for (int i = 0; i < AdaptiveMemoryCacheParamsSupplier.WINDOW_REQUEST_COUNT - 1; i++) {
+      mSupplier.onCacheMiss();
+    }
+    assertEquals(BASE_CACHE_SIZE, mCache.getMemoryCacheParams().maxCacheSize);
+    mSupplier.onCacheHit();
+    // the new params are pushed to the cache right away
+    assertEquals(900, mCache.getMemoryCacheParams().maxCacheSize);
+    CloseableReference.closeSafely(inUseRefs);
+  }
+
+  private CloseableReference<Integer> cache(String key, int size) {
+    CloseableReference<Integer> originalRef =
+        CloseableReference.of(
+            size,
+            new ResourceReleaser<Integer>() {
+              @Override
+              public void release(Integer value) {
+              }
+            });
+    CloseableReference<Integer> cachedRef = mCache.cache(key, originalRef);
+    originalRef.close();
+    return cachedRef;
+  }
+}
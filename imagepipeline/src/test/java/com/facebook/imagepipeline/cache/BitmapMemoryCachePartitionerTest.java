@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.Arrays;
+
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+import android.net.Uri;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BitmapMemoryCachePartitioner}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class BitmapMemoryCachePartitionerTest {
+
+  private BitmapMemoryCachePartitioner mPartitioner;
+
+  @Before
+  public void setUp() {
+    mPartitioner = new BitmapMemoryCachePartitioner(Arrays.asList("feed", "profile"));
+  }
+
+  @Test
+  public void testPartitionCount() {
+    assertEquals(4, mPartitioner.getPartitionCount());
+    assertEquals(2, new BitmapMemoryCachePartitioner().getPartitionCount());
+  }
+
+  @Test
+  public void testPartitionByImageType() {
+    assertEquals(
+        BitmapMemoryCachePartitioner.DEFAULT_PARTITION,
+        mPartitioner.getPartition(newKey(ImageRequest.ImageType.DEFAULT, null)));
+    assertEquals(
+        BitmapMemoryCachePartitioner.SMALL_PARTITION,
+        mPartitioner.getPartition(newKey(ImageRequest.ImageType.SMALL, null)));
+    assertEquals(
+        BitmapMemoryCachePartitioner.DEFAULT_PARTITION,
+        mPartitioner.getPartition(new SimpleCacheKey("key")));
+  }
+
+  @Test
+  public void testPartitionByTag() {
+    assertEquals(2, mPartitioner.getPartition(newKey(ImageRequest.ImageType.SMALL, "feed")));
+    assertEquals(3, mPartitioner.getPartition(newKey(ImageRequest.ImageType.DEFAULT, "profile")));
+    assertEquals(3, mPartitioner.getPartition("profile"));
+    assertEquals(-1, mPartitioner.getPartition("unknown"));
+    // the unknown tags fall back to the image type partitions
+    assertEquals(
+        BitmapMemoryCachePartitioner.SMALL_PARTITION,
+        mPartitioner.getPartition(newKey(ImageRequest.ImageType.SMALL, "unknown")));
+  }
+
+  @Test
+  public void testPartitionIsPartOfTheKey() {
+    assertEquals(
+        newKey(ImageRequest.ImageType.SMALL, "feed"),
+        newKey(ImageRequest.ImageType.SMALL, "feed"));
+    assertEquals(
+        newKey(ImageRequest.ImageType.SMALL, "feed").hashCode(),
+        newKey(ImageRequest.ImageType.SMALL, "feed").hashCode());
+    assertNotEquals(
+        newKey(ImageRequest.ImageType.SMALL, "feed"),
+        newKey(ImageRequest.ImageType.SMALL, null));
+    assertNotEquals(
+        newKey(ImageRequest.ImageType.SMALL, null),
+        newKey(ImageRequest.ImageType.DEFAULT, null));
+  }
+
+  @Test
+  public void testKeyFactories() {
+    ImageRequest smallRequest = newRequest(ImageRequest.ImageType.SMALL);
+    ImageRequest defaultRequest = newRequest(ImageRequest.ImageType.DEFAULT);
+    MemoryCachePartitionTagged feedCallerContext =
+        new MemoryCachePartitionTagged() {
+          @Override
+          public String getMemoryCachePartitionTag() {
+            return "feed";
+          }
+        };
+    // without partitions, the image type and the caller context make no difference
+    CacheKeyFactory defaultFactory = DefaultCacheKeyFactory.getInstance();
+    assertFalse(defaultFactory instanceof CallerContextCacheKeyFactory);
+    assertEquals(
+        defaultFactory.getBitmapCacheKey(smallRequest),
+        defaultFactory.getBitmapCacheKey(defaultRequest));
+    assertEquals(
+        BitmapMemoryCachePartitioner.DEFAULT_PARTITION,
+        mPartitioner.getPartition(defaultFactory.getBitmapCacheKey(smallRequest)));
+
+    PartitionedCacheKeyFactory partitionedFactory = PartitionedCacheKeyFactory.getInstance();
+    assertNotEquals(
+        partitionedFactory.getBitmapCacheKey(smallRequest),
+        partitionedFactory.getBitmapCacheKey(defaultRequest));
+    assertEquals(
+        BitmapMemoryCachePartitioner.SMALL_PARTITION,
+        mPartitioner.getPartition(partitionedFactory.getBitmapCacheKey(smallRequest)));
+    assertEquals(
+        2,
+        mPartitioner.getPartition(
+            partitionedFactory.getBitmapCacheKey(defaultRequest, feedCallerContext)));
+    // the default partition keys are the unpartitioned ones
+    assertEquals(
+        defaultFactory.getBitmapCacheKey(defaultRequest),
+        partitionedFactory.getBitmapCacheKey(defaultRequest));
+    assertEquals(
+        defaultFactory.getBitmapCacheKey(defaultRequest).hashCode(),
+        partitionedFactory.getBitmapCacheKey(defaultRequest).hashCode());
+  }
+
+  private static ImageRequest newRequest(ImageRequest.ImageType imageType) {
+    return ImageRequestBuilder.newBuilderWithSource(Uri.parse("http://image"))
+        .setImageType(imageType)
+        .build();
+  }
+
+  private static BitmapMemoryCacheKey newKey(ImageRequest.ImageType imageType, String partitionTag) {
+    return new BitmapMemoryCacheKey(
+        "http://image",
+        null,
+        false,
+        ImageDecodeOptions.defaults(),
+        null,
+        null,
+        imageType,
+        partitionTag);
+  }
+}
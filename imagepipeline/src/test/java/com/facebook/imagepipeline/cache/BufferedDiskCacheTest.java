@@ -9,18 +9,26 @@
 
 package com.facebook.imagepipeline.cache;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.DefiniteMissFileCache;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteStreams;
@@ -48,7 +56,7 @@ import static org.powermock.api.mockito.PowerMockito.*;
 @PrepareOnlyThisForTest(StagingArea.class)
 @Config(manifest=Config.NONE)
 public class BufferedDiskCacheTest {
-  @Mock public FileCache mFileCache;
+  @Mock public DefiniteMissFileCache mFileCache;
   @Mock public PooledByteBufferFactory mByteBufferFactory;
   @Mock public PooledByteStreams mPooledByteStreams;
   @Mock public StagingArea mStagingArea;
@@ -109,6 +117,31 @@ public class BufferedDiskCacheTest {
     assertSame(mPooledByteBuffer, readTask.getResult().getByteBufferRef().get());
   }
 
+  @Test
+  public void testMapsLargeCachedFile() throws Exception {
+    File file = new File(RuntimeEnvironment.application.getCacheDir(), "buffered-disk-cache-test");
+    FileOutputStream stream = new FileOutputStream(file);
+    stream.write(new byte[MappedPooledByteBuffer.MIN_MAPPED_SIZE]);
+    stream.close();
+    when(mFileCache.getResource(eq(mCacheKey))).thenReturn(FileBinaryResource.createOrNull(file));
+    BufferedDiskCache bufferedDiskCache = new BufferedDiskCache(
+        mFileCache,
+        mByteBufferFactory,
+        mPooledByteStreams,
+        mReadPriorityExecutor,
+        mWritePriorityExecutor,
+        mImageCacheStatsTracker,
+        true);
+
+    Task<EncodedImage> readTask = bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+    PooledByteBuffer byteBuffer = readTask.getResult().getByteBufferRef().get();
+    assertTrue(byteBuffer instanceof MappedPooledByteBuffer);
+    assertEquals(MappedPooledByteBuffer.MIN_MAPPED_SIZE, byteBuffer.size());
+    verifyZeroInteractions(mByteBufferFactory);
+    file.delete();
+  }
+
   @Test
   public void testCacheGetCancellation() throws Exception {
     when(mFileCache.getResource(eq(mCacheKey))).thenReturn(mBinaryResource);
@@ -158,6 +191,55 @@ public class BufferedDiskCacheTest {
     assertNull(readTask.getResult());
   }
 
+  @Test
+  public void testDefinitelyMissing() throws Exception {
+    when(mFileCache.isDefinitelyMissing(mCacheKey)).thenReturn(true);
+    Task<EncodedImage> readTask = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    Task<Boolean> containsTask = mBufferedDiskCache.contains(mCacheKey);
+    // answered without going to the disk
+    assertTrue(readTask.isCompleted());
+    assertNull(readTask.getResult());
+    assertTrue(containsTask.isCompleted());
+    assertFalse(containsTask.getResult());
+    verify(mFileCache, never()).getResource(any(CacheKey.class));
+    verify(mFileCache, never()).hasKey(any(CacheKey.class));
+    verify(mImageCacheStatsTracker).onDiskCacheMiss();
+  }
+
+  @Test
+  public void testGoesToDiskWithoutDefiniteMisses() throws Exception {
+    FileCache fileCache = mock(FileCache.class);
+    mBufferedDiskCache = new BufferedDiskCache(
+        fileCache,
+        mByteBufferFactory,
+        mPooledByteStreams,
+        mReadPriorityExecutor,
+        mWritePriorityExecutor,
+        mImageCacheStatsTracker);
+    Task<Boolean> containsTask = mBufferedDiskCache.contains(mCacheKey);
+    mReadPriorityExecutor.runUntilIdle();
+    assertFalse(containsTask.getResult());
+    verify(fileCache).hasKey(mCacheKey);
+  }
+
+  @Test
+  public void testFindCachedKeys() throws Exception {
+    CacheKey pinnedKey = new SimpleCacheKey("http://pinned.uri");
+    CacheKey missingKey = new SimpleCacheKey("http://missing.uri");
+    CacheKey uncachedKey = new SimpleCacheKey("http://uncached.uri");
+    when(mStagingArea.get(pinnedKey)).thenReturn(mEncodedImage.cloneOrNull());
+    when(mFileCache.isDefinitelyMissing(missingKey)).thenReturn(true);
+    when(mFileCache.hasKey(mCacheKey)).thenReturn(true);
+
+    Task<Set<CacheKey>> findTask = mBufferedDiskCache.findCachedKeys(
+        Arrays.asList(mCacheKey, pinnedKey, missingKey, uncachedKey));
+    mReadPriorityExecutor.runUntilIdle();
+    assertEquals(new HashSet<>(Arrays.asList(mCacheKey, pinnedKey)), findTask.getResult());
+    verify(mFileCache, never()).hasKey(missingKey);
+    verify(mFileCache, never()).hasKey(pinnedKey);
+    verify(mFileCache).hasKey(uncachedKey);
+  }
+
   @Test
   public void testPutBumpsRefCountBeforeSubmit() {
     mBufferedDiskCache.put(mCacheKey, mEncodedImage);
@@ -171,6 +253,96 @@ public class BufferedDiskCacheTest {
     assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
   }
 
+  @Test
+  public void testCoalescesWrites() throws Exception {
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    assertEquals(1, mWritePriorityExecutor.getPendingCount());
+    assertEquals(3, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache, times(1)).insert(eq(mCacheKey), any(WriterCallback.class));
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+
+    // the write started, so the next put is written again
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache, times(2)).insert(eq(mCacheKey), any(WriterCallback.class));
+  }
+
+  @Test
+  public void testRemoveCancelsPendingWrite() throws Exception {
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    mBufferedDiskCache.remove(mCacheKey);
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    assertEquals(0, mBufferedDiskCache.getStagedBytes());
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache, never()).insert(eq(mCacheKey), any(WriterCallback.class));
+    verify(mFileCache).remove(mCacheKey);
+  }
+
+  @Test
+  public void testClearAllCancelsPendingWrites() throws Exception {
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    mBufferedDiskCache.clearAll();
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache, never()).insert(any(CacheKey.class), any(WriterCallback.class));
+    verify(mFileCache).clearAll();
+  }
+
+  @Test
+  public void testDropsWritesOverBudget() throws Exception {
+    when(mPooledByteBuffer.size()).thenReturn(BufferedDiskCache.DEFAULT_MAX_STAGED_BYTES);
+    CacheKey otherKey = new SimpleCacheKey("http://other.uri");
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    assertEquals(BufferedDiskCache.DEFAULT_MAX_STAGED_BYTES, mBufferedDiskCache.getStagedBytes());
+    mBufferedDiskCache.put(otherKey, mEncodedImage);
+    verify(mStagingArea, never()).put(eq(otherKey), any(EncodedImage.class));
+    assertEquals(1, mWritePriorityExecutor.getPendingCount());
+
+    mWritePriorityExecutor.runUntilIdle();
+    assertEquals(0, mBufferedDiskCache.getStagedBytes());
+    mBufferedDiskCache.put(otherKey, mEncodedImage);
+    verify(mStagingArea).put(otherKey, mEncodedImage);
+  }
+
+  @Test
+  public void testRemovePartialDownloadCancelsPendingWrite() throws Exception {
+    when(mPooledByteBuffer.size()).thenReturn(100);
+    when(mFileCache.isDefinitelyMissing(any(CacheKey.class))).thenReturn(true);
+    mBufferedDiskCache.putPartialDownload(mCacheKey, newPartialDownload());
+    assertEquals(3, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    assertEquals(100, mBufferedDiskCache.getStagedBytes());
+    // the write was not started, so the removal cannot rely on the Bloom filter
+    mBufferedDiskCache.removePartialDownload(mCacheKey);
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    assertEquals(0, mBufferedDiskCache.getStagedBytes());
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache, never()).insert(any(CacheKey.class), any(WriterCallback.class));
+    verify(mFileCache).remove(any(CacheKey.class));
+  }
+
+  @Test
+  public void testDropsPartialDownloadsOverBudget() throws Exception {
+    when(mPooledByteBuffer.size()).thenReturn(BufferedDiskCache.DEFAULT_MAX_STAGED_BYTES);
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    mBufferedDiskCache.putPartialDownload(new SimpleCacheKey("http://other.uri"), newPartialDownload());
+    assertEquals(BufferedDiskCache.DEFAULT_MAX_STAGED_BYTES, mBufferedDiskCache.getStagedBytes());
+    // the dropped partial download is closed right away
+    assertEquals(3, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    assertEquals(1, mWritePriorityExecutor.getPendingCount());
+  }
+
+  @Test
+  public void testWritesPartialDownload() throws Exception {
+    when(mPooledByteBuffer.size()).thenReturn(100);
+    mBufferedDiskCache.putPartialDownload(mCacheKey, newPartialDownload());
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache).insert(any(CacheKey.class), any(WriterCallback.class));
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    assertEquals(0, mBufferedDiskCache.getStagedBytes());
+  }
+
   @Test
   public void testPins() {
     mBufferedDiskCache.put(mCacheKey, mEncodedImage);
@@ -238,4 +410,8 @@ public class BufferedDiskCacheTest {
     mBufferedDiskCache.clearAll();
     verify(mStagingArea).clearAll();
   }
+
+  private PartialDownload newPartialDownload() {
+    return new PartialDownload(mCloseableReference, "\"v1\"", null);
+  }
 }
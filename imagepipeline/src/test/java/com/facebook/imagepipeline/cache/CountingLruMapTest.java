@@ -22,6 +22,14 @@ import static org.junit.Assert.*;
 @RunWith(RobolectricTestRunner.class)
 public class CountingLruMapTest {
 
+  private static final KeyIndex<String> FIRST_LETTER_INDEX =
+      new KeyIndex<String>() {
+        @Override
+        public String getIndexValue(String key) {
+          return key.substring(0, 1);
+        }
+      };
+
   private CountingLruMap<String, Integer> mCountingLruMap;
 
   @Before
@@ -234,6 +242,69 @@ public class CountingLruMapTest {
     assertValueOrder(110, 120, 130, 140);
   }
 
+  @Test
+  public void testGetMatchingEntries_Indexed() {
+    mCountingLruMap.put("a1", 110);
+    mCountingLruMap.put("b1", 120);
+    mCountingLruMap.put("a2", 130);
+
+    List<LinkedHashMap.Entry<String, Integer>> entries =
+        mCountingLruMap.getMatchingEntries(new IndexedPredicate<>(FIRST_LETTER_INDEX, "a"));
+    assertEquals(2, entries.size());
+    assertEquals("a1", entries.get(0).getKey());
+    assertEquals(110, (int) entries.get(0).getValue());
+    assertEquals("a2", entries.get(1).getKey());
+    assertEquals(130, (int) entries.get(1).getValue());
+    assertTrue(
+        mCountingLruMap.getMatchingEntries(new IndexedPredicate<>(FIRST_LETTER_INDEX, "c")).isEmpty());
+    assertKeyOrder("a1", "b1", "a2");
+  }
+
+  @Test
+  public void testRemoveAll_Indexed() {
+    mCountingLruMap.put("a1", 110);
+    mCountingLruMap.put("b1", 120);
+    mCountingLruMap.put("a2", 130);
+
+    List<Integer> oldValues =
+        mCountingLruMap.removeAll(new IndexedPredicate<>(FIRST_LETTER_INDEX, "a"));
+    assertEquals(2, oldValues.size());
+    assertEquals(1, mCountingLruMap.getCount());
+    assertEquals(120, mCountingLruMap.getSizeInBytes());
+    assertKeyOrder("b1");
+  }
+
+  @Test
+  public void testIndexIsKeptUpToDate() {
+    IndexedPredicate<String> predicate = new IndexedPredicate<>(FIRST_LETTER_INDEX, "a");
+    mCountingLruMap.put("a1", 110);
+    // builds the index
+    assertEquals(1, mCountingLruMap.getMatchingEntries(predicate).size());
+
+    mCountingLruMap.put("a2", 120);
+    mCountingLruMap.put("a1", 130);
+    mCountingLruMap.put("b1", 140);
+    assertEquals(2, mCountingLruMap.getMatchingEntries(predicate).size());
+
+    mCountingLruMap.remove("a2");
+    assertEquals(1, mCountingLruMap.getMatchingEntries(predicate).size());
+
+    mCountingLruMap.removeAll(
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return key.equals("a1");
+          }
+        });
+    assertTrue(mCountingLruMap.getMatchingEntries(predicate).isEmpty());
+
+    mCountingLruMap.put("a3", 150);
+    mCountingLruMap.clear();
+    assertTrue(mCountingLruMap.getMatchingEntries(predicate).isEmpty());
+    mCountingLruMap.put("a4", 160);
+    assertEquals("a4", mCountingLruMap.getMatchingEntries(predicate).get(0).getKey());
+  }
+
   @Test
   public void testGetFirstKey() {
     mCountingLruMap.put("key1", 110);
@@ -15,6 +15,9 @@ import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.MemoryTrimType;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.references.ResourceReleaser;
+import com.facebook.common.references.SharedReference;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TestExecutorService;
 
 import com.android.internal.util.Predicate;
 import org.junit.*;
@@ -197,6 +200,43 @@ public class CountingMemoryCacheTest {
     assertExclusivelyOwned(KEY, 100);
   }
 
+  @Test
+  public void testHitsReuseClientReferences() {
+    mCache.cache(KEY, newReference(100)).close();
+    CloseableReference<Integer> cachedRef1 = mCache.get(KEY);
+    CloseableReference<Integer> cachedRef2 = mCache.get(KEY);
+    SharedReference<Integer> sharedRef1 = cachedRef1.getUnderlyingReferenceTestOnly();
+    SharedReference<Integer> sharedRef2 = cachedRef2.getUnderlyingReferenceTestOnly();
+    assertNotSame(sharedRef1, sharedRef2);
+    cachedRef1.close();
+    cachedRef2.close();
+    assertExclusivelyOwned(KEY, 100);
+
+    // the released client references serve the next clients
+    for (int i = 0; i < 100; i++) {
+      cachedRef1 = mCache.get(KEY);
+      cachedRef2 = mCache.get(KEY);
+      assertSharedWithCount(KEY, 100, 2);
+      assertTrue(isOneOf(cachedRef1.getUnderlyingReferenceTestOnly(), sharedRef1, sharedRef2));
+      assertTrue(isOneOf(cachedRef2.getUnderlyingReferenceTestOnly(), sharedRef1, sharedRef2));
+      cachedRef1.close();
+      cachedRef2.close();
+      assertExclusivelyOwned(KEY, 100);
+    }
+    verify(mReleaser, never()).release(anyInt());
+  }
+
+  @Test
+  public void testOrphanDoesNotReuseClientReferences() {
+    CloseableReference<Integer> cachedRef = mCache.cache(KEY, newReference(100));
+    CountingMemoryCache.Entry<String, Integer> entry = mCache.mCachedEntries.get(KEY);
+    mCache.cache(KEY, newReference(110)).close();
+    cachedRef.close();
+    assertOrphanWithCount(entry, 0);
+    assertNull(entry.clientReferencePool);
+    verify(mReleaser).release(100);
+  }
+
   @Test
   public void testCachingSameKeyTwice() {
     CloseableReference<Integer> originalRef1 = newReference(110);
@@ -596,6 +636,62 @@ public class CountingMemoryCacheTest {
     inOrder.verify(mReleaser).release(105);
   }
 
+  @Test
+  public void testBackgroundEviction_ByEvictionQueueCount() {
+    TestExecutorService executor = new TestExecutorService(new FakeClock());
+    mCache = new CountingMemoryCache<>(
+        mValueDescriptor,
+        mCacheTrimStrategy,
+        mParamsSupplier,
+        new LruEvictionPolicy<String>(),
+        executor);
+    for (int i = 0; i < 4; i++) {
+      CloseableReference<Integer> originalRef = newReference(110 + i);
+      mCache.cache(KEYS[i], originalRef).close();
+      originalRef.close();
+    }
+    // the eviction queue is over its limit, but the eviction is only scheduled once
+    assertTotalSize(4, 446);
+    assertExclusivelyOwnedSize(4, 446);
+    verify(mReleaser, never()).release(anyInt());
+    assertEquals(1, executor.getPendingCount());
+
+    executor.runUntilIdle();
+    assertTotalSize(3, 336);
+    assertExclusivelyOwnedSize(3, 336);
+    assertNotCached(KEYS[0], 110);
+    verify(mReleaser).release(110);
+  }
+
+  @Test
+  public void testBackgroundEviction_EnforcesMaxCacheSizeRightAway() {
+    TestExecutorService executor = new TestExecutorService(new FakeClock());
+    mCache = new CountingMemoryCache<>(
+        mValueDescriptor,
+        mCacheTrimStrategy,
+        mParamsSupplier,
+        new LruEvictionPolicy<String>(),
+        executor);
+    CloseableReference<Integer> originalRef1 = newReference(500);
+    mCache.cache(KEYS[1], originalRef1).close();
+    originalRef1.close();
+    CloseableReference<Integer> originalRef2 = newReference(510);
+    mCache.cache(KEYS[2], originalRef2).close();
+    originalRef2.close();
+    assertEquals(0, executor.getPendingCount());
+
+    // caching value 3 exceeds the max cache size, so value 1 is evicted right away
+    CloseableReference<Integer> valueRef3 = mCache.cache(KEYS[3], newReference(400));
+    assertTotalSize(2, 910);
+    assertNotCached(KEYS[1], 500);
+    assertExclusivelyOwned(KEYS[2], 510);
+    assertSharedWithCount(KEYS[3], 400, 1);
+    verify(mReleaser).release(500);
+    verify(mReleaser, never()).release(510);
+    assertEquals(0, executor.getPendingCount());
+    valueRef3.close();
+  }
+
   private CloseableReference<Integer> newReference(int size) {
     return CloseableReference.of(size, mReleaser);
   }
@@ -634,6 +730,10 @@ public class CountingMemoryCacheTest {
     assertEquals("client count mismatch", count, entry.clientCount);
   }
 
+  private static boolean isOneOf(Object object, Object first, Object second) {
+    return object == first || object == second;
+  }
+
   private void assertTotalSize(int count, int bytes) {
     assertEquals("total cache count mismatch", count, mCache.getCount());
     assertEquals("total cache size mismatch", bytes, mCache.getSizeInBytes());
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TestExecutorService;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DiskCacheIoSchedulerTest {
+  private FakeClock mClock;
+  private TestExecutorService mExecutor;
+  private List<String> mOperations;
+
+  @Before
+  public void setUp() {
+    mClock = new FakeClock();
+    // the executor runs its queue when its clock ticks, so it gets its own
+    mExecutor = new TestExecutorService(new FakeClock());
+    mOperations = new ArrayList<>();
+  }
+
+  @Test
+  public void testReadsGoAheadOfQueuedWrites() {
+    DiskCacheIoScheduler scheduler = new DiskCacheIoScheduler(mExecutor, 1, mClock);
+    scheduler.getWriteExecutor().execute(newOperation("write1"));
+    scheduler.getWriteExecutor().execute(newOperation("write2"));
+    scheduler.getReadExecutor(Priority.LOW).execute(newOperation("low1"));
+    scheduler.getReadExecutor(Priority.HIGH).execute(newOperation("high"));
+    scheduler.getReadExecutor(Priority.MEDIUM).execute(newOperation("medium"));
+    scheduler.getReadExecutor(Priority.LOW).execute(newOperation("low2"));
+    mExecutor.runUntilIdle();
+    assertEquals(
+        Arrays.asList("high", "medium", "low1", "low2", "write1", "write2"),
+        mOperations);
+  }
+
+  @Test
+  public void testLimitsConcurrentOperations() {
+    DiskCacheIoScheduler scheduler = new DiskCacheIoScheduler(mExecutor, 2, mClock);
+    scheduler.getReadExecutor(Priority.HIGH).execute(newOperation("read1"));
+    assertEquals(1, mExecutor.getPendingCount());
+    scheduler.getReadExecutor(Priority.HIGH).execute(newOperation("read2"));
+    scheduler.getReadExecutor(Priority.HIGH).execute(newOperation("read3"));
+    scheduler.getWriteExecutor().execute(newOperation("write"));
+    assertEquals(2, mExecutor.getPendingCount());
+    mExecutor.runUntilIdle();
+    assertEquals(Arrays.asList("read1", "read2", "read3", "write"), mOperations);
+    assertEquals(0, scheduler.getQueuedReadCount());
+    assertEquals(0, scheduler.getQueuedWriteCount());
+  }
+
+  @Test
+  public void testPausesWrites() {
+    DiskCacheIoScheduler scheduler = new DiskCacheIoScheduler(mExecutor, 1, mClock);
+    scheduler.pauseWrites();
+    assertTrue(scheduler.areWritesPaused());
+    scheduler.getWriteExecutor().execute(newOperation("write1"));
+    scheduler.getReadExecutor(Priority.LOW).execute(newOperation("read"));
+    scheduler.getWriteExecutor().execute(newOperation("write2"));
+    mExecutor.runUntilIdle();
+    assertEquals(Arrays.asList("read"), mOperations);
+    assertEquals(2, scheduler.getQueuedWriteCount());
+
+    scheduler.resumeWrites();
+    assertFalse(scheduler.areWritesPaused());
+    mExecutor.runUntilIdle();
+    assertEquals(Arrays.asList("read", "write1", "write2"), mOperations);
+    assertEquals(0, scheduler.getQueuedWriteCount());
+  }
+
+  @Test
+  public void testRunsRemovalsWhilePaused() {
+    DiskCacheIoScheduler scheduler = new DiskCacheIoScheduler(mExecutor, 1, mClock);
+    scheduler.pauseWrites();
+    scheduler.getWriteExecutor().execute(newOperation("write1"));
+    scheduler.getRemovalExecutor().execute(newOperation("remove1"));
+    scheduler.getWriteExecutor().execute(newOperation("write2"));
+    scheduler.getRemovalExecutor().execute(newOperation("remove2"));
+    mExecutor.runUntilIdle();
+    assertEquals(Arrays.asList("remove1", "remove2"), mOperations);
+    assertEquals(2, scheduler.getQueuedWriteCount());
+
+    scheduler.resumeWrites();
+    mExecutor.runUntilIdle();
+    assertEquals(Arrays.asList("remove1", "remove2", "write1", "write2"), mOperations);
+    assertEquals(0, scheduler.getQueuedWriteCount());
+  }
+
+  @Test
+  public void testKeepsRemovalsInOrderWithWrites() {
+    DiskCacheIoScheduler scheduler = new DiskCacheIoScheduler(mExecutor, 1, mClock);
+    scheduler.getWriteExecutor().execute(newOperation("write1"));
+    scheduler.getRemovalExecutor().execute(newOperation("remove"));
+    scheduler.getWriteExecutor().execute(newOperation("write2"));
+    mExecutor.runUntilIdle();
+    assertEquals(Arrays.asList("write1", "remove", "write2"), mOperations);
+  }
+
+  @Test
+  public void testRecordsQueueWaits() {
+    DiskCacheIoScheduler scheduler = new DiskCacheIoScheduler(mExecutor, 1, mClock);
+    scheduler.getWriteExecutor().execute(newOperation("write"));
+    mClock.incrementBy(10);
+    scheduler.getReadExecutor(Priority.HIGH).execute(newOperation("read1"));
+    mClock.incrementBy(20);
+    scheduler.getReadExecutor(Priority.HIGH).execute(newOperation("read2"));
+    mClock.incrementBy(30);
+    mExecutor.runUntilIdle();
+
+    DiskCacheIoScheduler.QueueWaitStats readStats = scheduler.getReadQueueWaitStats();
+    assertEquals(2, readStats.getCount());
+    assertEquals(80, readStats.getTotalWaitMs());
+    assertEquals(50, readStats.getMaxWaitMs());
+    assertEquals(40, readStats.getAverageWaitMs());
+    DiskCacheIoScheduler.QueueWaitStats writeStats = scheduler.getWriteQueueWaitStats();
+    assertEquals(1, writeStats.getCount());
+    assertEquals(60, writeStats.getMaxWaitMs());
+  }
+
+  private Runnable newOperation(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        mOperations.add(name);
+      }
+    };
+  }
+}
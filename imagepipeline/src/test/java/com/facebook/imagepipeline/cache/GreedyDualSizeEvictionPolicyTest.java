@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.image.ImageSource;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link GreedyDualSizeEvictionPolicy}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class GreedyDualSizeEvictionPolicyTest {
+
+  private static final MemoryCacheParams PARAMS = new MemoryCacheParams(100, 100, 100, 100, 1);
+
+  private CountingLruMap<String, Integer> mExclusiveEntries;
+  private GreedyDualSizeEvictionPolicy<String> mPolicy;
+
+  @Before
+  public void setUp() {
+    mExclusiveEntries = new CountingLruMap<>(
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        });
+    mPolicy = new GreedyDualSizeEvictionPolicy<>();
+  }
+
+  @Test
+  public void testCost() {
+    assertEquals(
+        GreedyDualSizeEvictionPolicy.DEFAULT_DECODE_TIME_MS,
+        GreedyDualSizeEvictionPolicy.getCost(-1, ImageSource.UNKNOWN));
+    assertEquals(
+        30 + GreedyDualSizeEvictionPolicy.NETWORK_REFETCH_TIME_MS,
+        GreedyDualSizeEvictionPolicy.getCost(30, ImageSource.NETWORK));
+    assertEquals(
+        30 + GreedyDualSizeEvictionPolicy.LOCAL_REFETCH_TIME_MS,
+        GreedyDualSizeEvictionPolicy.getCost(30, ImageSource.DISK_CACHE));
+    assertEquals(30, GreedyDualSizeEvictionPolicy.getCost(30, ImageSource.ENCODED_MEMORY_CACHE));
+  }
+
+  @Test
+  public void testCheapItemIsEvictedFirst() {
+    addExclusive("expensive", 10, 100, ImageSource.ENCODED_MEMORY_CACHE);
+    addExclusive("cheap", 10, 5, ImageSource.ENCODED_MEMORY_CACHE);
+    assertEquals("cheap", mPolicy.getNextToEvict(mExclusiveEntries, PARAMS));
+  }
+
+  @Test
+  public void testLargeItemIsEvictedFirst() {
+    addExclusive("small", 10, 50, ImageSource.ENCODED_MEMORY_CACHE);
+    addExclusive("large", 100, 50, ImageSource.ENCODED_MEMORY_CACHE);
+    assertEquals("large", mPolicy.getNextToEvict(mExclusiveEntries, PARAMS));
+  }
+
+  @Test
+  public void testTiesAreEvictedInLruOrder() {
+    addExclusive("k1", 10, 50, ImageSource.NETWORK);
+    addExclusive("k2", 10, 50, ImageSource.NETWORK);
+    assertEquals("k1", mPolicy.getNextToEvict(mExclusiveEntries, PARAMS));
+  }
+
+  @Test
+  public void testItemsInUseAreSkipped() {
+    mPolicy.onAdd("inUse", 100, 1, ImageSource.UNKNOWN);
+    addExclusive("k1", 10, 50, ImageSource.UNKNOWN);
+    assertEquals("k1", mPolicy.getNextToEvict(mExclusiveEntries, PARAMS));
+  }
+
+  @Test
+  public void testEvictionInflatesPriorities() {
+    addExclusive("expensive", 10, 100, ImageSource.ENCODED_MEMORY_CACHE);
+    addExclusive("cheap", 10, 50, ImageSource.ENCODED_MEMORY_CACHE);
+    assertEquals("cheap", evict());
+    assertEquals(5.0, mPolicy.mInflation, 0);
+
+    // the new items get the inflation on top of their cost, so the old expensive item ages out
+    addExclusive("new", 10, 60, ImageSource.ENCODED_MEMORY_CACHE);
+    assertEquals(11.0, mPolicy.getPriority("new"), 0);
+    assertEquals("expensive", evict());
+    assertEquals(10.0, mPolicy.mInflation, 0);
+  }
+
+  @Test
+  public void testHitRefreshesPriority() {
+    addExclusive("expensive", 10, 100, ImageSource.ENCODED_MEMORY_CACHE);
+    addExclusive("cheap", 10, 50, ImageSource.ENCODED_MEMORY_CACHE);
+    evict();
+    addExclusive("new", 10, 60, ImageSource.ENCODED_MEMORY_CACHE);
+    mPolicy.onAccess("expensive", true);
+    assertEquals(15.0, mPolicy.getPriority("expensive"), 0);
+    assertEquals("new", evict());
+  }
+
+  @Test
+  public void testMissDoesNotChangePriority() {
+    addExclusive("k1", 10, 50, ImageSource.ENCODED_MEMORY_CACHE);
+    mPolicy.mInflation = 100;
+    mPolicy.onAccess("k1", false);
+    assertEquals(5.0, mPolicy.getPriority("k1"), 0);
+  }
+
+  @Test
+  public void testRemove() {
+    addExclusive("k1", 10, 50, ImageSource.ENCODED_MEMORY_CACHE);
+    mPolicy.onRemove("k1");
+    assertNull(mPolicy.getPriority("k1"));
+    assertNull(mPolicy.getNextToEvict(mExclusiveEntries, PARAMS));
+  }
+
+  @Test
+  public void testCacheRecordsDecodeCost() {
+    ResourceReleaser<Integer> releaser =
+        new ResourceReleaser<Integer>() {
+          @Override
+          public void release(Integer value) {
+          }
+        };
+    DecodeCostDescriptor<Integer> valueDescriptor =
+        new DecodeCostDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return 1;
+          }
+
+          @Override
+          public long getDecodeTimeMs(Integer value) {
+            return value;
+          }
+
+          @Override
+          public ImageSource getSource(Integer value) {
+            return ImageSource.NETWORK;
+          }
+        };
+    CountingMemoryCache.CacheTrimStrategy trimStrategy =
+        new CountingMemoryCache.CacheTrimStrategy() {
+          @Override
+          public double getTrimRatio(MemoryTrimType trimType) {
+            return 1.0;
+          }
+        };
+    Supplier<MemoryCacheParams> paramsSupplier =
+        new Supplier<MemoryCacheParams>() {
+          @Override
+          public MemoryCacheParams get() {
+            return new MemoryCacheParams(2, 2, 2, 2, 1);
+          }
+        };
+    CountingMemoryCache<String, Integer> cache =
+        new CountingMemoryCache<>(valueDescriptor, trimStrategy, paramsSupplier, mPolicy);
+
+    CloseableReference<Integer> expensiveRef = CloseableReference.of(100, releaser);
+    CloseableReference.closeSafely(cache.cache("expensive", expensiveRef));
+    expensiveRef.close();
+    CountingMemoryCache.Entry<String, Integer> entry = cache.mCachedEntries.get("expensive");
+    assertEquals(100, entry.decodeTimeMs);
+    assertEquals(ImageSource.NETWORK, entry.source);
+
+    CloseableReference<Integer> cheapRef = CloseableReference.of(5, releaser);
+    CloseableReference.closeSafely(cache.cache("cheap", cheapRef));
+    cheapRef.close();
+    CloseableReference<Integer> newRef = CloseableReference.of(50, releaser);
+    CloseableReference.closeSafely(cache.cache("new", newRef));
+    newRef.close();
+
+    assertTrue(cache.mCachedEntries.contains("expensive"));
+    assertFalse(cache.mCachedEntries.contains("cheap"));
+    assertTrue(cache.mCachedEntries.contains("new"));
+  }
+
+  private void addExclusive(String key, int size, long decodeTimeMs, ImageSource source) {
+    mExclusiveEntries.put(key, size);
+    mPolicy.onAdd(key, size, decodeTimeMs, source);
+    mPolicy.onExclusivityChanged(key, true);
+  }
+
+  private String evict() {
+    String key = mPolicy.getNextToEvict(mExclusiveEntries, PARAMS);
+    mExclusiveEntries.remove(key);
+    mPolicy.onRemove(key);
+    return key;
+  }
+}
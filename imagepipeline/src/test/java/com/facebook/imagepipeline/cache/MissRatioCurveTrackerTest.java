@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.Arrays;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MissRatioCurveTracker}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class MissRatioCurveTrackerTest {
+
+  private static final int MAX_CACHE_SIZE = 100;
+
+  private MissRatioCurveTracker<String> mTracker;
+
+  @Before
+  public void setUp() {
+    mTracker = new MissRatioCurveTracker<>();
+  }
+
+  @Test
+  public void testStackDistance() {
+    mTracker.recordAdd("k1", 10, MAX_CACHE_SIZE);
+    mTracker.recordAdd("k2", 40, MAX_CACHE_SIZE);
+    mTracker.recordAdd("k3", 40, MAX_CACHE_SIZE);
+
+    // 90 bytes were requested since k1, including itself
+    mTracker.recordAccess("k1", MAX_CACHE_SIZE);
+    assertHitCounts(0, 1, 1, 1);
+    // k1 is on the top of the stack now
+    mTracker.recordAccess("k1", MAX_CACHE_SIZE);
+    assertHitCounts(1, 2, 2, 2);
+    // 90 bytes again: k2 itself, k3 and k1
+    mTracker.recordAccess("k2", MAX_CACHE_SIZE);
+    assertHitCounts(1, 3, 3, 3);
+    assertEquals(3, mTracker.getMissRatioCurve().getRequestCount());
+  }
+
+  @Test
+  public void testMissOfUnknownKey() {
+    mTracker.recordAdd("k1", 10, MAX_CACHE_SIZE);
+    mTracker.recordAccess("k2", MAX_CACHE_SIZE);
+    assertHitCounts(0, 0, 0, 0);
+    MissRatioCurve missRatioCurve = mTracker.getMissRatioCurve();
+    assertEquals(1, missRatioCurve.getRequestCount());
+    assertEquals(0, missRatioCurve.getEstimatedHitRate(4), 0);
+  }
+
+  @Test
+  public void testGhostsBeyondMaxSizeRatioAreDropped() {
+    for (int i = 0; i < 5; i++) {
+      mTracker.recordAdd("k" + i, MAX_CACHE_SIZE, MAX_CACHE_SIZE);
+    }
+    assertEquals(MissRatioCurveTracker.MAX_SIZE_RATIO, mTracker.getCount());
+    assertEquals(MissRatioCurveTracker.MAX_SIZE_RATIO * MAX_CACHE_SIZE, mTracker.getSizeInBytes());
+    // the eldest key is forgotten
+    mTracker.recordAccess("k0", MAX_CACHE_SIZE);
+    assertHitCounts(0, 0, 0, 0);
+    // the ghost of k1 would have been a hit in a cache 4 times as large
+    mTracker.recordAccess("k1", MAX_CACHE_SIZE);
+    assertHitCounts(0, 0, 0, 1);
+  }
+
+  @Test
+  public void testRemovedKeyIsForgotten() {
+    mTracker.recordAdd("k1", 10, MAX_CACHE_SIZE);
+    mTracker.recordAdd("k2", 10, MAX_CACHE_SIZE);
+    mTracker.recordRemove("k2");
+    assertEquals(1, mTracker.getCount());
+    assertEquals(10, mTracker.getSizeInBytes());
+    mTracker.recordAccess("k2", MAX_CACHE_SIZE);
+    assertHitCounts(0, 0, 0, 0);
+    // the removed key does not count towards the distance anymore
+    mTracker.recordAccess("k1", MAX_CACHE_SIZE);
+    assertHitCounts(1, 1, 1, 1);
+  }
+
+  @Test
+  public void testReplacedValueIsResized() {
+    mTracker.recordAdd("k1", 10, MAX_CACHE_SIZE);
+    mTracker.recordAdd("k1", 60, MAX_CACHE_SIZE);
+    assertEquals(1, mTracker.getCount());
+    assertEquals(60, mTracker.getSizeInBytes());
+    mTracker.recordAccess("k1", MAX_CACHE_SIZE);
+    assertHitCounts(0, 1, 1, 1);
+  }
+
+  @Test
+  public void testDistancesSurviveRenumbering() {
+    mTracker.recordAdd("k1", 30, MAX_CACHE_SIZE);
+    mTracker.recordAdd("k2", 30, MAX_CACHE_SIZE);
+    mTracker.recordAdd("k3", 30, MAX_CACHE_SIZE);
+    mTracker.recordAdd("k4", 30, MAX_CACHE_SIZE);
+    // cycling through the keys takes way more times than the initial capacity of the tree
+    for (int i = 0; i < 1000; i++) {
+      mTracker.recordAccess("k" + (i % 4 + 1), MAX_CACHE_SIZE);
+    }
+    // each request is 120 bytes away from the previous request of the same key
+    assertHitCounts(0, 0, 1000, 1000);
+    assertEquals(4, mTracker.getCount());
+    assertEquals(120, mTracker.getSizeInBytes());
+  }
+
+  @Test
+  public void testClearKeepsCounts() {
+    mTracker.recordAdd("k1", 10, MAX_CACHE_SIZE);
+    mTracker.recordAccess("k1", MAX_CACHE_SIZE);
+    mTracker.clear();
+    assertEquals(0, mTracker.getCount());
+    assertEquals(0, mTracker.getSizeInBytes());
+    mTracker.recordAccess("k1", MAX_CACHE_SIZE);
+    assertHitCounts(1, 1, 1, 1);
+    assertEquals(2, mTracker.getMissRatioCurve().getRequestCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownSizeRatio() {
+    mTracker.getMissRatioCurve().getEstimatedHitRate(3);
+  }
+
+  @Test
+  public void testMerge() {
+    MissRatioCurve merged = MissRatioCurve.merge(
+        Arrays.asList(
+            new MissRatioCurve(new float[] {1, 2}, new long[] {1, 2}, 4),
+            new MissRatioCurve(new float[] {1, 2}, new long[] {2, 4}, 4)));
+    assertEquals(8, merged.getRequestCount());
+    assertEquals(3, merged.getHitCount(1));
+    assertEquals(0.75f, merged.getEstimatedHitRate(2), 0);
+  }
+
+  private void assertHitCounts(long... hitCounts) {
+    MissRatioCurve missRatioCurve = mTracker.getMissRatioCurve();
+    float[] sizeRatios = missRatioCurve.getSizeRatios();
+    assertEquals(hitCounts.length, sizeRatios.length);
+    for (int i = 0; i < sizeRatios.length; i++) {
+      assertEquals("size ratio " + sizeRatios[i], hitCounts[i], missRatioCurve.getHitCount(sizeRatios[i]));
+    }
+  }
+}
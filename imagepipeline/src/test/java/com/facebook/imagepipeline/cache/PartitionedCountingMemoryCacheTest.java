@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PartitionedCountingMemoryCache}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class PartitionedCountingMemoryCacheTest {
+
+  private static final int AVATAR_PARTITION = 0;
+  private static final int PHOTO_PARTITION = 1;
+  private static final String AVATAR = "avatar";
+  private static final String PHOTO = "photo";
+  private static final int PARTITION_MAX_COUNT = 4;
+  private static final int AVATAR_MAX_ENTRY_SIZE = 150;
+
+  private ResourceReleaser<Integer> mReleaser;
+  private PartitionedCountingMemoryCache<String, Integer> mCache;
+
+  @Before
+  public void setUp() {
+    mReleaser =
+        new ResourceReleaser<Integer>() {
+          @Override
+          public void release(Integer value) {
+          }
+        };
+    ValueDescriptor<Integer> valueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    CountingMemoryCache.CacheTrimStrategy cacheTrimStrategy =
+        new CountingMemoryCache.CacheTrimStrategy() {
+          @Override
+          public double getTrimRatio(MemoryTrimType trimType) {
+            return 1.0;
+          }
+        };
+    MemoryCachePartitioner<String> partitioner =
+        new MemoryCachePartitioner<String>() {
+          @Override
+          public int getPartitionCount() {
+            return 2;
+          }
+
+          @Override
+          public int getPartition(String key) {
+            return key.startsWith(AVATAR) ? AVATAR_PARTITION : PHOTO_PARTITION;
+          }
+        };
+    List<Supplier<MemoryCacheParams>> partitionParamsSuppliers = new ArrayList<>();
+    partitionParamsSuppliers.add(newParamsSupplier(
+        new MemoryCacheParams(400, PARTITION_MAX_COUNT, 400, PARTITION_MAX_COUNT, AVATAR_MAX_ENTRY_SIZE)));
+    partitionParamsSuppliers.add(newParamsSupplier(
+        new MemoryCacheParams(800, PARTITION_MAX_COUNT, 800, PARTITION_MAX_COUNT, 800)));
+    mCache = new PartitionedCountingMemoryCache<>(
+        valueDescriptor,
+        cacheTrimStrategy,
+        partitioner,
+        partitionParamsSuppliers,
+        new Supplier<CountingMemoryCache.EvictionPolicy<String>>() {
+          @Override
+          public CountingMemoryCache.EvictionPolicy<String> get() {
+            return new LruEvictionPolicy<>();
+          }
+        },
+        null);
+  }
+
+  @Test
+  public void testLimitsAreTheSumOfThePartitionBudgets() {
+    MemoryCacheParams params = mCache.getMemoryCacheParams();
+    assertEquals(1200, params.maxCacheSize);
+    assertEquals(2 * PARTITION_MAX_COUNT, params.maxCacheEntries);
+    assertEquals(800, params.maxCacheEntrySize);
+    assertEquals(2, mCache.getPartitionCount());
+  }
+
+  @Test
+  public void testItemsGoToTheirPartition() {
+    cache(AVATAR + 0, 100).close();
+    cache(PHOTO + 0, 100).close();
+    cache(PHOTO + 1, 100).close();
+    assertEquals(1, getPartitionCount(AVATAR_PARTITION));
+    assertEquals(2, getPartitionCount(PHOTO_PARTITION));
+    assertTrue(mCache.mSegments[AVATAR_PARTITION].mCachedEntries.contains(AVATAR + 0));
+  }
+
+  @Test
+  public void testPartitionIsNotEvictedByOtherPartition() {
+    for (int i = 0; i < PARTITION_MAX_COUNT; i++) {
+      cache(AVATAR + i, 100).close();
+    }
+    for (int i = 0; i < 10; i++) {
+      cache(PHOTO + i, 200).close();
+    }
+    assertEquals(PARTITION_MAX_COUNT, getPartitionCount(AVATAR_PARTITION));
+    assertEquals(PARTITION_MAX_COUNT, getPartitionCount(PHOTO_PARTITION));
+    // the photos are evicted in LRU order
+    assertTrue(mCache.mSegments[PHOTO_PARTITION].mCachedEntries.contains(PHOTO + 9));
+    assertFalse(mCache.mSegments[PHOTO_PARTITION].mCachedEntries.contains(PHOTO + 5));
+  }
+
+  @Test
+  public void testUnusedCapacityIsLent() {
+    for (int i = 0; i < 2 * PARTITION_MAX_COUNT; i++) {
+      cache(PHOTO + i, 100).close();
+    }
+    assertEquals(2 * PARTITION_MAX_COUNT, getPartitionCount(PHOTO_PARTITION));
+  }
+
+  @Test
+  public void testLentCapacityIsGivenBackAsNeeded() {
+    for (int i = 0; i < 2 * PARTITION_MAX_COUNT; i++) {
+      cache(PHOTO + i, 100).close();
+    }
+    cache(AVATAR + 0, 100).close();
+    cache(AVATAR + 1, 100).close();
+    assertEquals(2, getPartitionCount(AVATAR_PARTITION));
+    // only as many photos as needed are evicted, even though the partition is over its budget
+    assertEquals(2 * PARTITION_MAX_COUNT - 2, getPartitionCount(PHOTO_PARTITION));
+    assertFalse(mCache.mSegments[PHOTO_PARTITION].mCachedEntries.contains(PHOTO + 0));
+    assertFalse(mCache.mSegments[PHOTO_PARTITION].mCachedEntries.contains(PHOTO + 1));
+    assertEquals(2 * PARTITION_MAX_COUNT, mCache.getCount());
+  }
+
+  @Test
+  public void testPartitionMaxEntrySize() {
+    assertNull(cache(AVATAR + 0, 200));
+    CloseableReference<Integer> photoRef = cache(PHOTO + 0, 200);
+    assertNotNull(photoRef);
+    photoRef.close();
+  }
+
+  @Test
+  public void testItemsInUseAreKept() {
+    List<CloseableReference<Integer>> photoRefs = new ArrayList<>();
+    for (int i = 0; i < PARTITION_MAX_COUNT + 2; i++) {
+      photoRefs.add(cache(PHOTO + i, 100));
+    }
+    cache(AVATAR + 0, 100).close();
+    cache(AVATAR + 1, 100).close();
+    cache(AVATAR + 2, 100).close();
+    // the avatar partition gives up what it has to, as the photos cannot be evicted
+    assertEquals(PARTITION_MAX_COUNT + 2, getPartitionCount(PHOTO_PARTITION));
+    assertEquals(PARTITION_MAX_COUNT - 2, getPartitionCount(AVATAR_PARTITION));
+    for (CloseableReference<Integer> photoRef : photoRefs) {
+      photoRef.close();
+    }
+  }
+
+  private int getPartitionCount(int partition) {
+    return mCache.mSegments[partition].mCachedEntries.getCount();
+  }
+
+  private CloseableReference<Integer> cache(String key, int size) {
+    CloseableReference<Integer> originalRef = CloseableReference.of(size, mReleaser);
+    CloseableReference<Integer> cachedRef = mCache.cache(key, originalRef);
+    originalRef.close();
+    return cachedRef;
+  }
+
+  private static Supplier<MemoryCacheParams> newParamsSupplier(final MemoryCacheParams params) {
+    return new Supplier<MemoryCacheParams>() {
+      @Override
+      public MemoryCacheParams get() {
+        return params;
+      }
+    };
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SecondHitDiskCacheAdmissionPolicy}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SecondHitDiskCacheAdmissionPolicyTest {
+
+  private static final int LARGE_IMAGE_SIZE_THRESHOLD = 1000;
+
+  private static final int TRACE_LENGTH = 50000;
+  private static final int TRACE_HOT_KEY_COUNT = 200;
+  private static final float TRACE_ONE_OFF_PROBABILITY = 0.5f;
+  private static final int CACHE_MAX_COUNT = 150;
+  private static final long TRACE_SEED = 42;
+
+  private SecondHitDiskCacheAdmissionPolicy mPolicy;
+
+  @Before
+  public void setUp() {
+    mPolicy = new SecondHitDiskCacheAdmissionPolicy(
+        SecondHitDiskCacheAdmissionPolicy.DEFAULT_WINDOW_SIZE,
+        LARGE_IMAGE_SIZE_THRESHOLD);
+  }
+
+  @Test
+  public void testAdmitsOnSecondRequest() {
+    CacheKey key = new SimpleCacheKey("http://image");
+    mPolicy.onRequest(key);
+    assertFalse(mPolicy.shouldAdmit(key, 100));
+    mPolicy.onRequest(key);
+    assertTrue(mPolicy.shouldAdmit(key, 100));
+    assertFalse(mPolicy.shouldAdmit(new SimpleCacheKey("http://other"), 100));
+  }
+
+  @Test
+  public void testAdmitsLargeImageOnThirdRequest() {
+    CacheKey key = new SimpleCacheKey("http://image");
+    mPolicy.onRequest(key);
+    mPolicy.onRequest(key);
+    assertFalse(mPolicy.shouldAdmit(key, LARGE_IMAGE_SIZE_THRESHOLD));
+    mPolicy.onRequest(key);
+    assertTrue(mPolicy.shouldAdmit(key, LARGE_IMAGE_SIZE_THRESHOLD));
+  }
+
+  /**
+   * Replays a trace where half of the requests are for images requested only once, against an LRU
+   * cache too small for the images requested again: admitting only the latter writes less and hits
+   * more.
+   */
+  @Test
+  public void testTraceWritesLessAndHitsMore() {
+    int[] admitAll = replayTrace(null);
+    int[] secondHit = replayTrace(mPolicy);
+    assertTrue(secondHit[0] < admitAll[0] / 4);
+    assertTrue(secondHit[1] >= admitAll[1]);
+  }
+
+  /** @return the number of writes and hits */
+  private static int[] replayTrace(DiskCacheAdmissionPolicy policy) {
+    Random random = new Random(TRACE_SEED);
+    LinkedHashSet<CacheKey> cache = new LinkedHashSet<>();
+    int writeCount = 0;
+    int hitCount = 0;
+    for (int i = 0; i < TRACE_LENGTH; i++) {
+      CacheKey key = random.nextFloat() < TRACE_ONE_OFF_PROBABILITY
+          ? new SimpleCacheKey("http://one-off/" + i)
+          : new SimpleCacheKey("http://hot/" + random.nextInt(TRACE_HOT_KEY_COUNT));
+      if (policy != null) {
+        policy.onRequest(key);
+      }
+      if (cache.remove(key)) {
+        cache.add(key);
+        hitCount++;
+        continue;
+      }
+      if (policy != null && !policy.shouldAdmit(key, 100)) {
+        continue;
+      }
+      writeCount++;
+      cache.add(key);
+      if (cache.size() > CACHE_MAX_COUNT) {
+        Iterator<CacheKey> iterator = cache.iterator();
+        iterator.next();
+        iterator.remove();
+      }
+    }
+    return new int[] {writeCount, hitCount};
+  }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.common.references.SharedReference;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TestExecutorService;
+
+import com.android.internal.util.Predicate;
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SegmentedCountingMemoryCache}.
+ *
+ * <p> Mocks are deliberately avoided here, as recording the invocations would serialize the
+ * threads of the concurrency test.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SegmentedCountingMemoryCacheTest {
+
+  private static final int CACHE_MAX_SIZE = 1200;
+  private static final int CACHE_MAX_COUNT = 8;
+  private static final int CACHE_EVICTION_QUEUE_MAX_SIZE = 1100;
+  private static final int CACHE_EVICTION_QUEUE_MAX_COUNT = 6;
+  private static final int CACHE_ENTRY_MAX_SIZE = 1000;
+  private static final int SEGMENT_COUNT = 4;
+
+  private static final int CONCURRENT_KEY_COUNT = 256;
+
+  private static final String KEY = "KEY";
+  private static final String[] KEYS =
+      new String[] {"k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8", "k9"};
+
+  private AtomicInteger mReleasedCount;
+  private ResourceReleaser<Integer> mReleaser;
+  private ValueDescriptor<Integer> mValueDescriptor;
+  private CountingMemoryCache.CacheTrimStrategy mCacheTrimStrategy;
+  private SegmentedCountingMemoryCache<String, Integer> mCache;
+
+  @Before
+  public void setUp() {
+    mReleasedCount = new AtomicInteger();
+    mReleaser =
+        new ResourceReleaser<Integer>() {
+          @Override
+          public void release(Integer value) {
+            mReleasedCount.incrementAndGet();
+          }
+        };
+    mValueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    mCacheTrimStrategy =
+        new CountingMemoryCache.CacheTrimStrategy() {
+          @Override
+          public double getTrimRatio(MemoryTrimType trimType) {
+            return 1.0;
+          }
+        };
+    mCache = newSegmentedCache(
+        new MemoryCacheParams(
+            CACHE_MAX_SIZE,
+            CACHE_MAX_COUNT,
+            CACHE_EVICTION_QUEUE_MAX_SIZE,
+            CACHE_EVICTION_QUEUE_MAX_COUNT,
+            CACHE_ENTRY_MAX_SIZE),
+        SEGMENT_COUNT);
+  }
+
+  @Test
+  public void testCache() {
+    CloseableReference<Integer> cachedRef = cache(mCache, KEY, 100);
+    assertNotNull(cachedRef);
+    assertTotalSize(1, 100);
+    assertExclusivelyOwnedSize(0, 0);
+    assertEquals(0, mReleasedCount.get());
+  }
+
+  @Test
+  public void testClosingClientReference() {
+    CloseableReference<Integer> cachedRef = cache(mCache, KEY, 100);
+    cachedRef.close();
+    assertTotalSize(1, 100);
+    assertExclusivelyOwnedSize(1, 100);
+    assertEquals(0, mReleasedCount.get());
+  }
+
+  @Test
+  public void testGet() {
+    cache(mCache, KEY, 100).close();
+    CloseableReference<Integer> cachedRef = mCache.get(KEY);
+    assertNotNull(cachedRef);
+    assertEquals(100, (int) cachedRef.get());
+    assertExclusivelyOwnedSize(0, 0);
+    cachedRef.close();
+    assertExclusivelyOwnedSize(1, 100);
+    assertNull(mCache.get("other"));
+  }
+
+  @Test
+  public void testHitsReuseClientReferences() {
+    cache(mCache, KEY, 100).close();
+    Set<SharedReference<Integer>> sharedReferences = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      CloseableReference<Integer> cachedRef1 = mCache.get(KEY);
+      CloseableReference<Integer> cachedRef2 = mCache.get(KEY);
+      sharedReferences.add(cachedRef1.getUnderlyingReferenceTestOnly());
+      sharedReferences.add(cachedRef2.getUnderlyingReferenceTestOnly());
+      assertEquals(100, (int) cachedRef2.get());
+      cachedRef1.close();
+      cachedRef2.close();
+      assertExclusivelyOwnedSize(1, 100);
+    }
+    // no more client references are allocated than the clients holding the value at once
+    assertEquals(2, sharedReferences.size());
+    assertEquals(0, mReleasedCount.get());
+  }
+
+  @Test
+  public void testGetMostRecentlyUsedKeys() {
+    CloseableReference<Integer> inUseRef = cache(mCache, KEYS[0], 100);
+    cache(mCache, KEYS[1], 100).close();
+    cache(mCache, KEYS[2], 100).close();
+
+    List<String> keys = mCache.getMostRecentlyUsedKeys(10);
+    assertEquals(3, keys.size());
+    // the items in use come first
+    assertEquals(KEYS[0], keys.get(0));
+    assertTrue(keys.containsAll(Arrays.asList(KEYS[1], KEYS[2])));
+    assertEquals(Arrays.asList(KEYS[0]), mCache.getMostRecentlyUsedKeys(1));
+    inUseRef.close();
+  }
+
+  @Test
+  public void testMissRatioCurve() {
+    // a single segment, so that the stack distances do not depend on how the keys are spread
+    SegmentedCountingMemoryCache<String, Integer> cache = newSegmentedCache(
+        new MemoryCacheParams(
+            CACHE_MAX_SIZE,
+            CACHE_MAX_COUNT,
+            CACHE_EVICTION_QUEUE_MAX_SIZE,
+            CACHE_EVICTION_QUEUE_MAX_COUNT,
+            CACHE_ENTRY_MAX_SIZE),
+        1);
+    assertNull(cache.getMissRatioCurve());
+    cache.setMissRatioCurveTrackingEnabled(true);
+    for (String key : KEYS) {
+      cache(cache, key, 300).close();
+    }
+    // the evicted items are remembered as ghosts
+    assertTrue(cache.getCount() < KEYS.length);
+    // each item is 10 * 300 bytes away from its previous use, more than twice the max cache size
+    for (String key : KEYS) {
+      CloseableReference.closeSafely(cache.get(key));
+    }
+    cache.get("unknown");
+
+    MissRatioCurve missRatioCurve = cache.getMissRatioCurve();
+    assertEquals(KEYS.length + 1, missRatioCurve.getRequestCount());
+    assertEquals(0, missRatioCurve.getHitCount(1));
+    assertEquals(0, missRatioCurve.getHitCount(2));
+    assertEquals(KEYS.length, missRatioCurve.getHitCount(4));
+
+    cache.setMissRatioCurveTrackingEnabled(false);
+    assertNull(cache.getMissRatioCurve());
+  }
+
+  @Test
+  public void testReplacingValue() {
+    CloseableReference<Integer> cachedRef1 = cache(mCache, KEY, 100);
+    CloseableReference<Integer> cachedRef2 = cache(mCache, KEY, 200);
+    assertTotalSize(1, 200);
+    // the old value is an orphan now and gets released as soon as its last client is done
+    assertEquals(0, mReleasedCount.get());
+    cachedRef1.close();
+    assertEquals(1, mReleasedCount.get());
+    cachedRef2.close();
+    assertTotalSize(1, 200);
+    assertExclusivelyOwnedSize(1, 200);
+  }
+
+  @Test
+  public void testReuse() {
+    CloseableReference<Integer> cachedRef = cache(mCache, KEY, 100);
+    assertNull(mCache.reuse(KEY));
+    cachedRef.close();
+    cachedRef = mCache.reuse(KEY);
+    assertNotNull(cachedRef);
+    assertTotalSize(0, 0);
+    assertExclusivelyOwnedSize(0, 0);
+    cachedRef.close();
+    assertEquals(1, mReleasedCount.get());
+  }
+
+  @Test
+  public void testCannotCacheTooBigValue() {
+    assertNull(cache(mCache, KEY, CACHE_ENTRY_MAX_SIZE + 1));
+    assertTotalSize(0, 0);
+  }
+
+  @Test
+  public void testInUseLimitsAreGlobal() {
+    List<CloseableReference<Integer>> refs = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      refs.add(cache(mCache, KEYS[i], 300));
+    }
+    // the in-use size limit of the whole cache is reached, regardless of the segment
+    assertNull(cache(mCache, KEYS[4], 10));
+    assertTotalSize(4, 1200);
+    CloseableReference.closeSafely(refs);
+  }
+
+  @Test
+  public void testEvictionQueueLimits() {
+    for (int i = 0; i < KEYS.length; i++) {
+      cache(mCache, KEYS[i], 100 + i).close();
+    }
+    assertTrue(mCache.getEvictionQueueCount() <= CACHE_EVICTION_QUEUE_MAX_COUNT);
+    assertTrue(mCache.getEvictionQueueSizeInBytes() <= CACHE_EVICTION_QUEUE_MAX_SIZE);
+    assertEquals(KEYS.length - mCache.getCount(), mReleasedCount.get());
+    assertSegmentsConsistent();
+  }
+
+  @Test
+  public void testBackgroundEviction() {
+    TestExecutorService executor = new TestExecutorService(new FakeClock());
+    SegmentedCountingMemoryCache<String, Integer> cache = new SegmentedCountingMemoryCache<>(
+        mValueDescriptor,
+        mCacheTrimStrategy,
+        newParamsSupplier(mCache.getMemoryCacheParams()),
+        SEGMENT_COUNT,
+        newLruEvictionPolicySupplier(),
+        executor);
+    for (int i = 0; i < CACHE_EVICTION_QUEUE_MAX_COUNT + 1; i++) {
+      cache(cache, KEYS[i], 100 + i).close();
+    }
+    // the eviction queue is over its limit, but the eviction is only scheduled once
+    assertEquals(CACHE_EVICTION_QUEUE_MAX_COUNT + 1, cache.getEvictionQueueCount());
+    assertEquals(0, mReleasedCount.get());
+    assertEquals(1, executor.getPendingCount());
+
+    executor.runUntilIdle();
+    assertEquals(CACHE_EVICTION_QUEUE_MAX_COUNT, cache.getEvictionQueueCount());
+    assertEquals(1, mReleasedCount.get());
+    assertSegmentsConsistent(cache);
+  }
+
+  @Test
+  public void testLruOrderWithinSegment() {
+    SegmentedCountingMemoryCache<String, Integer> cache = newSegmentedCache(
+        new MemoryCacheParams(CACHE_MAX_SIZE, CACHE_MAX_COUNT, 300, 3, CACHE_ENTRY_MAX_SIZE),
+        1);
+    cache(cache, KEYS[0], 100).close();
+    cache(cache, KEYS[1], 100).close();
+    cache(cache, KEYS[2], 100).close();
+    cache.get(KEYS[0]).close();
+    cache(cache, KEYS[3], 100).close();
+    // k1 is the least recently used item
+    assertNull(cache.get(KEYS[1]));
+    assertTrue(cache.mSegments[0].mCachedEntries.contains(KEYS[0]));
+    assertTrue(cache.mSegments[0].mCachedEntries.contains(KEYS[2]));
+    assertTrue(cache.mSegments[0].mCachedEntries.contains(KEYS[3]));
+  }
+
+  @Test
+  public void testRemoveAll() {
+    CloseableReference<Integer> cachedRef = cache(mCache, KEYS[0], 100);
+    cache(mCache, KEYS[1], 110).close();
+    cache(mCache, KEYS[2], 120).close();
+    int removed = mCache.removeAll(
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return !key.equals(KEYS[2]);
+          }
+        });
+    assertEquals(2, removed);
+    assertTotalSize(1, 120);
+    assertExclusivelyOwnedSize(1, 120);
+    // the in-use item is released only once its client is done
+    assertEquals(1, mReleasedCount.get());
+    cachedRef.close();
+    assertEquals(2, mReleasedCount.get());
+    assertSegmentsConsistent();
+  }
+
+  @Test
+  public void testContains() {
+    cache(mCache, KEYS[3], 100).close();
+    assertTrue(mCache.contains(
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return key.equals(KEYS[3]);
+          }
+        }));
+    assertFalse(mCache.contains(
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return key.equals(KEYS[4]);
+          }
+        }));
+  }
+
+  @Test
+  public void testTrim() {
+    CloseableReference<Integer> cachedRef = cache(mCache, KEYS[0], 100);
+    cache(mCache, KEYS[1], 110).close();
+    cache(mCache, KEYS[2], 120).close();
+    mCache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+    assertTotalSize(1, 100);
+    assertExclusivelyOwnedSize(0, 0);
+    assertEquals(2, mReleasedCount.get());
+    cachedRef.close();
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    SegmentedCountingMemoryCache<String, Integer> cache = newSegmentedCache(
+        newUnboundedParams(), SEGMENT_COUNT);
+    runConcurrently(cache, 8, 20000);
+    assertEquals(CONCURRENT_KEY_COUNT, cache.getCount());
+    assertEquals(0, cache.getInUseCount());
+    assertEquals(cache.getCount(), cache.getEvictionQueueCount());
+    assertEquals(cache.getSizeInBytes(), cache.getEvictionQueueSizeInBytes());
+    assertSegmentsConsistent(cache);
+  }
+
+  /**
+   * Populates the cache and then hammers it with gets from the given number of threads.
+   */
+  private void runConcurrently(
+      final AbstractCountingMemoryCache<String, Integer> cache,
+      int threadCount,
+      final int operationsPerThread) throws Exception {
+    final String[] keys = new String[CONCURRENT_KEY_COUNT];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "key" + i;
+      cache(cache, keys[i], 1 + i % 10).close();
+    }
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int t = 0; t < threadCount; t++) {
+      final int seed = t;
+      new Thread(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                startLatch.await();
+                int index = seed * 31;
+                for (int i = 0; i < operationsPerThread; i++) {
+                  index = (index + 7) % keys.length;
+                  CloseableReference<Integer> ref = cache.get(keys[index]);
+                  assertNotNull(ref);
+                  ref.close();
+                }
+              } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+              } finally {
+                doneLatch.countDown();
+              }
+            }
+          }).start();
+    }
+    startLatch.countDown();
+    doneLatch.await();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+  private SegmentedCountingMemoryCache<String, Integer> newSegmentedCache(
+      MemoryCacheParams params,
+      int segmentCount) {
+    return new SegmentedCountingMemoryCache<>(
+        mValueDescriptor,
+        mCacheTrimStrategy,
+        newParamsSupplier(params),
+        segmentCount);
+  }
+
+  private static Supplier<CountingMemoryCache.EvictionPolicy<String>> newLruEvictionPolicySupplier() {
+    return new Supplier<CountingMemoryCache.EvictionPolicy<String>>() {
+      @Override
+      public CountingMemoryCache.EvictionPolicy<String> get() {
+        return new LruEvictionPolicy<>();
+      }
+    };
+  }
+
+  private static MemoryCacheParams newUnboundedParams() {
+    return new MemoryCacheParams(
+        Integer.MAX_VALUE,
+        Integer.MAX_VALUE,
+        Integer.MAX_VALUE,
+        Integer.MAX_VALUE,
+        Integer.MAX_VALUE);
+  }
+
+  private static Supplier<MemoryCacheParams> newParamsSupplier(final MemoryCacheParams params) {
+    return new Supplier<MemoryCacheParams>() {
+      @Override
+      public MemoryCacheParams get() {
+        return params;
+      }
+    };
+  }
+
+  /** Caches a new value and closes the original reference, as the cache clients do. */
+  private CloseableReference<Integer> cache(
+      AbstractCountingMemoryCache<String, Integer> cache,
+      String key,
+      int size) {
+    CloseableReference<Integer> originalRef = newReference(size);
+    CloseableReference<Integer> cachedRef = cache.cache(key, originalRef);
+    originalRef.close();
+    return cachedRef;
+  }
+
+  private CloseableReference<Integer> newReference(int size) {
+    return CloseableReference.of(size, mReleaser);
+  }
+
+  private void assertSegmentsConsistent() {
+    assertSegmentsConsistent(mCache);
+  }
+
+  private static void assertSegmentsConsistent(SegmentedCountingMemoryCache<String, Integer> cache) {
+    int count = 0;
+    int size = 0;
+    int evictionQueueCount = 0;
+    int evictionQueueSize = 0;
+    for (SegmentedCountingMemoryCache.Segment<String, Integer> segment : cache.mSegments) {
+      count += segment.mCachedEntries.getCount();
+      size += segment.mCachedEntries.getSizeInBytes();
+      evictionQueueCount += segment.mExclusiveEntries.getCount();
+      evictionQueueSize += segment.mExclusiveEntries.getSizeInBytes();
+    }
+    assertEquals("total cache count mismatch", count, cache.getCount());
+    assertEquals("total cache size mismatch", size, cache.getSizeInBytes());
+    assertEquals("total exclusives count mismatch", evictionQueueCount, cache.getEvictionQueueCount());
+    assertEquals(
+        "total exclusives size mismatch", evictionQueueSize, cache.getEvictionQueueSizeInBytes());
+  }
+
+  private void assertTotalSize(int count, int bytes) {
+    assertEquals("total cache count mismatch", count, mCache.getCount());
+    assertEquals("total cache size mismatch", bytes, mCache.getSizeInBytes());
+  }
+
+  private void assertExclusivelyOwnedSize(int count, int bytes) {
+    assertEquals("total exclusives count mismatch", count, mCache.getEvictionQueueCount());
+    assertEquals("total exclusives size mismatch", bytes, mCache.getEvictionQueueSizeInBytes());
+  }
+}
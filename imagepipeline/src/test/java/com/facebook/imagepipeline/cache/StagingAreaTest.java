@@ -90,6 +90,15 @@ public class StagingAreaTest {
     assertTrue(CloseableReference.isValid(mCloseableReference2));
   }
 
+  @Test
+  public void testRemoveWithBadRefKeepsValue() {
+    assertFalse(mStagingArea.remove(mCacheKey, mSecondEncodedImage));
+    assertEquals(3, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    EncodedImage encodedImage = mStagingArea.get(mCacheKey);
+    assertTrue(EncodedImage.isValid(encodedImage));
+    encodedImage.close();
+  }
+
   @Test
   public void testRemoveWithoutValueCheck() {
     assertTrue(mStagingArea.remove(mCacheKey));
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.util.Random;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.image.ImageSource;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TinyLfuEvictionPolicy} and {@link FrequencySketch}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class TinyLfuEvictionPolicyTest {
+
+  private static final int CACHE_MAX_COUNT = 100;
+  private static final MemoryCacheParams PARAMS =
+      new MemoryCacheParams(CACHE_MAX_COUNT, CACHE_MAX_COUNT, CACHE_MAX_COUNT, CACHE_MAX_COUNT, 1);
+
+  private static final int TRACE_LENGTH = 100000;
+  private static final int TRACE_HOT_KEY_COUNT = 80;
+  private static final float TRACE_SCAN_PROBABILITY = 0.004f;
+  private static final int TRACE_SCAN_LENGTH = 200;
+  private static final long TRACE_SEED = 42;
+
+  private ValueDescriptor<Integer> mValueDescriptor;
+  private CountingLruMap<String, Integer> mExclusiveEntries;
+  private TinyLfuEvictionPolicy<String> mPolicy;
+
+  @Before
+  public void setUp() {
+    mValueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    mExclusiveEntries = new CountingLruMap<>(mValueDescriptor);
+    mPolicy = new TinyLfuEvictionPolicy<>();
+  }
+
+  @Test
+  public void testSketchFrequency() {
+    FrequencySketch<String> sketch = new FrequencySketch<>(64);
+    assertEquals(0, sketch.frequency("k1"));
+    for (int i = 0; i < 6; i++) {
+      sketch.increment("k1");
+    }
+    sketch.increment("k2");
+    assertEquals(6, sketch.frequency("k1"));
+    assertEquals(1, sketch.frequency("k2"));
+    sketch.reset();
+    assertEquals(3, sketch.frequency("k1"));
+    assertEquals(0, sketch.frequency("k2"));
+  }
+
+  @Test
+  public void testSketchSaturates() {
+    FrequencySketch<String> sketch = new FrequencySketch<>(64);
+    for (int i = 0; i < 100; i++) {
+      sketch.increment("k1");
+    }
+    assertEquals(15, sketch.frequency("k1"));
+  }
+
+  @Test
+  public void testSketchAgesOut() {
+    FrequencySketch<String> sketch = new FrequencySketch<>(16);
+    for (int i = 0; i < 8; i++) {
+      sketch.increment("old");
+    }
+    // the sample size is ten times the capacity, after which the counters get halved
+    for (int i = 0; i < 160; i++) {
+      sketch.increment("k" + i);
+    }
+    assertTrue(sketch.frequency("old") < 8);
+  }
+
+  @Test
+  public void testAddEntersWindow() {
+    addExclusive("k1");
+    assertTrue(mPolicy.mWindow.containsKey("k1"));
+    assertTrue(mPolicy.mProbation.isEmpty());
+    assertTrue(mPolicy.mProtected.isEmpty());
+  }
+
+  @Test
+  public void testHitPromotesToProtected() {
+    addToProbation("k1");
+    mPolicy.onAccess("k1", true);
+    assertFalse(mPolicy.mProbation.containsKey("k1"));
+    assertTrue(mPolicy.mProtected.containsKey("k1"));
+  }
+
+  @Test
+  public void testRemove() {
+    addToProbation("k1");
+    mPolicy.onAccess("k1", true);
+    addExclusive("k2");
+    mPolicy.onAdd("k3", 1, -1, ImageSource.UNKNOWN);
+    mPolicy.onRemove("k1");
+    mPolicy.onRemove("k2");
+    mPolicy.onRemove("k3");
+    mPolicy.onExclusivityChanged("k3", true);
+    assertTrue(mPolicy.mWindow.isEmpty());
+    assertTrue(mPolicy.mProbation.isEmpty());
+    assertTrue(mPolicy.mProtected.isEmpty());
+  }
+
+  @Test
+  public void testItemsInUseAreNotQueued() {
+    addToProbation("k1");
+    mPolicy.onExclusivityChanged("k1", false);
+    assertFalse(mPolicy.mProbation.containsKey("k1"));
+    mPolicy.onAccess("k1", true);
+    assertTrue(mPolicy.mProtected.isEmpty());
+    mPolicy.onExclusivityChanged("k1", true);
+    assertTrue(mPolicy.mProtected.containsKey("k1"));
+  }
+
+  @Test
+  public void testWindowOverflowIsAdmittedWhileThereIsRoom() {
+    addExclusive("k1");
+    addExclusive("k2");
+    assertEquals("k2", mPolicy.getNextToEvict(mExclusiveEntries, singleItemParams()));
+    assertTrue(mPolicy.mProbation.containsKey("k1"));
+  }
+
+  @Test
+  public void testFrequentCandidateIsAdmitted() {
+    addExclusive("victim");
+    addExclusive("candidate1");
+    addExclusive("candidate2");
+    mPolicy.onAccess("candidate1", false);
+    mPolicy.onAccess("candidate1", false);
+
+    assertEquals("victim", mPolicy.getNextToEvict(mExclusiveEntries, singleItemParams()));
+    assertTrue(mPolicy.mProbation.containsKey("candidate1"));
+    assertFalse(mPolicy.mWindow.containsKey("candidate1"));
+  }
+
+  @Test
+  public void testInfrequentCandidateIsRejected() {
+    addExclusive("victim");
+    mPolicy.onAccess("victim", false);
+    addExclusive("candidate1");
+    addExclusive("candidate2");
+
+    assertEquals("candidate1", mPolicy.getNextToEvict(mExclusiveEntries, singleItemParams()));
+    assertTrue(mPolicy.mProbation.containsKey("victim"));
+  }
+
+  @Test
+  public void testItemsInUseAreSkipped() {
+    mPolicy.onAdd("inUse", 1, -1, ImageSource.UNKNOWN);
+    addExclusive("k1");
+    addExclusive("k2");
+    // k1 is admitted to the main segments, and k2 competes with it
+    assertEquals("k2", mPolicy.getNextToEvict(mExclusiveEntries, singleItemParams()));
+    assertFalse(mPolicy.mWindow.containsKey("inUse"));
+    assertTrue(mPolicy.mProbation.containsKey("k1"));
+  }
+
+  /**
+   * Replays a trace where a small set of images keeps being reused while long one-off scans (as
+   * by prefetches or flings) go through the cache, which flushes the LRU cache every time.
+   */
+  @Test
+  public void testTraceHitRate() {
+    double lruHitRate = replayTrace(new LruEvictionPolicy<String>());
+    double tinyLfuHitRate = replayTrace(new TinyLfuEvictionPolicy<String>());
+    assertTrue(tinyLfuHitRate > lruHitRate + 0.1);
+  }
+
+  private double replayTrace(CountingMemoryCache.EvictionPolicy<String> policy) {
+    ResourceReleaser<Integer> releaser =
+        new ResourceReleaser<Integer>() {
+          @Override
+          public void release(Integer value) {
+          }
+        };
+    CountingMemoryCache.CacheTrimStrategy trimStrategy =
+        new CountingMemoryCache.CacheTrimStrategy() {
+          @Override
+          public double getTrimRatio(MemoryTrimType trimType) {
+            return 1.0;
+          }
+        };
+    Supplier<MemoryCacheParams> paramsSupplier =
+        new Supplier<MemoryCacheParams>() {
+          @Override
+          public MemoryCacheParams get() {
+            return PARAMS;
+          }
+        };
+    CountingMemoryCache<String, Integer> cache =
+        new CountingMemoryCache<>(mValueDescriptor, trimStrategy, paramsSupplier, policy);
+    Random random = new Random(TRACE_SEED);
+    int hits = 0;
+    int scanKey = 0;
+    int i = 0;
+    while (i < TRACE_LENGTH) {
+      if (random.nextFloat() < TRACE_SCAN_PROBABILITY) {
+        for (int j = 0; j < TRACE_SCAN_LENGTH && i < TRACE_LENGTH; j++, i++) {
+          hits += request(cache, "scan" + scanKey++, releaser) ? 1 : 0;
+        }
+      } else {
+        hits += request(cache, "hot" + random.nextInt(TRACE_HOT_KEY_COUNT), releaser) ? 1 : 0;
+        i++;
+      }
+    }
+    return (double) hits / TRACE_LENGTH;
+  }
+
+  /** Gets the item from the cache, or caches it on a miss, like the memory cache producers do. */
+  private static boolean request(
+      CountingMemoryCache<String, Integer> cache,
+      String key,
+      ResourceReleaser<Integer> releaser) {
+    CloseableReference<Integer> ref = cache.get(key);
+    if (ref != null) {
+      ref.close();
+      return true;
+    }
+    CloseableReference<Integer> originalRef = CloseableReference.of(1, releaser);
+    CloseableReference.closeSafely(cache.cache(key, originalRef));
+    originalRef.close();
+    return false;
+  }
+
+  private void addExclusive(String key) {
+    mExclusiveEntries.put(key, 1);
+    mPolicy.onAdd(key, 1, -1, ImageSource.UNKNOWN);
+    mPolicy.onExclusivityChanged(key, true);
+  }
+
+  /** Adds the item and lets it overflow the window, so that it gets admitted to probation. */
+  private void addToProbation(String key) {
+    addExclusive(key);
+    addExclusive(key + "-overflow");
+    mPolicy.getNextToEvict(mExclusiveEntries, singleItemParams());
+    mExclusiveEntries.remove(key + "-overflow");
+    mPolicy.onRemove(key + "-overflow");
+    assertTrue(mPolicy.mProbation.containsKey(key));
+  }
+
+  private static MemoryCacheParams singleItemParams() {
+    // no room for the window, and room for a single item in the main segments
+    return new MemoryCacheParams(1, 100, 100, 100, 1);
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.cache.MemoryCacheParams;
+import com.facebook.imagepipeline.cache.ValueDescriptor;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BitmapMemoryCacheSnapshotter}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class BitmapMemoryCacheSnapshotterTest {
+
+  private static final int MAX_SNAPSHOT_SIZE = 2;
+
+  private File mSnapshotFile;
+  private ResourceReleaser<Integer> mReleaser;
+  private CountingMemoryCache<CacheKey, Integer> mCache;
+  private BitmapMemoryCacheSnapshotter mSnapshotter;
+
+  @Before
+  public void setUp() {
+    mSnapshotFile = new File(RuntimeEnvironment.application.getCacheDir(), "bitmap_snapshot");
+    mSnapshotFile.delete();
+    mReleaser =
+        new ResourceReleaser<Integer>() {
+          @Override
+          public void release(Integer value) {
+          }
+        };
+    ValueDescriptor<Integer> valueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    CountingMemoryCache.CacheTrimStrategy trimStrategy =
+        new CountingMemoryCache.CacheTrimStrategy() {
+          @Override
+          public double getTrimRatio(MemoryTrimType trimType) {
+            return 1.0;
+          }
+        };
+    Supplier<MemoryCacheParams> paramsSupplier =
+        new Supplier<MemoryCacheParams>() {
+          @Override
+          public MemoryCacheParams get() {
+            return new MemoryCacheParams(1000, 10, 1000, 10, 1000);
+          }
+        };
+    mCache = new CountingMemoryCache<>(valueDescriptor, trimStrategy, paramsSupplier);
+    mSnapshotter = new BitmapMemoryCacheSnapshotter(
+        mCache,
+        mSnapshotFile,
+        MAX_SNAPSHOT_SIZE,
+        CallerThreadExecutor.getInstance());
+  }
+
+  @Test
+  public void testRoundTrip() {
+    ImageDecodeOptions decodeOptions =
+        ImageDecodeOptions.newBuilder().setBackgroundColor(0xff00ff00).setDecodeAllFrames(true).build();
+    CacheKey key = new BitmapMemoryCacheKey(
+        "http://fresco/image.jpg",
+        new ResizeOptions(100, 200),
+        true,
+        decodeOptions,
+        null,
+        null,
+        ImageRequest.ImageType.SMALL,
+        null);
+    mSnapshotter.writeSnapshot(Arrays.asList(key));
+
+    List<ImageRequest> imageRequests = mSnapshotter.readSnapshot();
+    assertEquals(1, imageRequests.size());
+    ImageRequest imageRequest = imageRequests.get(0);
+    assertEquals("http://fresco/image.jpg", imageRequest.getSourceUri().toString());
+    assertEquals(100, imageRequest.getResizeOptions().width);
+    assertEquals(200, imageRequest.getResizeOptions().height);
+    assertTrue(imageRequest.getAutoRotateEnabled());
+    assertEquals(ImageRequest.ImageType.SMALL, imageRequest.getImageType());
+    assertEquals(decodeOptions, imageRequest.getImageDecodeOptions());
+    assertEquals(ImageRequest.RequestLevel.DISK_CACHE, imageRequest.getLowestPermittedRequestLevel());
+  }
+
+  @Test
+  public void testSkipsKeysThatCannotBeReplayed() {
+    CacheKey postprocessedKey = new BitmapMemoryCacheKey(
+        "http://fresco/postprocessed.jpg",
+        null,
+        false,
+        ImageDecodeOptions.defaults(),
+        new SimpleCacheKey("postprocessor"),
+        "postprocessor");
+    CacheKey taggedKey = new BitmapMemoryCacheKey(
+        "http://fresco/tagged.jpg",
+        null,
+        false,
+        ImageDecodeOptions.defaults(),
+        null,
+        null,
+        ImageRequest.ImageType.DEFAULT,
+        "avatars");
+    mSnapshotter.writeSnapshot(
+        Arrays.asList(
+            postprocessedKey, taggedKey, new SimpleCacheKey("simple"), newKey("http://fresco/1.jpg")));
+
+    List<ImageRequest> imageRequests = mSnapshotter.readSnapshot();
+    assertEquals(1, imageRequests.size());
+    assertEquals("http://fresco/1.jpg", imageRequests.get(0).getSourceUri().toString());
+    assertNull(imageRequests.get(0).getResizeOptions());
+  }
+
+  @Test
+  public void testReadMissingSnapshot() {
+    assertTrue(mSnapshotter.readSnapshot().isEmpty());
+  }
+
+  @Test
+  public void testTrimPersistsMostRecentlyUsedKeys() {
+    mCache.setTrimObserver(mSnapshotter);
+    CloseableReference<Integer> inUseRef = cache(newKey("http://fresco/inUse.jpg"));
+    cache(newKey("http://fresco/old.jpg")).close();
+    cache(newKey("http://fresco/recent.jpg")).close();
+
+    mCache.trim(MemoryTrimType.OnAppBackgrounded);
+    // the snapshot is taken before the exclusively owned items get trimmed
+    assertEquals(1, mCache.getCount());
+    assertSnapshot("http://fresco/inUse.jpg", "http://fresco/recent.jpg");
+
+    inUseRef.close();
+    mCache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInBackground);
+    assertEquals(0, mCache.getCount());
+    assertSnapshot("http://fresco/inUse.jpg");
+
+    // a trim of the empty cache keeps the last snapshot
+    mCache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInBackground);
+    assertSnapshot("http://fresco/inUse.jpg");
+  }
+
+  private CloseableReference<Integer> cache(CacheKey key) {
+    CloseableReference<Integer> originalRef = CloseableReference.of(10, mReleaser);
+    CloseableReference<Integer> cachedRef = mCache.cache(key, originalRef);
+    originalRef.close();
+    return cachedRef;
+  }
+
+  private void assertSnapshot(String... sourceUris) {
+    List<ImageRequest> imageRequests = mSnapshotter.readSnapshot();
+    assertEquals(sourceUris.length, imageRequests.size());
+    for (int i = 0; i < sourceUris.length; i++) {
+      assertEquals(sourceUris[i], imageRequests.get(i).getSourceUri().toString());
+    }
+  }
+
+  private static CacheKey newKey(String sourceUri) {
+    return new BitmapMemoryCacheKey(
+        sourceUri,
+        null,
+        false,
+        ImageDecodeOptions.defaults(),
+        null,
+        null);
+  }
+}
@@ -75,6 +75,7 @@ public class EncodedImageTest {
     encodedImage.setWidth(1);
     encodedImage.setHeight(2);
     encodedImage.setSampleSize(4);
+    encodedImage.setSource(ImageSource.NETWORK);
     EncodedImage encodedImage2 = EncodedImage.cloneOrNull(encodedImage);
     assertEquals(3, mByteBufferRef.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
     assertSame(
@@ -85,6 +86,7 @@ public class EncodedImageTest {
     assertEquals(encodedImage.getHeight(), encodedImage2.getHeight());
     assertEquals(encodedImage.getWidth(), encodedImage2.getWidth());
     assertEquals(encodedImage.getSampleSize(), encodedImage2.getSampleSize());
+    assertEquals(encodedImage.getSource(), encodedImage2.getSource());
 
     encodedImage = new EncodedImage(mInputStreamSupplier, 100);
     encodedImage.setImageFormat(ImageFormat.JPEG);
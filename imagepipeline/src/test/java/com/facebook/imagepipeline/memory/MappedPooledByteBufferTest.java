@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.facebook.imagepipeline.testing.FakeNativeMemoryChunk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Basic tests for {@link MappedPooledByteBuffer}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MappedPooledByteBufferTest extends TestUsingNativeMemoryChunk {
+  private static final byte[] BYTES = new byte[] {1, 4, 5, 0, 100, 34, 0, 1, -1, -1};
+
+  private File mFile;
+  private MappedPooledByteBuffer mPooledByteBuffer;
+  private int mNativeCopyCount;
+  private FakeNativeMemoryChunk mNativeCopy;
+
+  @Before
+  public void setUp() throws Exception {
+    mFile = new File(RuntimeEnvironment.application.getCacheDir(), "mapped-pooled-byte-buffer-test");
+    FileOutputStream stream = new FileOutputStream(mFile);
+    stream.write(BYTES);
+    stream.close();
+    mPooledByteBuffer = MappedPooledByteBuffer.map(mFile);
+  }
+
+  @After
+  public void tearDown() {
+    mFile.delete();
+  }
+
+  @Test
+  public void testBasic() {
+    assertFalse(mPooledByteBuffer.isClosed());
+    assertEquals(BYTES.length, mPooledByteBuffer.size());
+  }
+
+  @Test
+  public void testSimpleRead() {
+    for (int i = 0; i < BYTES.length; ++i) {
+      assertEquals(BYTES[i], mPooledByteBuffer.read(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSimpleReadOutOfBounds() {
+    mPooledByteBuffer.read(BYTES.length);
+  }
+
+  @Test
+  public void testRangeRead() {
+    byte[] readBuf = new byte[BYTES.length];
+    mPooledByteBuffer.read(1, readBuf, 1, BYTES.length - 2);
+    assertEquals(0, readBuf[0]);
+    assertEquals(0, readBuf[BYTES.length - 1]);
+    for (int i = 1; i < BYTES.length - 1; ++i) {
+      assertEquals(BYTES[i], readBuf[i]);
+    }
+    // the range reads do not move the position of the mapping
+    mPooledByteBuffer.read(0, readBuf, 0, BYTES.length);
+    assertArrayEquals(BYTES, readBuf);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRangeReadOutOfBounds() {
+    byte[] readBuf = new byte[BYTES.length];
+    mPooledByteBuffer.read(1, readBuf, 0, BYTES.length);
+  }
+
+  @Test
+  public void testGetByteBuffer() {
+    ByteBuffer byteBuffer = mPooledByteBuffer.getByteBuffer();
+    assertTrue(byteBuffer.isDirect());
+    assertTrue(byteBuffer.isReadOnly());
+    assertEquals(BYTES.length, byteBuffer.remaining());
+    assertEquals(BYTES[4], byteBuffer.get(4));
+  }
+
+  @Test
+  public void testGetNativePtrCopiesBytes() throws Exception {
+    MappedPooledByteBuffer pooledByteBuffer = mapWithFakeNativeMemory();
+    pooledByteBuffer.getNativePtr();
+    pooledByteBuffer.getNativePtr();
+    assertEquals(1, mNativeCopyCount);
+    byte[] readBuf = new byte[BYTES.length];
+    mNativeCopy.read(0, readBuf, 0, BYTES.length);
+    assertArrayEquals(BYTES, readBuf);
+  }
+
+  @Test
+  public void testCloseFreesNativeCopy() throws Exception {
+    MappedPooledByteBuffer pooledByteBuffer = mapWithFakeNativeMemory();
+    pooledByteBuffer.getNativePtr();
+    pooledByteBuffer.close();
+    assertTrue(mNativeCopy.isClosed());
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testGetNativePtrAfterClose() {
+    mPooledByteBuffer.close();
+    mPooledByteBuffer.getNativePtr();
+  }
+
+  @Test
+  public void testReadAfterFileDeleted() {
+    assertTrue(mFile.delete());
+    assertEquals(BYTES[4], mPooledByteBuffer.read(4));
+  }
+
+  @Test
+  public void testClose() {
+    mPooledByteBuffer.close();
+    assertTrue(mPooledByteBuffer.isClosed());
+    // closing twice is fine
+    mPooledByteBuffer.close();
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testReadAfterClose() {
+    mPooledByteBuffer.close();
+    mPooledByteBuffer.read(0);
+  }
+
+  private MappedPooledByteBuffer mapWithFakeNativeMemory() throws IOException {
+    FileInputStream stream = new FileInputStream(mFile);
+    try {
+      FileChannel channel = stream.getChannel();
+      return new MappedPooledByteBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())) {
+        @Override
+        NativeMemoryChunk newNativeMemoryChunk(int size) {
+          mNativeCopyCount++;
+          mNativeCopy = new FakeNativeMemoryChunk(size);
+          return mNativeCopy;
+        }
+      };
+    } finally {
+      stream.close();
+    }
+  }
+}
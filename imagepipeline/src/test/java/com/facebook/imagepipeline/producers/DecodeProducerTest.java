@@ -23,7 +23,9 @@ import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegParser;
 import com.facebook.imagepipeline.decoder.SimpleProgressiveJpegConfig;
+import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImageSource;
 import com.facebook.imagepipeline.image.ImmutableQualityInfo;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
@@ -360,6 +362,25 @@ public class DecodeProducerTest {
         any(Map.class));
   }
 
+  @Test
+  public void testDecode_RecordsDecodeInfo() throws Exception {
+    setupNetworkUri();
+    produceResults();
+    JobScheduler.JobRunnable jobRunnable = getJobRunnable();
+
+    CloseableImage image = mock(CloseableImage.class);
+    when(mImageDecoder.decodeImage(
+        mEncodedImage,
+        IMAGE_SIZE,
+        ImmutableQualityInfo.FULL_QUALITY,
+        IMAGE_DECODE_OPTIONS))
+        .thenReturn(image);
+    mEncodedImage.setSource(ImageSource.DISK_CACHE);
+    jobRunnable.run(mEncodedImage, true);
+
+    verify(image).setDecodeInfo(anyLong(), eq(ImageSource.DISK_CACHE));
+  }
+
   private void setupNetworkUri() {
     //Uri.parse("file://path/image")
     mImageRequest = ImageRequestBuilder.newBuilderWithSource(Uri.parse("http://www.fb.com/image"))
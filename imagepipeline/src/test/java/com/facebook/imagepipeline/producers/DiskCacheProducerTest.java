@@ -18,6 +18,7 @@ import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.DiskCacheAdmissionPolicy;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
@@ -39,10 +40,11 @@ import static org.mockito.Mockito.*;
 
 /**
  * Checks basic properties of disk cache producer operation, that is:
- *   - it delegates to the {@link BufferedDiskCache#get(CacheKey key, AtomicBoolean isCancelled)}
+ *   - it delegates to the
+ *   {@link BufferedDiskCache#get(CacheKey key, AtomicBoolean isCancelled, Priority priority)}
  *   - it returns a 'copy' of the cached value
- *   - if {@link BufferedDiskCache#get(CacheKey key, AtomicBoolean isCancelled)} is unsuccessful,
- *   then it passes the request to the next producer in the sequence.
+ *   - if {@link BufferedDiskCache#get(CacheKey key, AtomicBoolean isCancelled, Priority priority)}
+ *   is unsuccessful, then it passes the request to the next producer in the sequence.
  *   - if the next producer returns the value, then it is put into the disk cache.
  */
 @RunWith(RobolectricTestRunner.class)
@@ -60,6 +62,7 @@ public class DiskCacheProducerTest {
   @Mock public ImageRequest mImageRequest;
   @Mock public ProducerListener mProducerListener;
   @Mock public Exception mException;
+  @Mock public DiskCacheAdmissionPolicy mAdmissionPolicy;
   private final BufferedDiskCache mDefaultBufferedDiskCache = mock(BufferedDiskCache.class);
   private final BufferedDiskCache mSmallImageBufferedDiskCache =
       mock(BufferedDiskCache.class);
@@ -116,6 +119,7 @@ public class DiskCacheProducerTest {
     when(mCacheKeyFactory.getEncodedCacheKey(mImageRequest)).thenReturn(mCacheKey);
     when(mImageRequest.getImageType()).thenReturn(ImageRequest.ImageType.DEFAULT);
     when(mImageRequest.isDiskCacheEnabled()).thenReturn(true);
+    when(mImageRequest.getDiskCacheAdmission()).thenReturn(ImageRequest.DiskCacheAdmission.DEFAULT);
   }
 
   @Test
@@ -286,6 +290,49 @@ public class DiskCacheProducerTest {
         mRequestId, PRODUCER_NAME, null);
   }
 
+  @Test
+  public void testAdmissionPolicyRejectsImage() {
+    mDiskCacheProducer = newDiskCacheProducerWithAdmissionPolicy();
+    setupDiskCacheGetNotFound(mDefaultBufferedDiskCache);
+    setupInputProducerSuccess();
+    mDiskCacheProducer.produceResults(mConsumer, mProducerContext);
+    verify(mAdmissionPolicy).onRequest(mCacheKey);
+    verify(mAdmissionPolicy).shouldAdmit(mCacheKey, mFinalEncodedImage.getSize());
+    verify(mDefaultBufferedDiskCache, never()).put(any(CacheKey.class), any(EncodedImage.class));
+    verify(mConsumer).onNewResult(mFinalEncodedImage, true);
+  }
+
+  @Test
+  public void testAdmissionPolicyAdmitsImage() {
+    mDiskCacheProducer = newDiskCacheProducerWithAdmissionPolicy();
+    when(mAdmissionPolicy.shouldAdmit(eq(mCacheKey), anyInt())).thenReturn(true);
+    setupDiskCacheGetNotFound(mDefaultBufferedDiskCache);
+    setupInputProducerSuccess();
+    mDiskCacheProducer.produceResults(mConsumer, mProducerContext);
+    verify(mDefaultBufferedDiskCache).put(mCacheKey, mFinalEncodedImage);
+  }
+
+  @Test
+  public void testRequestForcesAdmission() {
+    mDiskCacheProducer = newDiskCacheProducerWithAdmissionPolicy();
+    when(mImageRequest.getDiskCacheAdmission()).thenReturn(ImageRequest.DiskCacheAdmission.ALWAYS);
+    setupDiskCacheGetNotFound(mDefaultBufferedDiskCache);
+    setupInputProducerSuccess();
+    mDiskCacheProducer.produceResults(mConsumer, mProducerContext);
+    verify(mAdmissionPolicy, never()).shouldAdmit(any(CacheKey.class), anyInt());
+    verify(mDefaultBufferedDiskCache).put(mCacheKey, mFinalEncodedImage);
+  }
+
+  @Test
+  public void testRequestSkipsAdmission() {
+    when(mImageRequest.getDiskCacheAdmission()).thenReturn(ImageRequest.DiskCacheAdmission.NEVER);
+    setupDiskCacheGetNotFound(mDefaultBufferedDiskCache);
+    setupInputProducerSuccess();
+    mDiskCacheProducer.produceResults(mConsumer, mProducerContext);
+    verify(mDefaultBufferedDiskCache, never()).put(any(CacheKey.class), any(EncodedImage.class));
+    verify(mConsumer).onNewResult(mFinalEncodedImage, true);
+  }
+
   @Test
   public void testDiskCacheGetNotFoundInputProducerNotFound() {
     setupDiskCacheGetNotFound(mDefaultBufferedDiskCache);
@@ -351,24 +398,33 @@ public class DiskCacheProducerTest {
         any(Map.class));
   }
 
+  private DiskCacheProducer newDiskCacheProducerWithAdmissionPolicy() {
+    return new DiskCacheProducer(
+        mDefaultBufferedDiskCache,
+        mSmallImageBufferedDiskCache,
+        mCacheKeyFactory,
+        mInputProducer,
+        mAdmissionPolicy);
+  }
+
   private void setupDiskCacheGetWait(BufferedDiskCache bufferedDiskCache) {
     mTaskCompletionSource = Task.create();
-    when(bufferedDiskCache.get(eq(mCacheKey), mIsCancelled.capture()))
+    when(bufferedDiskCache.get(eq(mCacheKey), mIsCancelled.capture(), eq(Priority.MEDIUM)))
         .thenReturn(mTaskCompletionSource.getTask());
   }
 
   private void setupDiskCacheGetSuccess(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class)))
+    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class), eq(Priority.MEDIUM)))
         .thenReturn(Task.forResult(mFinalEncodedImage));
   }
 
   private void setupDiskCacheGetNotFound(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class)))
+    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class), eq(Priority.MEDIUM)))
         .thenReturn(Task.<EncodedImage>forResult(null));
   }
 
   private void setupDiskCacheGetFailure(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class)))
+    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class), eq(Priority.MEDIUM)))
         .thenReturn(Task.<EncodedImage>forError(mException));
   }
 
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.net.Uri;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.PartialDownload;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+import com.facebook.imagepipeline.testing.FakeHttpServer;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link HttpUrlConnectionNetworkFetcher}, against a local server.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class HttpUrlConnectionNetworkFetcherTest {
+
+  private static final String ENTITY_TAG = "\"v1\"";
+  private static final int IMAGE_SIZE = 1000;
+  private static final int PREFIX_SIZE = 400;
+
+  private byte[] mImage;
+  private HttpUrlConnectionNetworkFetcher mFetcher;
+  private FakeHttpServer mServer;
+
+  @Before
+  public void setUp() {
+    mImage = new byte[IMAGE_SIZE];
+    for (int i = 0; i < IMAGE_SIZE; i++) {
+      mImage[i] = (byte) i;
+    }
+    mFetcher = new HttpUrlConnectionNetworkFetcher();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (mServer != null) {
+      mServer.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testFetchesWholeImage() throws Exception {
+    mServer = new FakeHttpServer(mImage, ENTITY_TAG, true);
+    FetchState fetchState = createFetchState();
+
+    assertArrayEquals(mImage, fetch(fetchState));
+    assertNull(mServer.getLastRequestHeaders().get("range"));
+    assertEquals(0, fetchState.getResponseOffset());
+    assertEquals(ENTITY_TAG, fetchState.getResponseEntityTag());
+  }
+
+  @Test(timeout = 10000)
+  public void testResumesFromPartialDownload() throws Exception {
+    mServer = new FakeHttpServer(mImage, ENTITY_TAG, true);
+    FetchState fetchState = createFetchState();
+    fetchState.setPartialDownload(createPartialDownload(ENTITY_TAG));
+
+    assertArrayEquals(Arrays.copyOfRange(mImage, PREFIX_SIZE, IMAGE_SIZE), fetch(fetchState));
+    assertEquals("bytes=" + PREFIX_SIZE + "-", mServer.getLastRequestHeaders().get("range"));
+    assertEquals(ENTITY_TAG, mServer.getLastRequestHeaders().get("if-range"));
+    assertEquals(PREFIX_SIZE, fetchState.getResponseOffset());
+  }
+
+  @Test(timeout = 10000)
+  public void testFallsBackWhenServerIgnoresRange() throws Exception {
+    mServer = new FakeHttpServer(mImage, ENTITY_TAG, false);
+    FetchState fetchState = createFetchState();
+    fetchState.setPartialDownload(createPartialDownload(ENTITY_TAG));
+
+    assertArrayEquals(mImage, fetch(fetchState));
+    assertEquals(0, fetchState.getResponseOffset());
+  }
+
+  @Test(timeout = 10000)
+  public void testFallsBackWhenImageChanged() throws Exception {
+    mServer = new FakeHttpServer(mImage, ENTITY_TAG, true);
+    FetchState fetchState = createFetchState();
+    fetchState.setPartialDownload(createPartialDownload("\"v0\""));
+
+    assertArrayEquals(mImage, fetch(fetchState));
+    assertEquals("\"v0\"", mServer.getLastRequestHeaders().get("if-range"));
+    assertEquals(0, fetchState.getResponseOffset());
+  }
+
+  @Test
+  public void testParseRangeStart() {
+    assertEquals(400, FetchState.parseRangeStart("bytes 400-999/1000"));
+    assertEquals(400, FetchState.parseRangeStart("bytes 400-999/*"));
+    assertEquals(-1, FetchState.parseRangeStart("bytes */1000"));
+    assertEquals(-1, FetchState.parseRangeStart(null));
+  }
+
+  private FetchState createFetchState() {
+    ImageRequest imageRequest =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse(mServer.getUrl())).build();
+    SettableProducerContext context = new SettableProducerContext(
+        imageRequest,
+        "id",
+        null,
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false /* isPrefetch */,
+        false /* isIntermediateResultExpected */,
+        Priority.MEDIUM);
+    return new FetchState(null, context);
+  }
+
+  private PartialDownload createPartialDownload(String entityTag) {
+    CloseableReference<PooledByteBuffer> bytesRef = CloseableReference.<PooledByteBuffer>of(
+        new TrivialPooledByteBuffer(Arrays.copyOf(mImage, PREFIX_SIZE)));
+    try {
+      return new PartialDownload(bytesRef, entityTag, null);
+    } finally {
+      bytesRef.close();
+    }
+  }
+
+  /** Fetches the image, and returns the bytes of the response. */
+  private byte[] fetch(FetchState fetchState) throws Exception {
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    final Throwable[] failure = new Throwable[1];
+    final CountDownLatch latch = new CountDownLatch(1);
+    mFetcher.fetch(
+        fetchState,
+        new NetworkFetcher.Callback() {
+          @Override
+          public void onResponse(InputStream inputStream, int length) throws IOException {
+            byte[] buffer = new byte[100];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+              response.write(buffer, 0, read);
+            }
+            latch.countDown();
+          }
+
+          @Override
+          public void onFailure(Throwable throwable) {
+            failure[0] = throwable;
+            latch.countDown();
+          }
+
+          @Override
+          public void onCancellation() {
+            latch.countDown();
+          }
+        });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertNull(failure[0]);
+    return response.toByteArray();
+  }
+}
@@ -11,6 +11,7 @@ package com.facebook.imagepipeline.producers;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -21,14 +22,22 @@ import java.util.concurrent.Future;
 
 import android.os.SystemClock;
 
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.common.internal.Throwables;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.PartialDownload;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
 import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+
+import bolts.Task;
 
 import org.junit.*;
 import org.junit.runner.*;
@@ -59,6 +68,9 @@ public class NetworkFetchProducerTest {
   @Mock public Consumer mConsumer;
   @Mock public NetworkFetcher mNetworkFetcher;
   @Mock public Map<String, String> mExtrasMap;
+  @Mock public BufferedDiskCache mDefaultBufferedDiskCache;
+  @Mock public BufferedDiskCache mSmallImageBufferedDiskCache;
+  @Mock public CacheKeyFactory mCacheKeyFactory;
 
   @Rule
   public PowerMockRule rule = new PowerMockRule();
@@ -240,6 +252,86 @@ public class NetworkFetchProducerTest {
     }
   }
 
+  @Test
+  public void testResumesFromPartialDownload() throws IOException {
+    CacheKey cacheKey = setUpPartialDownloads();
+    byte[] prefix = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+    CloseableReference<PooledByteBuffer> prefixRef =
+        CloseableReference.<PooledByteBuffer>of(new TrivialPooledByteBuffer(prefix));
+    when(mDefaultBufferedDiskCache.getPartialDownload(cacheKey))
+        .thenReturn(Task.forResult(new PartialDownload(prefixRef, "\"v1\"", null)));
+    prefixRef.close();
+    NetworkFetcher.Callback callback = performFetch();
+    assertEquals("bytes=10-", mFetchState.getRangeHeader());
+    assertEquals("\"v1\"", mFetchState.getIfRangeHeader());
+
+    mFetchState.onResponseHeaders(206, "bytes 10-19/20", "\"v1\"", null);
+    callback.onResponse(new ByteArrayInputStream(new byte[10]), 10);
+    verify(mPooledByteBufferFactory).newOutputStream(20);
+    // the prefix, then the response
+    verify(mPooledByteBufferOutputStream, times(2)).write(same(mCommonByteArray), eq(0), eq(10));
+    verify(mConsumer).onNewResult(any(CloseableReference.class), eq(true));
+    verify(mDefaultBufferedDiskCache).removePartialDownload(cacheKey);
+  }
+
+  @Test
+  public void testFetchesWholeImageWhenRangeNotSatisfiable() throws IOException {
+    CacheKey cacheKey = setUpPartialDownloads();
+    CloseableReference<PooledByteBuffer> prefixRef =
+        CloseableReference.<PooledByteBuffer>of(new TrivialPooledByteBuffer(new byte[10]));
+    when(mDefaultBufferedDiskCache.getPartialDownload(cacheKey))
+        .thenReturn(Task.forResult(new PartialDownload(prefixRef, "\"v1\"", null)));
+    prefixRef.close();
+    NetworkFetcher.Callback callback = performFetch();
+    assertEquals("bytes=10-", mFetchState.getRangeHeader());
+
+    mFetchState.onResponseHeaders(416, null, null, null);
+    callback.onFailure(new IOException());
+    verify(mDefaultBufferedDiskCache).removePartialDownload(cacheKey);
+    // fetched again, without the range headers
+    verify(mNetworkFetcher, times(2)).fetch(same(mFetchState), any(NetworkFetcher.Callback.class));
+    assertNull(mFetchState.getRangeHeader());
+    assertNull(mFetchState.getIfRangeHeader());
+    verify(mConsumer, never()).onFailure(any(Throwable.class));
+  }
+
+  @Test
+  public void testKeepsPartialDownloadOnReadFailure() throws IOException {
+    CacheKey cacheKey = setUpPartialDownloads();
+    when(mDefaultBufferedDiskCache.getPartialDownload(cacheKey))
+        .thenReturn(Task.<PartialDownload>forResult(null));
+    NetworkFetcher.Callback callback = performFetch();
+    assertNull(mFetchState.getRangeHeader());
+
+    mFetchState.onResponseHeaders(200, null, "\"v1\"", null);
+    InputStream inputStream = mock(InputStream.class);
+    when(inputStream.read(any(byte[].class))).thenThrow(new IOException());
+    when(mPooledByteBufferOutputStream.size())
+        .thenReturn(NetworkFetchProducer.MIN_PARTIAL_DOWNLOAD_SIZE);
+    try {
+      callback.onResponse(inputStream, -1);
+      fail();
+    } catch (IOException e) {
+      verify(mDefaultBufferedDiskCache).putPartialDownload(eq(cacheKey), any(PartialDownload.class));
+      verify(mPooledByteBufferOutputStream).close();
+    }
+  }
+
+  private CacheKey setUpPartialDownloads() {
+    CacheKey cacheKey = new SimpleCacheKey("http://image");
+    when(mImageRequest.isDiskCacheEnabled()).thenReturn(true);
+    when(mImageRequest.getImageType()).thenReturn(ImageRequest.ImageType.DEFAULT);
+    when(mCacheKeyFactory.getEncodedCacheKey(mImageRequest)).thenReturn(cacheKey);
+    mNetworkFetchProducer = new NetworkFetchProducer(
+        mPooledByteBufferFactory,
+        mByteArrayPool,
+        mNetworkFetcher,
+        mDefaultBufferedDiskCache,
+        mSmallImageBufferedDiskCache,
+        mCacheKeyFactory);
+    return cacheKey;
+  }
+
   private void verifyPooledByteBufferUsed(int times) {
     verify(mPooledByteBufferOutputStream, times(times)).toByteBuffer();
     verify(mPooledByteBuffer, times(times)).close();
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.testing;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An HTTP server on the loopback interface serving a single image, for the tests of the network
+ * fetchers. It answers the requests one at a time, and honours the range requests if told to, on
+ * the condition of the If-Range header.
+ */
+public class FakeHttpServer implements Closeable {
+
+  private final byte[] mImage;
+  private final String mEntityTag;
+  private final boolean mRangesSupported;
+  private final ServerSocket mServerSocket;
+  private final Thread mThread;
+  private Map<String, String> mLastRequestHeaders;
+
+  /**
+   * @param image the bytes of the image served
+   * @param entityTag the ETag of the image
+   * @param rangesSupported whether to answer the range requests with the part asked for only
+   */
+  public FakeHttpServer(byte[] image, String entityTag, boolean rangesSupported)
+      throws IOException {
+    mImage = image;
+    mEntityTag = entityTag;
+    mRangesSupported = rangesSupported;
+    mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+    mThread = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            serve();
+          }
+        });
+    mThread.start();
+  }
+
+  public String getUrl() {
+    return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/image.jpg";
+  }
+
+  /** Gets the headers of the last request, by lower case name. */
+  public synchronized Map<String, String> getLastRequestHeaders() {
+    return mLastRequestHeaders;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mServerSocket.close();
+    try {
+      mThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void serve() {
+    while (true) {
+      try {
+        Socket socket = mServerSocket.accept();
+        try {
+          answer(socket);
+        } finally {
+          socket.close();
+        }
+      } catch (IOException e) {
+        // closed
+        return;
+      }
+    }
+  }
+
+  private void answer(Socket socket) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+    reader.readLine();
+    Map<String, String> headers = new HashMap<>();
+    String line;
+    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+      int colon = line.indexOf(':');
+      headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+    }
+    synchronized (this) {
+      mLastRequestHeaders = headers;
+    }
+    int offset = getRangeStart(headers);
+    StringBuilder response = new StringBuilder();
+    if (offset > 0) {
+      response.append("HTTP/1.1 206 Partial Content\r\n")
+          .append("Content-Range: bytes ").append(offset).append('-')
+          .append(mImage.length - 1).append('/').append(mImage.length).append("\r\n");
+    } else {
+      response.append("HTTP/1.1 200 OK\r\n");
+    }
+    response.append("ETag: ").append(mEntityTag).append("\r\n")
+        .append("Content-Length: ").append(mImage.length - offset).append("\r\n")
+        .append("Connection: close\r\n\r\n");
+    OutputStream os = socket.getOutputStream();
+    os.write(response.toString().getBytes("US-ASCII"));
+    os.write(mImage, offset, mImage.length - offset);
+    os.flush();
+  }
+
+  private int getRangeStart(Map<String, String> headers) {
+    String range = headers.get("range");
+    if (!mRangesSupported || range == null || !range.startsWith("bytes=") || !range.endsWith("-")) {
+      return 0;
+    }
+    String ifRange = headers.get("if-range");
+    if (ifRange != null && !ifRange.equals(mEntityTag)) {
+      return 0;
+    }
+    int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+    return offset < mImage.length ? offset : 0;
+  }
+}
@@ -12,16 +12,17 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.references.CloseableReference;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * Inspects values cached in bitmap memory cache.
  */
 public class CountingMemoryCacheInspector<K, V> {
-    private final CountingMemoryCache<K, V> mCountingBitmapCache;
+    private final AbstractCountingMemoryCache<K, V> mCountingBitmapCache;
 
-    public CountingMemoryCacheInspector(CountingMemoryCache<K, V> countingBitmapCache) {
+    public CountingMemoryCacheInspector(AbstractCountingMemoryCache<K, V> countingBitmapCache) {
         mCountingBitmapCache = countingBitmapCache;
     }
 
@@ -33,19 +34,19 @@ public class CountingMemoryCacheInspector<K, V> {
      */
     public DumpInfo dumpCacheContent() {
         synchronized (mCountingBitmapCache) {
-            DumpInfo<K, V> dumpInfo = new DumpInfo<>(mCountingBitmapCache.getSizeInBytes(), mCountingBitmapCache.getEvictionQueueSizeInBytes(),
-                    mCountingBitmapCache.mMemoryCacheParams);
-            final List<LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>>> cachedEntries = mCountingBitmapCache.mCachedEntries
-                    .getMatchingEntries(null);
-            for (LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>> cachedEntry : cachedEntries) {
-                CountingMemoryCache.Entry<K, V> entry = cachedEntry.getValue();
-                DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
-                if (entry.clientCount > 0) {
-                    dumpInfo.sharedEntries.add(dumpEntry);
-                } else {
-                    dumpInfo.lruEntries.add(dumpEntry);
+            final DumpInfo<K, V> dumpInfo = new DumpInfo<>(mCountingBitmapCache.getSizeInBytes(), mCountingBitmapCache
+                    .getEvictionQueueSizeInBytes(), mCountingBitmapCache.getMemoryCacheParams(), mCountingBitmapCache.getMissRatioCurve());
+            mCountingBitmapCache.forEachCachedEntry(new AbstractCountingMemoryCache.EntryVisitor<K, V>() {
+                @Override
+                public void visit(AbstractCountingMemoryCache.Entry<K, V> entry) {
+                    DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
+                    if (entry.clientCount > 0) {
+                        dumpInfo.sharedEntries.add(dumpEntry);
+                    } else {
+                        dumpInfo.lruEntries.add(dumpEntry);
+                    }
                 }
-            }
+            });
             return dumpInfo;
         }
     }
@@ -80,13 +81,20 @@ public class CountingMemoryCacheInspector<K, V> {
         public final int lruSize;
         public final List<DumpInfoEntry<K, V>> lruEntries;
         public final List<DumpInfoEntry<K, V>> sharedEntries;
+        // Estimated hit rates at other cache sizes, or null if not tracked.
+        @Nullable public final MissRatioCurve missRatioCurve;
 
         public DumpInfo(int size, int lruSize, MemoryCacheParams params) {
+            this(size, lruSize, params, null);
+        }
+
+        public DumpInfo(int size, int lruSize, MemoryCacheParams params, @Nullable MissRatioCurve missRatioCurve) {
             maxSize = params.maxCacheSize;
             maxEntriesCount = params.maxCacheEntries;
             maxEntrySize = params.maxCacheEntrySize;
             this.size = size;
             this.lruSize = lruSize;
+            this.missRatioCurve = missRatioCurve;
             lruEntries = new ArrayList<>();
             sharedEntries = new ArrayList<>();
         }
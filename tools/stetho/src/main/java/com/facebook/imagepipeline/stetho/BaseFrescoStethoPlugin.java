@@ -12,6 +12,7 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.disk.DiskStorage;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.imagepipeline.cache.CountingMemoryCacheInspector;
+import com.facebook.imagepipeline.cache.MissRatioCurve;
 import com.facebook.imagepipeline.core.ImagePipelineFactory;
 import com.facebook.imagepipeline.image.CloseableBitmap;
 import com.facebook.imagepipeline.image.CloseableImage;
@@ -233,6 +234,9 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
             writer.println(formatStrLocaleSafe("Shared size:       %7.2fMB", (dumpInfo.size - dumpInfo.lruSize) / (1024.0 * KB)));
             writer.println(formatStrLocaleSafe("Shared count:      %9d", dumpInfo.sharedEntries.size()));
             writer.println();
+            if (dumpInfo.missRatioCurve != null) {
+                writeMissRatioCurve(writer, dumpInfo.missRatioCurve, dumpInfo.maxSize);
+            }
             writer.println("The cache consists of two parts: Things " + "currently being used and things not.");
             writer.println("Those things that are *not* currently being used are in the LRU.");
             writer.println("Things currently being used are considered to be shared. They will be added");
@@ -257,6 +261,15 @@ public abstract class BaseFrescoStethoPlugin implements DumperPlugin {
         }
     }
 
+    private void writeMissRatioCurve(PrintStream writer, MissRatioCurve missRatioCurve, int maxSize) {
+        writer.println(formatStrLocaleSafe("Estimated hit rate at other max sizes (%d requests):", missRatioCurve.getRequestCount()));
+        for (float sizeRatio : missRatioCurve.getSizeRatios()) {
+            writer.println(formatStrLocaleSafe("%4.1fx (%7.2fMB):  %6.2f%%", sizeRatio, sizeRatio * maxSize / (1024.0 * KB), 100 *
+                    missRatioCurve.getEstimatedHitRate(sizeRatio)));
+        }
+        writer.println();
+    }
+
     private void getFiles(PrintStream writer, CountingMemoryCacheInspector.DumpInfo<CacheKey, CloseableImage> dumpInfo) throws DumpException,
             IOException {
         writer.println("\nStoring all images in the memory cache into /sdcard/imagedumperfiles/ ...");